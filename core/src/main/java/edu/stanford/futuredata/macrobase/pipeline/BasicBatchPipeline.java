@@ -163,6 +163,10 @@ public class BasicBatchPipeline implements Pipeline {
 
         }
         requiredColumns.add(metric);
+        // Attributes are only compared and encoded, so each distinct value is stored once
+        for (String attribute : attributes) {
+            colTypes.putIfAbsent(attribute, Schema.ColType.DICTIONARY);
+        }
         return PipelineUtils.loadDataFrame(inputURI, colTypes, requiredColumns);
     }
 
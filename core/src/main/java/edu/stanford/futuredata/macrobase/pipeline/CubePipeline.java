@@ -96,6 +96,10 @@ public class CubePipeline implements Pipeline {
 
     public APLExplanation results() throws Exception {
         Map<String, Schema.ColType> colTypes = getColTypes();
+        // Attributes are only compared and encoded, so each distinct value is stored once
+        for (String attribute : attributes) {
+            colTypes.putIfAbsent(attribute, Schema.ColType.DICTIONARY);
+        }
         long startTime = System.currentTimeMillis();
         final List<String> requiredColumns = new ArrayList<>(attributes);
         requiredColumns.add(countColumn);
@@ -109,7 +113,8 @@ public class CubePipeline implements Pipeline {
             restHeader,
             jsonBody,
             usePost,
-            requiredColumns
+            requiredColumns,
+            numThreads
         );
         long elapsed = System.currentTimeMillis() - startTime;
         log.info("Loading time: {} ms", elapsed);
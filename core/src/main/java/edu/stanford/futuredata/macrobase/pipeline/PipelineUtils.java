@@ -4,7 +4,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.datamodel.Schema;
 import edu.stanford.futuredata.macrobase.ingest.CSVDataFrameParser;
+import edu.stanford.futuredata.macrobase.ingest.ColumnarDataFrameLoader;
+import edu.stanford.futuredata.macrobase.ingest.DataFrameLoader;
+import edu.stanford.futuredata.macrobase.ingest.ParallelCSVDataFrameParser;
 import edu.stanford.futuredata.macrobase.ingest.RESTDataFrameLoader;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 
 import java.util.Map;
@@ -29,10 +33,41 @@ public class PipelineUtils {
             Map<String, Object> jsonBody,
             boolean usePost,
             List<String> requiredColumns
+    ) throws Exception {
+        return PipelineUtils.loadDataFrame(
+                inputURI, colTypes, restHeader, jsonBody, usePost,
+                requiredColumns, 1
+        );
+    }
+
+    /**
+     * @param numThreads Number of threads to parse CSV files with.
+     */
+    public static DataFrame loadDataFrame(
+            String inputURI,
+            Map<String, Schema.ColType> colTypes,
+            Map<String, String> restHeader,
+            Map<String, Object> jsonBody,
+            boolean usePost,
+            List<String> requiredColumns,
+            int numThreads
     ) throws Exception {
         if(inputURI.startsWith("csv")) {
             // take off "csv://" from inputURI
-            CSVDataFrameParser loader = new CSVDataFrameParser(inputURI.substring(6), requiredColumns);
+            String filename = inputURI.substring(6);
+            DataFrameLoader loader;
+            if (numThreads > 1) {
+                loader = new ParallelCSVDataFrameParser(filename, requiredColumns)
+                        .setExecutor(ForkJoinUtils.getSharedPool(numThreads));
+            } else {
+                loader = new CSVDataFrameParser(filename, requiredColumns);
+            }
+            loader.setColumnTypes(colTypes);
+            DataFrame df = loader.load();
+            return df;
+        } else if (inputURI.startsWith("columnar")) {
+            // take off "columnar://" from inputURI
+            ColumnarDataFrameLoader loader = new ColumnarDataFrameLoader(inputURI.substring(11), requiredColumns);
             loader.setColumnTypes(colTypes);
             DataFrame df = loader.load();
             return df;
@@ -0,0 +1,53 @@
+package edu.stanford.futuredata.macrobase.analysis;
+
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The UDFs that ship with MacroBase:
+ * <ul>
+ * <li><tt>normalize(col)</tt>: the values of a double column, scaled to [0, 1]</li>
+ * <li><tt>percentile(col)</tt>: the percentile of each value of a double column</li>
+ * <li><tt>divide(numerator_col, denominator_col)</tt>: the ratio of two double columns</li>
+ * <li><tt>indicator(col, 'value')</tt>: 1.0 for the rows of a string column equal to the value,
+ * 0.0 otherwise</li>
+ * </ul>
+ */
+public class BuiltinFunctionFactory implements MBFunctionFactory {
+
+    @Override
+    public List<String> getNames() {
+        return Arrays.asList("normalize", "percentile", "divide", "indicator");
+    }
+
+    @Override
+    public MBFunction create(final String name, final List<String> args)
+        throws MacroBaseException {
+        switch (name) {
+            case "normalize":
+                checkNumArgs(name, args, 1);
+                return new NormalizeFunction(args.get(0));
+            case "percentile":
+                checkNumArgs(name, args, 1);
+                return new PercentileFucntion(args.get(0));
+            case "divide":
+                checkNumArgs(name, args, 2);
+                return new DivideFunction(args);
+            case "indicator":
+                checkNumArgs(name, args, 2);
+                return new IndicatorFunction(args);
+            default:
+                throw new MacroBaseException("Bad MBFunction Type: " + name);
+        }
+    }
+
+    private static void checkNumArgs(final String name, final List<String> args,
+        final int numArgs) throws MacroBaseException {
+        if (args.size() != numArgs) {
+            throw new MacroBaseException(
+                "MBFunction Type " + name + " incompatible with args " + args + ": expected "
+                    + numArgs + " argument" + (numArgs == 1 ? "" : "s"));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package edu.stanford.futuredata.macrobase.analysis;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An MBFunction of a single double column, named by its only argument. By default the function is
+ * evaluated on the calling thread with {@link #applyFunction(double[], double[])}.
+ */
+public abstract class ColumnFunction extends MBFunction {
+
+    // The column the function is applied to
+    protected final String columnName;
+
+    /**
+     * @param columnName The column to apply the function on
+     */
+    protected ColumnFunction(String columnName) {
+        super(columnName);
+        this.columnName = columnName;
+    }
+
+    /**
+     * Evaluate the function on the values of the column
+     *
+     * @param inputCol The values of the column, which must not be modified
+     * @param outputCol The values of the function, one per row
+     */
+    protected abstract void applyFunction(double[] inputCol, double[] outputCol);
+
+    @Override
+    protected void applyFunction(final DataFrame df, final double[] outputCol,
+        final ForkJoinPool executor) throws MacroBaseException {
+        applyFunction(getDoubleColumn(df, columnName), outputCol);
+    }
+}
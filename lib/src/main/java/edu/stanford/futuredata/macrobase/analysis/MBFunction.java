@@ -1,97 +1,245 @@
 package edu.stanford.futuredata.macrobase.analysis;
 
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema.ColType;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
-import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * MBFunction defines an interface for UDF-style functions that can be applied to a column of a
- * DataFrame on a per-row basis, thus generating a new column as output. Two limitations for now: 1)
- * MBFunctions only take in a single column as an argument; multi-column UDFs are not supported. 2)
- * MBFunctions only operate on columns of type double.
+ * MBFunction defines an interface for UDF-style functions that are applied to the columns of a
+ * DataFrame, generating a new double column as output. The arguments of a function are column
+ * names or constants, e.g. the value of a string literal.
  *
- * To implement a particular UDF (e.g., to normalize values in a column between 0 and 1), subclass
- * MBFunction and implement {@link MBFunction#applyFunction(double[], double[])}. See {@link
- * NormalizeFunction} for an example.
+ * To implement a UDF of a single double column (e.g., to normalize values in a column between 0
+ * and 1), subclass {@link ColumnFunction}. See {@link NormalizeFunction} for an example. UDFs
+ * whose output rows each depend only on the same input row can subclass {@link RowFunction},
+ * which evaluates ranges of rows in parallel, and other UDFs implement {@link
+ * MBFunction#applyFunction(DataFrame, double[], ForkJoinPool)}.
  *
- * NOTE: All subclasses of MBFunction should include a construct that takes in a single String as
- * its sole argument; that String should be the column name that determines which column the
- * function will be applied on. (This is necessary for instantiating an MBFunction via the Java
- * Reflection API---all subclasses of MBFunction need to share the same set of arguments for
- * Exceptions to be avoided. If, in the future, MBFunction subclasses need additional arguments,
- * then a List-of-Strings approach will need to be used.)
+ * Functions are created by the {@link MBFunctionFactory}s on the classpath, found with {@link
+ * ServiceLoader}, and the most recently used ones are cached per name and arguments, so they
+ * must be stateless.
  */
 public abstract class MBFunction {
 
-    protected final String columnName;
+    private static final Logger log = LoggerFactory.getLogger(MBFunction.class);
+    // Smallest range of rows worth evaluating as a separate task
+    private static final int MIN_ROWS_PER_TASK = 1 << 14;
+    // Most functions kept in the cache, since every distinct constant argument makes a new one
+    private static final int MAX_CACHED_FUNCTIONS = 1024;
+    // Functions created most recently used last, keyed by their lower-case name followed by their
+    // arguments
+    private static final Map<List<String>, MBFunction> functions = Collections.synchronizedMap(
+        new LinkedHashMap<List<String>, MBFunction>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, MBFunction> eldest) {
+                return size() > MAX_CACHED_FUNCTIONS;
+            }
+        });
+
+    protected final List<String> args;
 
     /**
-     * This constructor should be used by subclasses to properly initialize the column for the
-     * function
+     * This constructor should be used by subclasses that take a single argument
      *
-     * @param columnName The column to apply the function on
+     * @param arg The argument of the function
      */
-    protected MBFunction(String columnName) {
-        this.columnName = columnName;
+    protected MBFunction(String arg) {
+        this(Collections.singletonList(arg));
     }
 
     /**
-     * This method needs to be implemented in any subclass of MBFunction.
+     * @param args The arguments of the function, column names or constants
+     */
+    protected MBFunction(List<String> args) {
+        this.args = Collections.unmodifiableList(new ArrayList<>(args));
+    }
+
+    /**
+     * Evaluate the function on every row of the DataFrame.
      *
-     * @param inputCol The values of the
+     * @param executor Pool to evaluate the function on in parallel, or null to evaluate it on the
+     * calling thread
+     * @throws MacroBaseException If the arguments don't match the columns of the DataFrame
      */
-    protected abstract void applyFunction(final double[] inputCol, final double[] outputCol);
+    protected abstract void applyFunction(DataFrame df, double[] outputCol, ForkJoinPool executor)
+        throws MacroBaseException;
 
     /**
      * Call this method to to invoke the function and generate the output column that results from
      * applying it on the DataFrame
      *
-     * @throws MacroBaseException If the column name (specified in the constructor of the
-     * MBFunction) isn't present in the DataFrame, an exception is thrown.
+     * @throws MacroBaseException If a column named by the arguments of the function isn't present
+     * in the DataFrame, an exception is thrown.
      */
     public final double[] apply(final DataFrame df) throws MacroBaseException {
-        if (!df.hasColumn(columnName)) {
-            throw new MacroBaseException(columnName + " not present in DataFrame");
-        }
+        return apply(df, null);
+    }
+
+    /**
+     * Apply the function to the DataFrame, evaluating it in parallel on the pool
+     *
+     * @param executor Pool to evaluate the function on, or null to evaluate it on the calling
+     * thread
+     * @throws MacroBaseException If a column named by the arguments of the function isn't present
+     * in the DataFrame, an exception is thrown.
+     */
+    public final double[] apply(final DataFrame df, final ForkJoinPool executor)
+        throws MacroBaseException {
         final double[] outputCol = new double[df.getNumRows()];
-        this.applyFunction(df.getDoubleColumnByName(columnName), outputCol);
+        applyFunction(df, outputCol, executor);
         return outputCol;
     }
 
     /**
-     * This method instantiates a given MBFunction given only the name of the function and the
-     * argument for that function, which must be a single String (the column name). For example, to
-     * instantiate a {@link NormalizeFunction}, on the column `attery_drain`, the {@param funcName}
-     * would be "normalize"  (or "NORMALIZE"---the funcName is case-agnostic), and the {@param arg}
-     * would be "battery_drain".
+     * @throws MacroBaseException If the DataFrame has no double column of that name
+     */
+    protected static double[] getDoubleColumn(final DataFrame df, final String colName)
+        throws MacroBaseException {
+        if (!df.hasColumn(colName)) {
+            throw new MacroBaseException(colName + " not present in DataFrame");
+        }
+        if (df.getSchema().getColumnTypeByName(colName) != ColType.DOUBLE) {
+            throw new MacroBaseException(colName + " is not a column of doubles");
+        }
+        return df.getDoubleColumnByName(colName);
+    }
+
+    /**
+     * @throws MacroBaseException If the DataFrame has no string column of that name
+     */
+    protected static String[] getStringColumn(final DataFrame df, final String colName)
+        throws MacroBaseException {
+        if (!df.hasColumn(colName)) {
+            throw new MacroBaseException(colName + " not present in DataFrame");
+        }
+        if (df.getSchema().getColumnTypeByName(colName) == ColType.DOUBLE) {
+            throw new MacroBaseException(colName + " is not a column of strings");
+        }
+        return df.getStringColumnByName(colName);
+    }
+
+    /**
+     * A body of work over a range of rows
+     */
+    @FunctionalInterface
+    protected interface RowRange {
+
+        /**
+         * @param from First row of the range
+         * @param to Row after the last row of the range
+         * @param range Index of the range, from 0
+         */
+        void apply(int from, int to, int range);
+    }
+
+    /**
+     * @return The number of ranges {@link #forEachRange} splits the rows into
+     */
+    protected static int getNumRanges(final int numRows, final ForkJoinPool executor) {
+        if (executor == null) {
+            return 1;
+        }
+        return Math.max(1, Math.min(4 * executor.getParallelism(), numRows / MIN_ROWS_PER_TASK));
+    }
+
+    /**
+     * Split the rows into {@link #getNumRanges} contiguous ranges of about the same size and run
+     * the body on each, in parallel on the pool if there is more than one.
+     */
+    protected static void forEachRange(final int numRows, final ForkJoinPool executor,
+        final RowRange body) {
+        final int numRanges = getNumRanges(numRows, executor);
+        if (numRanges == 1) {
+            body.apply(0, numRows, 0);
+            return;
+        }
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(numRanges);
+        for (int r = 0; r < numRanges; r++) {
+            final int range = r;
+            final int from = (int) ((long) numRows * r / numRanges);
+            final int to = (int) ((long) numRows * (r + 1) / numRanges);
+            tasks.add(ForkJoinTask.adapt(() -> body.apply(from, to, range)));
+        }
+        ForkJoinUtils.runAll(executor, tasks);
+    }
+
+    /**
+     * This method returns the MBFunction of a given function name and a single argument, the column
+     * name. For example, to get a {@link NormalizeFunction} on the column `battery_drain`, the
+     * {@param funcName} would be "normalize" (or "NORMALIZE"---the funcName is case-agnostic), and
+     * the {@param arg} would be "battery_drain".
      *
      * @throws MacroBaseException If there's an error instantiating the MBFunction (usually due to
-     * incorrect arguments or improperly defined subclasses), an exception is thrown.
+     * incorrect arguments or an unknown function name), an exception is thrown.
      */
     public static MBFunction getFunction(String funcName, String arg)
         throws MacroBaseException {
-        Class<? extends MBFunction> clazz;
-        switch (funcName.toLowerCase()) {
-            case "normalize": {
-                clazz = NormalizeFunction.class;
-                break;
-            }
-            case "percentile": {
-                clazz = PercentileFucntion.class;
-                break;
-            }
-            default: {
-                throw new MacroBaseException("Bad MBFunction Type: " + funcName);
-            }
+        return getFunction(funcName, Collections.singletonList(arg));
+    }
+
+    /**
+     * This method returns the MBFunction of a given function name and arguments, created by the
+     * {@link MBFunctionFactory} registered for that name the first time it's called with those
+     * arguments and shared while it stays among the most recently used functions.
+     *
+     * @param args Column names or constants
+     * @throws MacroBaseException If there's an error instantiating the MBFunction (usually due to
+     * incorrect arguments or an unknown function name), an exception is thrown.
+     */
+    public static MBFunction getFunction(String funcName, List<String> args)
+        throws MacroBaseException {
+        final String name = funcName.toLowerCase();
+        final List<String> key = new ArrayList<>(args.size() + 1);
+        key.add(name);
+        key.addAll(args);
+        final MBFunction cached = functions.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final MBFunctionFactory factory = Registry.factories.get(name);
+        if (factory == null) {
+            throw new MacroBaseException("Bad MBFunction Type: " + funcName);
         }
-        try {
-            return clazz.getConstructor(String.class).newInstance(arg);
-        } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException e) {
-            throw new MacroBaseException(
-                "MBFunction Type " + funcName + " incompatible with args (" + arg + ")");
+        final MBFunction function = factory.create(name, args);
+        final MBFunction previous = functions.putIfAbsent(key, function);
+        return previous != null ? previous : function;
+    }
+
+    /**
+     * The factories of every UDF on the classpath, loaded the first time a function is needed
+     */
+    private static class Registry {
+
+        static final Map<String, MBFunctionFactory> factories = load();
+
+        private static Map<String, MBFunctionFactory> load() {
+            final Map<String, MBFunctionFactory> factories = new HashMap<>();
+            for (MBFunctionFactory factory : ServiceLoader.load(MBFunctionFactory.class,
+                MBFunction.class.getClassLoader())) {
+                for (String name : factory.getNames()) {
+                    final MBFunctionFactory previous = factories
+                        .putIfAbsent(name.toLowerCase(), factory);
+                    if (previous != null) {
+                        log.warn("UDF {} of {} is already defined by {}", name,
+                            factory.getClass().getName(), previous.getClass().getName());
+                    }
+                }
+            }
+            log.debug("Loaded UDFs {}", factories.keySet());
+            return factories;
         }
     }
 }
@@ -99,7 +247,7 @@ public abstract class MBFunction {
 /**
  * An MBFunction that normalizes all values in a column to be between 0 and 1.
  */
-class NormalizeFunction extends MBFunction {
+class NormalizeFunction extends ColumnFunction {
 
     /**
      * @param arg The column name
@@ -114,23 +262,54 @@ class NormalizeFunction extends MBFunction {
      */
     @Override
     protected void applyFunction(final double[] inputCol, final double[] outputCol) {
-        final double max = Arrays.stream(inputCol).max().getAsDouble();
+        normalize(inputCol, outputCol, null);
+    }
+
+    @Override
+    protected void applyFunction(final DataFrame df, final double[] outputCol,
+        final ForkJoinPool executor) throws MacroBaseException {
+        normalize(getDoubleColumn(df, columnName), outputCol, executor);
+    }
+
+    private static void normalize(final double[] inputCol, final double[] outputCol,
+        final ForkJoinPool executor) {
+        if (inputCol.length == 0) {
+            return;
+        }
+        // min and max of each range, then of the column
+        final int numRanges = getNumRanges(inputCol.length, executor);
+        final double[] mins = new double[numRanges];
+        final double[] maxs = new double[numRanges];
+        forEachRange(inputCol.length, executor, (from, to, range) -> {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; ++i) {
+                min = Math.min(min, inputCol[i]);
+                max = Math.max(max, inputCol[i]);
+            }
+            mins[range] = min;
+            maxs[range] = max;
+        });
+        final double max = Arrays.stream(maxs).max().getAsDouble();
         // if negative values are in the array, shift everything so that it's positive
-        final double arrayMin = Arrays.stream(inputCol).min().getAsDouble();
+        final double arrayMin = Arrays.stream(mins).min().getAsDouble();
         final double offset = arrayMin > 0.0 ? 0.0 : -arrayMin;
         final double norm = max + offset;
-        for (int i = 0; i < inputCol.length; ++i) {
-            outputCol[i] = (inputCol[i] + offset) / norm;
-        }
+        forEachRange(inputCol.length, executor, (from, to, range) -> {
+            for (int i = from; i < to; ++i) {
+                outputCol[i] = (inputCol[i] + offset) / norm;
+            }
+        });
     }
 }
 
 /**
  * An MBFunction that finds the percentile for each individual value in a given column. For example,
  * for a column with values [0.1, 0.3, 0.2, 0.5, 0.4], applying the PercentileFunction would
- * generate [0.2, 0.6, 0.4, 1.0, 0.8].
+ * generate [0.2, 0.6, 0.4, 1.0, 0.8]. Equal values share the percentile of the first of them in
+ * sorted order.
  */
-class PercentileFucntion extends MBFunction {
+class PercentileFucntion extends ColumnFunction {
 
     /**
      * @param arg The column name
@@ -145,17 +324,105 @@ class PercentileFucntion extends MBFunction {
      */
     @Override
     protected void applyFunction(final double[] inputCol, final double[] outputCol) {
-        // sort the column, and, for each value in the column, store the *min* position in the sorted array
-        final double[] sortedInputCol = Arrays.stream(inputCol).sorted().toArray();
-        final Map<Double, Integer> map = new HashMap<>();
-        for (int i = sortedInputCol.length - 1; i >= 0; --i) {
-            // increment by one so that the max value has 100th percentile
-            map.put(sortedInputCol[i], i + 1);
+        final double[] sortedInputCol = inputCol.clone();
+        Arrays.sort(sortedInputCol);
+        rank(inputCol, sortedInputCol, 0, inputCol.length, outputCol);
+    }
+
+    @Override
+    protected void applyFunction(final DataFrame df, final double[] outputCol,
+        final ForkJoinPool executor) throws MacroBaseException {
+        final double[] inputCol = getDoubleColumn(df, columnName);
+        if (getNumRanges(inputCol.length, executor) == 1) {
+            applyFunction(inputCol, outputCol);
+            return;
         }
+        final double[] sortedInputCol = inputCol.clone();
+        // parallelSort forks its tasks on the pool of the thread that calls it
+        executor.invoke(ForkJoinTask.adapt(() -> Arrays.parallelSort(sortedInputCol)));
+        forEachRange(inputCol.length, executor,
+            (from, to, range) -> rank(inputCol, sortedInputCol, from, to, outputCol));
+    }
+
+    /**
+     * For each value in [from, to), find the *min* position of the value in the sorted column by
+     * binary search
+     */
+    private static void rank(final double[] inputCol, final double[] sortedInputCol,
+        final int from, final int to, final double[] outputCol) {
         // normalize the position for each value by the size of the column
         final double norm = inputCol.length;
-        for (int i = 0; i < inputCol.length; ++i) {
-            outputCol[i] = map.get(inputCol[i]) / norm;
+        for (int i = from; i < to; ++i) {
+            final double value = inputCol[i];
+            int low = 0;
+            int high = sortedInputCol.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (Double.compare(sortedInputCol[mid], value) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            // increment by one so that the max value has 100th percentile
+            outputCol[i] = (low + 1) / norm;
+        }
+    }
+}
+
+/**
+ * An MBFunction of two double columns that divides the first by the second.
+ */
+class DivideFunction extends RowFunction {
+
+    /**
+     * @param args The numerator column and the denominator column
+     */
+    public DivideFunction(final List<String> args) {
+        super(args);
+    }
+
+    @Override
+    protected Object[] getColumns(final DataFrame df) throws MacroBaseException {
+        return new Object[]{getDoubleColumn(df, args.get(0)), getDoubleColumn(df, args.get(1))};
+    }
+
+    @Override
+    protected void applyRows(final Object[] columns, final int from, final int to,
+        final double[] outputCol) {
+        final double[] numerators = (double[]) columns[0];
+        final double[] denominators = (double[]) columns[1];
+        for (int i = from; i < to; ++i) {
+            outputCol[i] = numerators[i] / denominators[i];
+        }
+    }
+}
+
+/**
+ * An MBFunction of a string column and a string constant that is 1.0 for the rows where the column
+ * equals the constant, and 0.0 otherwise.
+ */
+class IndicatorFunction extends RowFunction {
+
+    /**
+     * @param args The column and the value to compare it to
+     */
+    public IndicatorFunction(final List<String> args) {
+        super(args);
+    }
+
+    @Override
+    protected Object[] getColumns(final DataFrame df) throws MacroBaseException {
+        return new Object[]{getStringColumn(df, args.get(0))};
+    }
+
+    @Override
+    protected void applyRows(final Object[] columns, final int from, final int to,
+        final double[] outputCol) {
+        final String[] values = (String[]) columns[0];
+        final String value = args.get(1);
+        for (int i = from; i < to; ++i) {
+            outputCol[i] = value.equals(values[i]) ? 1.0 : 0.0;
         }
     }
 }
@@ -0,0 +1,30 @@
+package edu.stanford.futuredata.macrobase.analysis;
+
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import java.util.List;
+
+/**
+ * Creates the {@link MBFunction}s of one or more UDFs. Factories are found with {@link
+ * java.util.ServiceLoader}: to add UDFs, implement this interface in a class with a public no-arg
+ * constructor and list it in a
+ * <tt>META-INF/services/edu.stanford.futuredata.macrobase.analysis.MBFunctionFactory</tt> file on
+ * the classpath. See {@link BuiltinFunctionFactory} for the UDFs that ship with MacroBase.
+ */
+public interface MBFunctionFactory {
+
+    /**
+     * @return The names of the functions this factory creates, in lower case
+     */
+    List<String> getNames();
+
+    /**
+     * Functions are cached and shared by every query that calls them with the same arguments, so
+     * they must not keep any state between calls to {@link MBFunction#apply}.
+     *
+     * @param name One of {@link #getNames()}
+     * @param args The arguments of the call: column names or constants, e.g. the unquoted value of
+     * a string literal
+     * @throws MacroBaseException If the arguments are invalid for the function
+     */
+    MBFunction create(String name, List<String> args) throws MacroBaseException;
+}
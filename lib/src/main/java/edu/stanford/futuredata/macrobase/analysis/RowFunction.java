@@ -0,0 +1,37 @@
+package edu.stanford.futuredata.macrobase.analysis;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An MBFunction whose output for a row only depends on the input columns at that row, evaluated
+ * in independent ranges of rows.
+ */
+public abstract class RowFunction extends MBFunction {
+
+    protected RowFunction(List<String> args) {
+        super(args);
+    }
+
+    /**
+     * Columns of the DataFrame the function reads, passed to {@link #applyRows}
+     *
+     * @throws MacroBaseException If the arguments don't match the columns of the DataFrame
+     */
+    protected abstract Object[] getColumns(DataFrame df) throws MacroBaseException;
+
+    /**
+     * Evaluate the function on the rows [from, to)
+     */
+    protected abstract void applyRows(Object[] columns, int from, int to, double[] outputCol);
+
+    @Override
+    protected void applyFunction(final DataFrame df, final double[] outputCol,
+        final ForkJoinPool executor) throws MacroBaseException {
+        final Object[] columns = getColumns(df);
+        forEachRange(outputCol.length, executor,
+            (from, to, range) -> applyRows(columns, from, to, outputCol));
+    }
+}
@@ -39,6 +39,10 @@ public abstract class BatchSummarizer implements Operator<DataFrame, Explanation
         return this;
     }
 
+    public List<String> getAttributes() {
+        return attributes;
+    }
+
     /**
      * Set the column which indicates outlier status. "_OUTLIER" by default.
      *
@@ -76,11 +80,14 @@ public abstract class BatchSummarizer implements Operator<DataFrame, Explanation
     }
 
     public BatchSummarizer setMaxOrder(final int maxOrder) throws MacroBaseException {
-        if (maxOrder < 1 || maxOrder > 3) {
-            throw new MacroBaseException("Max Order " + maxOrder +
-                " cannot be less than 1 or greater than 3");
+        if (maxOrder < 1) {
+            throw new MacroBaseException("Max Order " + maxOrder + " cannot be less than 1");
         }
         this.maxOrder = maxOrder;
         return this;
     }
+
+    public int getMaxOrder() {
+        return maxOrder;
+    }
 }
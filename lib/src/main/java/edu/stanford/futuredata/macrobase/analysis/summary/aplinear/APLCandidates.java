@@ -0,0 +1,85 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.EncodedTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateTable;
+
+import java.util.Map;
+
+/**
+ * The encoded attributes of a summarizer's input together with the aggregates of every
+ * candidate that passes its monotonic quality metrics, up to some order.  Explaining them
+ * again under other thresholds for the remaining metrics does not touch the input rows.
+ */
+public class APLCandidates {
+    private final AttributeEncoder encoder;
+    private final EncodedTable encoded;
+    private final double[][] aggregateColumns;
+    private final double[] globalAggregates;
+    private final long numEvents;
+    private final long numOutliers;
+    private final int maxOrder;
+    private final Map<Integer, LongAggregateTable> candidates;
+
+    APLCandidates(AttributeEncoder encoder, EncodedTable encoded, double[][] aggregateColumns,
+                  double[] globalAggregates, long numEvents, long numOutliers, int maxOrder,
+                  Map<Integer, LongAggregateTable> candidates) {
+        this.encoder = encoder;
+        this.encoded = encoded;
+        this.aggregateColumns = aggregateColumns;
+        this.globalAggregates = globalAggregates;
+        this.numEvents = numEvents;
+        this.numOutliers = numOutliers;
+        this.maxOrder = maxOrder;
+        this.candidates = candidates;
+    }
+
+    /**
+     * @return Approximate number of bytes held by the encoded rows and the candidate tables.
+     */
+    public long getMemoryBytes() {
+        long bytes = 4L * encoded.getNumColumns() * encoded.getNumRows();
+        for (double[] column : aggregateColumns) {
+            bytes += 8L * column.length;
+        }
+        for (LongAggregateTable table : candidates.values()) {
+            bytes += 8L * table.getCapacity() * (table.getKeyWidth() + table.getNumAggregates());
+        }
+        return bytes;
+    }
+
+    AttributeEncoder getEncoder() {
+        return encoder;
+    }
+
+    EncodedTable getEncoded() {
+        return encoded;
+    }
+
+    double[][] getAggregateColumns() {
+        return aggregateColumns;
+    }
+
+    double[] getGlobalAggregates() {
+        return globalAggregates;
+    }
+
+    long getNumEvents() {
+        return numEvents;
+    }
+
+    long getNumOutliers() {
+        return numOutliers;
+    }
+
+    /**
+     * @return The highest order the candidates were counted to.
+     */
+    public int getMaxOrder() {
+        return maxOrder;
+    }
+
+    Map<Integer, LongAggregateTable> getCandidates() {
+        return candidates;
+    }
+}
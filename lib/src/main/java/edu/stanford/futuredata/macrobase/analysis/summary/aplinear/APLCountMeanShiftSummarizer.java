@@ -1,6 +1,7 @@
 package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
 
 import edu.stanford.futuredata.macrobase.analysis.classify.CountMeanShiftCubedClassifier;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.EncodedTable;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.MeanShiftQualityMetric;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
@@ -36,8 +37,8 @@ public class APLCountMeanShiftSummarizer  extends APLSummarizer {
     }
 
     @Override
-    public int[][] getEncoded(List<String[]> columns, DataFrame input) {
-        return encoder.encodeAttributesAsArray(columns);
+    public EncodedTable getEncoded(DataFrame input) {
+        return encoder.encodeColumns(input, attributes);
     }
 
     @Override
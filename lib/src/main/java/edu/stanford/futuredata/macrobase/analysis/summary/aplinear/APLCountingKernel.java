@@ -0,0 +1,152 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSetPacker;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.util.MacroBaseInternalError;
+
+/**
+ * Counts the aggregates of candidate attribute sets into a {@link LongAggregateTable}.
+ * Rows are processed in blocks: first the candidate keys of a block are packed by an
+ * {@link IntSetPacker}, then each key is probed once, and finally each aggregate column is
+ * added up in its own tight loop so that the aggregation op is resolved once per block
+ * instead of once per value.
+ * A kernel reuses its block buffers and is not thread-safe, so use one per thread.
+ */
+class APLCountingKernel {
+    static final int blockSize = 1024;
+
+    private final double[][] aggregateColumns;
+    private final AggregationOp[] aggregationOps;
+    private final int numAggregates;
+    private final IntSetPacker packer;
+
+    // Per-block scratch space, reused across blocks so that counting never allocates.
+    private long[] blockKeys = new long[blockSize];
+    private final int[] blockRows = new int[blockSize];
+    private final int[] blockOffsets = new int[blockSize];
+
+    APLCountingKernel(double[][] aggregateColumns, AggregationOp[] aggregationOps, IntSetPacker packer) {
+        this.aggregateColumns = aggregateColumns;
+        this.aggregationOps = aggregationOps;
+        this.numAggregates = aggregationOps.length;
+        this.packer = packer;
+    }
+
+    /**
+     * Count the candidates formed by the values of a combination of columns in a range of rows.
+     * Rows where some value lacks minimum support never form a candidate.
+     * @param columns Encoded attribute columns of the combination, in column order.
+     * @param singleNext Singletons which may be part of a higher-order candidate,
+     *                   or null to skip this check.
+     * @param prefixes Surviving sets formed by the values of all but the last column,
+     *                 or null to skip this check.
+     * @param rowOffset Offset from an index in the attribute columns to a row in the aggregate columns.
+     * @param start First index of the range in the attribute columns.
+     * @param end Index one past the end of the range in the attribute columns.
+     * @param table Table to count into, with keys as wide as the candidates.
+     */
+    void count(int[][] columns, boolean[] singleNext, LongAggregateTable prefixes,
+               int rowOffset, int start, int end, LongAggregateTable table) {
+        final int order = columns.length;
+        final int width = packer.getWidth(order);
+        if (blockKeys.length < blockSize * width) {
+            blockKeys = new long[blockSize * width];
+        }
+        final int[] words = new int[order];
+        final int[] shifts = new int[order];
+        for (int c = 0; c < order; c++) {
+            words[c] = packer.wordOf(c);
+            shifts[c] = packer.shiftOf(c);
+        }
+        final long[] keys = blockKeys;
+        for (int blockStart = start; blockStart < end; blockStart += blockSize) {
+            int blockEnd = Math.min(end, blockStart + blockSize);
+            int numKeys = 0;
+            if (width == 1) {
+                // Common case: build the key in a register.
+                rows:
+                for (int i = blockStart; i < blockEnd; i++) {
+                    long key = 0;
+                    for (int c = 0; c < order; c++) {
+                        int a = columns[c][i];
+                        if (a == AttributeEncoder.noSupport || (singleNext != null && !singleNext[a]))
+                            continue rows;
+                        // Only extend prefixes that survived the previous order.
+                        if (c == order - 1 && prefixes != null && prefixes.find(key) < 0)
+                            continue rows;
+                        key |= ((long) a) << shifts[c];
+                    }
+                    keys[numKeys] = key;
+                    blockRows[numKeys] = i + rowOffset;
+                    numKeys++;
+                }
+            } else {
+                rows:
+                for (int i = blockStart; i < blockEnd; i++) {
+                    int keyOffset = numKeys * width;
+                    for (int w = 0; w < width; w++) {
+                        keys[keyOffset + w] = 0;
+                    }
+                    for (int c = 0; c < order; c++) {
+                        int a = columns[c][i];
+                        if (a == AttributeEncoder.noSupport || (singleNext != null && !singleNext[a]))
+                            continue rows;
+                        if (c == order - 1 && prefixes != null && prefixes.find(keys, keyOffset) < 0)
+                            continue rows;
+                        keys[keyOffset + words[c]] |= ((long) a) << shifts[c];
+                    }
+                    blockRows[numKeys] = i + rowOffset;
+                    numKeys++;
+                }
+            }
+            accumulate(numKeys, width, table);
+        }
+    }
+
+    /**
+     * Add the aggregates of the rows collected in the current block to their candidates.
+     */
+    private void accumulate(int numKeys, int width, LongAggregateTable table) {
+        if (numKeys == 0) {
+            return;
+        }
+        // Reserve room up front so the slots found below stay valid for the whole block.
+        table.ensureCapacity(numKeys);
+        for (int i = 0; i < numKeys; i++) {
+            blockOffsets[i] = table.findOrInsert(blockKeys, i * width) * numAggregates;
+        }
+        double[] values = table.getValues();
+        for (int a = 0; a < numAggregates; a++) {
+            double[] column = aggregateColumns[a];
+            switch (aggregationOps[a]) {
+                case SUM: {
+                    for (int i = 0; i < numKeys; i++) {
+                        values[blockOffsets[i] + a] += column[blockRows[i]];
+                    }
+                    break;
+                }
+                case MIN: {
+                    for (int i = 0; i < numKeys; i++) {
+                        int index = blockOffsets[i] + a;
+                        double v = column[blockRows[i]];
+                        values[index] = values[index] < v ? values[index] : v;
+                    }
+                    break;
+                }
+                case MAX: {
+                    for (int i = 0; i < numKeys; i++) {
+                        int index = blockOffsets[i] + a;
+                        double v = column[blockRows[i]];
+                        values[index] = values[index] > v ? values[index] : v;
+                    }
+                    break;
+                }
+                default: {
+                    throw new MacroBaseInternalError("Invalid Aggregation Op");
+                }
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.Qu
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -19,6 +20,8 @@ public class APLExplanation implements Explanation {
 
     private ArrayList<QualityMetric> metrics;
     private ArrayList<APLExplanationResult> results;
+    // Extra per-result columns, e.g. error bounds, in the order they were added
+    private LinkedHashMap<String, double[]> resultColumns = new LinkedHashMap<>();
 
     public APLExplanation(
         AttributeEncoder encoder,
@@ -40,6 +43,21 @@ public class APLExplanation implements Explanation {
         return results;
     }
 
+    /**
+     * Attach a column of values, one per result, to be included in {@link #toDataFrame} after
+     * the aggregates.
+     *
+     * @param name Name of the column
+     * @param values Value of each result, in the order of {@link #getResults}
+     */
+    public void addResultColumn(final String name, final double[] values) {
+        if (values.length != results.size()) {
+            throw new IllegalArgumentException("Column " + name + " has " + values.length
+                + " values for " + results.size() + " results");
+        }
+        resultColumns.put(name, values);
+    }
+
     @JsonProperty("results")
     public List<Map<String, Map<String, String>>> results() {
         List<Map<String, Map<String, String>>> r = new ArrayList<>();
@@ -79,7 +97,7 @@ public class APLExplanation implements Explanation {
      *
      * @param attrsToInclude the attributes (String columns) to be included in the DataFrame
      * @return New DataFrame with <tt>attrsToInclude</tt> columns and ratio metric, support, and
-     * outlier count columns
+     * outlier count columns, followed by the columns added with {@link #addResultColumn}
      */
     public DataFrame toDataFrame(final List<String> attrsToInclude) {
         // String column values that will be added to DataFrame
@@ -138,6 +156,9 @@ public class APLExplanation implements Explanation {
             // Aggregates are capitalized for some reason
             df.addColumn(colName.toLowerCase(), doubleResultsByCol.get(colName));
         }
+        for (Map.Entry<String, double[]> column : resultColumns.entrySet()) {
+            df.addColumn(column.getKey(), column.getValue());
+        }
         return df;
     }
 }
@@ -0,0 +1,288 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.EncodedTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSetPacker;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.operator.IncrementalOperator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Explains the last few panes of a stream with any {@link APLSummarizer}, e.g. an
+ * {@link APLMeanSummarizer} for mean shifts over rolling windows when wrapped in a
+ * {@link edu.stanford.futuredata.macrobase.operator.WindowedOperator}.
+ *
+ * Each pane is read once, counting the aggregates of every candidate up to the summarizer's max
+ * order without pruning, since a candidate without support in one pane can still have support
+ * in the window.  Because the aggregates are mergeable, the window's candidates are the merge of
+ * those of its panes: a new pane is merged in and, for aggregates that are all sums, an expired
+ * pane is subtracted out.  The window is rebuilt from its panes once all of them have turned over,
+ * which drops candidates left only in expired panes and any rounding the subtractions leave
+ * behind, and whenever a pane expires if some aggregate is a min or a max.  Results then only
+ * repeat the pruning of the search over the window's candidates, see
+ * {@link APrioriLinear#explainCandidates}, and match those of the summarizer on all the rows of
+ * the window.
+ */
+public class APLIncrementalSummarizer implements IncrementalOperator<APLExplanation> {
+    private Logger log = LoggerFactory.getLogger("APLIncrementalSummarizer");
+
+    private final APLSummarizer summarizer;
+    private int numPanes = 1;
+
+    // Shared by all panes, so that a value has the same key in every pane
+    private AttributeEncoder encoder;
+    // Packs the keys of every table, replaced when the encoder outgrows it
+    private IntSetPacker packer;
+    private ArrayDeque<Pane> panes;
+    private Map<Integer, LongAggregateTable> windowCandidates;
+    // Panes expired since the window was last rebuilt from its panes
+    private int numExpiredSinceRebuild;
+    private APLExplanation explanation;
+
+    /**
+     * @param summarizer Summarizer whose attributes, aggregates, quality metrics, thresholds
+     *                   and max order to explain each window with.
+     */
+    public APLIncrementalSummarizer(APLSummarizer summarizer) {
+        this.summarizer = summarizer;
+        initializePanes();
+    }
+
+    public APLIncrementalSummarizer(APLSummarizer summarizer, int numPanes) {
+        this.summarizer = summarizer;
+        setWindowSize(numPanes);
+    }
+
+    /**
+     * Discard the candidates of all panes
+     * @return this
+     */
+    protected APLIncrementalSummarizer initializePanes() {
+        encoder = new AttributeEncoder();
+        packer = new IntSetPacker(encoder.getNextKey());
+        panes = new ArrayDeque<>(numPanes);
+        windowCandidates = new HashMap<>();
+        numExpiredSinceRebuild = 0;
+        explanation = null;
+        return this;
+    }
+
+    /**
+     * Set the number of panes in the window, discarding the candidates of panes processed so far.
+     */
+    @Override
+    public void setWindowSize(int numPanes) {
+        if (numPanes < 1) {
+            throw new IllegalArgumentException("Window must have at least one pane");
+        }
+        this.numPanes = numPanes;
+        initializePanes();
+    }
+
+    @Override
+    public int getWindowSize() {
+        return numPanes;
+    }
+
+    public APLSummarizer getSummarizer() {
+        return summarizer;
+    }
+
+    /**
+     * Count the candidates of a new pane and add them to the window, expiring the oldest pane
+     * if the window is full.
+     * @param input rows of the new pane
+     */
+    @Override
+    public void process(DataFrame input) {
+        long startTime = System.currentTimeMillis();
+        Pane pane = countPane(input);
+        if (panes.size() == numPanes) {
+            expire(panes.pollFirst());
+        }
+        panes.addLast(pane);
+        merge(windowCandidates, pane.candidates);
+        explanation = null;
+        log.debug("Added pane of {} rows in: {} ms", input.getNumRows(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    private Pane countPane(DataFrame input) {
+        AggregationOp[] aggregationOps = summarizer.getAggregationOps();
+        summarizer.numEvents = 0;
+        double[][] aggregateColumns = summarizer.getAggregateColumns(input);
+        long numEvents = summarizer.numEvents;
+        double[] globalAggregates = APrioriLinear.getGlobalAggregates(aggregateColumns, aggregationOps);
+
+        // Some summarizers classify rows as outliers relative to the global aggregates
+        List<QualityMetric> qualityMetrics = summarizer.getQualityMetricList();
+        for (QualityMetric q : qualityMetrics) {
+            q.initialize(globalAggregates);
+        }
+        summarizer.qualityMetricList = qualityMetrics;
+        summarizer.thresholds = summarizer.getThresholds();
+        double numOutliers = summarizer.getNumberOutliers(aggregateColumns);
+
+        encoder.setColumnNames(summarizer.getAttributes());
+        encoder.setExecutor(summarizer.getPool());
+        EncodedTable encoded = encoder.encodeColumns(input, summarizer.getAttributes());
+        int cardinality = encoder.getNextKey();
+        IntSetPacker curPacker = new IntSetPacker(cardinality);
+        if (curPacker.getBitsPerItem() != packer.getBitsPerItem()) {
+            // Keys of the older panes are too narrow for the new values
+            for (Pane p : panes) {
+                p.candidates = repack(p.candidates, packer, curPacker, aggregationOps);
+            }
+            windowCandidates = repack(windowCandidates, packer, curPacker, aggregationOps);
+            packer = curPacker;
+        }
+
+        // Without quality metrics every candidate is kept and explored
+        APrioriLinear kernel = new APrioriLinear(Collections.emptyList(), Collections.emptyList());
+        Map<Integer, LongAggregateTable> candidates = kernel.countCandidates(encoded,
+                aggregateColumns, aggregationOps, cardinality, summarizer.getMaxOrder(),
+                summarizer.getPool());
+        return new Pane(candidates, globalAggregates, numEvents, numOutliers);
+    }
+
+    private void expire(Pane pane) {
+        AggregationOp[] aggregationOps = summarizer.getAggregationOps();
+        numExpiredSinceRebuild++;
+        boolean invertible = true;
+        for (AggregationOp op : aggregationOps) {
+            invertible &= op == AggregationOp.SUM;
+        }
+        if (!invertible || numExpiredSinceRebuild >= numPanes) {
+            // Rebuilt once the new pane is added
+            windowCandidates = new HashMap<>();
+            for (Pane p : panes) {
+                merge(windowCandidates, p.candidates);
+            }
+            numExpiredSinceRebuild = 0;
+            return;
+        }
+        for (Map.Entry<Integer, LongAggregateTable> entry : pane.candidates.entrySet()) {
+            LongAggregateTable expired = entry.getValue();
+            LongAggregateTable window = windowCandidates.get(entry.getKey());
+            int keyWidth = expired.getKeyWidth();
+            int numAggregates = expired.getNumAggregates();
+            long[] keys = expired.getKeys();
+            double[] expiredValues = expired.getValues();
+            double[] windowValues = window.getValues();
+            for (int slot = 0; slot < expired.getCapacity(); slot++) {
+                if (expired.getKey(slot) != 0) {
+                    int windowOffset = window.find(keys, slot * keyWidth) * numAggregates;
+                    for (int a = 0; a < numAggregates; a++) {
+                        windowValues[windowOffset + a] -= expiredValues[slot * numAggregates + a];
+                    }
+                }
+            }
+        }
+    }
+
+    private void merge(Map<Integer, LongAggregateTable> window, Map<Integer, LongAggregateTable> pane) {
+        AggregationOp[] aggregationOps = summarizer.getAggregationOps();
+        for (Map.Entry<Integer, LongAggregateTable> entry : pane.entrySet()) {
+            LongAggregateTable paneTable = entry.getValue();
+            window.computeIfAbsent(entry.getKey(), order -> new LongAggregateTable(
+                    paneTable.size(), paneTable.getKeyWidth(), aggregationOps)
+            ).merge(paneTable, aggregationOps);
+        }
+    }
+
+    /**
+     * @return Tables holding the same sets and aggregates, with keys packed by another packer.
+     */
+    private static Map<Integer, LongAggregateTable> repack(Map<Integer, LongAggregateTable> tables,
+                                                           IntSetPacker from, IntSetPacker to,
+                                                           AggregationOp[] aggregationOps) {
+        Map<Integer, LongAggregateTable> repacked = new HashMap<>(tables.size());
+        for (Map.Entry<Integer, LongAggregateTable> entry : tables.entrySet()) {
+            int order = entry.getKey();
+            LongAggregateTable table = entry.getValue();
+            int keyWidth = table.getKeyWidth();
+            int numAggregates = table.getNumAggregates();
+            LongAggregateTable newTable = new LongAggregateTable(table.size(), to.getWidth(order),
+                    aggregationOps);
+            int[] items = new int[order];
+            long[] key = new long[to.getWidth(order)];
+            for (int slot = 0; slot < table.getCapacity(); slot++) {
+                if (table.getKey(slot) != 0) {
+                    from.unpack(table.getKeys(), slot * keyWidth, order, items);
+                    to.pack(items, order, key, 0);
+                    int newSlot = newTable.findOrInsert(key, 0);
+                    System.arraycopy(table.getValues(), slot * numAggregates, newTable.getValues(),
+                            newSlot * numAggregates, numAggregates);
+                }
+            }
+            repacked.put(order, newTable);
+        }
+        return repacked;
+    }
+
+    /**
+     * @return Explanation of the rows of all panes in the window.
+     */
+    @Override
+    public APLExplanation getResults() {
+        if (explanation != null) {
+            return explanation;
+        }
+        long startTime = System.currentTimeMillis();
+        AggregationOp[] aggregationOps = summarizer.getAggregationOps();
+        double[] globalAggregates = new double[aggregationOps.length];
+        for (int a = 0; a < aggregationOps.length; a++) {
+            globalAggregates[a] = aggregationOps[a].initValue();
+        }
+        long numEvents = 0;
+        double numOutliers = 0.0;
+        for (Pane pane : panes) {
+            for (int a = 0; a < aggregationOps.length; a++) {
+                globalAggregates[a] = aggregationOps[a].combine(globalAggregates[a], pane.globalAggregates[a]);
+            }
+            numEvents += pane.numEvents;
+            numOutliers += pane.numOutliers;
+        }
+
+        List<QualityMetric> qualityMetrics = summarizer.getQualityMetricList();
+        List<APLExplanationResult> aplResults = new APrioriLinear(qualityMetrics,
+                summarizer.getThresholds()
+        ).explainCandidates(windowCandidates, aggregationOps, globalAggregates,
+                encoder.getNextKey(), summarizer.getMaxOrder());
+        log.debug("Explained {} panes in: {} ms", panes.size(), System.currentTimeMillis() - startTime);
+
+        explanation = new APLExplanation(
+                encoder,
+                numEvents,
+                (long) numOutliers,
+                summarizer.getAggregateNames(),
+                qualityMetrics,
+                aplResults
+        );
+        return explanation;
+    }
+
+    /**
+     * The candidates of one pane, with the totals needed to explain a window that contains it.
+     */
+    private static class Pane {
+        Map<Integer, LongAggregateTable> candidates;
+        final double[] globalAggregates;
+        final long numEvents;
+        final double numOutliers;
+
+        Pane(Map<Integer, LongAggregateTable> candidates, double[] globalAggregates,
+             long numEvents, double numOutliers) {
+            this.candidates = candidates;
+            this.globalAggregates = globalAggregates;
+            this.numEvents = numEvents;
+            this.numOutliers = numOutliers;
+        }
+    }
+}
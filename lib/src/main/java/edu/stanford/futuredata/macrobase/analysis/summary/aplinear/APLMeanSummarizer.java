@@ -1,5 +1,6 @@
 package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
 
+import edu.stanford.futuredata.macrobase.analysis.summary.util.EncodedTable;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.MeanDevQualityMetric;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
@@ -37,8 +38,8 @@ public class APLMeanSummarizer extends APLSummarizer {
     }
 
     @Override
-    public int[][] getEncoded(List<String[]> columns, DataFrame input) {
-        return encoder.encodeAttributesAsArray(columns);
+    public EncodedTable getEncoded(DataFrame input) {
+        return encoder.encodeColumns(input, attributes);
     }
 
     @Override
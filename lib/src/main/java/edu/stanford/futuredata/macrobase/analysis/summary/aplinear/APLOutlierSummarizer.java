@@ -1,10 +1,14 @@
 package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
 
+import edu.stanford.futuredata.macrobase.analysis.summary.fpg.RiskRatio;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.EncodedTable;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.*;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +19,12 @@ public class APLOutlierSummarizer extends APLSummarizer {
 
     private Logger log = LoggerFactory.getLogger("APLOutlierSummarizer");
     private String countColumn = null;
+    private double inlierSampleRate = 1.0;
+    private long sampleSeed = 0;
+
+    private static final String sampleCountColumn = "_SAMPLE_COUNT";
+    // Two-sided 95% normal quantile, for the confidence intervals of the risk ratio
+    private static final double z95 = 1.959963984540054;
 
     @Override
     public List<String> getAggregateNames() {
@@ -28,11 +38,141 @@ public class APLOutlierSummarizer extends APLSummarizer {
     }
 
     @Override
-    public int[][] getEncoded(List<String[]> columns, DataFrame input) {
-        return encoder.encodeAttributesWithSupport(columns, minOutlierSupport,
+    public EncodedTable getEncoded(DataFrame input) {
+        return encoder.encodeColumnsWithSupport(input, attributes, minOutlierSupport,
             input.getDoubleColumnByName(outlierColumn));
     }
 
+    @Override
+    protected void addChunkToEncoder(DataFrame chunk) {
+        encoder.countSupport(chunk, attributes, chunk.getDoubleColumnByName(outlierColumn));
+    }
+
+    @Override
+    protected void finishChunkEncoder() {
+        encoder.assignKeysWithSupport(minOutlierSupport);
+    }
+
+    /**
+     * Explain the input, or, with an inlier sample rate below 1, an approximation that keeps
+     * every row with outliers and a uniform reservoir sample of the rows without.  The sampled
+     * rows are reweighted through the count column so that the total inlier count stays
+     * exact, and the results get risk_ratio_low and risk_ratio_high columns bounding their
+     * risk ratio with 95% confidence.
+     */
+    @Override
+    public void process(DataFrame input) throws Exception {
+        if (inlierSampleRate >= 1.0) {
+            super.process(input);
+            return;
+        }
+        final int numRows = input.getNumRows();
+        final double[] outlierCol = input.getDoubleColumnByName(outlierColumn);
+        final double[] countCol = countColumn != null ?
+            input.getDoubleColumnByName(countColumn) : null;
+
+        int numInlierRows = 0;
+        for (int i = 0; i < numRows; i++) {
+            if (outlierCol[i] == 0.0) {
+                numInlierRows++;
+            }
+        }
+        final int sampleSize = numInlierRows == 0 ? 0 :
+            (int) Math.max(1, Math.round(inlierSampleRate * numInlierRows));
+
+        // Algorithm R over the inlier rows
+        final int[] reservoir = new int[sampleSize];
+        final Random random = new Random(sampleSeed);
+        final BitSet mask = new BitSet(numRows);
+        double inlierCount = 0.0;
+        for (int i = 0, seen = 0; i < numRows; i++) {
+            if (outlierCol[i] != 0.0) {
+                mask.set(i);
+                continue;
+            }
+            inlierCount += countCol != null ? countCol[i] : 1.0;
+            if (seen < sampleSize) {
+                reservoir[seen] = i;
+            } else {
+                final int j = random.nextInt(seen + 1);
+                if (j < sampleSize) {
+                    reservoir[j] = i;
+                }
+            }
+            seen++;
+        }
+        double sampledInlierCount = 0.0;
+        for (int i : reservoir) {
+            mask.set(i);
+            sampledInlierCount += countCol != null ? countCol[i] : 1.0;
+        }
+        final double weight = sampledInlierCount > 0 ? inlierCount / sampledInlierCount : 1.0;
+
+        final DataFrame sample = input.filter(mask);
+        final double[] sampleCounts = new double[sample.getNumRows()];
+        for (int i = mask.nextSetBit(0), j = 0; i >= 0; i = mask.nextSetBit(i + 1), j++) {
+            final double count = countCol != null ? countCol[i] : 1.0;
+            sampleCounts[j] = outlierCol[i] == 0.0 ? count * weight : count;
+        }
+        sample.addColumn(sampleCountColumn, sampleCounts);
+        log.info("Sampled {} of {} inlier rows", sampleSize, numInlierRows);
+
+        final String inputCountColumn = countColumn;
+        countColumn = sampleCountColumn;
+        try {
+            super.process(sample);
+        } finally {
+            countColumn = inputCountColumn;
+        }
+        addRiskRatioIntervals(inlierCount, numInlierRows, sampleSize);
+    }
+
+    /**
+     * Bound the risk ratio of each result by a normal approximation of the error of its
+     * estimated inlier count, treating the sample as a simple random sample of the inlier rows
+     * without replacement.  The outlier counts are exact, and the risk ratio decreases with
+     * the inlier count, so the bounds on the inlier count map to bounds on the risk ratio.
+     *
+     * @param sampledPopulation Total count of the rows the sample was drawn from
+     * @param numPopulationRows Number of rows the sample was drawn from
+     * @param sampleSize Number of rows in the sample
+     */
+    private void addRiskRatioIntervals(double sampledPopulation, int numPopulationRows,
+        int sampleSize) {
+        final List<String> aggregateNames = getAggregateNames();
+        final List<APLExplanationResult> results = explanation.getResults();
+        final double totalOutliers = numOutliers;
+        final double totalInliers = numEvents - numOutliers;
+        final double fpc = numPopulationRows > 1 ?
+            (double) (numPopulationRows - sampleSize) / (numPopulationRows - 1) : 0.0;
+        final double[] low = new double[results.size()];
+        final double[] high = new double[results.size()];
+        for (int r = 0; r < results.size(); r++) {
+            final APLExplanationResult result = results.get(r);
+            final double outliers = result.getAggregatesAsMap(aggregateNames).get("Outliers");
+            final double inliers = result.getAggregatesAsMap(aggregateNames).get("Count")
+                - outliers;
+            double inliersLow = inliers;
+            double inliersHigh = inliers;
+            if (fpc > 0.0 && sampledPopulation > 0.0) {
+                final double p = Math.min(1.0, inliers / sampledPopulation);
+                if (p == 0.0) {
+                    // No sampled inliers matched: rule of three
+                    inliersHigh = sampledPopulation * Math.min(1.0, 3.0 / sampleSize);
+                } else {
+                    final double sd = sampledPopulation
+                        * Math.sqrt(p * (1.0 - p) / sampleSize * fpc);
+                    inliersLow = Math.max(0.0, inliers - z95 * sd);
+                    inliersHigh = Math.min(totalInliers, inliers + z95 * sd);
+                }
+            }
+            low[r] = RiskRatio.compute(inliersHigh, outliers, totalInliers, totalOutliers);
+            high[r] = RiskRatio.compute(inliersLow, outliers, totalInliers, totalOutliers);
+        }
+        explanation.addResultColumn("risk_ratio_low", low);
+        explanation.addResultColumn("risk_ratio_high", high);
+    }
+
     @Override
     public double[][] getAggregateColumns(DataFrame input) {
         double[] outlierCol = input.getDoubleColumnByName(outlierColumn);
@@ -94,6 +234,31 @@ public class APLOutlierSummarizer extends APLSummarizer {
         this.countColumn = countColumn;
     }
 
+    public double getInlierSampleRate() {
+        return inlierSampleRate;
+    }
+
+    /**
+     * @param inlierSampleRate Fraction of the rows without outliers to explain, in (0, 1].
+     * Below 1, {@link #process(DataFrame)} explains a sample of the inliers.
+     */
+    public APLOutlierSummarizer setInlierSampleRate(double inlierSampleRate) {
+        if (!(inlierSampleRate > 0.0 && inlierSampleRate <= 1.0)) {
+            throw new IllegalArgumentException("Inlier sample rate must be in (0, 1], not "
+                + inlierSampleRate);
+        }
+        this.inlierSampleRate = inlierSampleRate;
+        return this;
+    }
+
+    /**
+     * @param sampleSeed Seed of the inlier sample, so that sampled runs can be repeated
+     */
+    public APLOutlierSummarizer setSampleSeed(long sampleSeed) {
+        this.sampleSeed = sampleSeed;
+        return this;
+    }
+
     public double getMinRatioMetric() {
         return minRatioMetric;
     }
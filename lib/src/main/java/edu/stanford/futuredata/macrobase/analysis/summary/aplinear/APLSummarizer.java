@@ -1,14 +1,21 @@
 package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
 
+import com.google.common.collect.Iterables;
 import edu.stanford.futuredata.macrobase.analysis.summary.BatchSummarizer;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.EncodedTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateTable;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+import edu.stanford.futuredata.macrobase.util.OperatorProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Generic summarizer superclass that can be customized with
@@ -25,22 +32,27 @@ public abstract class APLSummarizer extends BatchSummarizer {
 
     protected long numEvents = 0;
     protected long numOutliers = 0;
+    protected ForkJoinPool executor = null;
+    protected OperatorProfile profile = null;
 
     public abstract List<String> getAggregateNames();
     public abstract AggregationOp[] getAggregationOps();
     public abstract double[][] getAggregateColumns(DataFrame input);
     public abstract List<QualityMetric> getQualityMetricList();
     public abstract List<Double> getThresholds();
-    public abstract int[][] getEncoded(List<String[]> columns, DataFrame input);
+    public abstract EncodedTable getEncoded(DataFrame input);
     public abstract double getNumberOutliers(double[][] aggregates);
 
     protected double[] processCountCol(DataFrame input, String countColumn, int numRows) {
         double[] countCol;
         if (countColumn != null) {
             countCol = input.getDoubleColumnByName(countColumn);
+            // Sum as a double, since counts may be fractional weights
+            double totalCount = 0.0;
             for (int i = 0; i < numRows; i++) {
-                numEvents += countCol[i];
+                totalCount += countCol[i];
             }
+            numEvents = Math.round(totalCount);
         } else {
             countCol = new double[numRows];
             for (int i = 0; i < numRows; i++) {
@@ -52,45 +64,285 @@ public abstract class APLSummarizer extends BatchSummarizer {
     }
 
 
+    /**
+     * The number of threads used to search for explanations. Summarizers with the same
+     * number of threads share one pool of threads.
+     *
+     * @param numThreads Number of threads to use.
+     */
+    @Override
+    public APLSummarizer setNumThreads(int numThreads) {
+        super.setNumThreads(numThreads);
+        this.executor = ForkJoinUtils.getSharedPool(numThreads);
+        return this;
+    }
+
+    /**
+     * Search for explanations on the given pool instead of a shared one.
+     *
+     * @param executor Pool to run on.
+     */
+    public APLSummarizer setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Measure the encoding and each order of the search as children of the given operator,
+     * e.g. for EXPLAIN ANALYZE.
+     *
+     * @param profile Operator to add the measurements to, or null to not measure them.
+     */
+    public APLSummarizer setProfile(OperatorProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
     public void process(DataFrame input) throws Exception {
+        ForkJoinPool pool = getPool();
+        EncodedTable encoded = encode(input, pool);
+
+        thresholds = getThresholds();
+        qualityMetricList = getQualityMetricList();
+        aplKernel = new APrioriLinear(
+                qualityMetricList,
+                thresholds
+        ).setProfile(profile);
+
+        double[][] aggregateColumns = getAggregateColumns(input);
+        List<String> aggregateNames = getAggregateNames();
+        AggregationOp[] aggregationOps = getAggregationOps();
+        List<APLExplanationResult> aplResults = aplKernel.explain(encoded,
+                aggregateColumns,
+                aggregationOps,
+                encoder.getNextKey(),
+                maxOrder,
+                pool
+        );
+        log.info("Number of results: {}", aplResults.size());
+        numOutliers = (long)getNumberOutliers(aggregateColumns);
+
+        explanation = new APLExplanation(
+                encoder,
+                numEvents,
+                numOutliers,
+                aggregateNames,
+                qualityMetricList,
+                aplResults
+        );
+    }
+
+    /**
+     * Explain an input too large to hold in memory, read as a sequence of chunks with the same
+     * columns.  The chunks are read once to learn the encoding of the attributes and once more
+     * per order, when the aggregates of each candidate are merged across chunks, so the results
+     * are the same as those of {@link #process(DataFrame)} on all the rows at once.
+     *
+     * @param chunks Chunks of the input, which can be iterated more than once.
+     */
+    public void process(Iterable<DataFrame> chunks) {
+        ForkJoinPool pool = getPool();
         encoder = new AttributeEncoder();
         encoder.setColumnNames(attributes);
+        encoder.setExecutor(pool);
         long startTime = System.currentTimeMillis();
-        int[][] encoded = getEncoded(input.getStringColsByName(attributes), input);
-        long elapsed = System.currentTimeMillis() - startTime;
-        log.info("Encoded in: {} ms", elapsed);
+        OperatorProfile encodeProfile = startChild("Encode");
+        AggregationOp[] aggregationOps = getAggregationOps();
+        double[] globalAggregates = new double[aggregationOps.length];
+        for (int j = 0; j < aggregationOps.length; j++) {
+            globalAggregates[j] = aggregationOps[j].initValue();
+        }
+        long totalEvents = 0;
+        double totalOutliers = 0.0;
+        int numChunks = 0;
+        long numRows = 0;
+        for (DataFrame chunk : chunks) {
+            numEvents = 0;
+            double[][] aggregateColumns = getAggregateColumns(chunk);
+            totalEvents += numEvents;
+            totalOutliers += getNumberOutliers(aggregateColumns);
+            double[] chunkAggregates = APrioriLinear.getGlobalAggregates(aggregateColumns, aggregationOps);
+            for (int j = 0; j < aggregationOps.length; j++) {
+                globalAggregates[j] = aggregationOps[j].combine(globalAggregates[j], chunkAggregates[j]);
+            }
+            addChunkToEncoder(chunk);
+            numChunks++;
+            numRows += chunk.getNumRows();
+        }
+        finishChunkEncoder();
+        log.info("Encoded {} chunks in: {} ms", numChunks, System.currentTimeMillis() - startTime);
         log.info("Encoded Categories: {}", encoder.getNextKey() - 1);
+        stopEncode(encodeProfile, numRows);
 
         thresholds = getThresholds();
         qualityMetricList = getQualityMetricList();
         aplKernel = new APrioriLinear(
                 qualityMetricList,
                 thresholds
+        ).setProfile(profile);
+        Iterable<APrioriLinear.Chunk> encodedChunks = Iterables.transform(chunks,
+                chunk -> new APrioriLinear.Chunk(encoder.encodeColumnsWithKeys(chunk, attributes),
+                        getAggregateColumns(chunk)));
+        List<APLExplanationResult> aplResults = aplKernel.explainChunks(encodedChunks,
+                attributes.size(),
+                globalAggregates,
+                aggregationOps,
+                encoder.getNextKey(),
+                maxOrder,
+                pool
         );
+        log.info("Number of results: {}", aplResults.size());
+        // Getting the aggregate columns of a chunk again counts its events again
+        numEvents = totalEvents;
+        numOutliers = (long)totalOutliers;
 
+        explanation = new APLExplanation(
+                encoder,
+                numEvents,
+                numOutliers,
+                getAggregateNames(),
+                qualityMetricList,
+                aplResults
+        );
+    }
+
+    /**
+     * Learn the encoding of the attributes of one chunk of an input explained by
+     * {@link #process(Iterable)}.  By default the chunk is encoded as {@link #getEncoded} encodes
+     * it and the encoded chunk is discarded, which only gives keys to its new values.
+     */
+    protected void addChunkToEncoder(DataFrame chunk) {
+        getEncoded(chunk);
+    }
+
+    /**
+     * Finish learning the encoding once every chunk has been added with {@link #addChunkToEncoder}.
+     */
+    protected void finishChunkEncoder() {
+    }
+
+    /**
+     * Encode the input and count every candidate up to the max order that the monotonic
+     * quality metrics (the minimum support) do not prune, so that the input can be explained
+     * again with {@link #explainCandidates} under other thresholds for the other metrics.
+     * Counting more candidates than {@link #process} is slower, so this only pays off
+     * when the same input is explained more than once.
+     *
+     * @param input DataFrame to explain.
+     * @return The encoded input and the aggregates of its candidates.
+     */
+    public APLCandidates countCandidates(DataFrame input) {
+        ForkJoinPool pool = getPool();
+        EncodedTable encoded = encode(input, pool);
         double[][] aggregateColumns = getAggregateColumns(input);
-        List<String> aggregateNames = getAggregateNames();
+        numOutliers = (long)getNumberOutliers(aggregateColumns);
+        return countCandidates(encoder, encoded, aggregateColumns, pool);
+    }
+
+    /**
+     * Count the candidates of an input counted before again, up to this summarizer's max order,
+     * reusing its encoded attributes.
+     *
+     * @param previous Candidates counted with the same attributes and minimum support.
+     * @return The encoded input and the aggregates of its candidates.
+     */
+    public APLCandidates countCandidates(APLCandidates previous) {
+        numEvents = previous.getNumEvents();
+        numOutliers = previous.getNumOutliers();
+        return countCandidates(previous.getEncoder(), previous.getEncoded(),
+                previous.getAggregateColumns(), getPool());
+    }
+
+    private APLCandidates countCandidates(AttributeEncoder encoder, EncodedTable encoded,
+                                          double[][] aggregateColumns, ForkJoinPool pool) {
+        long startTime = System.currentTimeMillis();
         AggregationOp[] aggregationOps = getAggregationOps();
-        List<APLExplanationResult> aplResults = aplKernel.explain(encoded,
+        APrioriLinear kernel = new APrioriLinear(getQualityMetricList(), getThresholds())
+                .setProfile(profile);
+        Map<Integer, LongAggregateTable> candidates = kernel.countCandidates(encoded,
                 aggregateColumns,
                 aggregationOps,
                 encoder.getNextKey(),
                 maxOrder,
-                numThreads
+                pool
+        );
+        log.info("Counted candidates up to order {} in: {} ms", maxOrder,
+                System.currentTimeMillis() - startTime);
+        return new APLCandidates(encoder, encoded, aggregateColumns,
+                APrioriLinear.getGlobalAggregates(aggregateColumns, aggregationOps),
+                numEvents, numOutliers, maxOrder, candidates);
+    }
+
+    /**
+     * Explain candidates counted by {@link #countCandidates} with this summarizer's thresholds.
+     * Only the thresholds of the non-monotonic metrics (e.g. the minimum ratio) and the max
+     * order, which cannot exceed the order the candidates were counted to, may differ from
+     * those the candidates were counted with.
+     *
+     * @param candidates Candidates counted with the same attributes and minimum support.
+     */
+    public void explainCandidates(APLCandidates candidates) {
+        if (maxOrder > candidates.getMaxOrder()) {
+            throw new IllegalArgumentException("Candidates were only counted up to order "
+                    + candidates.getMaxOrder());
+        }
+        encoder = candidates.getEncoder();
+        numEvents = candidates.getNumEvents();
+        numOutliers = candidates.getNumOutliers();
+        thresholds = getThresholds();
+        qualityMetricList = getQualityMetricList();
+        aplKernel = new APrioriLinear(
+                qualityMetricList,
+                thresholds
+        ).setProfile(profile);
+        List<APLExplanationResult> aplResults = aplKernel.explainCandidates(
+                candidates.getCandidates(),
+                getAggregationOps(),
+                candidates.getGlobalAggregates(),
+                encoder.getNextKey(),
+                maxOrder
         );
         log.info("Number of results: {}", aplResults.size());
-        numOutliers = (long)getNumberOutliers(aggregateColumns);
 
         explanation = new APLExplanation(
                 encoder,
                 numEvents,
                 numOutliers,
-                aggregateNames,
+                getAggregateNames(),
                 qualityMetricList,
                 aplResults
         );
     }
 
+    ForkJoinPool getPool() {
+        return executor != null ? executor : ForkJoinUtils.getSharedPool(numThreads);
+    }
+
+    private EncodedTable encode(DataFrame input, ForkJoinPool pool) {
+        encoder = new AttributeEncoder();
+        encoder.setColumnNames(attributes);
+        encoder.setExecutor(pool);
+        long startTime = System.currentTimeMillis();
+        OperatorProfile encodeProfile = startChild("Encode");
+        EncodedTable encoded = getEncoded(input);
+        long elapsed = System.currentTimeMillis() - startTime;
+        log.info("Encoded in: {} ms", elapsed);
+        log.info("Encoded Categories: {}", encoder.getNextKey() - 1);
+        stopEncode(encodeProfile, input.getNumRows());
+        return encoded;
+    }
+
+    private OperatorProfile startChild(String name) {
+        return profile == null ? null : profile.addChild(name).start();
+    }
+
+    private void stopEncode(OperatorProfile encodeProfile, long numRows) {
+        if (encodeProfile != null) {
+            encodeProfile.stop();
+            encodeProfile.setRowsIn(numRows).setCounter("categories", encoder.getNextKey() - 1);
+        }
+    }
+
     public APLExplanation getResults() {
         return explanation;
     }
@@ -3,12 +3,15 @@ package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.*;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
-import edu.stanford.futuredata.macrobase.util.MacroBaseInternalError;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+import edu.stanford.futuredata.macrobase.util.OperatorProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Class for handling the generic, algorithmic aspects of apriori explanation.
@@ -18,6 +21,8 @@ import java.util.concurrent.CountDownLatch;
  */
 public class APrioriLinear {
     private Logger log = LoggerFactory.getLogger("APrioriLinear");
+    // Smallest range of rows worth counting as a separate task
+    private static final int minRowsPerTask = 16 * APLCountingKernel.blockSize;
 
     // **Parameters**
     private QualityMetric[] qualityMetrics;
@@ -26,10 +31,13 @@ public class APrioriLinear {
     // **Cached values**
     // Singleton viable sets for quick lookup
     private boolean[] singleNextArray;
-    // Sets that have high enough support but not high qualityMetrics, need to be explored
-    private HashMap<Integer, HashSet<IntSet>> setNext;
-    // Aggregate values for all of the sets we saved
-    private HashMap<Integer, Map<IntSet, double []>> savedAggregates;
+    // Sets of the last order that have high enough support but not high qualityMetrics,
+    // need to be explored.  Packed in column order.
+    private LongAggregateTable packedNext;
+    // Aggregate values for all of the sets we saved, packed in column order
+    private HashMap<Integer, LongAggregateTable> savedAggregates;
+    // Operator to add the measurements of each order to, if profiled
+    private OperatorProfile profile = null;
 
     public APrioriLinear(
             List<QualityMetric> qualityMetrics,
@@ -40,47 +48,120 @@ public class APrioriLinear {
         for (int i = 0; i < thresholds.size(); i++) {
             this.thresholds[i] = thresholds.get(i);
         }
-        this.setNext = new HashMap<>(3);
         this.savedAggregates = new HashMap<>(3);
     }
 
+    /**
+     * Measure each order of the search as a child of the given operator, with the number of
+     * candidates counted, saved as explanations, kept to explore at the next order, and pruned.
+     * @param profile Operator to add the orders to, or null to not measure them.
+     */
+    public APrioriLinear setProfile(OperatorProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
     public List<APLExplanationResult> explain(
-            final int[][] attributes,
+            final EncodedTable attributes,
             double[][] aggregateColumns,
             AggregationOp[] aggregationOps,
             int cardinality,
             final int maxOrder,
-            int numThreads
+            ForkJoinPool executor
     ) {
-        final int numAggregates = aggregateColumns.length;
-        final int numRows = aggregateColumns[0].length;
-        final int numColumns = attributes[0].length;
+        count(Collections.singletonList(new Chunk(attributes, aggregateColumns)), attributes.getNumColumns(),
+                getGlobalAggregates(aggregateColumns, aggregationOps), aggregationOps, cardinality,
+                maxOrder, executor, false);
+        return collectResults(new IntSetPacker(cardinality));
+    }
 
-        // Maximum order of explanations.
-        final boolean useIntSetAsArray;
-        // 2097151 is 2^21 - 1, the largest value that can fit in a length-three IntSetAsLong.
-        // If the cardinality is greater than that, don't use them.
-        if (cardinality >= 2097151) {
-            log.warn("Cardinality is extremely high.  Candidate generation will be slow.");
-            useIntSetAsArray = true;
-        } else{
-            useIntSetAsArray = false;
-        }
+    /**
+     * Same as {@link #explain}, but for rows that are read one chunk at a time, e.g. because
+     * they do not fit in memory at once.  Every order reads all the chunks, counting each
+     * one into the same tables, so the aggregates of a candidate are merged across chunks.
+     * @param chunks Chunks encoded with the same keys, which can be iterated once per order.
+     * @param numColumns Number of attribute columns of every chunk.
+     * @param globalAggregates Aggregates of the rows of all chunks.
+     */
+    public List<APLExplanationResult> explainChunks(
+            Iterable<Chunk> chunks,
+            int numColumns,
+            double[] globalAggregates,
+            AggregationOp[] aggregationOps,
+            int cardinality,
+            final int maxOrder,
+            ForkJoinPool executor
+    ) {
+        count(chunks, numColumns, globalAggregates, aggregationOps, cardinality, maxOrder,
+                executor, false);
+        return collectResults(new IntSetPacker(cardinality));
+    }
 
-        // Shard the dataset by rows for the threads, but store it by column for fast processing
-        final int[][][] byThreadAttributesTranspose =
-                new int[numThreads][numColumns][(numRows + numThreads)/numThreads];
-        for (int threadNum = 0; threadNum < numThreads; threadNum++) {
-            final int startIndex = (numRows * threadNum) / numThreads;
-            final int endIndex = (numRows * (threadNum + 1)) / numThreads;
-            for(int i = 0; i < numColumns; i++)
-                for(int j = startIndex; j < endIndex; j++) {
-                    byThreadAttributesTranspose[threadNum][i][j - startIndex] = attributes[j][i];
-                }
+    /**
+     * Count the aggregates of every candidate that no quality metric prunes, instead of
+     * stopping at the candidates that pass all of them.  Since only monotonic metrics prune,
+     * the candidates can be explained again with {@link #explainCandidates} under any
+     * thresholds for the other metrics, without going back to the rows.
+     * @return Aggregates of the candidates of each order, packed in column order.
+     */
+    public Map<Integer, LongAggregateTable> countCandidates(
+            final EncodedTable attributes,
+            double[][] aggregateColumns,
+            AggregationOp[] aggregationOps,
+            int cardinality,
+            final int maxOrder,
+            ForkJoinPool executor
+    ) {
+        count(Collections.singletonList(new Chunk(attributes, aggregateColumns)), attributes.getNumColumns(),
+                getGlobalAggregates(aggregateColumns, aggregationOps), aggregationOps, cardinality,
+                maxOrder, executor, true);
+        return savedAggregates;
+    }
+
+    /**
+     * Find explanations among candidates counted by {@link #countCandidates}, repeating the
+     * pruning of {@link #explain} over their aggregates.  Monotonic quality metrics must have the
+     * thresholds the candidates were counted with.
+     * @param candidates Aggregates of the candidates of each order.
+     * @param globalAggregates Aggregates of all rows, see {@link #getGlobalAggregates}.
+     * @param maxOrder Highest order to explain, at most the order the candidates were counted to.
+     */
+    public List<APLExplanationResult> explainCandidates(
+            Map<Integer, LongAggregateTable> candidates,
+            AggregationOp[] aggregationOps,
+            double[] globalAggregates,
+            int cardinality,
+            final int maxOrder
+    ) {
+        final IntSetPacker packer = new IntSetPacker(cardinality);
+        for (QualityMetric q : qualityMetrics) {
+            q.initialize(globalAggregates);
+        }
+        for (int curOrder = 1; curOrder <= maxOrder && candidates.containsKey(curOrder); curOrder++) {
+            final LongAggregateTable curCandidates = candidates.get(curOrder);
+            final OperatorProfile orderProfile = startOrder(curOrder);
+            final int keyWidth = curCandidates.getKeyWidth();
+            LongAggregateTable curSavedAggregates = new LongAggregateTable(0, keyWidth, aggregationOps);
+            LongAggregateTable curOrderNext =
+                    new LongAggregateTable(curCandidates.size(), keyWidth, new AggregationOp[0]);
+            // Every subset of a candidate was counted, but it is only explored if its
+            // subsets are still being explored under these thresholds.
+            final int numPruned = prune(curCandidates, curOrder, packer, curOrder >= 2, false,
+                    curSavedAggregates, curOrderNext);
+            savedAggregates.put(curOrder, curSavedAggregates);
+            packedNext = curOrderNext;
+            stopOrder(orderProfile, -1, curCandidates.size(), curSavedAggregates.size(),
+                    curOrderNext.size(), numPruned);
         }
+        return collectResults(packer);
+    }
 
-        // Quality metrics are initialized with global aggregates to
-        // allow them to determine the appropriate relative thresholds
+    /**
+     * @return The aggregates of all rows.
+     */
+    public static double[] getGlobalAggregates(double[][] aggregateColumns, AggregationOp[] aggregationOps) {
+        final int numAggregates = aggregateColumns.length;
+        final int numRows = aggregateColumns[0].length;
         double[] globalAggregates = new double[numAggregates];
         for (int j = 0; j < numAggregates; j++) {
             AggregationOp curOp = aggregationOps[j];
@@ -90,248 +171,187 @@ public class APrioriLinear {
                 globalAggregates[j] = curOp.combine(globalAggregates[j], curColumn[i]);
             }
         }
+        return globalAggregates;
+    }
+
+    /**
+     * Count candidates order by order, saving the aggregates of the candidates that pass all
+     * quality metrics, or of every candidate that is not pruned if keepAllCandidates is set.
+     */
+    private void count(
+            Iterable<Chunk> chunks,
+            final int numColumns,
+            double[] globalAggregates,
+            AggregationOp[] aggregationOps,
+            int cardinality,
+            final int maxOrder,
+            ForkJoinPool executor,
+            final boolean keepAllCandidates
+    ) {
+        final int parallelism = executor.getParallelism();
+
+        // Candidates are packed into keys of one or more longs, as wide as the
+        // order and cardinality require.
+        final IntSetPacker packer = new IntSetPacker(cardinality);
+
+        // Quality metrics are initialized with global aggregates to
+        // allow them to determine the appropriate relative thresholds
         for (QualityMetric q : qualityMetrics) {
             q.initialize(globalAggregates);
         }
 
-        // Row store for more convenient access
-        final double[][] aRows = new double[numRows][numAggregates];
-        for (int i = 0; i < numRows; i++) {
-            for (int j = 0; j < numAggregates; j++) {
-                aRows[i][j] = aggregateColumns[j][i];
-            }
-        }
-        for (int curOrder = 1; curOrder <= maxOrder; curOrder++) {
+        for (int curOrder = 1; curOrder <= maxOrder && curOrder <= numColumns; curOrder++) {
             long startTime = System.currentTimeMillis();
+            final OperatorProfile orderProfile = startOrder(curOrder);
+            long numRowsRead = 0;
             final int curOrderFinal = curOrder;
-            // Initialize per-thread hashmaps.
-            final ArrayList<FastFixedHashTable> threadSetAggregates = new ArrayList<>(numThreads);
-            for (int i = 0; i < numThreads; i++) {
-                threadSetAggregates.add(new FastFixedHashTable(cardinality, numAggregates, useIntSetAsArray));
-            }
-            // Shard the dataset by row into threads and generate candidates.
-            final CountDownLatch doneSignal = new CountDownLatch(numThreads);
-            for (int threadNum = 0; threadNum < numThreads; threadNum++) {
-                final int curThreadNum = threadNum;
-                final int startIndex = (numRows * threadNum) / numThreads;
-                final int endIndex = (numRows * (threadNum + 1)) / numThreads;
-                final FastFixedHashTable thisThreadSetAggregates = threadSetAggregates.get(threadNum);
-                // Do candidate generation in a lambda.
-                Runnable APrioriLinearRunnable = () -> {
-                    IntSet curCandidate;
-                    if (!useIntSetAsArray)
-                        curCandidate = new IntSetAsLong(0);
-                    else
-                        curCandidate = new IntSetAsArray(0);
-                    if (curOrderFinal == 1) {
-                        for (int colNum = 0; colNum < numColumns; colNum++) {
-                            int[] curColumnAttributes = byThreadAttributesTranspose[curThreadNum][colNum];
-                            for (int rowNum = startIndex; rowNum < endIndex; rowNum++) {
-                                // Require that all order-one candidates have minimum support.
-                                if (curColumnAttributes[rowNum - startIndex] == AttributeEncoder.noSupport)
-                                    continue;
-                                // Cascade to arrays if necessary, but otherwise pack attributes into longs.
-                                if (useIntSetAsArray) {
-                                    curCandidate = new IntSetAsArray(curColumnAttributes[rowNum - startIndex]);
-                                } else {
-                                    ((IntSetAsLong) curCandidate).value = curColumnAttributes[rowNum - startIndex];
-                                }
-                                double[] candidateVal = thisThreadSetAggregates.get(curCandidate);
-                                if (candidateVal == null) {
-                                    thisThreadSetAggregates.put(curCandidate,
-                                            Arrays.copyOf(aRows[rowNum], numAggregates));
-                                } else {
-                                    for (int a = 0; a < numAggregates; a++) {
-                                        AggregationOp curOp = aggregationOps[a];
-                                        candidateVal[a] = curOp.combine(candidateVal[a], aRows[rowNum][a]);
-                                    }
-                                }
-                            }
-                        }
-                    } else if (curOrderFinal == 2) {
-                        for (int colNumOne = 0; colNumOne < numColumns; colNumOne++) {
-                            int[] curColumnOneAttributes = byThreadAttributesTranspose[curThreadNum][colNumOne];
-                            for (int colNumTwo = colNumOne + 1; colNumTwo < numColumns; colNumTwo++) {
-                                int[] curColumnTwoAttributes = byThreadAttributesTranspose[curThreadNum][colNumTwo];
-                                for (int rowNum = startIndex; rowNum < endIndex; rowNum++) {
-                                    int rowNumInCol = rowNum - startIndex;
-                                    // Only examine a pair if both its members have minimum support.
-                                    if (curColumnOneAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                            || curColumnTwoAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                            || !singleNextArray[curColumnOneAttributes[rowNumInCol]]
-                                            || !singleNextArray[curColumnTwoAttributes[rowNumInCol]])
-                                        continue;
-                                    // Cascade to arrays if necessary, but otherwise pack attributes into longs.
-                                    if (useIntSetAsArray) {
-                                        curCandidate = new IntSetAsArray(curColumnOneAttributes[rowNumInCol],
-                                                curColumnTwoAttributes[rowNumInCol]);
-                                    } else {
-                                        ((IntSetAsLong) curCandidate).value = IntSetAsLong.twoIntToLong(curColumnOneAttributes[rowNumInCol],
-                                                curColumnTwoAttributes[rowNumInCol]);
-                                    }
-                                    double[] candidateVal = thisThreadSetAggregates.get(curCandidate);
-                                    if (candidateVal == null) {
-                                        thisThreadSetAggregates.put(curCandidate,
-                                                Arrays.copyOf(aRows[rowNum], numAggregates));
-                                    } else {
-                                        for (int a = 0; a < numAggregates; a++) {
-                                            AggregationOp curOp = aggregationOps[a];
-                                            candidateVal[a] = curOp.combine(candidateVal[a], aRows[rowNum][a]);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } else if (curOrderFinal == 3) {
-                        for (int colNumOne = 0; colNumOne < numColumns; colNumOne++) {
-                            int[] curColumnOneAttributes = byThreadAttributesTranspose[curThreadNum][colNumOne % numColumns];
-                            for (int colNumTwo = colNumOne + 1; colNumTwo < numColumns; colNumTwo++) {
-                                int[] curColumnTwoAttributes = byThreadAttributesTranspose[curThreadNum][colNumTwo % numColumns];
-                                for (int colnumThree = colNumTwo + 1; colnumThree < numColumns; colnumThree++) {
-                                    int[] curColumnThreeAttributes = byThreadAttributesTranspose[curThreadNum][colnumThree % numColumns];
-                                    for (int rowNum = startIndex; rowNum < endIndex; rowNum++) {
-                                        int rowNumInCol = rowNum - startIndex;
-                                        // Only construct a triple if all its singleton members have minimum support.
-                                        if (curColumnOneAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                                || curColumnTwoAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                                || curColumnThreeAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                                || !singleNextArray[curColumnThreeAttributes[rowNumInCol]]
-                                                || !singleNextArray[curColumnOneAttributes[rowNumInCol]]
-                                                || !singleNextArray[curColumnTwoAttributes[rowNumInCol]])
-                                            continue;
-                                        // Cascade to arrays if necessary, but otherwise pack attributes into longs.
-                                        if (useIntSetAsArray) {
-                                            curCandidate = new IntSetAsArray(
-                                                    curColumnOneAttributes[rowNumInCol],
-                                                    curColumnTwoAttributes[rowNumInCol],
-                                                    curColumnThreeAttributes[rowNumInCol]);
-                                        } else {
-                                            ((IntSetAsLong) curCandidate).value = IntSetAsLong.threeIntToLong(
-                                                    curColumnOneAttributes[rowNumInCol],
-                                                    curColumnTwoAttributes[rowNumInCol],
-                                                    curColumnThreeAttributes[rowNumInCol]);
-                                        }
-                                        double[] candidateVal = thisThreadSetAggregates.get(curCandidate);
-                                        if (candidateVal == null) {
-                                            thisThreadSetAggregates.put(curCandidate,
-                                                    Arrays.copyOf(aRows[rowNum], numAggregates));
-                                        } else {
-                                            for (int a = 0; a < numAggregates; a++) {
-                                                AggregationOp curOp = aggregationOps[a];
-                                                candidateVal[a] = curOp.combine(candidateVal[a], aRows[rowNum][a]);
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        throw new MacroBaseInternalError("High Order not supported");
+            final int keyWidth = packer.getWidth(curOrder);
+            final List<int[]> columnCombinations = getColumnCombinations(numColumns, curOrder);
+            // Candidates of order three or more are only generated from surviving prefixes.
+            final LongAggregateTable prefixes = curOrder >= 3 ? packedNext : null;
+            final boolean[] singleNext = curOrder >= 2 ? singleNextArray : null;
+            // Each worker thread counts into its own table, created the first time it runs a task,
+            // and keeps counting into it for every chunk.
+            final ConcurrentHashMap<Thread, WorkerState> workerStates = new ConcurrentHashMap<>();
+            int numTasks = 0;
+            for (Chunk chunk : chunks) {
+                final EncodedTable attributes = chunk.attributes;
+                final double[][] aggregateColumns = chunk.aggregateColumns;
+                final int numRows = attributes.getNumRows();
+                numRowsRead += numRows;
+                // Split the rows into a few shards per thread so that idle threads can steal work
+                // when some column combinations are much more expensive than others.
+                final int numShards = Math.max(1, Math.min(4 * parallelism, numRows / minRowsPerTask));
+                final List<ForkJoinTask<?>> countingTasks = new ArrayList<>();
+                for (int[] combination : columnCombinations) {
+                    final int[][] candidateColumns = new int[curOrder][];
+                    for (int c = 0; c < curOrder; c++) {
+                        candidateColumns[c] = attributes.getColumn(combination[c]);
                     }
-                    log.debug("Time spent in Thread {} in order {}:  {} ms",
-                            curThreadNum, curOrderFinal, System.currentTimeMillis() - startTime);
-                    doneSignal.countDown();
-                };
-                // Run numThreads lambdas in separate threads
-                Thread APrioriLinearThread = new Thread(APrioriLinearRunnable);
-                APrioriLinearThread.start();
-            }
-            // Wait for all threads to finish running.
-            try {
-                doneSignal.await();
-            } catch (InterruptedException ex) {ex.printStackTrace();}
-
-
-            Map<IntSet, double []> setAggregates = new HashMap<>();
-            // Collect the aggregates stored in the per-thread HashMaps.
-            for (FastFixedHashTable set : threadSetAggregates) {
-                if (useIntSetAsArray) {
-                    for (IntSet curCandidateKey : set.keySet()) {
-                        double[] curCandidateValue = set.get(curCandidateKey);
-                        double[] candidateVal = setAggregates.get(curCandidateKey);
-                        if (candidateVal == null) {
-                            setAggregates.put(curCandidateKey, Arrays.copyOf(curCandidateValue, numAggregates));
-                        } else {
-                            for (int a = 0; a < numAggregates; a++) {
-                                AggregationOp curOp = aggregationOps[a];
-                                candidateVal[a] = curOp.combine(candidateVal[a], curCandidateValue[a]);
-                            }
-                        }
-                    }
-                } else {
-                    for (long curCandidateKeyLong : set.keySetLong()) {
-                        IntSetAsLong curCandidateKeyIntSetAsLong = new IntSetAsLong(curCandidateKeyLong);
-                        IntSet curCandidateKey = new IntSetAsArray(curCandidateKeyIntSetAsLong);
-                        double[] curCandidateValue = set.get(curCandidateKeyIntSetAsLong);
-                        double[] candidateVal = setAggregates.get(curCandidateKey);
-                        if (candidateVal == null) {
-                            setAggregates.put(curCandidateKey, Arrays.copyOf(curCandidateValue, numAggregates));
-                        } else {
-                            for (int a = 0; a < numAggregates; a++) {
-                                AggregationOp curOp = aggregationOps[a];
-                                candidateVal[a] = curOp.combine(candidateVal[a], curCandidateValue[a]);
-                            }
-                        }
+                    for (int shard = 0; shard < numShards; shard++) {
+                        final int startIndex = attributes.getShardStart(shard, numShards);
+                        final int endIndex = attributes.getShardStart(shard + 1, numShards);
+                        countingTasks.add(ForkJoinTask.adapt(() -> {
+                            WorkerState state = workerStates.computeIfAbsent(Thread.currentThread(),
+                                    t -> new WorkerState(cardinality, keyWidth, aggregationOps));
+                            state.getKernel(aggregateColumns, aggregationOps, packer).count(
+                                    candidateColumns, singleNext, prefixes, 0, startIndex, endIndex,
+                                    state.table);
+                        }));
                     }
                 }
+                ForkJoinUtils.runAll(executor, countingTasks);
+                numTasks += countingTasks.size();
             }
 
+            // Merge the per-worker tables in parallel, each task collecting one hash partition.
+            final List<LongAggregateTable> workerTables = new ArrayList<>();
+            for (WorkerState state : workerStates.values()) {
+                workerTables.add(state.table);
+            }
+            final List<LongAggregateTable> setAggregates = LongAggregateTable.mergePartitioned(
+                    workerTables, aggregationOps, parallelism, executor);
+            int numCandidates = 0;
+            for (LongAggregateTable table : setAggregates) {
+                numCandidates += table.size();
+            }
+            log.debug("Counted {} candidates of order {} with {} tasks on {} threads in {} ms",
+                    numCandidates, curOrderFinal, numTasks, workerStates.size(),
+                    System.currentTimeMillis() - startTime);
+
             // Prune all the collected aggregates
-            HashSet<IntSet> curOrderNext = new HashSet<>();
-            HashSet<IntSet> curOrderSaved = new HashSet<>();
-            for (IntSet curCandidate: setAggregates.keySet()) {
-                QualityMetric.Action action = QualityMetric.Action.KEEP;
-                if (curOrder == 1 && curCandidate.getFirst() == AttributeEncoder.noSupport) {
-                    action = QualityMetric.Action.PRUNE;
-                } else {
-                    double[] curAggregates = setAggregates.get(curCandidate);
-                    for (int i = 0; i < qualityMetrics.length; i++) {
-                        QualityMetric q = qualityMetrics[i];
-                        double t = thresholds[i];
-                        action = QualityMetric.Action.combine(action, q.getAction(curAggregates, t));
-                    }
-                    if (action == QualityMetric.Action.KEEP) {
-                        // Make sure the candidate isn't already covered by a pair
-                        if (curOrder != 3 || validateCandidate(curCandidate, setNext.get(2))) {
-                            // if a set is already past the threshold on all metrics,
-                            // save it and no need for further exploration if we do containment
-                            curOrderSaved.add(curCandidate);
-                        }
-                    } else if (action == QualityMetric.Action.NEXT) {
-                        // otherwise if a set still has potentially good subsets,
-                        // save it for further examination
-                        curOrderNext.add(curCandidate);
-                    }
-                }
+            LongAggregateTable curSavedAggregates = new LongAggregateTable(0, keyWidth, aggregationOps);
+            LongAggregateTable curOrderNext =
+                    new LongAggregateTable(numCandidates, keyWidth, new AggregationOp[0]);
+            int numPruned = 0;
+            for (LongAggregateTable partitionAggregates : setAggregates) {
+                numPruned += prune(partitionAggregates, curOrder, packer, curOrder >= 3, keepAllCandidates,
+                        curSavedAggregates, curOrderNext);
             }
 
             // Save aggregates that pass all qualityMetrics to return later, store aggregates
             // that have minimum support for higher-order exploration.
-            Map<IntSet, double []> curSavedAggregates = new HashMap<>(curOrderSaved.size());
-            for (IntSet curSaved : curOrderSaved) {
-                curSavedAggregates.put(curSaved, setAggregates.get(curSaved));
-            }
             savedAggregates.put(curOrder, curSavedAggregates);
-            setNext.put(curOrder, curOrderNext);
+            packedNext = curOrderNext;
             if (curOrder == 1) {
                 singleNextArray = new boolean[cardinality];
-                for (IntSet i : curOrderNext) {
-                    singleNextArray[i.getFirst()] = true;
+                int[] curItems = new int[1];
+                for (int slot = 0; slot < curOrderNext.getCapacity(); slot++) {
+                    if (curOrderNext.getKey(slot) != 0) {
+                        packer.unpack(curOrderNext.getKeys(), slot, 1, curItems);
+                        singleNextArray[curItems[0]] = true;
+                    }
                 }
             }
+            log.debug("Order {}: {} candidates, {} saved, {} to explore in {} ms", curOrder,
+                    numCandidates, curSavedAggregates.size(), curOrderNext.size(),
+                    System.currentTimeMillis() - startTime);
+            stopOrder(orderProfile, numRowsRead, numCandidates, curSavedAggregates.size(),
+                    curOrderNext.size(), numPruned);
+        }
+    }
+
+    /**
+     * @return The started measurement of an order, or null if the search isn't profiled.
+     */
+    private OperatorProfile startOrder(int curOrder) {
+        return profile == null ? null : profile.addChild("Order " + curOrder).start();
+    }
+
+    private static void stopOrder(OperatorProfile orderProfile, long numRows, long numCandidates,
+                                  long numSaved, long numNext, long numPruned) {
+        if (orderProfile == null) {
+            return;
+        }
+        orderProfile.stop();
+        if (numRows >= 0) {
+            orderProfile.setRowsIn(numRows);
         }
+        orderProfile.setRowsOut(numSaved)
+                .setCounter("candidates", numCandidates)
+                .setCounter("explored", numNext)
+                .setCounter("pruned", numPruned);
+    }
 
+    /**
+     * @return The saved sets of each order, sorted by their items.
+     */
+    private List<APLExplanationResult> collectResults(IntSetPacker packer) {
         List<APLExplanationResult> results = new ArrayList<>();
         for (int curOrder: savedAggregates.keySet()) {
-            Map<IntSet, double []> curOrderSavedAggregates = savedAggregates.get(curOrder);
-            for (IntSet curSet : curOrderSavedAggregates.keySet()) {
-                double[] aggregates = curOrderSavedAggregates.get(curSet);
+            LongAggregateTable curOrderSavedAggregates = savedAggregates.get(curOrder);
+            long[] keys = curOrderSavedAggregates.getKeys();
+            int keyWidth = curOrderSavedAggregates.getKeyWidth();
+            // Report the sets of each order sorted by their items, so that results do not
+            // depend on how the candidates were laid out in the tables.
+            List<int[]> sortedSets = new ArrayList<>(curOrderSavedAggregates.size());
+            for (int slot = 0; slot < curOrderSavedAggregates.getCapacity(); slot++) {
+                if (curOrderSavedAggregates.getKey(slot) != 0) {
+                    // The slot is stored after the items
+                    int[] items = Arrays.copyOf(packer.unpack(keys, slot * keyWidth, curOrder), curOrder + 1);
+                    Arrays.sort(items, 0, curOrder);
+                    items[curOrder] = slot;
+                    sortedSets.add(items);
+                }
+            }
+            final int order = curOrder;
+            sortedSets.sort((a, b) -> {
+                for (int i = 0; i < order; i++) {
+                    if (a[i] != b[i]) {
+                        return Integer.compare(a[i], b[i]);
+                    }
+                }
+                return 0;
+            });
+            for (int[] items : sortedSets) {
+                double[] aggregates = curOrderSavedAggregates.getAggregates(items[curOrder]);
                 double[] metrics = new double[qualityMetrics.length];
                 for (int i = 0; i < metrics.length; i++) {
                     metrics[i] = qualityMetrics[i].value(aggregates);
                 }
                 results.add(
-                        new APLExplanationResult(qualityMetrics, curSet, aggregates, metrics)
+                        new APLExplanationResult(qualityMetrics,
+                                new IntSetAsArray(Arrays.copyOf(items, curOrder)), aggregates, metrics)
                 );
             }
         }
@@ -339,30 +359,160 @@ public class APrioriLinear {
     }
 
     /**
-     * Check if all subsets of an order-3 candidate are order-2 candidates.
-     * @param o2Candidates All candidates of order 2 with minimum support.
-     * @param curCandidate An order-3 candidate
+     * Sort the candidates of one table into those that pass all quality metrics and those that
+     * should be explored at the next order, reusing buffers so that no candidate allocates.
+     * @param validate Whether to check that every subset of a candidate is still being explored.
+     * @param keepAllCandidates Save and explore every candidate that is not pruned.
+     * @return The number of candidates neither saved nor explored.
+     */
+    private int prune(LongAggregateTable candidates, int curOrder, IntSetPacker packer,
+                       boolean validate, boolean keepAllCandidates,
+                       LongAggregateTable curSavedAggregates, LongAggregateTable curOrderNext) {
+        final int keyWidth = candidates.getKeyWidth();
+        final int numAggregates = candidates.getNumAggregates();
+        int[] curItems = new int[curOrder];
+        int[] subset = new int[curOrder - 1];
+        long[] subsetKey = new long[packer.getWidth(curOrder - 1)];
+        double[] curAggregates = new double[numAggregates];
+        long[] keys = candidates.getKeys();
+        double[] values = candidates.getValues();
+        int numPruned = 0;
+        for (int slot = 0; slot < candidates.getCapacity(); slot++) {
+            if (candidates.getKey(slot) == 0)
+                continue;
+            packer.unpack(keys, slot * keyWidth, curOrder, curItems);
+            // Make sure every subset of the candidate is still being explored, otherwise
+            // the candidate is already covered by a lower-order explanation.
+            if (validate && !validateCandidate(curItems, packedNext, packer, subset, subsetKey)) {
+                numPruned++;
+                continue;
+            }
+            System.arraycopy(values, slot * numAggregates, curAggregates, 0, numAggregates);
+            QualityMetric.Action action = QualityMetric.Action.KEEP;
+            for (int i = 0; i < qualityMetrics.length; i++) {
+                QualityMetric q = qualityMetrics[i];
+                double t = thresholds[i];
+                action = QualityMetric.Action.combine(action, q.getAction(curAggregates, t));
+            }
+            boolean kept = false;
+            if (action == QualityMetric.Action.KEEP
+                    || (keepAllCandidates && action == QualityMetric.Action.NEXT)) {
+                kept = true;
+                // if a set is already past the threshold on all metrics,
+                // save it and no need for further exploration if we do containment
+                curSavedAggregates.ensureCapacity(1);
+                int savedSlot = curSavedAggregates.findOrInsert(keys, slot * keyWidth);
+                System.arraycopy(curAggregates, 0, curSavedAggregates.getValues(),
+                        savedSlot * numAggregates, numAggregates);
+            }
+            if (action == QualityMetric.Action.NEXT
+                    || (keepAllCandidates && action == QualityMetric.Action.KEEP)) {
+                // otherwise if a set still has potentially good subsets,
+                // save it for further examination
+                curOrderNext.findOrInsert(keys, slot * keyWidth);
+                kept = true;
+            }
+            if (!kept) {
+                numPruned++;
+            }
+        }
+        return numPruned;
+    }
+
+
+    /**
+     * The encoded attributes and the aggregate columns of one chunk of the rows.
+     */
+    public static class Chunk {
+        final EncodedTable attributes;
+        final double[][] aggregateColumns;
+
+        public Chunk(EncodedTable attributes, double[][] aggregateColumns) {
+            this.attributes = attributes;
+            this.aggregateColumns = aggregateColumns;
+        }
+    }
+
+    /**
+     * The counting kernel and table of one worker thread.
+     */
+    private static class WorkerState {
+        final LongAggregateTable table;
+        // Aggregate columns of the chunk the kernel counts
+        private double[][] aggregateColumns = null;
+        private APLCountingKernel kernel = null;
+
+        WorkerState(int expectedSize, int keyWidth, AggregationOp[] aggregationOps) {
+            this.table = new LongAggregateTable(expectedSize, keyWidth, aggregationOps);
+        }
+
+        /**
+         * @return A kernel over the aggregate columns of a chunk, reused for every task of the chunk.
+         */
+        APLCountingKernel getKernel(double[][] aggregateColumns, AggregationOp[] aggregationOps,
+                                    IntSetPacker packer) {
+            if (aggregateColumns != this.aggregateColumns) {
+                this.kernel = new APLCountingKernel(aggregateColumns, aggregationOps, packer);
+                this.aggregateColumns = aggregateColumns;
+            }
+            return kernel;
+        }
+    }
+
+    /**
+     * @return All combinations of order columns out of numColumns, each in increasing order.
+     */
+    static List<int[]> getColumnCombinations(int numColumns, int order) {
+        List<int[]> combinations = new ArrayList<>();
+        int[] combination = new int[order];
+        for (int i = 0; i < order; i++) {
+            combination[i] = i;
+        }
+        while (order <= numColumns) {
+            combinations.add(Arrays.copyOf(combination, order));
+            // Advance the rightmost column that can still move right
+            int i = order - 1;
+            while (i >= 0 && combination[i] == numColumns - order + i) {
+                i--;
+            }
+            if (i < 0) {
+                break;
+            }
+            combination[i]++;
+            for (int j = i + 1; j < order; j++) {
+                combination[j] = combination[j - 1] + 1;
+            }
+        }
+        return combinations;
+    }
+
+    /**
+     * Check if all subsets of a candidate one smaller than it are candidates of the previous order.
+     * Items of a subset keep their column order, so a subset packs into the same key as
+     * the candidate of the previous order made of the same values.
+     * @param curItems The attributes of a candidate, in column order.
+     * @param prevCandidates All candidates of the previous order with minimum support.
+     * @param subset Buffer for one subset.
+     * @param subsetKey Buffer for the key of one subset.
      * @return Boolean
      */
-    private boolean validateCandidate(IntSet curCandidate,
-                                      HashSet<IntSet> o2Candidates) {
-            IntSet subPair;
-            subPair = new IntSetAsArray(
-                    curCandidate.getFirst(),
-                    curCandidate.getSecond());
-            if (o2Candidates.contains(subPair)) {
-                subPair = new IntSetAsArray(
-                        curCandidate.getSecond(),
-                        curCandidate.getThird());
-                if (o2Candidates.contains(subPair)) {
-                    subPair = new IntSetAsArray(
-                            curCandidate.getFirst(),
-                            curCandidate.getThird());
-                    if (o2Candidates.contains(subPair)) {
-                        return true;
-                    }
+    private static boolean validateCandidate(int[] curItems,
+                                             LongAggregateTable prevCandidates,
+                                             IntSetPacker packer,
+                                             int[] subset,
+                                             long[] subsetKey) {
+        int order = curItems.length;
+        for (int skip = 0; skip < order; skip++) {
+            for (int i = 0, j = 0; i < order; i++) {
+                if (i != skip) {
+                    subset[j++] = curItems[i];
                 }
             }
-        return false;
+            packer.pack(subset, order - 1, subsetKey, 0);
+            if (prevCandidates.find(subsetKey, 0) < 0) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -5,7 +5,6 @@ import edu.stanford.futuredata.macrobase.analysis.summary.fpg.result.FPGAttribut
 import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
 import edu.stanford.futuredata.macrobase.analysis.summary.fpg.result.FPGItemsetResult;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
-import edu.stanford.futuredata.macrobase.datamodel.Schema;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -48,9 +47,10 @@ public class FPGrowthSummarizer extends BatchSummarizer {
 
         // Encode inlier and outlier attribute columns
         if (attributes.isEmpty()) {
-            encoder.setColumnNames(df.getSchema().getColumnNamesByType(Schema.ColType.STRING));
-            inlierItemsets = encoder.encodeAttributesAsSets(inlierDF.getStringCols());
-            outlierItemsets = encoder.encodeAttributesAsSets(outlierDF.getStringCols());
+            List<String> stringColumns = df.getSchema().getStringColumnNames();
+            encoder.setColumnNames(stringColumns);
+            inlierItemsets = encoder.encodeAttributesAsSets(inlierDF.getStringColsByName(stringColumns));
+            outlierItemsets = encoder.encodeAttributesAsSets(outlierDF.getStringColsByName(stringColumns));
         } else {
             encoder.setColumnNames(attributes);
             inlierItemsets = encoder.encodeAttributesAsSets(inlierDF.getStringColsByName(attributes));
@@ -6,7 +6,6 @@ import edu.stanford.futuredata.macrobase.analysis.summary.fpg.result.FPGItemsetR
 import edu.stanford.futuredata.macrobase.analysis.summary.fpg.result.ItemsetWithCount;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
-import edu.stanford.futuredata.macrobase.datamodel.Schema;
 import edu.stanford.futuredata.macrobase.operator.IncrementalOperator;
 
 import java.util.*;
@@ -31,46 +30,38 @@ public class IncrementalSummarizer implements IncrementalOperator<Explanation> {
     // Default predicate for filtering outlying rows
     private DoublePredicate predicate = d -> d != 0.0;
 
-    // Encoder and encoded attribute sets
+    // Encoder, and encoded transactions of the current pane with their inverted indexes
     private AttributeEncoder encoder = new AttributeEncoder();
-    private List<Set<Integer>> inlierItemsets, outlierItemsets;
+    private int[][] inlierTransactions, outlierTransactions;
+    private TransactionIndex inlierIndex, outlierIndex;
 
-    // Internal book keeping
-    private Deque<HashMap<Set<Integer>, Double>> inlierItemsetPaneCounts;
-    private Deque<HashMap<Set<Integer>, Double>> outlierItemsetPaneCounts;
-    private HashMap<Set<Integer>, Double> inlierItemsetPaneCount = new HashMap<>();
-    private HashMap<Set<Integer>, Double> outlierItemsetPaneCount = new HashMap<>();
-    private HashMap<Set<Integer>, Double> inlierItemsetWindowCount = new HashMap<>();
-    private HashMap<Set<Integer>, Double> outlierItemsetWindowCount = new HashMap<>();
-    private Deque<Integer> inlierPaneCounts;
-    private Deque<Integer> outlierPaneCounts;
-    private HashMap<Set<Integer>, Integer> trackingMap = new HashMap<>();
-
-    // Temp Intermediate Values
-    private List<Integer> inlierCountCumSum;
-    private List<Integer> outlierCountCumSum;
+    // Counts of tracked itemsets in each pane of the window
+    private WindowedItemsetCounts counts;
 
     public IncrementalSummarizer(int numPanes) {
         setWindowSize(numPanes);
-        initializePanes();
     }
 
     public IncrementalSummarizer() {
         setWindowSize(1);
-        initializePanes();
     }
 
+    /**
+     * Discard the counts of all panes
+     * @return this
+     */
     protected IncrementalSummarizer initializePanes() {
-        inlierPaneCounts = new ArrayDeque<>(numPanes);
-        outlierPaneCounts = new ArrayDeque<>(numPanes);
-        inlierItemsetPaneCounts = new ArrayDeque<>(numPanes);
-        outlierItemsetPaneCounts = new ArrayDeque<>(numPanes);
+        counts = new WindowedItemsetCounts(numPanes);
         return this;
     }
 
+    /**
+     * Set the number of panes in the window, discarding the counts of panes processed so far.
+     */
     @Override
     public void setWindowSize(int numPanes) {
         this.numPanes = numPanes;
+        initializePanes();
     }
     @Override
     public int getWindowSize() { return numPanes; }
@@ -111,253 +102,151 @@ public class IncrementalSummarizer implements IncrementalOperator<Explanation> {
     }
     public String getOutlierColumn() { return outlierColumn; }
 
-    /* Split dataframe into inliers and outliers and encode attributes into itemsets
+    /* Encode attributes into transactions, split them into inliers and outliers, and index them
      *
      * Variables afftected:
-     *   - inlierItemsets:  Encoded inlier itemsets for this pane
-     *   - outlierItemsets: Encoded outlier itemsets for this pane
+     *   - inlierTransactions, inlierIndex:   Encoded inlier transactions for this pane
+     *   - outlierTransactions, outlierIndex: Encoded outlier transactions for this pane
      */
     private void encodeAttributes(DataFrame df) {
-        // Filter inliers and outliers
-        DataFrame outlierDF = df.filter(outlierColumn, predicate);
-        DataFrame inlierDF = df.filter(outlierColumn, predicate.negate());
-
-        // Encode inlier and outlier attribute columns
+        // Encode the attribute columns once, then split the rows evaluating the predicate once
+        // per row, so that no column of df is copied
+        List<String[]> columns;
         if (attributes.isEmpty()) {
-            encoder.setColumnNames(df.getSchema().getColumnNamesByType(Schema.ColType.STRING));
-            inlierItemsets = encoder.encodeAttributesAsSets(inlierDF.getStringCols());
-            outlierItemsets = encoder.encodeAttributesAsSets(outlierDF.getStringCols());
+            List<String> stringColumns = df.getSchema().getStringColumnNames();
+            encoder.setColumnNames(stringColumns);
+            columns = df.getStringColsByName(stringColumns);
         } else {
             encoder.setColumnNames(attributes);
-            inlierItemsets = encoder.encodeAttributesAsSets(inlierDF.getStringColsByName(attributes));
-            outlierItemsets = encoder.encodeAttributesAsSets(outlierDF.getStringColsByName(attributes));
-        }
-    }
-
-    /* Helper function to calculate cumulative pane count. This way, the support from pane a to
-     * the pane b can easily be calculated by outlierCountCumSum.get(b) - outlierCountCumSum.get(a)
-     *
-     * Variables affected:
-     *   - inlierCountCumSum:
-     *   - outlierCountCumSum:
-     */
-    private void calcCumSum() {
-        int[] inlierCounts = inlierPaneCounts.stream().mapToInt(i->i).toArray();
-        int[] outlierCounts = outlierPaneCounts.stream().mapToInt(i->i).toArray();
-
-        inlierCountCumSum = new ArrayList<>(inlierPaneCounts.size() + 1);
-        outlierCountCumSum = new ArrayList<>(inlierPaneCounts.size() + 1);
-        inlierCountCumSum.add(0);
-        outlierCountCumSum.add(0);
-        for (int i = 0; i < inlierPaneCounts.size(); i ++) {
-            inlierCountCumSum.add(inlierCountCumSum.get(i) + (int)inlierCounts[i]);
-            outlierCountCumSum.add(outlierCountCumSum.get(i) + (int)outlierCounts[i]);
+            columns = df.getStringColsByName(attributes);
         }
-    }
+        int numRows = df.getNumRows();
+        int[][] transactions = columns.isEmpty()
+                ? new int[numRows][0] : encoder.encodeAttributesAsArray(columns);
 
-    /* This function retires the oldest pane:
-     *   - Remove pane from the count buffer
-     *   - Update the window counts
-     *   - Update tracking map for itemsets
-     *
-     * Variables affected:
-     *   - inlierPaneCounts, outlierPaneCounts: remove expired pane from queue
-     *   - inlierItemsetWindowCount, outlierItemsetWindowCount:
-     *          remove counts from the expired pane from the window count
-     *   - trackingMap:
-     *          adjust the pane number indicating when we first started tracking an itemset
-     */
-    private void expireLastPane() {
-        // Remove old pane counts from buffer
-        HashMap<Set<Integer>, Double> inlierCounts = inlierItemsetPaneCounts.pollFirst();
-        HashMap<Set<Integer>, Double> outlierCounts = outlierItemsetPaneCounts.pollFirst();
-        inlierPaneCounts.pollFirst();
-        outlierPaneCounts.pollFirst();
-        for (Set<Integer> itemset : outlierCounts.keySet()) {
-            double i = inlierItemsetWindowCount.getOrDefault(itemset, 0.0) - inlierCounts.getOrDefault(itemset, 0.0);
-            double o = outlierItemsetWindowCount.getOrDefault(itemset, 0.0) - outlierCounts.get(itemset);
-            if (i > 0) {
-                inlierItemsetWindowCount.put(itemset, i);
-            } else if (inlierItemsetWindowCount.containsKey(itemset)) { // Remove 0-count itemsets
-                inlierItemsetWindowCount.remove(itemset);
-            }
-            if (o > 0) {
-                outlierItemsetWindowCount.put(itemset, o);
-            } else if (outlierItemsetWindowCount.containsKey(itemset)) { // Remove 0-count itemsets
-                outlierItemsetWindowCount.remove(itemset);
-            }
-        }
-        // Decrement pane number indicating where we first start tracking counts for an itemset
-        // (since we removed the first pane)
-        for (Set<Integer> itemset : trackingMap.keySet()) {
-            int paneNo = trackingMap.get(itemset);
-            if (paneNo > 0) {
-                trackingMap.put(itemset, paneNo - 1);
+        BitSet outlierMask = df.getMaskForFilter(df.getSchema().getColumnIndex(outlierColumn), predicate);
+        int numOutliers = outlierMask.cardinality();
+        inlierTransactions = new int[numRows - numOutliers][];
+        outlierTransactions = new int[numOutliers][];
+        int numInliersSeen = 0, numOutliersSeen = 0;
+        for (int i = 0; i < numRows; i++) {
+            if (outlierMask.get(i)) {
+                outlierTransactions[numOutliersSeen++] = transactions[i];
+            } else {
+                inlierTransactions[numInliersSeen++] = transactions[i];
             }
         }
+        inlierIndex = new TransactionIndex(inlierTransactions);
+        outlierIndex = new TransactionIndex(outlierTransactions);
     }
 
-    /* This function counts the occurrence of each supported itemset in the new pane,
-     * and update corresponding itemset counts for the entire window.
+    /* This function counts the occurrence of each tracked itemset in the new pane, after the
+     * oldest pane expires if the window is full.
      *
      * Variables affected:
-     *   - inlierItemsetPaneCount, outlierItemsetPaneCount
-     *   - inlierItemsetWindowCount, outlierItemsetWindowCount
-     *   - inlierPaneCounts, outlierPaneCounts
+     *   - counts: pane and window counts of tracked itemsets, and itemsets no longer in the window
      */
     private void addNewPane() {
-        inlierItemsetPaneCount = new HashMap<>();
-        outlierItemsetPaneCount = new HashMap<>();
+        counts.startPane(inlierTransactions.length, outlierTransactions.length);
 
-        // Compute support for frequent itemsets in the new pane
-        for (Set<Integer> supportedItem : outlierItemsetWindowCount.keySet()) {
-            for (Set<Integer> itemset : inlierItemsets) {
-                if (itemset.containsAll(supportedItem)) {
-                    double curVal = inlierItemsetPaneCount.getOrDefault(supportedItem, 0.0);
-                    inlierItemsetPaneCount.put(supportedItem, curVal + 1);
-                }
-            }
-            for (Set<Integer> itemset : outlierItemsets) {
-                if (itemset.containsAll(supportedItem)) {
-                    double curVal = outlierItemsetPaneCount.getOrDefault(supportedItem, 0.0);
-                    outlierItemsetPaneCount.put(supportedItem, curVal + 1);
-                }
-            }
+        // Compute support for tracked itemsets in the new pane, intersecting the bitmaps of
+        // their items
+        for (int id = counts.nextTracked(0); id >= 0; id = counts.nextTracked(id + 1)) {
+            Set<Integer> itemset = counts.getItemset(id);
+            counts.addPaneCounts(id, inlierIndex.count(itemset), outlierIndex.count(itemset));
         }
-
-        // Update support for the window
-        for (Set<Integer> itemset : outlierItemsetWindowCount.keySet()) {
-            double i = inlierItemsetWindowCount.getOrDefault(itemset, 0.0) + inlierItemsetPaneCount.getOrDefault(itemset, 0.0);
-            double o = outlierItemsetWindowCount.get(itemset) + outlierItemsetPaneCount.getOrDefault(itemset, 0.0);
-            inlierItemsetWindowCount.put(itemset, i);
-            outlierItemsetWindowCount.put(itemset, o);
-        }
-        inlierPaneCounts.add(inlierItemsets.size());
-        outlierPaneCounts.add(outlierItemsets.size());
     }
 
     /* This function checks whether all itemsets that we are currently tracking counts of
      * still have enough outlier support (from the pane it first got promoted till now).
      *
      * Variables affected:
-     *   - trackingMap: remove unsupported itemset from tracking map
-     *   - outlierItemsetPaneCount, inlierItemsetPaneCount, outlierItemsetWindowCount, inlierItemsetWindowCount:
-     *          remove unsupported itemset counts
+     *   - counts: stop tracking unsupported itemsets
      * */
     private void pruneUnsupported() {
-        // Prune unsupported itemsets in the current pane
-        HashSet<Set<Integer>> unSupported = new HashSet<>();
-        int currPanes = inlierPaneCounts.size();
-        for (Set<Integer> itemset : outlierItemsetWindowCount.keySet()) {
-            double supportSinceTracked = outlierCountCumSum.get(currPanes) -
-                    outlierCountCumSum.get(trackingMap.get(itemset));
-            if (outlierItemsetWindowCount.getOrDefault(itemset, 0.0) < minOutlierSupport * supportSinceTracked) {
-                unSupported.add(itemset);
-                trackingMap.remove(itemset);
+        for (int id = counts.nextTracked(0); id >= 0; id = counts.nextTracked(id + 1)) {
+            if (counts.getOutlierCount(id) < minOutlierSupport * counts.getOutlierSupport(id)) {
+                counts.untrack(id);
             }
         }
-        outlierItemsetPaneCount.keySet().removeAll(unSupported);
-        inlierItemsetPaneCount.keySet().removeAll(unSupported);
-        outlierItemsetWindowCount.keySet().removeAll(unSupported);
-        inlierItemsetWindowCount.keySet().removeAll(unSupported);
     }
 
     /* This function checks whether all itemsets that we are currently tracking counts of
     * still have enough risk ratio (from the pane it first got promoted till now).
     *
     * Variables affected:
-    *   - trackingMap: remove lowRR itemset from tracking map
-    *   - outlierItemsetPaneCount, inlierItemsetPaneCount, outlierItemsetWindowCount, inlierItemsetWindowCount:
-    *          remove lowRR itemset counts
+    *   - counts: stop tracking lowRR itemsets
     * */
     private void pruneLowRR() {
-        // Prune itemsets without high enough risk ratio
-        int currPanes = inlierPaneCounts.size();
-        HashSet<Set<Integer>> lowRR = new HashSet<>();
-        for (Set<Integer> itemset : outlierItemsetWindowCount.keySet()) {
-            int outlierSupport = outlierCountCumSum.get(currPanes) - outlierCountCumSum.get(trackingMap.get(itemset));
-            int inlierSupport = inlierCountCumSum.get(currPanes) - inlierCountCumSum.get(trackingMap.get(itemset));
-            double rr = RiskRatio.compute(inlierItemsetWindowCount.get(itemset),
-                    outlierItemsetWindowCount.get(itemset),
-                    inlierSupport,
-                    outlierSupport);
-            // Add to output if the itemset has sufficient risk ratio
-            if (rr < minRiskRatio) {
-                lowRR.add(itemset);
+        for (int id = counts.nextTracked(0); id >= 0; id = counts.nextTracked(id + 1)) {
+            if (getRiskRatio(id) < minRiskRatio) {
+                counts.untrack(id);
             }
         }
-        outlierItemsetPaneCount.keySet().removeAll(lowRR);
-        inlierItemsetPaneCount.keySet().removeAll(lowRR);
-        outlierItemsetWindowCount.keySet().removeAll(lowRR);
-        inlierItemsetWindowCount.keySet().removeAll(lowRR);
     }
 
-    /* Helper function that updates internals to keep track of a promoted itemset. */
-    private void trackItemset(Set<Integer> itemset, double exposedOutlierCount, double exposedInlierCount) {
-        trackingMap.put(itemset, inlierPaneCounts.size() - 1);
-        outlierItemsetWindowCount.put(itemset, exposedOutlierCount);
-        outlierItemsetPaneCount.put(itemset, exposedOutlierCount);
-        inlierItemsetWindowCount.put(itemset, exposedInlierCount);
-        inlierItemsetPaneCount.put(itemset, exposedInlierCount);
+    private double getRiskRatio(int id) {
+        return RiskRatio.compute(counts.getInlierCount(id),
+                counts.getOutlierCount(id),
+                counts.getInlierSupport(id),
+                counts.getOutlierSupport(id));
     }
 
     /* This function picks up itemsets that have enough outlier support and risk ratio in the current pane
      * (a.k.a. itemsets that can be promoted) and starts tracking their occurrences in the window.
      *
      * Variables affected:
-     *   - trackingMap: record that we start tracking new frequent itemsets in this pane
-     *   - outlierItemsetPaneCount, inlierItemsetPaneCount, outlierItemsetWindowCount, inlierItemsetWindowCount:
-     *      add new frequent itemset counts
+     *   - counts: start tracking new frequent itemsets in this pane
      */
     private void addNewFrequent() {
         // Return when the outlier population is too small, otherwise all
         // outlying combos in the current pane might get tracked
-        if (minOutlierSupport * outlierItemsets.size() < 1) { return; }
-        double minSupport = Math.ceil(minOutlierSupport * outlierItemsets.size());
-        HashMap<Integer, Double> inlierPaneSingletonCount = new ExactCount().count(inlierItemsets).getCounts();
+        int numOutliers = outlierTransactions.length;
+        if (minOutlierSupport * numOutliers < 1) { return; }
+        double minSupport = Math.ceil(minOutlierSupport * numOutliers);
         // Get new frequent itemsets in outliers
         FPGrowth fpGrowth = new FPGrowth();
-        List<ItemsetWithCount> frequent = fpGrowth.getItemsetsWithSupportCount(outlierItemsets,
-                minSupport);
-        List<ItemsetWithCount> newFrequent = new ArrayList<>();
-        for (ItemsetWithCount iwc : frequent) {
-            Set<Integer> itemset = iwc.getItems();
-            if (!outlierItemsetWindowCount.containsKey(itemset)) {
-                newFrequent.add(iwc);
+        List<ItemsetWithCount> frequent = fpGrowth.getItemsetsWithSupportCount(
+                asSets(outlierTransactions), minSupport);
+        for (ItemsetWithCount oiwc : frequent) {
+            Set<Integer> itemset = oiwc.getItems();
+            if (counts.isTracked(itemset)) {
+                continue;
             }
-        }
-        // Get support in the inlier transactions
-        List<ItemsetWithCount> newFrequentInlierCounts = fpGrowth.getCounts(
-                inlierItemsets, inlierPaneSingletonCount, inlierPaneSingletonCount.keySet(), newFrequent);
-        for (int i = 0; i < newFrequent.size(); i ++) {
-            ItemsetWithCount iiwc = newFrequentInlierCounts.get(i);
-            ItemsetWithCount oiwc = newFrequent.get(i);
-            double exposedInlierCount = iiwc.getCount();
+            // Get support in the inlier transactions
+            double exposedInlierCount = inlierIndex.count(itemset);
             double exposedOutlierCount = oiwc.getCount();
-            double rr = RiskRatio.compute(exposedInlierCount, exposedOutlierCount, inlierItemsets.size(), outlierItemsets.size());
+            double rr = RiskRatio.compute(exposedInlierCount, exposedOutlierCount,
+                    inlierTransactions.length, numOutliers);
             if (rr >= minRiskRatio) {
-                Set<Integer> itemset = iiwc.getItems();
-                trackItemset(itemset, exposedOutlierCount, exposedInlierCount);
+                counts.track(itemset, exposedInlierCount, exposedOutlierCount);
+            }
+        }
+    }
+
+    /* FPGrowth mines itemsets from transactions as sets; only the outliers of a pane are mined. */
+    private static List<Set<Integer>> asSets(int[][] transactions) {
+        List<Set<Integer>> sets = new ArrayList<>(transactions.length);
+        for (int[] transaction : transactions) {
+            Set<Integer> set = new HashSet<>(transaction.length);
+            for (int item : transaction) {
+                set.add(item);
             }
+            sets.add(set);
         }
+        return sets;
     }
 
     @Override
     public void process(DataFrame df) {
-        // 1. Retire old pane counts if necessary
-        if (inlierPaneCounts.size() == numPanes) { expireLastPane(); }
-        // 2. Add support counts for the new pane
+        // 1. Retire the oldest pane if necessary, and add support counts for the new pane
         encodeAttributes(df);
         addNewPane();
-        // 3. Prune unsupported outlier itemsets
-        calcCumSum();
+        // 2. Prune unsupported outlier itemsets
         pruneUnsupported();
         pruneLowRR();
-        // 4. Compute new frequent outlier itemsets
+        // 3. Compute new frequent outlier itemsets
         addNewFrequent();
-        // Add final pane counts to buffer
-        inlierItemsetPaneCounts.add(inlierItemsetPaneCount);
-        outlierItemsetPaneCounts.add(outlierItemsetPaneCount);
     }
 
     /**
@@ -366,32 +255,26 @@ public class IncrementalSummarizer implements IncrementalOperator<Explanation> {
     public FPGExplanation getResults() {
         long startTime = System.currentTimeMillis();
 
-        calcCumSum();
         pruneUnsupported();
 
-        int currPanes = inlierPaneCounts.size();
         List<FPGAttributeSet> attributeSets = new ArrayList<>();
-        for (Set<Integer> itemset : outlierItemsetWindowCount.keySet()) {
-            int outlierSupport = outlierCountCumSum.get(currPanes) - outlierCountCumSum.get(trackingMap.get(itemset));
-            int inlierSupport = inlierCountCumSum.get(currPanes) - inlierCountCumSum.get(trackingMap.get(itemset));
-            double rr = RiskRatio.compute(inlierItemsetWindowCount.get(itemset),
-                    outlierItemsetWindowCount.get(itemset),
-                    inlierSupport,
-                    outlierSupport);
+        for (int id = counts.nextTracked(0); id >= 0; id = counts.nextTracked(id + 1)) {
+            double rr = getRiskRatio(id);
             // Add to output if the itemset has sufficient risk ratio
             if (rr >= minRiskRatio) {
+                double outlierCount = counts.getOutlierCount(id);
                 FPGItemsetResult result = new FPGItemsetResult(
-                        outlierItemsetWindowCount.get(itemset) / outlierSupport,
-                        outlierItemsetWindowCount.get(itemset),
+                        outlierCount / counts.getOutlierSupport(id),
+                        outlierCount,
                         rr,
-                        itemset);
+                        counts.getItemset(id));
                 attributeSets.add(new FPGAttributeSet(result, encoder));
             }
         }
         long elapsed = System.currentTimeMillis() - startTime;
         FPGExplanation explanation = new FPGExplanation(attributeSets,
-                (long) inlierCountCumSum.get(currPanes),
-                (long) outlierCountCumSum.get(currPanes),
+                counts.getNumInliers(),
+                counts.getNumOutliers(),
                 elapsed);
         return explanation;
     }
@@ -0,0 +1,81 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.fpg;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index over a batch of encoded transactions: for each item, a bitmap of the
+ * transactions that contain it, which only grows as far as the last of them, so items of
+ * rare values do not each take a bitmap of every transaction. The number of transactions
+ * containing an itemset is the cardinality of the intersection of the bitmaps of its items,
+ * so counting an itemset costs O(rows / 64) instead of a containment check against every
+ * transaction.
+ */
+public class TransactionIndex {
+    private final int numTransactions;
+    private final Map<Integer, BitSet> itemTransactions = new HashMap<>();
+    // Reused for intersections, so counting does not allocate
+    private final BitSet scratch;
+
+    public TransactionIndex(int[][] transactions) {
+        numTransactions = transactions.length;
+        for (int i = 0; i < transactions.length; i++) {
+            for (int item : transactions[i]) {
+                itemTransactions.computeIfAbsent(item, k -> new BitSet()).set(i);
+            }
+        }
+        scratch = new BitSet();
+    }
+
+    public int getNumTransactions() {
+        return numTransactions;
+    }
+
+    /**
+     * @return Number of transactions that contain the item
+     */
+    public int count(int item) {
+        BitSet transactions = itemTransactions.get(item);
+        return transactions == null ? 0 : transactions.cardinality();
+    }
+
+    /**
+     * @return Number of transactions that contain every item of the itemset
+     */
+    public int count(Set<Integer> itemset) {
+        if (itemset.isEmpty()) {
+            return numTransactions;
+        }
+        BitSet smallest = null;
+        int smallestCount = Integer.MAX_VALUE;
+        for (int item : itemset) {
+            BitSet transactions = itemTransactions.get(item);
+            if (transactions == null) {
+                return 0;
+            }
+            int count = transactions.cardinality();
+            if (count < smallestCount) {
+                smallest = transactions;
+                smallestCount = count;
+            }
+        }
+        if (itemset.size() == 1) {
+            return smallestCount;
+        }
+        // Intersect starting from the sparsest bitmap, stopping early once it is empty
+        scratch.clear();
+        scratch.or(smallest);
+        for (int item : itemset) {
+            BitSet transactions = itemTransactions.get(item);
+            if (transactions != smallest) {
+                scratch.and(transactions);
+                if (scratch.isEmpty()) {
+                    return 0;
+                }
+            }
+        }
+        return scratch.cardinality();
+    }
+}
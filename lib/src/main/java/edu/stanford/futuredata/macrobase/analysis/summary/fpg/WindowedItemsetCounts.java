@@ -0,0 +1,210 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.fpg;
+
+import java.util.*;
+
+/**
+ * Inlier and outlier counts of the itemsets tracked over a sliding window of panes.
+ *
+ * Each tracked itemset is interned to a dense id, which indexes primitive columns: the window
+ * totals, the pane the itemset was first tracked in, and, for each pane in the window, the
+ * counts in that pane. Pane columns form a ring buffer, so expiring the oldest pane subtracts its
+ * column from the window totals and reuses it for the next pane. Ids of retired itemsets are
+ * recycled, so the columns only grow with the number of itemsets tracked at once.
+ */
+public class WindowedItemsetCounts {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int numPanes;
+    // Number of panes started so far; the current pane is numPanesStarted - 1
+    private long numPanesStarted = 0;
+    // Cumulative number of inliers and outliers before each pane, indexed by pane mod (numPanes + 1)
+    private final long[] inlierCumSum;
+    private final long[] outlierCumSum;
+
+    private final Map<Set<Integer>, Integer> ids = new HashMap<>();
+    private final List<Set<Integer>> itemsets = new ArrayList<>();
+    private final BitSet tracked = new BitSet();
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int numFreeIds = 0;
+
+    private int capacity = INITIAL_CAPACITY;
+    private long[] trackedSince = new long[capacity];
+    private double[] inlierWindowCounts = new double[capacity];
+    private double[] outlierWindowCounts = new double[capacity];
+    // Indexed by pane mod numPanes, then by id
+    private final double[][] inlierPaneCounts;
+    private final double[][] outlierPaneCounts;
+
+    public WindowedItemsetCounts(int numPanes) {
+        if (numPanes < 1) {
+            throw new IllegalArgumentException("Window must have at least one pane");
+        }
+        this.numPanes = numPanes;
+        inlierCumSum = new long[numPanes + 1];
+        outlierCumSum = new long[numPanes + 1];
+        inlierPaneCounts = new double[numPanes][capacity];
+        outlierPaneCounts = new double[numPanes][capacity];
+    }
+
+    /**
+     * Start counting a new pane, expiring the oldest pane if the window is full. Itemsets left
+     * without outliers in the window are no longer tracked.
+     * @param numInliers number of inlier rows in the new pane
+     * @param numOutliers number of outlier rows in the new pane
+     */
+    public void startPane(int numInliers, int numOutliers) {
+        int slot = (int) (numPanesStarted % numPanes);
+        if (numPanesStarted >= numPanes) {
+            double[] expiredInliers = inlierPaneCounts[slot];
+            double[] expiredOutliers = outlierPaneCounts[slot];
+            for (int id = tracked.nextSetBit(0); id >= 0; id = tracked.nextSetBit(id + 1)) {
+                inlierWindowCounts[id] = Math.max(0, inlierWindowCounts[id] - expiredInliers[id]);
+                outlierWindowCounts[id] -= expiredOutliers[id];
+                if (outlierWindowCounts[id] <= 0) {
+                    untrack(id);
+                }
+            }
+            Arrays.fill(expiredInliers, 0.0);
+            Arrays.fill(expiredOutliers, 0.0);
+        }
+        int before = (int) (numPanesStarted % (numPanes + 1));
+        int after = (int) ((numPanesStarted + 1) % (numPanes + 1));
+        inlierCumSum[after] = inlierCumSum[before] + numInliers;
+        outlierCumSum[after] = outlierCumSum[before] + numOutliers;
+        numPanesStarted++;
+    }
+
+    /**
+     * @return number of panes in the window
+     */
+    public int getNumPanes() {
+        return (int) Math.min(numPanesStarted, numPanes);
+    }
+
+    public long getNumInliers() {
+        return getInlierSupportSince(getFirstPane());
+    }
+
+    public long getNumOutliers() {
+        return getOutlierSupportSince(getFirstPane());
+    }
+
+    /**
+     * Start tracking an itemset with its counts in the current pane.
+     * @return id of the itemset
+     */
+    public int track(Set<Integer> itemset, double inlierCount, double outlierCount) {
+        int id = ids.computeIfAbsent(itemset, k -> newId());
+        tracked.set(id);
+        itemsets.set(id, itemset);
+        trackedSince[id] = numPanesStarted - 1;
+        addPaneCounts(id, inlierCount, outlierCount);
+        return id;
+    }
+
+    /**
+     * Stop tracking an itemset, discarding its counts.
+     */
+    public void untrack(int id) {
+        tracked.clear(id);
+        ids.remove(itemsets.get(id));
+        itemsets.set(id, null);
+        inlierWindowCounts[id] = 0.0;
+        outlierWindowCounts[id] = 0.0;
+        for (int slot = 0; slot < numPanes; slot++) {
+            inlierPaneCounts[slot][id] = 0.0;
+            outlierPaneCounts[slot][id] = 0.0;
+        }
+        if (numFreeIds == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, 2 * numFreeIds);
+        }
+        freeIds[numFreeIds++] = id;
+    }
+
+    /**
+     * Add counts of a tracked itemset in the current pane.
+     */
+    public void addPaneCounts(int id, double inlierCount, double outlierCount) {
+        int slot = (int) ((numPanesStarted - 1) % numPanes);
+        inlierPaneCounts[slot][id] += inlierCount;
+        outlierPaneCounts[slot][id] += outlierCount;
+        inlierWindowCounts[id] += inlierCount;
+        outlierWindowCounts[id] += outlierCount;
+    }
+
+    public boolean isTracked(Set<Integer> itemset) {
+        return ids.containsKey(itemset);
+    }
+
+    /**
+     * Iterate over tracked itemsets like {@link BitSet#nextSetBit(int)}; untracking the
+     * returned id while iterating is allowed.
+     * @return the first tracked id at or after fromId, or -1 if there is none
+     */
+    public int nextTracked(int fromId) {
+        return tracked.nextSetBit(fromId);
+    }
+
+    public int getNumTracked() {
+        return tracked.cardinality();
+    }
+
+    public Set<Integer> getItemset(int id) {
+        return itemsets.get(id);
+    }
+
+    public double getInlierCount(int id) {
+        return inlierWindowCounts[id];
+    }
+
+    public double getOutlierCount(int id) {
+        return outlierWindowCounts[id];
+    }
+
+    /**
+     * @return number of inlier rows in the window since the itemset was first tracked
+     */
+    public long getInlierSupport(int id) {
+        return getInlierSupportSince(Math.max(trackedSince[id], getFirstPane()));
+    }
+
+    /**
+     * @return number of outlier rows in the window since the itemset was first tracked
+     */
+    public long getOutlierSupport(int id) {
+        return getOutlierSupportSince(Math.max(trackedSince[id], getFirstPane()));
+    }
+
+    private long getFirstPane() {
+        return numPanesStarted - getNumPanes();
+    }
+
+    private long getInlierSupportSince(long pane) {
+        return inlierCumSum[(int) (numPanesStarted % (numPanes + 1))]
+                - inlierCumSum[(int) (pane % (numPanes + 1))];
+    }
+
+    private long getOutlierSupportSince(long pane) {
+        return outlierCumSum[(int) (numPanesStarted % (numPanes + 1))]
+                - outlierCumSum[(int) (pane % (numPanes + 1))];
+    }
+
+    private int newId() {
+        if (numFreeIds > 0) {
+            return freeIds[--numFreeIds];
+        }
+        int id = itemsets.size();
+        itemsets.add(null);
+        if (id == capacity) {
+            capacity *= 2;
+            trackedSince = Arrays.copyOf(trackedSince, capacity);
+            inlierWindowCounts = Arrays.copyOf(inlierWindowCounts, capacity);
+            outlierWindowCounts = Arrays.copyOf(outlierWindowCounts, capacity);
+            for (int slot = 0; slot < numPanes; slot++) {
+                inlierPaneCounts[slot] = Arrays.copyOf(inlierPaneCounts[slot], capacity);
+                outlierPaneCounts[slot] = Arrays.copyOf(outlierPaneCounts[slot], capacity);
+            }
+        }
+        return id;
+    }
+}
@@ -1,7 +1,14 @@
 package edu.stanford.futuredata.macrobase.analysis.summary.util;
 
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.datamodel.StringDictionary;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Encode every combination of attribute names and values into a distinct integer.
@@ -16,9 +23,16 @@ public class AttributeEncoder {
     private HashMap<Integer, Map<String, Integer>> encoder;
     private int nextKey;
 
+    // Smallest number of rows of a column worth encoding as a separate task
+    private static final int minRowsPerShard = 1 << 16;
+
     private HashMap<Integer, String> valueDecoder;
     private HashMap<Integer, Integer> columnDecoder;
     private List<String> colNames;
+    private ForkJoinPool executor = null;
+    // Values and outlier counts of the chunks counted by countSupport, until keys are assigned
+    private ColumnDictionary[] chunkSupport = null;
+    private double chunkOutliers = 0;
 
     public AttributeEncoder() {
         encoder = new HashMap<>();
@@ -31,6 +45,17 @@ public class AttributeEncoder {
         this.colNames = colNames;
     }
 
+    /**
+     * Encode columns in parallel on the given pool.  Uses the default shared pool if not set.
+     */
+    public void setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+    }
+
+    private ForkJoinPool getExecutor() {
+        return executor != null ? executor : ForkJoinUtils.getDefaultPool();
+    }
+
     public int decodeColumn(int i) {return columnDecoder.get(i);}
     public String decodeColumnName(int i) {return colNames.get(columnDecoder.get(i));}
     public String decodeValue(int i) {return valueDecoder.get(i);}
@@ -51,111 +76,428 @@ public class AttributeEncoder {
         if (columns.isEmpty()) {
             return new int[0][0];
         }
+        return encodeColumnsWithSupport(columns, minSupport, outlierColumn).toRows();
+    }
 
-        int numColumns = columns.size();
-        int numRows = columns.get(0).length;
+    /**
+     * Same as {@link #encodeAttributesWithSupport}, but returns the encoded values column by column.
+     * Values with equal support are ranked by column, then by first appearance.
+     */
+    public EncodedTable encodeColumnsWithSupport(List<String[]> columns, double minSupport, double[] outlierColumn) {
+        return encodeWithSupport(sourcesOf(columns), minSupport, outlierColumn);
+    }
 
-        for (int i = 0; i < numColumns; i++) {
-            if (!encoder.containsKey(i)) {
-                encoder.put(i, new HashMap<>());
-            }
+    /**
+     * Same as {@link #encodeColumnsWithSupport(List, double, double[])}, but encodes columns of a
+     * DataFrame.  Dictionary columns are encoded from their codes, hashing each distinct value
+     * once instead of once per row.
+     */
+    public EncodedTable encodeColumnsWithSupport(DataFrame input, List<String> columnNames,
+                                                 double minSupport, double[] outlierColumn) {
+        return encodeWithSupport(sourcesOf(input, columnNames), minSupport, outlierColumn);
+    }
+
+    private EncodedTable encodeWithSupport(List<ColumnSource> columns, double minSupport, double[] outlierColumn) {
+        if (columns.isEmpty()) {
+            return new EncodedTable(new int[0][], 0);
         }
-        // Create a map from strings to the number of times
-        // each string appears in an outlier.
+
+        int numColumns = columns.size();
+        int numRows = columns.get(0).size();
+
         int numOutliers = 0;
-        HashMap<String, Double> countMap = new HashMap<>();
+        for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+            if (outlierColumn[rowIdx] > 0.0)
+                numOutliers += outlierColumn[rowIdx];
+        }
+        // Build a dictionary of each column, counting the number of times
+        // each value appears in an outlier.
+        int[][] encodedColumns = new int[numColumns][numRows];
+        ColumnDictionary[] dictionaries = buildDictionaries(columns, outlierColumn, encodedColumns);
+        int[][] keys = assignKeysWithSupport(dictionaries, minSupport * numOutliers);
+        applyKeys(dictionaries, keys, encodedColumns);
+
+        return new EncodedTable(encodedColumns, numRows);
+    }
+
+    /**
+     * Give each value with minimum support among the outliers a key equal to its rank, and every
+     * other value the key noSupport, unless the value already has a key.
+     * @param minSupportThreshold Smallest outlier count of a value with support.
+     * @return The key of each value in each column dictionary.
+     */
+    private int[][] assignKeysWithSupport(ColumnDictionary[] dictionaries, double minSupportThreshold) {
+        int numColumns = dictionaries.length;
+        // Rank the values that have minimum support among the outliers
+        // by the amount of support they have.
+        List<long[]> filterOnMinSupport = new ArrayList<>();
         for (int colIdx = 0; colIdx < numColumns; colIdx++) {
-            String[] curCol = columns.get(colIdx);
-            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
-                if (outlierColumn[rowIdx] > 0.0) {
-                    if (colIdx == 0)
-                        numOutliers += outlierColumn[rowIdx];
-                    String colVal = Integer.toString(colIdx) + curCol[rowIdx];
-                    Double curCount = countMap.get(colVal);
-                    if (curCount == null)
-                        countMap.put(colVal, outlierColumn[rowIdx]);
-                    else
-                        countMap.put(colVal, curCount + outlierColumn[rowIdx]);
+            double[] counts = dictionaries[colIdx].counts;
+            for (int id = 0; id < dictionaries[colIdx].values.size(); id++) {
+                if (counts[id] > 0.0 && counts[id] >= minSupportThreshold) {
+                    filterOnMinSupport.add(new long[]{colIdx, id});
                 }
             }
         }
+        // The sort is stable, so ties keep their column and appearance order
+        filterOnMinSupport.sort((v1, v2) -> Double.compare(
+                dictionaries[(int) v2[0]].counts[(int) v2[1]],
+                dictionaries[(int) v1[0]].counts[(int) v1[1]]));
 
-        // Rank the strings that have minimum support among the outliers
-        // by the amount of support they have.
-        double minSupportThreshold = minSupport * numOutliers;
-        List<String> filterOnMinSupport = countMap.keySet().stream()
-                .filter(line -> countMap.get(line) >= minSupportThreshold)
-                .collect(Collectors.toList());
-        filterOnMinSupport.sort((s1, s2) -> countMap.get(s2).compareTo(countMap.get(s1)));
-
-        HashMap<String, Integer> stringToRank = new HashMap<>(filterOnMinSupport.size());
+        int[][] keys = new int[numColumns][];
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            keys[colIdx] = new int[dictionaries[colIdx].values.size()];
+            Arrays.fill(keys[colIdx], noSupport);
+        }
         for (int i = 0; i < filterOnMinSupport.size(); i++) {
+            long[] value = filterOnMinSupport.get(i);
             // We must one-index ranks because IntSetAsLong does not accept zero values.
-            stringToRank.put(filterOnMinSupport.get(i), i + 1);
+            keys[(int) value[0]][(int) value[1]] = i + 1;
         }
 
-        // Encode the strings that have support with a key equal to their rank.
-        int[][] encodedAttributes = new int[numRows][numColumns];
+        // Encode the values that have support with a key equal to their rank.
         for (int colIdx = 0; colIdx < numColumns; colIdx++) {
-            Map<String, Integer> curColEncoder = encoder.get(colIdx);
-            String[] curCol = columns.get(colIdx);
-            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
-                String colVal = curCol[rowIdx];
-                String colNumAndVal = Integer.toString(colIdx) + colVal;
-                if (!curColEncoder.containsKey(colVal)) {
-                    if (stringToRank.containsKey(colNumAndVal)) {
-                        int newKey = stringToRank.get(colNumAndVal);
-                        curColEncoder.put(colVal, newKey);
-                        valueDecoder.put(newKey, colVal);
-                        columnDecoder.put(newKey, colIdx);
+            Map<String, Integer> curColEncoder = getColumnEncoder(colIdx);
+            StringDictionary values = dictionaries[colIdx].values;
+            int[] colKeys = keys[colIdx];
+            for (int id = 0; id < values.size(); id++) {
+                String colVal = values.getValue(id);
+                Integer prevKey = curColEncoder.get(colVal);
+                if (prevKey != null) {
+                    colKeys[id] = prevKey;
+                } else {
+                    curColEncoder.put(colVal, colKeys[id]);
+                    if (colKeys[id] != noSupport) {
+                        valueDecoder.put(colKeys[id], colVal);
+                        columnDecoder.put(colKeys[id], colIdx);
                         nextKey++;
-                    } else {
-                        curColEncoder.put(colVal, noSupport);
                     }
                 }
-                int curKey = curColEncoder.get(colVal);
-                encodedAttributes[rowIdx][colIdx] = curKey;
             }
         }
+        return keys;
+    }
 
-        return encodedAttributes;
+    /**
+     * Count the outlier support of the values of one chunk of an input too large to encode at
+     * once.  After every chunk has been counted, {@link #assignKeysWithSupport(double)} gives the
+     * values the keys that {@link #encodeColumnsWithSupport} would give them in the whole input,
+     * and {@link #encodeColumnsWithKeys} encodes each chunk with those keys.
+     */
+    public void countSupport(DataFrame chunk, List<String> columnNames, double[] outlierColumn) {
+        int numColumns = columnNames.size();
+        if (chunkSupport == null) {
+            chunkSupport = new ColumnDictionary[numColumns];
+            for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+                chunkSupport[colIdx] = new ColumnDictionary();
+                chunkSupport[colIdx].counts = new double[16];
+            }
+        }
+        if (numColumns == 0) {
+            return;
+        }
+        int numRows = chunk.getNumRows();
+        for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+            if (outlierColumn[rowIdx] > 0.0)
+                chunkOutliers += outlierColumn[rowIdx];
+        }
+        int[][] encodedColumns = new int[numColumns][numRows];
+        ColumnDictionary[] dictionaries = buildDictionaries(sourcesOf(chunk, columnNames),
+                outlierColumn, encodedColumns);
+        // Merge in chunk order, so ids follow first appearance in the whole input.
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            ColumnDictionary total = chunkSupport[colIdx];
+            StringDictionary values = dictionaries[colIdx].values;
+            double[] counts = dictionaries[colIdx].counts;
+            for (int id = 0; id < values.size(); id++) {
+                int totalId = total.values.getOrAdd(values.getValue(id));
+                if (totalId >= total.counts.length) {
+                    total.counts = Arrays.copyOf(total.counts, 2 * total.counts.length);
+                }
+                if (id < counts.length) {
+                    total.counts[totalId] += counts[id];
+                }
+            }
+        }
+    }
+
+    /**
+     * Assign keys to the values counted by {@link #countSupport}, as
+     * {@link #encodeColumnsWithSupport} would assign them in the whole input.
+     * @param minSupport Minimum support to be satisfied.
+     */
+    public void assignKeysWithSupport(double minSupport) {
+        if (chunkSupport == null) {
+            return;
+        }
+        assignKeysWithSupport(chunkSupport, minSupport * chunkOutliers);
+        chunkSupport = null;
+        chunkOutliers = 0;
+    }
+
+    /**
+     * Encode a chunk with the keys its values already have, encoding values without
+     * a key as noSupport.
+     */
+    public EncodedTable encodeColumnsWithKeys(DataFrame chunk, List<String> columnNames) {
+        if (columnNames.isEmpty()) {
+            return new EncodedTable(new int[0][], 0);
+        }
+        int numColumns = columnNames.size();
+        int numRows = chunk.getNumRows();
+        int[][] encodedColumns = new int[numColumns][numRows];
+        ColumnDictionary[] dictionaries = buildDictionaries(sourcesOf(chunk, columnNames), null,
+                encodedColumns);
+        int[][] keys = new int[numColumns][];
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            Map<String, Integer> curColEncoder = getColumnEncoder(colIdx);
+            StringDictionary values = dictionaries[colIdx].values;
+            keys[colIdx] = new int[values.size()];
+            for (int id = 0; id < values.size(); id++) {
+                keys[colIdx][id] = curColEncoder.getOrDefault(values.getValue(id), noSupport);
+            }
+        }
+        applyKeys(dictionaries, keys, encodedColumns);
+        return new EncodedTable(encodedColumns, numRows);
     }
 
     public int[][] encodeAttributesAsArray(List<String[]> columns) {
         if (columns.isEmpty()) {
             return new int[0][0];
         }
+        return encodeColumns(columns).toRows();
+    }
 
-        int numColumns = columns.size();
-        int numRows = columns.get(0).length;
+    /**
+     * Same as {@link #encodeAttributesAsArray}, but returns the encoded values column by column.
+     */
+    public EncodedTable encodeColumns(List<String[]> columns) {
+        return encode(sourcesOf(columns));
+    }
 
-        for (int i = 0; i < numColumns; i++) {
-            if (!encoder.containsKey(i)) {
-                encoder.put(i, new HashMap<>());
-            }
+    /**
+     * Same as {@link #encodeColumns(List)}, but encodes columns of a DataFrame.
+     * Dictionary columns are encoded from their codes.
+     */
+    public EncodedTable encodeColumns(DataFrame input, List<String> columnNames) {
+        return encode(sourcesOf(input, columnNames));
+    }
+
+    private EncodedTable encode(List<ColumnSource> columns) {
+        if (columns.isEmpty()) {
+            return new EncodedTable(new int[0][], 0);
         }
 
-        int[][] encodedAttributes = new int[numRows][numColumns];
+        int numColumns = columns.size();
+        int numRows = columns.get(0).size();
+
+        int[][] encodedColumns = new int[numColumns][numRows];
+        ColumnDictionary[] dictionaries = buildDictionaries(columns, null, encodedColumns);
 
+        int[][] keys = new int[numColumns][];
         for (int colIdx = 0; colIdx < numColumns; colIdx++) {
-            Map<String, Integer> curColEncoder = encoder.get(colIdx);
-            String[] curCol = columns.get(colIdx);
-            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
-                String colVal = curCol[rowIdx];
-                if (!curColEncoder.containsKey(colVal)) {
+            Map<String, Integer> curColEncoder = getColumnEncoder(colIdx);
+            StringDictionary values = dictionaries[colIdx].values;
+            keys[colIdx] = new int[values.size()];
+            for (int id = 0; id < values.size(); id++) {
+                String colVal = values.getValue(id);
+                Integer prevKey = curColEncoder.get(colVal);
+                if (prevKey != null) {
+                    keys[colIdx][id] = prevKey;
+                } else {
                     curColEncoder.put(colVal, nextKey);
                     valueDecoder.put(nextKey, colVal);
                     columnDecoder.put(nextKey, colIdx);
+                    keys[colIdx][id] = nextKey;
                     nextKey++;
                 }
-                int curKey = curColEncoder.get(colVal);
-                encodedAttributes[rowIdx][colIdx] = curKey;
             }
         }
+        applyKeys(dictionaries, keys, encodedColumns);
 
-        return encodedAttributes;
+        return new EncodedTable(encodedColumns, numRows);
+    }
+
+    private Map<String, Integer> getColumnEncoder(int colIdx) {
+        if (!encoder.containsKey(colIdx)) {
+            encoder.put(colIdx, new HashMap<>());
+        }
+        return encoder.get(colIdx);
+    }
+
+    /**
+     * A column to encode, either as strings or as a dictionary column.
+     */
+    private static class ColumnSource {
+        final String[] strings;
+        final DictionaryColumn dictionaryColumn;
+
+        ColumnSource(String[] strings, DictionaryColumn dictionaryColumn) {
+            this.strings = strings;
+            this.dictionaryColumn = dictionaryColumn;
+        }
+
+        int size() {
+            return strings != null ? strings.length : dictionaryColumn.size();
+        }
+    }
+
+    private static List<ColumnSource> sourcesOf(List<String[]> columns) {
+        List<ColumnSource> sources = new ArrayList<>(columns.size());
+        for (String[] column : columns) {
+            sources.add(new ColumnSource(column, null));
+        }
+        return sources;
+    }
+
+    private static List<ColumnSource> sourcesOf(DataFrame input, List<String> columnNames) {
+        List<ColumnSource> sources = new ArrayList<>(columnNames.size());
+        for (String columnName : columnNames) {
+            if (input.getSchema().getColumnTypeByName(columnName) == Schema.ColType.DICTIONARY) {
+                sources.add(new ColumnSource(null, input.getDictionaryColumnByName(columnName)));
+            } else {
+                sources.add(new ColumnSource(input.getStringColumnByName(columnName), null));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * The distinct values of a column in order of first appearance, with the outlier count
+     * of each value.  Built from per-shard dictionaries, remembering how to translate the ids
+     * of each shard.
+     */
+    private static class ColumnDictionary {
+        final StringDictionary values = new StringDictionary();
+        double[] counts = new double[0];
+        int[][] shardIds;
     }
 
+    /**
+     * Build the dictionary of each column in parallel, one task per shard of rows of a column.
+     * Leaves the id of each value within its shard in encodedColumns.
+     * @param outlierColumn Outlier count of each row, or null to skip counting.
+     */
+    private ColumnDictionary[] buildDictionaries(List<ColumnSource> columns, double[] outlierColumn,
+                                                 int[][] encodedColumns) {
+        int numColumns = columns.size();
+        int numRows = columns.get(0).size();
+        ForkJoinPool pool = getExecutor();
+        int numShards = Math.max(1, Math.min(pool.getParallelism(), numRows / minRowsPerShard));
+
+        StringDictionary[][] shardValues = new StringDictionary[numColumns][numShards];
+        double[][][] shardCounts = new double[numColumns][numShards][];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            for (int shard = 0; shard < numShards; shard++) {
+                final int curColIdx = colIdx;
+                final int curShard = shard;
+                final int start = (int) (((long) numRows * shard) / numShards);
+                final int end = (int) (((long) numRows * (shard + 1)) / numShards);
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    ColumnSource curCol = columns.get(curColIdx);
+                    int[] encodedCol = encodedColumns[curColIdx];
+                    StringDictionary values = new StringDictionary();
+                    double[] counts = new double[16];
+                    // Dictionary columns only look up a value the first time its code appears
+                    int[] codes = null;
+                    StringDictionary colDictionary = null;
+                    int[] idOfCode = null;
+                    if (curCol.dictionaryColumn != null) {
+                        codes = curCol.dictionaryColumn.getCodes();
+                        colDictionary = curCol.dictionaryColumn.getDictionary();
+                        idOfCode = new int[colDictionary.size()];
+                        Arrays.fill(idOfCode, -1);
+                    }
+                    for (int rowIdx = start; rowIdx < end; rowIdx++) {
+                        int id;
+                        if (codes != null) {
+                            id = idOfCode[codes[rowIdx]];
+                            if (id < 0) {
+                                id = values.getOrAdd(colDictionary.getValue(codes[rowIdx]));
+                                idOfCode[codes[rowIdx]] = id;
+                            }
+                        } else {
+                            id = values.getOrAdd(curCol.strings[rowIdx]);
+                        }
+                        encodedCol[rowIdx] = id;
+                        if (outlierColumn != null && outlierColumn[rowIdx] > 0.0) {
+                            if (id >= counts.length) {
+                                counts = Arrays.copyOf(counts, 2 * counts.length);
+                            }
+                            counts[id] += outlierColumn[rowIdx];
+                        }
+                    }
+                    shardValues[curColIdx][curShard] = values;
+                    shardCounts[curColIdx][curShard] = counts;
+                }));
+            }
+        }
+        ForkJoinUtils.runAll(pool, tasks);
+
+        // Merge the shards of each column in order, so ids follow first appearance in the column.
+        ColumnDictionary[] dictionaries = new ColumnDictionary[numColumns];
+        tasks.clear();
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            final int curColIdx = colIdx;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                ColumnDictionary dictionary = new ColumnDictionary();
+                dictionary.shardIds = new int[numShards][];
+                double[] counts = new double[16];
+                for (int shard = 0; shard < numShards; shard++) {
+                    StringDictionary values = shardValues[curColIdx][shard];
+                    double[] curCounts = shardCounts[curColIdx][shard];
+                    int[] ids = new int[values.size()];
+                    for (int id = 0; id < values.size(); id++) {
+                        ids[id] = dictionary.values.getOrAdd(values.getValue(id));
+                        if (ids[id] >= counts.length) {
+                            counts = Arrays.copyOf(counts, 2 * counts.length);
+                        }
+                        if (id < curCounts.length) {
+                            counts[ids[id]] += curCounts[id];
+                        }
+                    }
+                    dictionary.shardIds[shard] = ids;
+                }
+                dictionary.counts = counts;
+                dictionaries[curColIdx] = dictionary;
+            }));
+        }
+        ForkJoinUtils.runAll(pool, tasks);
+        return dictionaries;
+    }
+
+    /**
+     * Replace the per-shard ids left in encodedColumns with final keys, in parallel.
+     * @param keys The key of each value in each column dictionary.
+     */
+    private void applyKeys(ColumnDictionary[] dictionaries, int[][] keys, int[][] encodedColumns) {
+        int numColumns = encodedColumns.length;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            int[] encodedCol = encodedColumns[colIdx];
+            int[][] shardIds = dictionaries[colIdx].shardIds;
+            int[] colKeys = keys[colIdx];
+            int numShards = shardIds.length;
+            for (int shard = 0; shard < numShards; shard++) {
+                // Translate shard ids straight to keys
+                int[] shardKeys = new int[shardIds[shard].length];
+                for (int id = 0; id < shardKeys.length; id++) {
+                    shardKeys[id] = colKeys[shardIds[shard][id]];
+                }
+                final int start = (int) (((long) encodedCol.length * shard) / numShards);
+                final int end = (int) (((long) encodedCol.length * (shard + 1)) / numShards);
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    for (int rowIdx = start; rowIdx < end; rowIdx++) {
+                        encodedCol[rowIdx] = shardKeys[encodedCol[rowIdx]];
+                    }
+                }));
+            }
+        }
+        ForkJoinUtils.runAll(getExecutor(), tasks);
+    }
+
+
     public List<int[]> encodeAttributes(List<String[]> columns) {
         if (columns.isEmpty()) {
             return new ArrayList<>();
@@ -0,0 +1,59 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.util;
+
+/**
+ * Attribute values encoded by an {@link AttributeEncoder}, stored column by column.
+ * Threads work on shards of contiguous rows, which are ranges of every column
+ * rather than copies of them.
+ */
+public class EncodedTable {
+    private final int[][] columns;
+    private final int numRows;
+
+    /**
+     * @param columns Encoded columns, all of length numRows.
+     * @param numRows Number of rows.
+     */
+    public EncodedTable(int[][] columns, int numRows) {
+        this.columns = columns;
+        this.numRows = numRows;
+    }
+
+    public int getNumColumns() {
+        return columns.length;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int[] getColumn(int columnIndex) {
+        return columns[columnIndex];
+    }
+
+    public int[][] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Split the rows into numShards shards of nearly equal size.
+     * @return The first row of a shard.  Shard numShards starts one past the last row.
+     */
+    public int getShardStart(int shard, int numShards) {
+        return (int) (((long) numRows * shard) / numShards);
+    }
+
+    /**
+     * @return A row-major copy of the table.
+     */
+    public int[][] toRows() {
+        int numColumns = columns.length;
+        int[][] rows = new int[numRows][numColumns];
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            int[] curCol = columns[colIdx];
+            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+                rows[rowIdx][colIdx] = curCol[rowIdx];
+            }
+        }
+        return rows;
+    }
+}
@@ -17,6 +17,14 @@ public class IntSetAsArray implements IntSet {
         values[0] = a;
     }
 
+    /**
+     * A set of any size.  The values are copied and sorted so that equal sets compare equal.
+     */
+    public IntSetAsArray(int[] values) {
+        this.values = Arrays.copyOf(values, values.length);
+        Arrays.sort(this.values);
+    }
+
     public IntSetAsArray(IntSetAsLong newLong) {
         int a = newLong.getFirst();
         int b = newLong.getSecond();
@@ -0,0 +1,82 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.util;
+
+/**
+ * Packs sets of nonzero integers smaller than a fixed cardinality into fixed-width keys of
+ * one or more longs.  Each integer takes just enough bits to hold the cardinality, and each
+ * long holds as many whole integers as fit in its lowest 63 bits, so a set of any size
+ * can be packed and the first long of a nonempty set is always nonzero.
+ *
+ * Integers are packed in the order given, so callers must supply them in a canonical order
+ * (e.g. the order of the columns they were encoded from) for equal sets to get equal keys.
+ */
+public class IntSetPacker {
+    private final int bitsPerItem;
+    private final int itemsPerWord;
+    private final long itemMask;
+
+    public IntSetPacker(int cardinality) {
+        this.bitsPerItem = Math.max(1, 32 - Integer.numberOfLeadingZeros(cardinality));
+        this.itemsPerWord = 63 / bitsPerItem;
+        this.itemMask = (1L << bitsPerItem) - 1;
+    }
+
+    public int getBitsPerItem() {
+        return bitsPerItem;
+    }
+
+    public int getItemsPerWord() {
+        return itemsPerWord;
+    }
+
+    /**
+     * @param order Number of integers in a set.
+     * @return The number of longs needed to pack a set of that many integers.
+     */
+    public int getWidth(int order) {
+        return (order + itemsPerWord - 1) / itemsPerWord;
+    }
+
+    /**
+     * @param position Position of an integer within a set.
+     * @return The index of the long holding that integer.
+     */
+    public int wordOf(int position) {
+        return position / itemsPerWord;
+    }
+
+    /**
+     * @param position Position of an integer within a set.
+     * @return The bit offset of that integer within its long.
+     */
+    public int shiftOf(int position) {
+        return (position % itemsPerWord) * bitsPerItem;
+    }
+
+    /**
+     * Pack the first order integers of items into dst[offset, offset + getWidth(order)).
+     */
+    public void pack(int[] items, int order, long[] dst, int offset) {
+        int width = getWidth(order);
+        for (int w = 0; w < width; w++) {
+            dst[offset + w] = 0;
+        }
+        for (int i = 0; i < order; i++) {
+            dst[offset + wordOf(i)] |= ((long) items[i]) << shiftOf(i);
+        }
+    }
+
+    /**
+     * Unpack a set of order integers from src[offset, offset + getWidth(order)) into dst.
+     */
+    public void unpack(long[] src, int offset, int order, int[] dst) {
+        for (int i = 0; i < order; i++) {
+            dst[i] = (int) ((src[offset + wordOf(i)] >>> shiftOf(i)) & itemMask);
+        }
+    }
+
+    public int[] unpack(long[] src, int offset, int order) {
+        int[] items = new int[order];
+        unpack(src, offset, order, items);
+        return items;
+    }
+}
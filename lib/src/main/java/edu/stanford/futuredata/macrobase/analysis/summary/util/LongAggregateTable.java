@@ -0,0 +1,404 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.util;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * An open-addressing HashTable from primitive keys to fixed-width rows of aggregates.
+ * A key is a fixed number of longs (its width) whose first long must be nonzero, such as
+ * a set packed by {@link IntSetPacker}.  Keys and aggregates are stored in flat arrays and
+ * probed linearly, so a lookup touches neighboring memory and inserting a new key never
+ * allocates.
+ *
+ * Slots returned by {@link #findOrInsert(long)} are only stable until the table grows, so
+ * callers that hold on to slots must reserve room with {@link #ensureCapacity(int)} first.
+ */
+public class LongAggregateTable {
+    private static final int minCapacity = 16;
+    // Largest power of two number of slots, and largest array length most JVMs allow
+    private static final int maxCapacity = 1 << 30;
+    private static final int maxArraySize = Integer.MAX_VALUE - 8;
+
+    private long[] keys;
+    private double[] values;
+    private final int keyWidth;
+    private final int numAggregates;
+    private final double[] initValues;
+    private int mask;
+    private int capacity;
+    private int size = 0;
+
+    public LongAggregateTable(int expectedSize, AggregationOp[] aggregationOps) {
+        this(expectedSize, 1, aggregationOps);
+    }
+
+    public LongAggregateTable(int expectedSize, int keyWidth, AggregationOp[] aggregationOps) {
+        this.keyWidth = keyWidth;
+        this.numAggregates = aggregationOps.length;
+        this.initValues = new double[numAggregates];
+        for (int a = 0; a < numAggregates; a++) {
+            initValues[a] = aggregationOps[a].initValue();
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(long numKeys) {
+        // Keep the load factor at or below one half so probe sequences stay short.
+        if (2L * numKeys > maxCapacity) {
+            throw new IllegalStateException("Cannot hold " + numKeys + " keys in one table");
+        }
+        int realSize = minCapacity;
+        while (realSize < 2L * numKeys) {
+            realSize *= 2;
+        }
+        return realSize;
+    }
+
+    private void allocate(int newCapacity) {
+        if ((long) newCapacity * Math.max(keyWidth, numAggregates) > maxArraySize) {
+            throw new IllegalStateException("Cannot hold " + newCapacity / 2 + " keys of width "
+                    + keyWidth + " with " + numAggregates + " aggregates in one table");
+        }
+        this.capacity = newCapacity;
+        this.mask = newCapacity - 1;
+        this.keys = new long[newCapacity * keyWidth];
+        this.values = new double[newCapacity * numAggregates];
+    }
+
+    public static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    public static int hash(long[] key, int offset, int width) {
+        long h = key[offset];
+        for (int w = 1; w < width; w++) {
+            h = h * 0x9e3779b97f4a7c15L + key[offset + w];
+        }
+        return hash(h);
+    }
+
+    /**
+     * Assign a key to one of numPartitions partitions.  The partition is taken from the high
+     * bits of the hash while slots are taken from the low bits, so the keys of one partition
+     * still spread evenly over a table of their own.
+     * @return The partition of the key stored in key[offset, offset + width).
+     */
+    public static int partitionOf(long[] key, int offset, int width, int numPartitions) {
+        return (int) (((hash(key, offset, width) & 0xffffffffL) * numPartitions) >>> 32);
+    }
+
+    private boolean keyEquals(int slot, long[] key, int offset) {
+        int slotOffset = slot * keyWidth;
+        for (int w = 0; w < keyWidth; w++) {
+            if (keys[slotOffset + w] != key[offset + w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make sure that numNewKeys more keys can be inserted without the table growing.
+     * @param numNewKeys Number of keys about to be inserted.
+     */
+    public void ensureCapacity(int numNewKeys) {
+        if (2L * ((long) size + numNewKeys) <= capacity) {
+            return;
+        }
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        int oldCapacity = capacity;
+        allocate(capacityFor((long) size + numNewKeys));
+        for (int i = 0; i < oldCapacity; i++) {
+            if (oldKeys[i * keyWidth] != 0) {
+                int index = hash(oldKeys, i * keyWidth, keyWidth) & mask;
+                while (keys[index * keyWidth] != 0) {
+                    index = (index + 1) & mask;
+                }
+                System.arraycopy(oldKeys, i * keyWidth, keys, index * keyWidth, keyWidth);
+                System.arraycopy(oldValues, i * numAggregates, values, index * numAggregates, numAggregates);
+            }
+        }
+    }
+
+    /**
+     * Find the slot holding a key of width one, inserting the key with initial aggregate
+     * values if it is absent.  The table must have room for the key.
+     * @param key A nonzero key.
+     * @return The slot of the key.  Its aggregates start at slot * numAggregates in getValues().
+     */
+    public int findOrInsert(long key) {
+        int index = hash(key) & mask;
+        long curKey;
+        while ((curKey = keys[index]) != 0) {
+            if (curKey == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        System.arraycopy(initValues, 0, values, index * numAggregates, numAggregates);
+        size++;
+        return index;
+    }
+
+    /**
+     * Find the slot holding the key stored in key[offset, offset + keyWidth), inserting
+     * the key with initial aggregate values if it is absent.  The table must have room for the key.
+     * @return The slot of the key.
+     */
+    public int findOrInsert(long[] key, int offset) {
+        if (keyWidth == 1) {
+            return findOrInsert(key[offset]);
+        }
+        int index = hash(key, offset, keyWidth) & mask;
+        while (keys[index * keyWidth] != 0) {
+            if (keyEquals(index, key, offset)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        System.arraycopy(key, offset, keys, index * keyWidth, keyWidth);
+        System.arraycopy(initValues, 0, values, index * numAggregates, numAggregates);
+        size++;
+        return index;
+    }
+
+    /**
+     * @param key A nonzero key of width one.
+     * @return The slot of the key, or -1 if it is not in the table.
+     */
+    public int find(long key) {
+        int index = hash(key) & mask;
+        long curKey;
+        while ((curKey = keys[index]) != 0) {
+            if (curKey == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The slot of the key stored in key[offset, offset + keyWidth), or -1 if it is not in the table.
+     */
+    public int find(long[] key, int offset) {
+        if (keyWidth == 1) {
+            return find(key[offset]);
+        }
+        int index = hash(key, offset, keyWidth) & mask;
+        while (keys[index * keyWidth] != 0) {
+            if (keyEquals(index, key, offset)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Combine the aggregates of another table into this one.
+     * @param other Table with the same key width and aggregates as this one.
+     * @param aggregationOps How to combine each aggregate.
+     */
+    public void merge(LongAggregateTable other, AggregationOp[] aggregationOps) {
+        ensureCapacity(other.size);
+        double[] otherValues = other.values;
+        for (int i = 0; i < other.capacity; i++) {
+            if (other.keys[i * keyWidth] != 0) {
+                int offset = findOrInsert(other.keys, i * keyWidth) * numAggregates;
+                int otherOffset = i * numAggregates;
+                for (int a = 0; a < numAggregates; a++) {
+                    values[offset + a] = aggregationOps[a].combine(values[offset + a], otherValues[otherOffset + a]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort the occupied slots of this table by the partition of their keys, hashing each key once.
+     * @param numPartitions Total number of partitions, as assigned by {@link #partitionOf}.
+     * @return For each partition, the slots of the keys that fall in it.
+     */
+    public int[][] partitionSlots(int numPartitions) {
+        int[] partitions = new int[capacity];
+        int[] counts = new int[numPartitions];
+        for (int i = 0; i < capacity; i++) {
+            int keyOffset = i * keyWidth;
+            if (keys[keyOffset] != 0) {
+                int partition = partitionOf(keys, keyOffset, keyWidth, numPartitions);
+                partitions[i] = partition;
+                counts[partition]++;
+            }
+        }
+        int[][] slots = new int[numPartitions][];
+        for (int partition = 0; partition < numPartitions; partition++) {
+            slots[partition] = new int[counts[partition]];
+            counts[partition] = 0;
+        }
+        for (int i = 0; i < capacity; i++) {
+            if (keys[i * keyWidth] != 0) {
+                int partition = partitions[i];
+                slots[partition][counts[partition]++] = i;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Combines a row of aggregates of another table into a row of this one, for aggregates
+     * that depend on each other and cannot be combined one {@link AggregationOp} at a time.
+     */
+    public interface RowCombiner {
+        /**
+         * Combine otherValues[otherOffset, otherOffset + numAggregates) into
+         * values[offset, offset + numAggregates).
+         */
+        void combine(double[] values, int offset, double[] otherValues, int otherOffset);
+    }
+
+    /**
+     * @return A combiner that combines each aggregate with its own op.
+     */
+    public static RowCombiner combinerOf(AggregationOp[] aggregationOps) {
+        final int numAggregates = aggregationOps.length;
+        return (values, offset, otherValues, otherOffset) -> {
+            for (int a = 0; a < numAggregates; a++) {
+                values[offset + a] = aggregationOps[a].combine(values[offset + a], otherValues[otherOffset + a]);
+            }
+        };
+    }
+
+    /**
+     * Combine the aggregates of some of the keys of another table into this one.
+     * @param other Table with the same key width and aggregates as this one.
+     * @param combiner How to combine a row of aggregates.
+     * @param otherSlots Occupied slots of the other table to merge, such as one partition
+     *                   returned by {@link #partitionSlots}.
+     */
+    public void merge(LongAggregateTable other, RowCombiner combiner, int[] otherSlots) {
+        ensureCapacity(otherSlots.length);
+        double[] otherValues = other.values;
+        for (int i : otherSlots) {
+            int offset = findOrInsert(other.keys, i * keyWidth) * numAggregates;
+            combiner.combine(values, offset, otherValues, i * numAggregates);
+        }
+    }
+
+    /**
+     * Merge tables in parallel: each table is first split by partition in a task of its own,
+     * then each partition of every table is merged into a table of its own.  Every key is
+     * hashed once to find its partition however many partitions there are.
+     * @param tables Tables with the same key width and aggregates.
+     * @param aggregationOps How to combine each aggregate.
+     * @param numPartitions Number of tables to merge into.
+     * @param pool Pool to run the tasks on.
+     * @return Tables holding disjoint sets of keys, together holding every key of the input tables.
+     */
+    public static List<LongAggregateTable> mergePartitioned(List<LongAggregateTable> tables,
+                                                            AggregationOp[] aggregationOps,
+                                                            int numPartitions,
+                                                            ForkJoinPool pool) {
+        return mergePartitioned(tables, aggregationOps, combinerOf(aggregationOps), numPartitions, pool);
+    }
+
+    /**
+     * Merge tables in parallel, combining rows of aggregates with a combiner of their own.
+     * @param aggregationOps Aggregates of the tables, whose initial values start new rows.
+     * @see #mergePartitioned(List, AggregationOp[], int, ForkJoinPool)
+     */
+    public static List<LongAggregateTable> mergePartitioned(List<LongAggregateTable> tables,
+                                                            AggregationOp[] aggregationOps,
+                                                            RowCombiner combiner,
+                                                            int numPartitions,
+                                                            ForkJoinPool pool) {
+        if (tables.size() <= 1) {
+            return new ArrayList<>(tables);
+        }
+        final int numTables = tables.size();
+        final int[][][] slotsByTable = new int[numTables][][];
+        final List<ForkJoinTask<?>> scatterTasks = new ArrayList<>(numTables);
+        for (int t = 0; t < numTables; t++) {
+            final int curTable = t;
+            scatterTasks.add(ForkJoinTask.adapt(() -> {
+                slotsByTable[curTable] = tables.get(curTable).partitionSlots(numPartitions);
+            }));
+        }
+        ForkJoinUtils.runAll(pool, scatterTasks);
+
+        final int keyWidth = tables.get(0).getKeyWidth();
+        final List<LongAggregateTable> partitionTables = new ArrayList<>(numPartitions);
+        final List<ForkJoinTask<?>> mergeTasks = new ArrayList<>(numPartitions);
+        for (int partition = 0; partition < numPartitions; partition++) {
+            final int curPartition = partition;
+            int maxSize = 0;
+            for (int t = 0; t < numTables; t++) {
+                maxSize = Math.max(maxSize, slotsByTable[t][curPartition].length);
+            }
+            final LongAggregateTable partitionTable = new LongAggregateTable(maxSize, keyWidth, aggregationOps);
+            partitionTables.add(partitionTable);
+            mergeTasks.add(ForkJoinTask.adapt(() -> {
+                for (int t = 0; t < numTables; t++) {
+                    partitionTable.merge(tables.get(t), combiner, slotsByTable[t][curPartition]);
+                }
+            }));
+        }
+        ForkJoinUtils.runAll(pool, mergeTasks);
+        return partitionTables;
+    }
+
+    /**
+     * @param slot A slot index.
+     * @return The first long of the key stored in the slot, zero if the slot is empty.
+     */
+    public long getKey(int slot) {
+        return keys[slot * keyWidth];
+    }
+
+    /**
+     * @return The flat key storage, laid out slot by slot.  Replaced when the table grows.
+     */
+    public long[] getKeys() {
+        return keys;
+    }
+
+    public double[] getAggregates(int slot) {
+        double[] aggregates = new double[numAggregates];
+        System.arraycopy(values, slot * numAggregates, aggregates, 0, numAggregates);
+        return aggregates;
+    }
+
+    /**
+     * @return The flat aggregate storage, laid out slot by slot.  Replaced when the table grows.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    public int getKeyWidth() {
+        return keyWidth;
+    }
+
+    public int getNumAggregates() {
+        return numAggregates;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+}
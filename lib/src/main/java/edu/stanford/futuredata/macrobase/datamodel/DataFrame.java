@@ -7,14 +7,19 @@ import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Joiner;
 import edu.stanford.futuredata.macrobase.datamodel.Schema.ColType;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+import edu.stanford.futuredata.macrobase.util.IndexSorter;
+import edu.stanford.futuredata.macrobase.util.IndexSorter.RowComparator;
 import edu.stanford.futuredata.macrobase.util.MacroBaseInternalError;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.DoublePredicate;
 import java.util.function.Predicate;
 import java.util.stream.IntStream;
@@ -29,6 +34,11 @@ import org.apache.commons.lang3.StringUtils;
  * The addColumn methods are the primary means of mutating a DataFrame and are
  * especially useful during DataFrame construction. DataFrames can also be
  * initialized from a schema and a set of rows.
+ *
+ * Filtering a DataFrame does not copy it: the result is a view that shares the column
+ * arrays of the DataFrame it was filtered from and selects rows of them by index.  A column
+ * of a view is copied out the first time it is asked for, and {@link #materialize()} copies
+ * all of them.  Views see later writes to the arrays they share.
  */
 public class DataFrame {
 
@@ -37,6 +47,7 @@ public class DataFrame {
     private Schema schema;
     private ArrayList<String[]> stringCols;
     private ArrayList<double[]> doubleCols;
+    private ArrayList<DictionaryColumn> dictionaryCols;
     // external indices define a global ordering on columns, but internally each
     // column is stored with other columns of its type. Thus external indices must be
     // converted into internal type-specific indices.
@@ -44,10 +55,16 @@ public class DataFrame {
 
     private int numRows;
 
+    // Rows of the column arrays that belong to this DataFrame if it is a view, or null.
+    // Columns of a view copied out through the selection are kept in selectedCols.
+    private int[] selection;
+    private Object[] selectedCols;
+
     public DataFrame() {
         this.schema = new Schema();
         this.stringCols = new ArrayList<>();
         this.doubleCols = new ArrayList<>();
+        this.dictionaryCols = new ArrayList<>();
         this.indexToTypeIndex = new ArrayList<>();
         this.numRows = 0;
     }
@@ -78,6 +95,12 @@ public class DataFrame {
                     colValues[i] = rows.get(i).<Double>getAs(c);
                 }
                 addDoubleColumnInternal(colValues);
+            } else if (t == Schema.ColType.DICTIONARY) {
+                String[] colValues = new String[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    colValues[i] = rows.get(i).<String>getAs(c);
+                }
+                addDictionaryColumnInternal(DictionaryColumn.encode(colValues));
             } else {
                 throw new MacroBaseInternalError("Invalid ColType");
             }
@@ -98,6 +121,10 @@ public class DataFrame {
                 String[] colValues = stringColumns[stringColNum].toArray(new String[numRows]);
                 addStringColumnInternal(colValues);
                 stringColNum++;
+            } else if (t == Schema.ColType.DICTIONARY) {
+                String[] colValues = stringColumns[stringColNum].toArray(new String[numRows]);
+                addDictionaryColumnInternal(DictionaryColumn.encode(colValues));
+                stringColNum++;
             } else if (t == Schema.ColType.DOUBLE) {
                 double[] colValues = new double[numRows];
                 for (int i = 0; i < numRows; i++) {
@@ -123,9 +150,85 @@ public class DataFrame {
         other.numRows = numRows;
         other.stringCols = new ArrayList<>(stringCols);
         other.doubleCols = new ArrayList<>(doubleCols);
+        other.dictionaryCols = new ArrayList<>(dictionaryCols);
+        if (selection != null) {
+            other.selection = selection;
+            other.selectedCols = selectedCols.clone();
+        }
         return other;
     }
 
+    /**
+     * @return true if this DataFrame selects rows of columns it shares with another DataFrame.
+     */
+    public boolean isView() {
+        return selection != null;
+    }
+
+    /**
+     * Copy the rows of a view into columns of its own, after which it no longer shares any
+     * columns with the DataFrame it was filtered from.  Does nothing to other DataFrames.
+     * @return this DataFrame
+     */
+    public synchronized DataFrame materialize() {
+        if (selection == null) {
+            return this;
+        }
+        int d = schema.getNumColumns();
+        for (int c = 0; c < d; c++) {
+            Object column = selectedColumn(c);
+            int typeSubIndex = indexToTypeIndex.get(c);
+            Schema.ColType t = schema.getColumnType(c);
+            if (t == Schema.ColType.STRING) {
+                stringCols.set(typeSubIndex, (String[]) column);
+            } else if (t == Schema.ColType.DOUBLE) {
+                doubleCols.set(typeSubIndex, (double[]) column);
+            } else {
+                dictionaryCols.set(typeSubIndex, (DictionaryColumn) column);
+            }
+        }
+        selection = null;
+        selectedCols = null;
+        return this;
+    }
+
+    /**
+     * @return The rows of column columnIdx selected by this view, copied once.
+     */
+    private synchronized Object selectedColumn(int columnIdx) {
+        if (selectedCols[columnIdx] == null) {
+            int typeSubIndex = indexToTypeIndex.get(columnIdx);
+            Schema.ColType t = schema.getColumnType(columnIdx);
+            if (t == Schema.ColType.STRING) {
+                String[] oldColumn = stringCols.get(typeSubIndex);
+                String[] newColumn = new String[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    newColumn[i] = oldColumn[selection[i]];
+                }
+                selectedCols[columnIdx] = newColumn;
+            } else if (t == Schema.ColType.DOUBLE) {
+                double[] oldColumn = doubleCols.get(typeSubIndex);
+                double[] newColumn = new double[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    newColumn[i] = oldColumn[selection[i]];
+                }
+                selectedCols[columnIdx] = newColumn;
+            } else if (t == Schema.ColType.DICTIONARY) {
+                selectedCols[columnIdx] = dictionaryCols.get(typeSubIndex).select(selection);
+            } else {
+                throw new MacroBaseInternalError("Bad Column Type");
+            }
+        }
+        return selectedCols[columnIdx];
+    }
+
+    /**
+     * @return The index in the column arrays of row rowIdx of this DataFrame.
+     */
+    private int baseRow(int rowIdx) {
+        return selection == null ? rowIdx : selection[rowIdx];
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -135,11 +238,32 @@ public class DataFrame {
             return false;
         }
         final DataFrame o = (DataFrame) obj;
+        materialize();
+        o.materialize();
         return Objects.equals(schema, o.schema) &&
             Objects.equals(numRows, o.numRows) &&
             Objects.equals(indexToTypeIndex, o.indexToTypeIndex) &&
             compareStringCols(stringCols, o.stringCols) &&
-            compareDoubleCols(doubleCols, o.doubleCols);
+            compareDoubleCols(doubleCols, o.doubleCols) &&
+            compareDictionaryCols(dictionaryCols, o.dictionaryCols);
+    }
+
+    /**
+     * @return true if each DictionaryColumn in the first List contains the exact same values in the
+     * same order as the second List, whatever their codes
+     */
+    private boolean compareDictionaryCols(final List<DictionaryColumn> first,
+        final List<DictionaryColumn> second) {
+        for (int i = 0; i < first.size(); ++i) {
+            final DictionaryColumn col1 = first.get(i);
+            final DictionaryColumn col2 = second.get(i);
+            for (int j = 0; j < col1.size(); ++j) {
+                if (!Objects.equals(col1.get(j), col2.get(j))) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     /**
@@ -178,8 +302,9 @@ public class DataFrame {
 
     public Schema getSchema() {return this.schema;}
     public int getNumRows() {return numRows;}
-    public ArrayList<double[]> getDoubleCols() { return doubleCols; }
-    public ArrayList<String[]> getStringCols() { return stringCols; }
+    public ArrayList<double[]> getDoubleCols() { materialize(); return doubleCols; }
+    public ArrayList<String[]> getStringCols() { materialize(); return stringCols; }
+    public ArrayList<DictionaryColumn> getDictionaryCols() { materialize(); return dictionaryCols; }
 
     public String toString() {
         return getRows().toString();
@@ -300,6 +425,7 @@ public class DataFrame {
 
     // Fast Column-based methods
     public DataFrame addColumn(String colName, String[] colValues) {
+        materialize();
         if (numRows == 0) {
             numRows = colValues.length;
         }
@@ -310,6 +436,7 @@ public class DataFrame {
     }
 
     public DataFrame addColumn(String colName, double[] colValues) {
+        materialize();
         if (numRows == 0) {
             numRows = colValues.length;
         }
@@ -319,6 +446,17 @@ public class DataFrame {
         return this;
     }
 
+    public DataFrame addColumn(String colName, DictionaryColumn colValues) {
+        materialize();
+        if (numRows == 0) {
+            numRows = colValues.size();
+        }
+
+        schema.addColumn(ColType.DICTIONARY, colName);
+        addDictionaryColumnInternal(colValues);
+        return this;
+    }
+
     private void addStringColumnInternal(String[] colValues) {
         stringCols.add(colValues);
         indexToTypeIndex.add(stringCols.size()-1);
@@ -329,6 +467,11 @@ public class DataFrame {
         indexToTypeIndex.add(doubleCols.size()-1);
     }
 
+    private void addDictionaryColumnInternal(DictionaryColumn colValues) {
+        dictionaryCols.add(colValues);
+        indexToTypeIndex.add(dictionaryCols.size()-1);
+    }
+
     protected int[] getSubIndices(List<Integer> columns) {
         int d = columns.size();
         int[] typeSubIndices = new int[d];
@@ -353,10 +496,13 @@ public class DataFrame {
     public boolean hasColumn(String columnName) { return schema.hasColumn(columnName); }
 
     public double[] getDoubleColumn(int columnIdx) {
+        if (selection != null) {
+            return (double[]) selectedColumn(columnIdx);
+        }
         return doubleCols.get(indexToTypeIndex.get(columnIdx));
     }
     public double[] getDoubleColumnByName(String columnName) {
-        return doubleCols.get(indexToTypeIndex.get(schema.getColumnIndex(columnName)));
+        return getDoubleColumn(schema.getColumnIndex(columnName));
     }
     public ArrayList<double[]> getDoubleCols(List<Integer> columns) {
         ArrayList<double[]> cols = new ArrayList<>();
@@ -372,16 +518,36 @@ public class DataFrame {
     public ArrayList<double[]> getDoubleColsByName(List<String> columns) {
         return getDoubleCols(this.schema.getColumnIndices(columns));
     }
+    /**
+     * @return The values of a String column, or the decoded values of a Dictionary column,
+     * which are decoded once per column and shared by every caller.
+     */
     public String[] getStringColumn(int columnIdx) {
+        if (schema.getColumnType(columnIdx) == ColType.DICTIONARY) {
+            return getDictionaryColumn(columnIdx).decode();
+        }
+        if (selection != null) {
+            return (String[]) selectedColumn(columnIdx);
+        }
         return stringCols.get(indexToTypeIndex.get(columnIdx));
     }
     public String[] getStringColumnByName(String columnName) {
-        return stringCols.get(indexToTypeIndex.get(schema.getColumnIndex(columnName)));
+        return getStringColumn(schema.getColumnIndex(columnName));
+    }
+    public DictionaryColumn getDictionaryColumn(int columnIdx) {
+        if (selection != null) {
+            return (DictionaryColumn) selectedColumn(columnIdx);
+        }
+        return dictionaryCols.get(indexToTypeIndex.get(columnIdx));
+    }
+    public DictionaryColumn getDictionaryColumnByName(String columnName) {
+        return getDictionaryColumn(schema.getColumnIndex(columnName));
     }
     public ArrayList<String[]> getStringCols(List<Integer> columns) {
         ArrayList<String[]> cols = new ArrayList<>();
         for (int c : columns) {
-            if (schema.getColumnType(c) != ColType.STRING) {
+            ColType t = schema.getColumnType(c);
+            if (t != ColType.STRING && t != ColType.DICTIONARY) {
                 throw new UnsupportedOperationException(
                     "Column " + schema.getColumnName(c) + " not of type String!");
             }
@@ -420,9 +586,10 @@ public class DataFrame {
                 String[] newCol = new String[n];
                 int i = 0;
                 for (DataFrame curOther : others) {
-                    String[] otherCol = curOther.getStringColumn(colIdx);
-                    for (String curString : otherCol) {
-                        newCol[i] = curString;
+                    // Copy straight out of the arrays of views
+                    String[] otherCol = curOther.stringCols.get(curOther.indexToTypeIndex.get(colIdx));
+                    for (int j = 0; j < curOther.numRows; j++) {
+                        newCol[i] = otherCol[curOther.baseRow(j)];
                         i++;
                     }
                 }
@@ -431,13 +598,19 @@ public class DataFrame {
                 double[] newCol = new double[n];
                 int i = 0;
                 for (DataFrame curOther : others) {
-                    double[] otherCol = curOther.getDoubleColumn(colIdx);
-                    for (double curDouble : otherCol) {
-                        newCol[i] = curDouble;
+                    double[] otherCol = curOther.doubleCols.get(curOther.indexToTypeIndex.get(colIdx));
+                    for (int j = 0; j < curOther.numRows; j++) {
+                        newCol[i] = otherCol[curOther.baseRow(j)];
                         i++;
                     }
                 }
                 combined.doubleCols.add(newCol);
+            } else if (t == Schema.ColType.DICTIONARY) {
+                List<DictionaryColumn> otherCols = new ArrayList<>(k);
+                for (DataFrame curOther : others) {
+                    otherCols.add(curOther.getDictionaryColumn(colIdx));
+                }
+                combined.dictionaryCols.add(DictionaryColumn.concat(otherCols));
             } else {
                 throw new MacroBaseInternalError("Invalid Col Type");
             }
@@ -458,11 +631,25 @@ public class DataFrame {
             if (!schema.hasColumn(col)) {
                 continue;
             }
+            // Share the column arrays, and the selection of a view
+            final int typeSubIndex = indexToTypeIndex.get(schema.getColumnIndex(col));
             final ColType type = schema.getColumnTypeByName(col);
             if (type == ColType.DOUBLE) {
-                other.addColumn(col, getDoubleColumnByName(col));
+                other.schema.addColumn(type, col);
+                other.addDoubleColumnInternal(doubleCols.get(typeSubIndex));
             } else if (type == ColType.STRING) {
-                other.addColumn(col, getStringColumnByName(col));
+                other.schema.addColumn(type, col);
+                other.addStringColumnInternal(stringCols.get(typeSubIndex));
+            } else if (type == ColType.DICTIONARY) {
+                other.schema.addColumn(type, col);
+                other.addDictionaryColumnInternal(dictionaryCols.get(typeSubIndex));
+            }
+        }
+        if (other.schema.getNumColumns() > 0) {
+            other.numRows = numRows;
+            if (selection != null) {
+                other.selection = selection;
+                other.selectedCols = new Object[other.schema.getNumColumns()];
             }
         }
         return other;
@@ -470,57 +657,37 @@ public class DataFrame {
 
     /**
      * @param mask rows to select
-     * @return new DataFrame with subset of rows
+     * @return new DataFrame with subset of rows, a view sharing the columns of this one
      */
     public DataFrame filter(BitSet mask) {
-        DataFrame other = new DataFrame();
-
-        int d = schema.getNumColumns();
-        int numTrue = 0;
-        for (int i = 0; i < numRows; i++) {
-            if (mask.get(i)) {
-                numTrue++;
-            }
-        }
-        for (int c = 0; c < d; c++) {
-            Schema.ColType t = schema.getColumnType(c);
-            String columnName = schema.getColumnName(c);
-            if (t == Schema.ColType.STRING) {
-                String[] oldColumn = getStringColumn(c);
-                String[] newColumn = new String[numTrue];
-                int j = 0;
-                for (int i = 0; i < numRows; i++) {
-                    if (mask.get(i)) {
-                        newColumn[j] = oldColumn[i];
-                        j++;
-                    }
-                }
-                other.addColumn(columnName, newColumn);
-            } else if (t == Schema.ColType.DOUBLE) {
-                double[] oldColumn = getDoubleColumn(c);
-                double[] newColumn = new double[numTrue];
-                int j = 0;
-                for (int i = 0; i < numRows; i++) {
-                    if (mask.get(i)) {
-                        newColumn[j] = oldColumn[i];
-                        j++;
-                    }
-                }
-                other.addColumn(columnName, newColumn);
-            } else {
-                throw new MacroBaseInternalError("Bad Column Type");
-            }
+        int numTrue = mask.get(0, numRows).cardinality();
+        int[] newSelection = new int[numTrue];
+        int j = 0;
+        for (int i = mask.nextSetBit(0); i >= 0 && i < numRows; i = mask.nextSetBit(i + 1)) {
+            newSelection[j++] = baseRow(i);
         }
+        return view(newSelection);
+    }
+
+    /**
+     * @param rows Indices into the column arrays of this DataFrame
+     * @return new DataFrame with the given rows, sharing the columns of this one
+     */
+    private DataFrame view(int[] rows) {
+        DataFrame other = new DataFrame();
+        other.schema = schema.copy();
+        other.indexToTypeIndex = new ArrayList<>(indexToTypeIndex);
+        other.stringCols = new ArrayList<>(stringCols);
+        other.doubleCols = new ArrayList<>(doubleCols);
+        other.dictionaryCols = new ArrayList<>(dictionaryCols);
+        other.numRows = rows.length;
+        other.selection = rows;
+        other.selectedCols = new Object[schema.getNumColumns()];
         return other;
     }
 
     public DataFrame filter(int columnIdx, Predicate<Object> filter) {
-        String[] filterColumn = getStringColumn(columnIdx);
-        final BitSet mask = new BitSet(numRows);
-        for (int i = 0; i < numRows; i++) {
-          mask.set(i, filter.test(filterColumn[i]));
-        }
-        return filter(mask);
+        return filter(getMaskForFilter(columnIdx, filter));
     }
     public DataFrame filter(String columnName, Predicate<Object> filter) {
         return filter(schema.getColumnIndex(columnName), filter);
@@ -543,10 +710,27 @@ public class DataFrame {
      * on each row in the DataFrame
      */
     public BitSet getMaskForFilter(int columnIdx, Predicate<Object> filter) {
-        String[] filterColumn = getStringColumn(columnIdx);
+        if (schema.getColumnType(columnIdx) == ColType.DICTIONARY) {
+            // Test each distinct value once
+            final DictionaryColumn filterColumn = dictionaryCols.get(indexToTypeIndex.get(columnIdx));
+            final StringDictionary dictionary = filterColumn.getDictionary();
+            final boolean[] passes = new boolean[dictionary.size()];
+            for (int code = 0; code < passes.length; code++) {
+                passes[code] = filter.test(dictionary.getValue(code));
+            }
+            final int[] codes = filterColumn.getCodes();
+            final BitSet mask = new BitSet(numRows);
+            for (int i = 0; i < numRows; i++) {
+                if (passes[codes[baseRow(i)]]) {
+                    mask.set(i);
+                }
+            }
+            return mask;
+        }
+        String[] filterColumn = stringCols.get(indexToTypeIndex.get(columnIdx));
         final BitSet mask = new BitSet(numRows);
         for (int i = 0; i < numRows; i++) {
-          mask.set(i, filter.test(filterColumn[i]));
+          mask.set(i, filter.test(filterColumn[baseRow(i)]));
         }
         return mask;
     }
@@ -558,10 +742,10 @@ public class DataFrame {
      * on each row in the DataFrame
      */
     public BitSet getMaskForFilter(int columnIdx, DoublePredicate filter) {
-        double[] filterColumn = getDoubleColumn(columnIdx);
+        double[] filterColumn = doubleCols.get(indexToTypeIndex.get(columnIdx));
         final BitSet mask = new BitSet(numRows);
         for (int i = 0; i < numRows; i++) {
-            mask.set(i, filter.test(filterColumn[i]));
+            mask.set(i, filter.test(filterColumn[baseRow(i)]));
         }
         return mask;
     }
@@ -593,6 +777,9 @@ public class DataFrame {
       if (numRows < 0 || numRows >= this.numRows) {
           return this;
       }
+      if (selection != null) {
+          return view(Arrays.copyOf(selection, numRows));
+      }
       final DataFrame result = new DataFrame();
       result.schema = this.schema.copy();
       result.indexToTypeIndex = new ArrayList<>(this.indexToTypeIndex);
@@ -615,6 +802,8 @@ public class DataFrame {
                   newCol[i] = col[i];
               }
               result.doubleCols.add(newCol);
+          } else if (t == Schema.ColType.DICTIONARY) {
+              result.dictionaryCols.add(this.getDictionaryColumn(colIdx).limit(numRows));
           }
       }
       return result;
@@ -626,10 +815,13 @@ public class DataFrame {
         for (int c = 0; c < d; c++) {
             Schema.ColType t = schema.getColumnType(c);
             int typeSubIndex = indexToTypeIndex.get(c);
+            int baseRowIdx = baseRow(rowIdx);
             if (t == Schema.ColType.STRING) {
-                rowValues.add(stringCols.get(typeSubIndex)[rowIdx]);
+                rowValues.add(stringCols.get(typeSubIndex)[baseRowIdx]);
             } else if (t == Schema.ColType.DOUBLE) {
-                rowValues.add(doubleCols.get(typeSubIndex)[rowIdx]);
+                rowValues.add(doubleCols.get(typeSubIndex)[baseRowIdx]);
+            } else if (t == Schema.ColType.DICTIONARY) {
+                rowValues.add(dictionaryCols.get(typeSubIndex).get(baseRowIdx));
             } else {
                 throw new MacroBaseInternalError("Bad ColType");
             }
@@ -656,13 +848,12 @@ public class DataFrame {
     public ArrayList<double[]> getDoubleRows(List<Integer> columns) {
         ArrayList<double[]> rows = new ArrayList<>(this.numRows);
         int d = columns.size();
-        int[] typeSubIndices = getSubIndices(columns);
+        List<double[]> cols = getDoubleCols(columns);
 
         for (int i = 0; i < this.numRows; i++) {
             double[] curRow = new double[d];
             for (int j = 0; j < d; j++) {
-                int colSubIndex = typeSubIndices[j];
-                curRow[j] = doubleCols.get(colSubIndex)[i];
+                curRow[j] = cols.get(j)[i];
             }
             rows.add(curRow);
         }
@@ -671,13 +862,12 @@ public class DataFrame {
     public ArrayList<String[]> getStringRows(List<Integer> columns) {
         ArrayList<String[]> rows = new ArrayList<>(this.numRows);
         int d = columns.size();
-        int[] typeSubIndices = getSubIndices(columns);
+        List<String[]> cols = getStringCols(columns);
 
         for (int i = 0; i < this.numRows; i++) {
             String[] curRow = new String[d];
             for (int j = 0; j < d; j++) {
-                int colSubIndex = typeSubIndices[j];
-                curRow[j] = stringCols.get(colSubIndex)[i];
+                curRow[j] = cols.get(j)[i];
             }
             rows.add(curRow);
         }
@@ -692,78 +882,123 @@ public class DataFrame {
 
     /**
      * Sort DataFrame rows by a single column.
-     * // TODO: write test for OrderBy
      * @param sortCol The column to sort by
      * @param sortAsc True => sort ascending, False => sort descending
      * @return A new DataFrame with the correct sorted order. If <tt>col</tt> is
      * not in the DataFrame's schema, return the same DataFrame, unchanged
      */
     public DataFrame orderBy(final String sortCol, final boolean sortAsc) {
-      // If column is not present in DataFrame, return as is
-      if (!this.schema.hasColumn(sortCol)) {
-          return this;
-      }
+        return orderBy(Collections.singletonList(sortCol), new boolean[]{sortAsc});
+    }
 
-      final DataFrame sortedDf = new DataFrame();
-      final ColType sortColType = this.schema.getColumnTypeByName(sortCol);
-      final int numColumns = this.schema.getNumColumns();
+    /**
+     * Sort DataFrame rows by several columns.  The rows are sorted once into a permutation,
+     * and the result is a view that gathers each column through it when the column is used.
+     * Rows that tie on every column keep their order.
+     * @param sortCols The columns to sort by, most significant first. Columns that are not in
+     * the DataFrame's schema are ignored
+     * @param sortAsc For each sort column, true => sort ascending, false => sort descending
+     * @return A new DataFrame with the correct sorted order, or this DataFrame if none of the
+     * columns are in its schema
+     */
+    public DataFrame orderBy(final List<String> sortCols, final boolean[] sortAsc) {
+        return orderBy(sortCols, sortAsc, -1);
+    }
 
-      if (sortColType == ColType.DOUBLE) {
-          sortColumns(sortedDf, numColumns, getDoubleColumnByName(sortCol), sortAsc);
-      } else {
-          sortColumns(sortedDf, numColumns, getStringColumnByName(sortCol), sortAsc);
-      }
-      return sortedDf;
-    }
-
-    // TODO: this code duplication is awful, gotta think of a better way of doing this
-    private void sortColumns(final DataFrame sortedDf, final int numColumns,
-        final double[] sortColumn, final boolean sortAsc) {
-        Comparator<Integer> comparator = comparing(i -> sortColumn[i], nullsLast(
-            naturalOrder()));
-        if (!sortAsc) {
-            comparator = comparator.reversed();
-        }
-        for (int c = 0; c < numColumns; ++c) {
-            if (this.schema.getColumnType(c) == ColType.DOUBLE) {
-                final double[] origCol = this.getDoubleColumn(c);
-                final double[] newCol = IntStream.range(0, origCol.length).boxed()
-                    .sorted(comparator)
-                    .mapToDouble(i -> origCol[i]).toArray();
-                sortedDf.addColumn(this.schema.getColumnName(c), newCol);
+    /**
+     * Execute ORDER BY followed by LIMIT: take the first <tt>numRows</tt> rows in sorted order,
+     * without sorting the rest.
+     * @param numRows Number of rows to keep. If -1, sort all rows
+     * @return A new DataFrame with the first <tt>numRows</tt> rows of
+     * {@link #orderBy(List, boolean[])}
+     */
+    public DataFrame orderBy(final List<String> sortCols, final boolean[] sortAsc, final int numRows) {
+        return orderBy(sortCols, sortAsc, numRows, ForkJoinUtils.getDefaultPool());
+    }
+
+    /**
+     * {@link #orderBy(List, boolean[], int)}, sorting on the given pool instead of the default shared pool.
+     * @param executor Pool that a full sort runs on
+     */
+    public DataFrame orderBy(final List<String> sortCols, final boolean[] sortAsc, final int numRows,
+                             final ForkJoinPool executor) {
+        final RowComparator comparator = getRowComparator(sortCols, sortAsc);
+        if (numRows < 0 || numRows >= this.numRows) {
+            return comparator == null ? this : select(IndexSorter.sort(this.numRows, comparator, executor));
+        }
+        if (comparator == null) {
+            return limit(numRows);
+        }
+        // Copy the few selected rows so the result does not hold on to this DataFrame
+        return select(IndexSorter.topK(this.numRows, numRows, comparator)).materialize();
+    }
+
+    /**
+     * @return A comparator of the rows of this DataFrame by the given columns, or null if none of
+     * them are in its schema.  Strings compare with nulls last, before reversing for descending
+     * columns.
+     */
+    private RowComparator getRowComparator(final List<String> sortCols, final boolean[] sortAsc) {
+        final List<RowComparator> keys = new ArrayList<>(sortCols.size());
+        for (int i = 0; i < sortCols.size(); i++) {
+            final String sortCol = sortCols.get(i);
+            if (!schema.hasColumn(sortCol)) {
+                continue;
+            }
+            final int c = schema.getColumnIndex(sortCol);
+            final ColType t = schema.getColumnType(c);
+            final RowComparator key;
+            if (t == ColType.DOUBLE) {
+                final double[] values = getDoubleColumn(c);
+                key = (a, b) -> Double.compare(values[a], values[b]);
+            } else if (t == ColType.DICTIONARY) {
+                // Compare each distinct value once, then compare rows by rank
+                final DictionaryColumn column = getDictionaryColumn(c);
+                final StringDictionary dictionary = column.getDictionary();
+                final Comparator<String> valueOrder = nullsLast(naturalOrder());
+                final Integer[] byValue = IntStream.range(0, dictionary.size()).boxed()
+                    .sorted(comparing(dictionary::getValue, valueOrder)).toArray(Integer[]::new);
+                final int[] rank = new int[byValue.length];
+                for (int r = 0; r < byValue.length; r++) {
+                    rank[byValue[r]] = r;
+                }
+                final int[] codes = column.getCodes();
+                key = (a, b) -> Integer.compare(rank[codes[a]], rank[codes[b]]);
             } else {
-                // ColType.STRING
-                final String[] origCol = this.getStringColumn(c);
-                final String[] newCol = IntStream.range(0, origCol.length).boxed()
-                    .sorted(comparator).map(i -> origCol[i])
-                    .toArray(String[]::new);
-                sortedDf.addColumn(this.schema.getColumnName(c), newCol);
+                final String[] values = getStringColumn(c);
+                final Comparator<String> valueOrder = nullsLast(naturalOrder());
+                key = (a, b) -> valueOrder.compare(values[a], values[b]);
             }
+            keys.add(sortAsc[i] ? key : (a, b) -> key.compare(b, a));
+        }
+        if (keys.isEmpty()) {
+            return null;
+        } else if (keys.size() == 1) {
+            return keys.get(0);
         }
+        final RowComparator[] keyArray = keys.toArray(new RowComparator[0]);
+        return (a, b) -> {
+            for (RowComparator key : keyArray) {
+                final int result = key.compare(a, b);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        };
     }
 
-    private void sortColumns(final DataFrame sortedDf, final int numColumns,
-        final String[] sortColumn, final boolean sortAsc) {
-        Comparator<Integer> comparator = comparing(i -> sortColumn[i], nullsLast(naturalOrder()));
-        if (!sortAsc) {
-            comparator = comparator.reversed();
-        }
-        for (int c = 0; c < numColumns; ++c) {
-            if (this.schema.getColumnType(c) == ColType.DOUBLE) {
-                final double[] origCol = this.getDoubleColumn(c);
-                final double[] newCol = IntStream.range(0, origCol.length).boxed()
-                    .sorted(comparator)
-                    .mapToDouble(i -> origCol[i]).toArray();
-                sortedDf.addColumn(this.schema.getColumnName(c), newCol);
-            } else {
-                // ColType.STRING
-                final String[] origCol = this.getStringColumn(c);
-                final String[] newCol = IntStream.range(0, origCol.length).boxed()
-                    .sorted(comparator).map(i -> origCol[i])
-                    .toArray(String[]::new);
-                sortedDf.addColumn(this.schema.getColumnName(c), newCol);
+    /**
+     * @param rows Indices of rows of this DataFrame, in the order they should appear
+     * @return new DataFrame with the given rows, sharing the columns of this one
+     */
+    private DataFrame select(int[] rows) {
+        if (selection != null) {
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = selection[rows[i]];
             }
         }
+        return view(rows);
     }
 
 }
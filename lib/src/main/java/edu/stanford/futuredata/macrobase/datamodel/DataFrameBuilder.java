@@ -0,0 +1,211 @@
+package edu.stanford.futuredata.macrobase.datamodel;
+
+import edu.stanford.futuredata.macrobase.util.MacroBaseInternalError;
+
+import java.util.Arrays;
+
+/**
+ * Collects rows of DataFrames with a common schema into growable columns, so that a
+ * DataFrame assembled from many small batches copies each row once rather than once per
+ * {@link DataFrame#unionAll} of the batches so far.  Like {@link DictionaryColumn#concat},
+ * a dictionary column shares the dictionary of its rows as long as they all share one.
+ * Not thread-safe.
+ */
+public class DataFrameBuilder {
+    private static final int minCapacity = 16;
+
+    private final Schema schema;
+    private int numRows;
+    private int capacity;
+    // double[], String[] or int[] codes, by column index
+    private Object[] columns;
+    // Dictionary of each dictionary column, owned by this builder once rows with another
+    // dictionary are appended
+    private StringDictionary[] dictionaries;
+    private boolean[] ownsDictionary;
+    // Codes in the builder's dictionary of the values of the last foreign dictionary seen,
+    // -1 where not yet translated
+    private StringDictionary[] lastSources;
+    private int[][] lastTranslations;
+
+    public DataFrameBuilder(Schema schema) {
+        this.schema = schema.copy();
+        reset();
+    }
+
+    private void reset() {
+        int d = schema.getNumColumns();
+        numRows = 0;
+        capacity = 0;
+        columns = new Object[d];
+        dictionaries = new StringDictionary[d];
+        ownsDictionary = new boolean[d];
+        lastSources = new StringDictionary[d];
+        lastTranslations = new int[d][];
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Append all rows of a DataFrame.
+     * @return this
+     */
+    public DataFrameBuilder append(DataFrame df) {
+        int n = df.getNumRows();
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        return append(df, rows, 0, n);
+    }
+
+    /**
+     * Append rows of a DataFrame, which is materialized first if it is a view.
+     * @param df DataFrame with the same column types, in the same order, as the builder
+     * @param rows Array holding the indices of the rows to append
+     * @param offset Position in rows of the first row to append
+     * @param length Number of rows to append
+     * @return this
+     */
+    public DataFrameBuilder append(DataFrame df, int[] rows, int offset, int length) {
+        if (length == 0) {
+            return this;
+        }
+        ensureCapacity(numRows + length);
+        int d = schema.getNumColumns();
+        for (int c = 0; c < d; c++) {
+            Schema.ColType t = schema.getColumnType(c);
+            if (t == Schema.ColType.DOUBLE) {
+                double[] from = df.getDoubleColumn(c);
+                double[] to = (double[]) columns[c];
+                for (int i = 0; i < length; i++) {
+                    to[numRows + i] = from[rows[offset + i]];
+                }
+            } else if (t == Schema.ColType.STRING) {
+                String[] from = df.getStringColumn(c);
+                String[] to = (String[]) columns[c];
+                for (int i = 0; i < length; i++) {
+                    to[numRows + i] = from[rows[offset + i]];
+                }
+            } else if (t == Schema.ColType.DICTIONARY) {
+                appendCodes(c, df.getDictionaryColumn(c), rows, offset, length);
+            } else {
+                throw new MacroBaseInternalError("Bad Column Type");
+            }
+        }
+        numRows += length;
+        return this;
+    }
+
+    private void appendCodes(int c, DictionaryColumn column, int[] rows, int offset, int length) {
+        StringDictionary source = column.getDictionary();
+        int[] from = column.getCodes();
+        int[] to = (int[]) columns[c];
+        if (dictionaries[c] == null) {
+            dictionaries[c] = source;
+        }
+        if (source == dictionaries[c]) {
+            for (int i = 0; i < length; i++) {
+                to[numRows + i] = from[rows[offset + i]];
+            }
+            return;
+        }
+        if (!ownsDictionary[c]) {
+            // Move the codes appended so far into a dictionary of our own
+            StringDictionary shared = dictionaries[c];
+            StringDictionary own = new StringDictionary();
+            int[] newCodeOf = new int[shared.size()];
+            for (int code = 0; code < newCodeOf.length; code++) {
+                newCodeOf[code] = own.getOrAdd(shared.getValue(code));
+            }
+            for (int i = 0; i < numRows; i++) {
+                to[i] = newCodeOf[to[i]];
+            }
+            dictionaries[c] = own;
+            ownsDictionary[c] = true;
+        }
+        int[] translation = lastTranslations[c];
+        if (source != lastSources[c]) {
+            translation = new int[source.size()];
+            Arrays.fill(translation, -1);
+            lastSources[c] = source;
+        } else if (translation.length < source.size()) {
+            // Values added to the source since its last rows were appended
+            int oldSize = translation.length;
+            translation = Arrays.copyOf(translation, source.size());
+            Arrays.fill(translation, oldSize, translation.length, -1);
+        }
+        lastTranslations[c] = translation;
+        StringDictionary own = dictionaries[c];
+        for (int i = 0; i < length; i++) {
+            int code = from[rows[offset + i]];
+            if (translation[code] < 0) {
+                translation[code] = own.getOrAdd(source.getValue(code));
+            }
+            to[numRows + i] = translation[code];
+        }
+    }
+
+    /* Grow every column to hold at least minRows rows, doubling the capacity */
+    private void ensureCapacity(int minRows) {
+        if (minRows <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(minCapacity, capacity);
+        while (newCapacity < minRows) {
+            newCapacity *= 2;
+        }
+        int d = schema.getNumColumns();
+        for (int c = 0; c < d; c++) {
+            Schema.ColType t = schema.getColumnType(c);
+            if (t == Schema.ColType.DOUBLE) {
+                columns[c] = columns[c] == null
+                        ? new double[newCapacity] : Arrays.copyOf((double[]) columns[c], newCapacity);
+            } else if (t == Schema.ColType.STRING) {
+                columns[c] = columns[c] == null
+                        ? new String[newCapacity] : Arrays.copyOf((String[]) columns[c], newCapacity);
+            } else {
+                columns[c] = columns[c] == null
+                        ? new int[newCapacity] : Arrays.copyOf((int[]) columns[c], newCapacity);
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * Hand the rows appended so far over to a new DataFrame and empty the builder.
+     * @return DataFrame with the builder's schema and rows, in the order they were appended
+     */
+    public DataFrame build() {
+        DataFrame df = new DataFrame();
+        int d = schema.getNumColumns();
+        for (int c = 0; c < d; c++) {
+            String name = schema.getColumnName(c);
+            Schema.ColType t = schema.getColumnType(c);
+            if (t == Schema.ColType.DOUBLE) {
+                double[] column = (double[]) columns[c];
+                df.addColumn(name, column == null ? new double[0]
+                        : column.length == numRows ? column : Arrays.copyOf(column, numRows));
+            } else if (t == Schema.ColType.STRING) {
+                String[] column = (String[]) columns[c];
+                df.addColumn(name, column == null ? new String[0]
+                        : column.length == numRows ? column : Arrays.copyOf(column, numRows));
+            } else {
+                int[] column = (int[]) columns[c];
+                StringDictionary dictionary = dictionaries[c] == null
+                        ? new StringDictionary() : dictionaries[c];
+                df.addColumn(name, new DictionaryColumn(column == null ? new int[0]
+                        : column.length == numRows ? column : Arrays.copyOf(column, numRows),
+                        dictionary));
+            }
+        }
+        reset();
+        return df;
+    }
+}
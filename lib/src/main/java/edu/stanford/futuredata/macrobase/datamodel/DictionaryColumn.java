@@ -0,0 +1,136 @@
+package edu.stanford.futuredata.macrobase.datamodel;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A column of strings stored as int codes into a {@link StringDictionary}.
+ * Columns derived from one another (by filtering, limiting or reordering rows) share
+ * the same dictionary, so a value is stored once no matter how many rows or columns
+ * refer to it.  The dictionary may hold values that no row of the column uses.
+ */
+public class DictionaryColumn {
+    private final int[] codes;
+    private final StringDictionary dictionary;
+    // Values of the rows, decoded the first time they are asked for
+    private volatile String[] decoded;
+
+    public DictionaryColumn(int[] codes, StringDictionary dictionary) {
+        this.codes = codes;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return A column with the given values and a dictionary of its own.
+     */
+    public static DictionaryColumn encode(String[] values) {
+        StringDictionary dictionary = new StringDictionary();
+        int[] codes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            codes[i] = dictionary.getOrAdd(values[i]);
+        }
+        return new DictionaryColumn(codes, dictionary);
+    }
+
+    public int[] getCodes() {
+        return codes;
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int size() {
+        return codes.length;
+    }
+
+    public String get(int rowIdx) {
+        return dictionary.getValue(codes[rowIdx]);
+    }
+
+    /**
+     * @return The values of the column as strings, decoded once and shared by every caller,
+     * so they must not be modified.
+     */
+    public String[] decode() {
+        String[] values = decoded;
+        if (values == null) {
+            values = new String[codes.length];
+            for (int i = 0; i < codes.length; i++) {
+                values[i] = dictionary.getValue(codes[i]);
+            }
+            decoded = values;
+        }
+        return values;
+    }
+
+    /**
+     * @param mask Rows to select
+     * @param numTrue Number of rows set in mask
+     * @return A column with the selected rows, sharing this column's dictionary.
+     */
+    public DictionaryColumn filter(BitSet mask, int numTrue) {
+        int[] newCodes = new int[numTrue];
+        int j = 0;
+        for (int i = mask.nextSetBit(0); i >= 0 && i < codes.length; i = mask.nextSetBit(i + 1)) {
+            newCodes[j++] = codes[i];
+        }
+        return new DictionaryColumn(newCodes, dictionary);
+    }
+
+    /**
+     * @param rows Indices of the rows of the new column, in order.
+     * @return A column with the given rows, sharing this column's dictionary.
+     */
+    public DictionaryColumn select(int[] rows) {
+        int[] newCodes = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            newCodes[i] = codes[rows[i]];
+        }
+        return new DictionaryColumn(newCodes, dictionary);
+    }
+
+    /**
+     * @return A column with the first numRows rows, sharing this column's dictionary.
+     */
+    public DictionaryColumn limit(int numRows) {
+        int[] newCodes = new int[numRows];
+        System.arraycopy(codes, 0, newCodes, 0, numRows);
+        return new DictionaryColumn(newCodes, dictionary);
+    }
+
+    /**
+     * Append columns to one another.  If they all share one dictionary the result shares
+     * it too, otherwise the result gets a new dictionary holding the values of all of them.
+     * @param columns Columns to append, in order.
+     * @return A new column.
+     */
+    public static DictionaryColumn concat(List<DictionaryColumn> columns) {
+        int n = 0;
+        boolean sameDictionary = true;
+        StringDictionary first = columns.get(0).dictionary;
+        for (DictionaryColumn column : columns) {
+            n += column.codes.length;
+            sameDictionary &= column.dictionary == first;
+        }
+        StringDictionary dictionary = sameDictionary ? first : new StringDictionary();
+        int[] newCodes = new int[n];
+        int i = 0;
+        for (DictionaryColumn column : columns) {
+            if (sameDictionary) {
+                System.arraycopy(column.codes, 0, newCodes, i, column.codes.length);
+                i += column.codes.length;
+            } else {
+                // Translate the codes of each column once per value, not once per row
+                int[] newCodeOf = new int[column.dictionary.size()];
+                for (int code = 0; code < newCodeOf.length; code++) {
+                    newCodeOf[code] = dictionary.getOrAdd(column.dictionary.getValue(code));
+                }
+                for (int code : column.codes) {
+                    newCodes[i++] = newCodeOf[code];
+                }
+            }
+        }
+        return new DictionaryColumn(newCodes, dictionary);
+    }
+}
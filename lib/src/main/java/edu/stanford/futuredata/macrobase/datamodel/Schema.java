@@ -12,7 +12,9 @@ import java.util.Objects;
 public class Schema {
     public enum ColType {
         STRING,
-        DOUBLE
+        DOUBLE,
+        // Strings stored as int codes into a shared dictionary, see DictionaryColumn
+        DICTIONARY
     }
     private ArrayList<String> columnNames;
     private ArrayList<ColType> columnTypes;
@@ -101,6 +103,19 @@ public class Schema {
         }
         return names;
     }
+    /**
+     * @return Names of the columns holding strings, whether STRING or DICTIONARY, in column order.
+     */
+    public List<String> getStringColumnNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < columnNames.size(); i ++) {
+            ColType type = getColumnType(i);
+            if (type == ColType.STRING || type == ColType.DICTIONARY) {
+                names.add(getColumnName(i));
+            }
+        }
+        return names;
+    }
     public ColType getColumnType(int i) {
         return columnTypes.get(i);
     }
@@ -0,0 +1,110 @@
+package edu.stanford.futuredata.macrobase.datamodel;
+
+import java.util.Arrays;
+
+/**
+ * Assigns each distinct string (including null) a dense id, in order of first appearance.
+ * Strings are kept in an open-addressing table of ids, so a lookup costs one hashCode
+ * (cached by String) and an equals, and adding a string never allocates a map entry.
+ * Not thread-safe.
+ */
+public class StringDictionary {
+    private static final int minCapacity = 16;
+
+    // Slot -> id + 1, zero for an empty slot
+    private int[] slots;
+    private int mask;
+    // Id -> string
+    private String[] values;
+    private int size = 0;
+    private int nullId = -1;
+
+    public StringDictionary() {
+        slots = new int[minCapacity];
+        mask = minCapacity - 1;
+        values = new String[minCapacity / 2];
+    }
+
+    private static int slotHash(String s) {
+        int h = s.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return The id of s, or -1 if it has not been added.
+     */
+    public int get(String s) {
+        if (s == null) {
+            return nullId;
+        }
+        int index = slotHash(s) & mask;
+        int id;
+        while ((id = slots[index]) != 0) {
+            if (s.equals(values[id - 1])) {
+                return id - 1;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The id of s, adding it with the next id if it has not been added.
+     */
+    public int getOrAdd(String s) {
+        if (s == null) {
+            if (nullId < 0) {
+                nullId = append(null);
+            }
+            return nullId;
+        }
+        int index = slotHash(s) & mask;
+        int id;
+        while ((id = slots[index]) != 0) {
+            if (s.equals(values[id - 1])) {
+                return id - 1;
+            }
+            index = (index + 1) & mask;
+        }
+        int newId = append(s);
+        slots[index] = newId + 1;
+        if (2 * size > slots.length) {
+            grow();
+        }
+        return newId;
+    }
+
+    private int append(String s) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        values[size] = s;
+        return size++;
+    }
+
+    private void grow() {
+        int newCapacity = 2 * slots.length;
+        int[] newSlots = new int[newCapacity];
+        int newMask = newCapacity - 1;
+        for (int id = 0; id < size; id++) {
+            if (values[id] == null) {
+                continue;
+            }
+            int index = slotHash(values[id]) & newMask;
+            while (newSlots[index] != 0) {
+                index = (index + 1) & newMask;
+            }
+            newSlots[index] = id + 1;
+        }
+        slots = newSlots;
+        mask = newMask;
+    }
+
+    public String getValue(int id) {
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+}
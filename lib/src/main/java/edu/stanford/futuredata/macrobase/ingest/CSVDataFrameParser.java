@@ -3,7 +3,9 @@ package edu.stanford.futuredata.macrobase.ingest;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
 import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.datamodel.StringDictionary;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -93,12 +95,15 @@ public class CSVDataFrameParser implements DataFrameLoader {
         Schema schema = new Schema();
         int numStringColumns = 0;
         int numDoubleColumns = 0;
+        int numDictionaryColumns = 0;
         for (int c = 0; c < schemaLength; c++) {
             schema.addColumn(columnTypeList[c], columnNameList[c]);
             if (columnTypeList[c] == Schema.ColType.STRING) {
                 numStringColumns++;
             } else if (columnTypeList[c] == Schema.ColType.DOUBLE) {
                 numDoubleColumns++;
+            } else if (columnTypeList[c] == Schema.ColType.DICTIONARY) {
+                numDictionaryColumns++;
             } else {
                 throw new RuntimeException("Bad ColType");
             }
@@ -113,10 +118,20 @@ public class CSVDataFrameParser implements DataFrameLoader {
             doubleColumns[i] = new ArrayList<>();
         }
 
+        // Dictionary columns are encoded as they are read, so that only one copy of each
+        // distinct value is kept.
+        StringDictionary[] dictionaries = new StringDictionary[numDictionaryColumns];
+        int[][] dictionaryCodes = new int[numDictionaryColumns][];
+        for (int i = 0; i < numDictionaryColumns; i++) {
+            dictionaries[i] = new StringDictionary();
+            dictionaryCodes[i] = new int[1024];
+        }
+
         String[] row;
+        int numRows = 0;
         int doubleParseFailures = 0;
         while ((row = parser.parseNext()) != null) {
-            for (int c = 0, stringColNum = 0, doubleColNum = 0; c < numColumns; c++) {
+            for (int c = 0, stringColNum = 0, doubleColNum = 0, dictionaryColNum = 0; c < numColumns; c++) {
                 if (schemaIndexMap[c] >= 0) {
                     int schemaIndex = schemaIndexMap[c];
                     Schema.ColType t = columnTypeList[schemaIndex];
@@ -134,16 +149,47 @@ public class CSVDataFrameParser implements DataFrameLoader {
                             doubleParseFailures++;
                         }
                         doubleColNum++;
+                    } else if (t == Schema.ColType.DICTIONARY) {
+                        if (rowValue == null && convertNulls) {
+                            rowValue = "NULL";
+                        }
+                        int[] codes = dictionaryCodes[dictionaryColNum];
+                        if (numRows == codes.length) {
+                            codes = Arrays.copyOf(codes, 2 * codes.length);
+                            dictionaryCodes[dictionaryColNum] = codes;
+                        }
+                        codes[numRows] = dictionaries[dictionaryColNum].getOrAdd(rowValue);
+                        dictionaryColNum++;
                     } else {
                         throw new RuntimeException("Bad ColType");
                     }
                 }
             }
+            numRows++;
         }
         if (doubleParseFailures > 0)
             log.warn("{} double values failed to parse", doubleParseFailures);
 
-        DataFrame df = new DataFrame(schema, stringColumns, doubleColumns);
+        if (numDictionaryColumns == 0) {
+            return new DataFrame(schema, stringColumns, doubleColumns);
+        }
+        DataFrame df = new DataFrame();
+        for (int c = 0, stringColNum = 0, doubleColNum = 0, dictionaryColNum = 0; c < schemaLength; c++) {
+            if (columnTypeList[c] == Schema.ColType.STRING) {
+                df.addColumn(columnNameList[c], stringColumns[stringColNum++].toArray(new String[numRows]));
+            } else if (columnTypeList[c] == Schema.ColType.DOUBLE) {
+                double[] colValues = new double[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    colValues[i] = doubleColumns[doubleColNum].get(i);
+                }
+                df.addColumn(columnNameList[c], colValues);
+                doubleColNum++;
+            } else {
+                df.addColumn(columnNameList[c], new DictionaryColumn(
+                        Arrays.copyOf(dictionaryCodes[dictionaryColNum], numRows), dictionaries[dictionaryColNum]));
+                dictionaryColNum++;
+            }
+        }
         return df;
     }
 
@@ -0,0 +1,223 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.datamodel.StringDictionary;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams a CSV file into a {@link ChunkedDataFrame} of at most chunkRows rows per chunk, so that
+ * files larger than the heap can be loaded when the table spills its chunks to disk.  Each chunk
+ * is parsed into primitive double columns and dictionary-encoded string columns of its own.
+ */
+public class ChunkedCSVDataFrameParser {
+    private Logger log = LoggerFactory.getLogger(ChunkedCSVDataFrameParser.class);
+    private static final int initialChunkRows = 1024;
+
+    private final String filename;
+    private final List<String> requiredColumns;
+    private Map<String, Schema.ColType> columnTypes = new HashMap<>();
+    // when reading file, convert nulls to String "NULL" (default should be true)
+    private final boolean convertNulls;
+    private int chunkRows = 1 << 20;
+    private File spillDirectory = null;
+
+    public ChunkedCSVDataFrameParser(String filename, List<String> requiredColumns) {
+        this.filename = filename;
+        this.requiredColumns = requiredColumns;
+        this.convertNulls = true;
+    }
+
+    public ChunkedCSVDataFrameParser(String filename, Map<String, Schema.ColType> types) {
+        this(filename, types, true);
+    }
+
+    public ChunkedCSVDataFrameParser(String filename, Map<String, Schema.ColType> types, boolean convertNulls) {
+        this.filename = filename;
+        this.requiredColumns = new ArrayList<>(types.keySet());
+        this.columnTypes = types;
+        this.convertNulls = convertNulls;
+    }
+
+    public ChunkedCSVDataFrameParser setColumnTypes(Map<String, Schema.ColType> types) {
+        this.columnTypes = types;
+        return this;
+    }
+
+    /**
+     * @param chunkRows Maximum number of rows in a chunk
+     */
+    public ChunkedCSVDataFrameParser setChunkRows(int chunkRows) {
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("Chunks must have at least one row");
+        }
+        this.chunkRows = chunkRows;
+        return this;
+    }
+
+    /**
+     * @param spillDirectory Directory to spill the chunks to, or null to keep them in memory
+     */
+    public ChunkedCSVDataFrameParser setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    public ChunkedDataFrame load() throws Exception {
+        final String path = filename.replaceFirst("^~", System.getProperty("user.home"));
+        final File file = new File(path);
+        if (!file.isFile()) {
+            throw new IllegalStateException("File " + path + " cannot be found");
+        }
+        CsvParserSettings settings = new CsvParserSettings();
+        settings.getFormat().setLineSeparator("\n");
+        CsvParser parser = new CsvParser(settings);
+        ChunkedDataFrame table = new ChunkedDataFrame(spillDirectory);
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8)) {
+            parser.beginParsing(reader);
+            String[] header = parser.parseNext();
+            if (header == null) {
+                return table;
+            }
+
+            int numColumns = header.length;
+            int schemaLength = requiredColumns.size();
+            int schemaIndexMap[] = new int[numColumns];
+            Arrays.fill(schemaIndexMap, -1);
+            String[] columnNameList = new String[schemaLength];
+            Schema.ColType[] columnTypeList = new Schema.ColType[schemaLength];
+            for (int c = 0, schemaIndex = 0; c < numColumns; c++) {
+                String columnName = header[c];
+                Schema.ColType t = columnTypes.getOrDefault(columnName, Schema.ColType.STRING);
+                if (requiredColumns.contains(columnName)) {
+                    columnNameList[schemaIndex] = columnName;
+                    columnTypeList[schemaIndex] = t;
+                    schemaIndexMap[c] = schemaIndex;
+                    schemaIndex++;
+                }
+            }
+
+            Chunk chunk = new Chunk(columnTypeList);
+            int doubleParseFailures = 0;
+            String[] row;
+            while ((row = parser.parseNext()) != null) {
+                if (chunk.numRows == chunk.capacity) {
+                    chunk.grow();
+                }
+                for (int c = 0; c < numColumns; c++) {
+                    int schemaIndex = schemaIndexMap[c];
+                    if (schemaIndex < 0) {
+                        continue;
+                    }
+                    String rowValue = c < row.length ? row[c] : null;
+                    if (columnTypeList[schemaIndex] == Schema.ColType.DOUBLE) {
+                        double value;
+                        try {
+                            value = Double.parseDouble(rowValue);
+                        } catch (NumberFormatException | NullPointerException e) {
+                            value = Double.NaN;
+                            doubleParseFailures++;
+                        }
+                        chunk.doubleValues[schemaIndex][chunk.numRows] = value;
+                    } else {
+                        if (rowValue == null && convertNulls) {
+                            rowValue = "NULL";
+                        }
+                        chunk.codes[schemaIndex][chunk.numRows] = chunk.dictionaries[schemaIndex].getOrAdd(rowValue);
+                    }
+                }
+                chunk.numRows++;
+                if (chunk.numRows == chunkRows) {
+                    table.addChunk(chunk.toDataFrame(columnNameList));
+                    chunk = new Chunk(columnTypeList);
+                }
+            }
+            parser.stopParsing();
+            if (chunk.numRows > 0 || table.getNumChunks() == 0) {
+                table.addChunk(chunk.toDataFrame(columnNameList));
+            }
+            if (doubleParseFailures > 0)
+                log.warn("{} double values failed to parse", doubleParseFailures);
+        } catch (IOException e) {
+            table.close();
+            throw e;
+        }
+        log.debug("Parsed {} rows into {} chunks", table.getNumRows(), table.getNumChunks());
+        return table;
+    }
+
+    /**
+     * Columns of the chunk being parsed, indexed by schema index.
+     */
+    private class Chunk {
+        final Schema.ColType[] types;
+        final double[][] doubleValues;
+        final int[][] codes;
+        final StringDictionary[] dictionaries;
+        int numRows = 0;
+        int capacity = Math.min(chunkRows, initialChunkRows);
+
+        Chunk(Schema.ColType[] types) {
+            this.types = types;
+            this.doubleValues = new double[types.length][];
+            this.codes = new int[types.length][];
+            this.dictionaries = new StringDictionary[types.length];
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == Schema.ColType.DOUBLE) {
+                    doubleValues[c] = new double[capacity];
+                } else {
+                    codes[c] = new int[capacity];
+                    dictionaries[c] = new StringDictionary();
+                }
+            }
+        }
+
+        void grow() {
+            capacity = (int) Math.min(2L * capacity, chunkRows);
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == Schema.ColType.DOUBLE) {
+                    doubleValues[c] = Arrays.copyOf(doubleValues[c], capacity);
+                } else {
+                    codes[c] = Arrays.copyOf(codes[c], capacity);
+                }
+            }
+        }
+
+        DataFrame toDataFrame(String[] columnNames) {
+            DataFrame df = new DataFrame();
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == Schema.ColType.DOUBLE) {
+                    df.addColumn(columnNames[c], Arrays.copyOf(doubleValues[c], numRows));
+                } else if (types[c] == Schema.ColType.DICTIONARY) {
+                    df.addColumn(columnNames[c], new DictionaryColumn(
+                            Arrays.copyOf(codes[c], numRows), dictionaries[c]));
+                } else {
+                    // Rows with equal values share one String
+                    String[] column = new String[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        column[i] = dictionaries[c].getValue(codes[c][i]);
+                    }
+                    df.addColumn(columnNames[c], column);
+                }
+            }
+            return df;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A table too large to hold in memory as one DataFrame, stored as a sequence of DataFrames
+ * with the same columns.  Chunks are either kept in memory or, if the table has a spill
+ * directory, written to files in the columnar format of {@link ColumnarDataFrameWriter} and
+ * memory-mapped back one at a time when they are read, so that only the chunk being read
+ * has to fit in the heap.
+ *
+ * Iterating over the table reads the chunks in order, and can be repeated.
+ */
+public class ChunkedDataFrame implements Iterable<DataFrame>, Closeable {
+    private final File spillDirectory;
+    // Chunks kept in memory, or null for the chunks that were spilled
+    private final List<DataFrame> chunks = new ArrayList<>();
+    private final List<File> spillFiles = new ArrayList<>();
+    private Schema schema = null;
+    private long numRows = 0;
+
+    /**
+     * A table whose chunks are kept in memory.
+     */
+    public ChunkedDataFrame() {
+        this(null);
+    }
+
+    /**
+     * @param spillDirectory Directory to write the chunks to, or null to keep them in memory
+     */
+    public ChunkedDataFrame(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Append a chunk to the table, spilling it to disk if the table has a spill directory.
+     * @param chunk DataFrame with the same columns as the chunks before it
+     * @throws IOException if the chunk cannot be spilled
+     */
+    public void addChunk(DataFrame chunk) throws IOException {
+        if (schema == null) {
+            schema = chunk.getSchema().copy();
+        } else if (!schema.getColumnNames().equals(chunk.getSchema().getColumnNames())) {
+            throw new IllegalArgumentException("Chunk columns " + chunk.getSchema().getColumnNames()
+                    + " do not match table columns " + schema.getColumnNames());
+        }
+        if (spillDirectory != null) {
+            File file = File.createTempFile("chunk", ".mbc", spillDirectory);
+            file.deleteOnExit();
+            new ColumnarDataFrameWriter().writeToFile(chunk, file.getPath());
+            chunks.add(null);
+            spillFiles.add(file);
+        } else {
+            chunks.add(chunk);
+            spillFiles.add(null);
+        }
+        numRows += chunk.getNumRows();
+    }
+
+    /**
+     * @return The schema of the chunks, or an empty schema if the table has no chunks
+     */
+    public Schema getSchema() {
+        return schema != null ? schema : new Schema();
+    }
+
+    public int getNumChunks() {
+        return chunks.size();
+    }
+
+    public long getNumRows() {
+        return numRows;
+    }
+
+    public boolean isSpilled() {
+        return spillDirectory != null;
+    }
+
+    /**
+     * @return Chunk i, loaded from disk if it was spilled.  Loading a spilled chunk again
+     * returns a new DataFrame.
+     */
+    public DataFrame getChunk(int i) {
+        if (chunks.get(i) != null) {
+            return chunks.get(i);
+        }
+        try {
+            return new ColumnarDataFrameLoader(spillFiles.get(i).getPath(), null).load();
+        } catch (Exception e) {
+            throw new IllegalStateException("Chunk " + i + " cannot be loaded from "
+                    + spillFiles.get(i), e);
+        }
+    }
+
+    /**
+     * @return All the rows of the table in one DataFrame
+     */
+    public DataFrame toDataFrame() {
+        List<DataFrame> loaded = new ArrayList<>(chunks.size());
+        for (DataFrame chunk : this) {
+            loaded.add(chunk);
+        }
+        return DataFrame.unionAll(loaded);
+    }
+
+    @Override
+    public Iterator<DataFrame> iterator() {
+        return new Iterator<DataFrame>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < chunks.size();
+            }
+
+            @Override
+            public DataFrame next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getChunk(next++);
+            }
+        };
+    }
+
+    /**
+     * Delete the files of the spilled chunks.  The table cannot be read afterwards.
+     */
+    @Override
+    public void close() {
+        for (File file : spillFiles) {
+            if (file != null) {
+                file.delete();
+            }
+        }
+        chunks.clear();
+        spillFiles.clear();
+        numRows = 0;
+    }
+}
@@ -0,0 +1,147 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.datamodel.StringDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads a DataFrame written by {@link ColumnarDataFrameWriter}.  The file is memory-mapped and
+ * each column is bulk-copied out of the mapping, so nothing is parsed.
+ *
+ * Columns keep the type they were written with unless another type is set for them: String and
+ * Dictionary columns can be loaded as either, and a String column loaded as a Dictionary column
+ * is not decoded at all.
+ */
+public class ColumnarDataFrameLoader implements DataFrameLoader {
+    // FileChannel.map maps at most 2GB at a time
+    private static final int maxMapBytes = 1 << 30;
+
+    private final String filename;
+    private final List<String> requiredColumns;
+    private Map<String, Schema.ColType> columnTypes = new HashMap<>();
+
+    /**
+     * @param filename File to load
+     * @param requiredColumns Columns to load, or null to load all of them
+     */
+    public ColumnarDataFrameLoader(String filename, List<String> requiredColumns) {
+        this.filename = filename;
+        this.requiredColumns = requiredColumns;
+    }
+
+    @Override
+    public DataFrameLoader setColumnTypes(Map<String, Schema.ColType> types) {
+        this.columnTypes = types;
+        return this;
+    }
+
+    @Override
+    public DataFrame load() throws Exception {
+        String path = filename.replaceFirst("^~", System.getProperty("user.home"));
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 8 + ColumnarDataFrameWriter.FOOTER_SIZE
+                    || map(channel, 0, 4).getInt() != ColumnarDataFrameWriter.MAGIC) {
+                throw new IllegalStateException("File " + path + " is not a columnar DataFrame file");
+            }
+            int version = map(channel, 4, 4).getInt();
+            if (version != ColumnarDataFrameWriter.VERSION) {
+                throw new IllegalStateException("File " + path + " has unsupported version " + version);
+            }
+            ByteBuffer footer = map(channel, size - ColumnarDataFrameWriter.FOOTER_SIZE,
+                    ColumnarDataFrameWriter.FOOTER_SIZE);
+            long directoryOffset = footer.getLong();
+            if (footer.getInt() != ColumnarDataFrameWriter.MAGIC) {
+                throw new IllegalStateException("File " + path + " is truncated");
+            }
+
+            ByteBuffer directory = map(channel, directoryOffset,
+                    size - ColumnarDataFrameWriter.FOOTER_SIZE - directoryOffset);
+            int numRows = directory.getInt();
+            int numColumns = directory.getInt();
+            DataFrame df = new DataFrame();
+            for (int c = 0; c < numColumns; c++) {
+                byte type = directory.get();
+                String name = getString(directory);
+                long offset = directory.getLong();
+                long codesOffset = directory.getLong();
+                if (requiredColumns != null && !requiredColumns.contains(name)) {
+                    continue;
+                }
+
+                Schema.ColType storedType = type == ColumnarDataFrameWriter.DOUBLE ? Schema.ColType.DOUBLE
+                        : type == ColumnarDataFrameWriter.DICTIONARY ? Schema.ColType.DICTIONARY
+                        : Schema.ColType.STRING;
+                Schema.ColType t = columnTypes.getOrDefault(name, storedType);
+                if (storedType == Schema.ColType.DOUBLE) {
+                    if (t != Schema.ColType.DOUBLE) {
+                        throw new IllegalArgumentException("Column " + name + " is stored as " + storedType);
+                    }
+                    df.addColumn(name, getDoubles(channel, offset, numRows));
+                } else {
+                    StringDictionary dictionary = new StringDictionary();
+                    ByteBuffer values = map(channel, offset, codesOffset - offset);
+                    int numValues = values.getInt();
+                    for (int i = 0; i < numValues; i++) {
+                        dictionary.getOrAdd(getString(values));
+                    }
+                    DictionaryColumn column = new DictionaryColumn(getInts(channel, codesOffset, numRows), dictionary);
+                    if (t == Schema.ColType.DICTIONARY) {
+                        df.addColumn(name, column);
+                    } else if (t == Schema.ColType.STRING) {
+                        df.addColumn(name, column.decode());
+                    } else {
+                        throw new IllegalArgumentException("Column " + name + " is stored as " + storedType);
+                    }
+                }
+            }
+            return df;
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static double[] getDoubles(FileChannel channel, long offset, int n) throws IOException {
+        double[] values = new double[n];
+        for (int i = 0; i < n; ) {
+            int k = Math.min(n - i, maxMapBytes / 8);
+            map(channel, offset + 8L * i, 8L * k).asDoubleBuffer().get(values, i, k);
+            i += k;
+        }
+        return values;
+    }
+
+    private static int[] getInts(FileChannel channel, long offset, int n) throws IOException {
+        int[] values = new int[n];
+        for (int i = 0; i < n; ) {
+            int k = Math.min(n - i, maxMapBytes / 4);
+            map(channel, offset + 4L * i, 4L * k).asIntBuffer().get(values, i, k);
+            i += k;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,184 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.datamodel.StringDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a DataFrame in a binary columnar format that {@link ColumnarDataFrameLoader} reads back
+ * without parsing.  All values are little-endian.  The file holds:
+ * <ul>
+ *     <li>a magic number and a version</li>
+ *     <li>the columns one after the other.  Double columns are raw doubles aligned to 8 bytes.
+ *     String and Dictionary columns are a dictionary (its size, then each value as a byte length,
+ *     -1 for null, and UTF-8 bytes) followed by one int code per row aligned to 4 bytes.</li>
+ *     <li>a directory with the number of rows and columns, and the type, name and offsets
+ *     of each column</li>
+ *     <li>the offset of the directory and the magic number again</li>
+ * </ul>
+ */
+public class ColumnarDataFrameWriter {
+    static final int MAGIC = 0x4d42434c;
+    static final int VERSION = 1;
+    static final byte STRING = 0;
+    static final byte DOUBLE = 1;
+    static final byte DICTIONARY = 2;
+    static final int FOOTER_SIZE = 12;
+
+    private static final int bufferSize = 1 << 20;
+
+    public void writeToFile(DataFrame df, String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeToChannel(df, channel);
+        }
+    }
+
+    public void writeToChannel(DataFrame df, FileChannel channel) throws IOException {
+        Output out = new Output(channel);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+
+        Schema schema = df.getSchema();
+        int numColumns = schema.getNumColumns();
+        byte[] types = new byte[numColumns];
+        long[] offsets = new long[numColumns];
+        long[] codeOffsets = new long[numColumns];
+        for (int c = 0; c < numColumns; c++) {
+            Schema.ColType t = schema.getColumnType(c);
+            if (t == Schema.ColType.DOUBLE) {
+                types[c] = DOUBLE;
+                out.align(8);
+                offsets[c] = out.position();
+                out.putDoubles(df.getDoubleColumn(c));
+            } else {
+                DictionaryColumn column;
+                if (t == Schema.ColType.DICTIONARY) {
+                    types[c] = DICTIONARY;
+                    column = df.getDictionaryColumn(c);
+                } else {
+                    types[c] = STRING;
+                    column = DictionaryColumn.encode(df.getStringColumn(c));
+                }
+                offsets[c] = out.position();
+                StringDictionary dictionary = column.getDictionary();
+                out.putInt(dictionary.size());
+                for (int code = 0; code < dictionary.size(); code++) {
+                    out.putString(dictionary.getValue(code));
+                }
+                out.align(4);
+                codeOffsets[c] = out.position();
+                out.putInts(column.getCodes());
+            }
+        }
+
+        long directoryOffset = out.position();
+        out.putInt(df.getNumRows());
+        out.putInt(numColumns);
+        for (int c = 0; c < numColumns; c++) {
+            out.putByte(types[c]);
+            out.putString(schema.getColumnName(c));
+            out.putLong(offsets[c]);
+            out.putLong(codeOffsets[c]);
+        }
+        out.putLong(directoryOffset);
+        out.putInt(MAGIC);
+        out.flush();
+    }
+
+    /**
+     * Buffers little-endian values on their way to a channel.
+     */
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        private long flushed = 0;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void reserve(int numBytes) throws IOException {
+            if (buffer.remaining() < numBytes) {
+                flush();
+            }
+        }
+
+        void align(int alignment) throws IOException {
+            while (position() % alignment != 0) {
+                putByte((byte) 0);
+            }
+        }
+
+        void putByte(byte value) throws IOException {
+            reserve(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            reserve(8);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int i = 0; i < bytes.length; ) {
+                reserve(1);
+                int k = Math.min(bytes.length - i, buffer.remaining());
+                buffer.put(bytes, i, k);
+                i += k;
+            }
+        }
+
+        void putDoubles(double[] values) throws IOException {
+            for (int i = 0; i < values.length; ) {
+                reserve(8);
+                int k = Math.min(values.length - i, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(values, i, k);
+                buffer.position(buffer.position() + 8 * k);
+                i += k;
+            }
+        }
+
+        void putInts(int[] values) throws IOException {
+            for (int i = 0; i < values.length; ) {
+                reserve(4);
+                int k = Math.min(values.length - i, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, i, k);
+                buffer.position(buffer.position() + 4 * k);
+                i += k;
+            }
+        }
+    }
+}
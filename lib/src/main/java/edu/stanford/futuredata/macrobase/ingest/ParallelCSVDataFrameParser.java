@@ -0,0 +1,445 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import com.google.common.io.ByteStreams;
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.datamodel.StringDictionary;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads a CSV file on several threads.  The file is split into byte ranges that begin and end
+ * on record boundaries, each range is parsed into primitive double columns and dictionary-encoded
+ * string columns of its own, and the ranges are then stitched together in file order.
+ *
+ * Record boundaries follow the quoting of the file, so newlines inside quoted values do not
+ * split a record.  Whether a newline ends a record depends on the quoting before it, so each
+ * range is scanned in parallel from every state the quoting can be in at its start, and the
+ * states at the start of the ranges are then chained together in file order to pick the
+ * boundaries.
+ */
+public class ParallelCSVDataFrameParser implements DataFrameLoader {
+    private Logger log = LoggerFactory.getLogger(ParallelCSVDataFrameParser.class);
+    private static final int initialChunkRows = 1024;
+
+    // States of the quoting of a CSV file, as the parser tracks it: a quote opens a value only at
+    // the start of a field, possibly after blanks, and a doubled quote inside a value is an escape
+    private static final int FIELD_START = 0;
+    private static final int IN_FIELD = 1;
+    private static final int AFTER_QUOTE = 2;
+    private static final int QUOTED = 3;
+    private static final int numStates = 4;
+    // State after each byte, by state before it
+    private static final byte[][] transitions = new byte[numStates][256];
+    static {
+        for (int b = 0; b < 256; b++) {
+            transitions[QUOTED][b] = (byte) (b == '"' ? AFTER_QUOTE : QUOTED);
+            for (int state = FIELD_START; state < QUOTED; state++) {
+                int next;
+                if (b == '"') {
+                    next = state == IN_FIELD ? IN_FIELD : QUOTED;
+                } else if (b == ',' || b == '\n') {
+                    next = FIELD_START;
+                } else if (b == ' ' || b == '\t' || b == '\r') {
+                    next = state;
+                } else {
+                    next = IN_FIELD;
+                }
+                transitions[state][b] = (byte) next;
+            }
+        }
+    }
+
+    private final String filename;
+    private final List<String> requiredColumns;
+    private Map<String, Schema.ColType> columnTypes = new HashMap<>();
+    // when reading file, convert nulls to String "NULL" (default should be true)
+    private final boolean convertNulls;
+    // ranges smaller than this are not worth a task of their own
+    private long minBytesPerChunk = 1 << 20;
+    private ForkJoinPool executor = null;
+
+    public ParallelCSVDataFrameParser(String filename, List<String> requiredColumns) {
+        this.filename = filename;
+        this.requiredColumns = requiredColumns;
+        this.convertNulls = true;
+    }
+
+    public ParallelCSVDataFrameParser(String filename, Map<String, Schema.ColType> types) {
+        this(filename, types, true);
+    }
+
+    public ParallelCSVDataFrameParser(String filename, Map<String, Schema.ColType> types, boolean convertNulls) {
+        this.filename = filename;
+        this.requiredColumns = new ArrayList<>(types.keySet());
+        this.columnTypes = types;
+        this.convertNulls = convertNulls;
+    }
+
+    @Override
+    public DataFrameLoader setColumnTypes(Map<String, Schema.ColType> types) {
+        this.columnTypes = types;
+        return this;
+    }
+
+    public ParallelCSVDataFrameParser setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public ForkJoinPool getExecutor() {
+        return executor != null ? executor : ForkJoinUtils.getDefaultPool();
+    }
+
+    public ParallelCSVDataFrameParser setMinBytesPerChunk(long minBytesPerChunk) {
+        this.minBytesPerChunk = minBytesPerChunk;
+        return this;
+    }
+
+    private static CsvParser newParser() {
+        CsvParserSettings settings = new CsvParserSettings();
+        settings.getFormat().setLineSeparator("\n");
+        return new CsvParser(settings);
+    }
+
+    @Override
+    public DataFrame load() throws Exception {
+        final String path = filename.replaceFirst("^~", System.getProperty("user.home"));
+        final File file = new File(path);
+        if (!file.isFile()) {
+            throw new IllegalStateException("File " + path + " cannot be found");
+        }
+        final ForkJoinPool pool = getExecutor();
+
+        String[] header;
+        long bodyStart;
+        long fileLength;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            fileLength = in.length();
+            bodyStart = headerEnd(in);
+            byte[] headerBytes = new byte[(int) bodyStart];
+            in.seek(0);
+            in.readFully(headerBytes);
+            header = newParser().parseLine(new String(headerBytes, StandardCharsets.UTF_8));
+        }
+
+        // Scan the ranges, each starting just before its target so that a newline right before
+        // the target ends the previous range
+        long bodyLength = fileLength - bodyStart;
+        int numChunks = (int) Math.max(1,
+                Math.min(bodyLength / minBytesPerChunk, 4L * pool.getParallelism()));
+        long[] scanStarts = new long[numChunks + 1];
+        scanStarts[0] = bodyStart;
+        scanStarts[numChunks] = fileLength;
+        for (int i = 1; i < numChunks; i++) {
+            scanStarts[i] = bodyStart + bodyLength * i / numChunks - 1;
+        }
+        RangeScan[] scans = new RangeScan[numChunks];
+        List<ForkJoinTask<?>> scanTasks = new ArrayList<>(numChunks);
+        for (int i = 0; i < numChunks; i++) {
+            final int chunkIdx = i;
+            scanTasks.add(ForkJoinTask.adapt(() -> {
+                scans[chunkIdx] = new RangeScan(file, scanStarts[chunkIdx], scanStarts[chunkIdx + 1]);
+            }));
+        }
+        ForkJoinUtils.runAll(pool, scanTasks);
+
+        // Chain the states at the start of the ranges, the body starting at the start of a field
+        long[] chunkStarts = new long[numChunks + 1];
+        chunkStarts[0] = bodyStart;
+        chunkStarts[numChunks] = fileLength;
+        int state = FIELD_START;
+        for (int i = 0; i < numChunks; i++) {
+            if (i > 0) {
+                chunkStarts[i] = scans[i].recordStarts[state];
+            }
+            state = scans[i].endStates[state];
+        }
+        // A range within a single record is empty, starting where the next range does
+        for (int i = numChunks - 1; i > 0; i--) {
+            if (chunkStarts[i] < 0) {
+                chunkStarts[i] = chunkStarts[i + 1];
+            }
+        }
+
+        int numColumns = header.length;
+        int schemaLength = requiredColumns.size();
+        int schemaIndexMap[] = new int[numColumns];
+        Arrays.fill(schemaIndexMap, -1);
+        String[] columnNameList = new String[schemaLength];
+        Schema.ColType[] columnTypeList = new Schema.ColType[schemaLength];
+        for (int c = 0, schemaIndex = 0; c < numColumns; c++) {
+            String columnName = header[c];
+            Schema.ColType t = columnTypes.getOrDefault(columnName, Schema.ColType.STRING);
+            if (requiredColumns.contains(columnName)) {
+                columnNameList[schemaIndex] = columnName;
+                columnTypeList[schemaIndex] = t;
+                schemaIndexMap[c] = schemaIndex;
+                schemaIndex++;
+            }
+        }
+
+        // Parse the ranges
+        Chunk[] chunks = new Chunk[numChunks];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(numChunks);
+        for (int i = 0; i < numChunks; i++) {
+            final int chunkIdx = i;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                Chunk chunk = new Chunk(columnTypeList);
+                chunk.parse(file, chunkStarts[chunkIdx], chunkStarts[chunkIdx + 1], schemaIndexMap);
+                chunks[chunkIdx] = chunk;
+            }));
+        }
+        ForkJoinUtils.runAll(pool, tasks);
+
+        int[] rowOffsets = new int[numChunks + 1];
+        int doubleParseFailures = 0;
+        for (int i = 0; i < numChunks; i++) {
+            rowOffsets[i + 1] = rowOffsets[i] + chunks[i].numRows;
+            doubleParseFailures += chunks[i].doubleParseFailures;
+        }
+        if (doubleParseFailures > 0)
+            log.warn("{} double values failed to parse", doubleParseFailures);
+
+        // Stitch the ranges together one column at a time
+        final int numRows = rowOffsets[numChunks];
+        Object[] columns = new Object[schemaLength];
+        tasks.clear();
+        for (int c = 0; c < schemaLength; c++) {
+            final int schemaIndex = c;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                columns[schemaIndex] = stitchColumn(chunks, rowOffsets, schemaIndex, columnTypeList[schemaIndex]);
+            }));
+        }
+        ForkJoinUtils.runAll(pool, tasks);
+
+        DataFrame df = new DataFrame();
+        for (int c = 0; c < schemaLength; c++) {
+            if (columnTypeList[c] == Schema.ColType.DOUBLE) {
+                df.addColumn(columnNameList[c], (double[]) columns[c]);
+            } else if (columnTypeList[c] == Schema.ColType.DICTIONARY) {
+                df.addColumn(columnNameList[c], (DictionaryColumn) columns[c]);
+            } else {
+                df.addColumn(columnNameList[c], (String[]) columns[c]);
+            }
+        }
+        log.debug("Parsed {} rows in {} ranges", numRows, numChunks);
+        return df;
+    }
+
+    private static Object stitchColumn(Chunk[] chunks, int[] rowOffsets, int schemaIndex, Schema.ColType t) {
+        int numRows = rowOffsets[chunks.length];
+        if (t == Schema.ColType.DOUBLE) {
+            double[] column = new double[numRows];
+            for (int i = 0; i < chunks.length; i++) {
+                System.arraycopy(chunks[i].doubleValues[schemaIndex], 0, column, rowOffsets[i], chunks[i].numRows);
+            }
+            return column;
+        } else if (t == Schema.ColType.DICTIONARY) {
+            List<DictionaryColumn> parts = new ArrayList<>(chunks.length);
+            for (Chunk chunk : chunks) {
+                parts.add(new DictionaryColumn(
+                        Arrays.copyOf(chunk.codes[schemaIndex], chunk.numRows), chunk.dictionaries[schemaIndex]));
+            }
+            return DictionaryColumn.concat(parts);
+        } else if (t == Schema.ColType.STRING) {
+            // Rows of a range with equal values share one String
+            String[] column = new String[numRows];
+            for (int i = 0; i < chunks.length; i++) {
+                int[] codes = chunks[i].codes[schemaIndex];
+                StringDictionary dictionary = chunks[i].dictionaries[schemaIndex];
+                for (int j = 0, row = rowOffsets[i]; j < chunks[i].numRows; j++, row++) {
+                    column[row] = dictionary.getValue(codes[j]);
+                }
+            }
+            return column;
+        } else {
+            throw new RuntimeException("Bad ColType");
+        }
+    }
+
+    /**
+     * @return The offset just past the first '\n' that ends a record, or the length of the file.
+     */
+    private static long headerEnd(RandomAccessFile in) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        int state = FIELD_START;
+        long pos = 0;
+        in.seek(0);
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+                if (b == '\n' && state != QUOTED) {
+                    return pos + i + 1;
+                }
+                state = transitions[state][b & 0xff];
+            }
+            pos += length;
+        }
+        return pos;
+    }
+
+    /**
+     * Where the records of a byte range begin and what state the quoting ends in, for each
+     * state the quoting could be in at the start of the range.  Every start state is followed
+     * until they all agree, after which the rest of the range is scanned once.
+     */
+    private static class RangeScan {
+        final int[] endStates = new int[numStates];
+        // Offset just past the first '\n' that ends a record, or -1 if the range has none
+        final long[] recordStarts = new long[numStates];
+
+        RangeScan(File file, long start, long end) {
+            int[] states = new int[numStates];
+            for (int s = 0; s < numStates; s++) {
+                states[s] = s;
+                recordStarts[s] = -1;
+            }
+            boolean converged = false;
+            int numPending = numStates;
+            int state = FIELD_START;
+            byte[] buffer = new byte[1 << 16];
+            try (FileInputStream in = new FileInputStream(file)) {
+                in.getChannel().position(start);
+                long pos = start;
+                while (pos < end) {
+                    int length = in.read(buffer, 0, (int) Math.min(buffer.length, end - pos));
+                    if (length <= 0) {
+                        break;
+                    }
+                    for (int i = 0; i < length; i++) {
+                        byte b = buffer[i];
+                        int c = b & 0xff;
+                        if (converged) {
+                            if (numPending > 0 && b == '\n' && state != QUOTED) {
+                                for (int s = 0; s < numStates; s++) {
+                                    if (recordStarts[s] < 0) {
+                                        recordStarts[s] = pos + i + 1;
+                                    }
+                                }
+                                numPending = 0;
+                            }
+                            state = transitions[state][c];
+                            continue;
+                        }
+                        for (int s = 0; s < numStates; s++) {
+                            if (b == '\n' && states[s] != QUOTED && recordStarts[s] < 0) {
+                                recordStarts[s] = pos + i + 1;
+                                numPending--;
+                            }
+                            states[s] = transitions[states[s]][c];
+                        }
+                        converged = states[0] == states[1] && states[0] == states[2] && states[0] == states[3];
+                        state = states[0];
+                    }
+                    pos += length;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("File " + file + " cannot be read", e);
+            }
+            for (int s = 0; s < numStates; s++) {
+                endStates[s] = converged ? state : states[s];
+            }
+        }
+    }
+
+    /**
+     * Columns parsed from one byte range of the file, indexed by schema index.
+     */
+    private class Chunk {
+        final Schema.ColType[] types;
+        final double[][] doubleValues;
+        final int[][] codes;
+        final StringDictionary[] dictionaries;
+        int numRows = 0;
+        int capacity = initialChunkRows;
+        int doubleParseFailures = 0;
+
+        Chunk(Schema.ColType[] types) {
+            this.types = types;
+            this.doubleValues = new double[types.length][];
+            this.codes = new int[types.length][];
+            this.dictionaries = new StringDictionary[types.length];
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == Schema.ColType.DOUBLE) {
+                    doubleValues[c] = new double[initialChunkRows];
+                } else {
+                    codes[c] = new int[initialChunkRows];
+                    dictionaries[c] = new StringDictionary();
+                }
+            }
+        }
+
+        void parse(File file, long start, long end, int[] schemaIndexMap) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                in.getChannel().position(start);
+                CsvParser parser = newParser();
+                parser.beginParsing(new InputStreamReader(
+                        ByteStreams.limit(in, end - start), StandardCharsets.UTF_8));
+                String[] row;
+                while ((row = parser.parseNext()) != null) {
+                    if (numRows == capacity) {
+                        grow();
+                    }
+                    for (int c = 0; c < schemaIndexMap.length; c++) {
+                        int schemaIndex = schemaIndexMap[c];
+                        if (schemaIndex < 0) {
+                            continue;
+                        }
+                        String rowValue = c < row.length ? row[c] : null;
+                        if (types[schemaIndex] == Schema.ColType.DOUBLE) {
+                            double value;
+                            try {
+                                value = Double.parseDouble(rowValue);
+                            } catch (NumberFormatException | NullPointerException e) {
+                                value = Double.NaN;
+                                doubleParseFailures++;
+                            }
+                            doubleValues[schemaIndex][numRows] = value;
+                        } else {
+                            if (rowValue == null && convertNulls) {
+                                rowValue = "NULL";
+                            }
+                            codes[schemaIndex][numRows] = dictionaries[schemaIndex].getOrAdd(rowValue);
+                        }
+                    }
+                    numRows++;
+                }
+                parser.stopParsing();
+            } catch (IOException e) {
+                throw new IllegalStateException("File " + file + " cannot be read", e);
+            }
+        }
+
+        private void grow() {
+            capacity *= 2;
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == Schema.ColType.DOUBLE) {
+                    doubleValues[c] = Arrays.copyOf(doubleValues[c], capacity);
+                } else {
+                    codes[c] = Arrays.copyOf(codes[c], capacity);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package edu.stanford.futuredata.macrobase.operator;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.util.IndexSorter;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Groups the rows of a DataFrame by the values of some of its columns and computes aggregates
+ * of each group, like a SQL GROUP BY.  The values of each group-by column are encoded as dense
+ * int codes, and the codes of a row are packed into a primitive key of a
+ * {@link LongAggregateTable}.  Rows are split into shards that are aggregated into one table
+ * per worker thread, and the worker tables are then merged one hash partition per task.
+ *
+ * NaN values are skipped by every aggregate but COUNT(*), like SQL NULLs.  The output has one
+ * row per group, in order of the first row of each group, with the group-by columns followed
+ * by the aggregates.  Without group-by columns the output is a single row.
+ */
+public class HashAggregator implements Transformer {
+    private Logger log = LoggerFactory.getLogger(HashAggregator.class);
+    // Smallest range of rows worth aggregating as a separate task
+    private static final int minRowsPerTask = 1 << 14;
+
+    public enum AggregateFunction {
+        COUNT, SUM, AVG, MIN, MAX, STDDEV
+    }
+
+    // How a row contributes to an aggregate in the table.  The count, mean and sum of squared
+    // deviations from the mean (M2) of a column are updated together, by Welford's method
+    // within a worker and by Chan et al.'s parallel update across workers.
+    private enum InputKind {
+        ROW_INDEX, ONE, NOT_NULL, VALUE, MOMENT_COUNT, MEAN, M2
+    }
+
+    private final List<String> groupByColumns;
+    private final List<AggregateFunction> functions = new ArrayList<>();
+    private final List<String> aggregateColumns = new ArrayList<>();
+    private final List<String> outputColumns = new ArrayList<>();
+    private ForkJoinPool executor = null;
+
+    private DataFrame results;
+
+    // Aggregates kept in the table for each row of input
+    private final List<AggregationOp> tableOps = new ArrayList<>();
+    private final List<InputKind> tableKinds = new ArrayList<>();
+    private final List<String> tableColumns = new ArrayList<>();
+
+    public HashAggregator(List<String> groupByColumns) {
+        this.groupByColumns = groupByColumns;
+    }
+
+    /**
+     * Add an aggregate to the output.
+     * @param function Aggregate to compute
+     * @param column Column to aggregate, or null to count rows with COUNT(*)
+     * @param outputName Name of the output column
+     */
+    public HashAggregator addAggregate(AggregateFunction function, String column, String outputName) {
+        if (column == null && function != AggregateFunction.COUNT) {
+            throw new IllegalArgumentException(function + " requires a column");
+        }
+        functions.add(function);
+        aggregateColumns.add(column);
+        outputColumns.add(outputName);
+        return this;
+    }
+
+    public HashAggregator setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public ForkJoinPool getExecutor() {
+        return executor != null ? executor : ForkJoinUtils.getDefaultPool();
+    }
+
+    /**
+     * @return Index of an aggregate in the table, adding it if no other output shares it
+     */
+    private int tableIndex(AggregationOp op, InputKind kind, String column) {
+        for (int i = 0; i < tableOps.size(); i++) {
+            if (tableOps.get(i) == op && tableKinds.get(i) == kind
+                    && (column == null ? tableColumns.get(i) == null : column.equals(tableColumns.get(i)))) {
+                return i;
+            }
+        }
+        tableOps.add(op);
+        tableKinds.add(kind);
+        tableColumns.add(column);
+        return tableOps.size() - 1;
+    }
+
+    @Override
+    public void process(DataFrame input) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        final ForkJoinPool pool = getExecutor();
+        final Schema schema = input.getSchema();
+        final int numRows = input.getNumRows();
+
+        // Lay out the table: the first row of each group, then whatever the outputs need
+        tableOps.clear();
+        tableKinds.clear();
+        tableColumns.clear();
+        tableIndex(AggregationOp.MIN, InputKind.ROW_INDEX, null);
+        final int numOutputs = functions.size();
+        final int[][] outputSlots = new int[numOutputs][];
+        for (int j = 0; j < numOutputs; j++) {
+            final AggregateFunction function = functions.get(j);
+            final String column = aggregateColumns.get(j);
+            if (column != null && function != AggregateFunction.COUNT
+                    && schema.getColumnTypeByName(column) != Schema.ColType.DOUBLE) {
+                throw new IllegalArgumentException(
+                        "Cannot compute " + function + " of non-double column " + column);
+            }
+            switch (function) {
+                case COUNT:
+                    outputSlots[j] = new int[]{column == null
+                            ? tableIndex(AggregationOp.SUM, InputKind.ONE, null)
+                            : tableIndex(AggregationOp.SUM, InputKind.NOT_NULL, column)};
+                    break;
+                case SUM:
+                    outputSlots[j] = new int[]{tableIndex(AggregationOp.SUM, InputKind.VALUE, column)};
+                    break;
+                case MIN:
+                case MAX:
+                    outputSlots[j] = new int[]{
+                            tableIndex(function == AggregateFunction.MIN ? AggregationOp.MIN : AggregationOp.MAX,
+                                    InputKind.VALUE, column),
+                            tableIndex(AggregationOp.SUM, InputKind.NOT_NULL, column)};
+                    break;
+                case AVG:
+                    outputSlots[j] = new int[]{
+                            tableIndex(AggregationOp.SUM, InputKind.VALUE, column),
+                            tableIndex(AggregationOp.SUM, InputKind.NOT_NULL, column)};
+                    break;
+                case STDDEV:
+                    outputSlots[j] = new int[]{
+                            tableIndex(AggregationOp.SUM, InputKind.M2, column),
+                            tableIndex(AggregationOp.SUM, InputKind.MOMENT_COUNT, column),
+                            tableIndex(AggregationOp.SUM, InputKind.MEAN, column)};
+                    break;
+            }
+        }
+        final int numAggregates = tableOps.size();
+        final AggregationOp[] ops = tableOps.toArray(new AggregationOp[0]);
+        // Count, mean and M2 slots of each column with moments, and whether a slot is one of them
+        final List<int[]> momentList = new ArrayList<>();
+        final boolean[] isMoment = new boolean[numAggregates];
+        for (int a = 0; a < numAggregates; a++) {
+            if (tableKinds.get(a) == InputKind.MEAN) {
+                final String column = tableColumns.get(a);
+                final int[] moment = {tableIndex(AggregationOp.SUM, InputKind.MOMENT_COUNT, column), a,
+                        tableIndex(AggregationOp.SUM, InputKind.M2, column)};
+                momentList.add(moment);
+                for (int slot : moment) {
+                    isMoment[slot] = true;
+                }
+            }
+        }
+        final int[][] moments = momentList.toArray(new int[0][]);
+        final double[][] inputs = new double[numAggregates][];
+        final int numGroupColumns = groupByColumns.size();
+        final int[][] codes = new int[numGroupColumns][];
+        final int[] cardinalities = new int[numGroupColumns];
+
+        // Encode the group-by columns and prepare the inputs of the aggregates, one task each
+        final List<ForkJoinTask<?>> prepareTasks = new ArrayList<>();
+        for (int c = 0; c < numGroupColumns; c++) {
+            final int curColumn = c;
+            prepareTasks.add(ForkJoinTask.adapt(() -> {
+                encodeGroupColumn(input, groupByColumns.get(curColumn), codes, cardinalities, curColumn);
+            }));
+        }
+        for (int a = 1; a < numAggregates; a++) {
+            final int curAggregate = a;
+            prepareTasks.add(ForkJoinTask.adapt(() -> {
+                inputs[curAggregate] = getInput(input, ops[curAggregate], tableKinds.get(curAggregate),
+                        tableColumns.get(curAggregate));
+            }));
+        }
+        ForkJoinUtils.runAll(pool, prepareTasks);
+
+        // Pack the codes of a row into one long when their combinations fit, otherwise
+        // into one long per column.  Codes are offset by one since keys must be nonzero.
+        final long[] strides = new long[numGroupColumns];
+        long numCombinations = 1;
+        for (int c = 0; c < numGroupColumns && numCombinations > 0; c++) {
+            strides[c] = numCombinations;
+            numCombinations = cardinalities[c] > (Long.MAX_VALUE - 1) / numCombinations
+                    ? -1 : numCombinations * cardinalities[c];
+        }
+        final int keyWidth = numCombinations > 0 ? 1 : numGroupColumns;
+
+        // Aggregate the shards, each worker thread into its own table
+        final int parallelism = pool.getParallelism();
+        final int numShards = Math.max(1, Math.min(4 * parallelism, numRows / minRowsPerTask));
+        final ConcurrentHashMap<Thread, LongAggregateTable> workerTables = new ConcurrentHashMap<>();
+        final List<ForkJoinTask<?>> aggregateTasks = new ArrayList<>(numShards);
+        for (int shard = 0; shard < numShards; shard++) {
+            final int startRow = (int) ((long) numRows * shard / numShards);
+            final int endRow = (int) ((long) numRows * (shard + 1) / numShards);
+            aggregateTasks.add(ForkJoinTask.adapt(() -> {
+                LongAggregateTable table = workerTables.computeIfAbsent(Thread.currentThread(),
+                        t -> new LongAggregateTable(16, keyWidth, ops));
+                aggregate(table, codes, strides, inputs, ops, isMoment, moments, startRow, endRow);
+            }));
+        }
+        ForkJoinUtils.runAll(pool, aggregateTasks);
+
+        // Merge the worker tables, each task collecting one hash partition
+        final LongAggregateTable.RowCombiner opsCombiner = LongAggregateTable.combinerOf(ops);
+        final LongAggregateTable.RowCombiner combiner = moments.length == 0 ? opsCombiner
+                : (values, offset, otherValues, otherOffset) -> {
+                    for (int a = 0; a < numAggregates; a++) {
+                        if (!isMoment[a]) {
+                            values[offset + a] = ops[a].combine(values[offset + a], otherValues[otherOffset + a]);
+                        }
+                    }
+                    for (int[] moment : moments) {
+                        combineMoments(values, offset, otherValues, otherOffset, moment);
+                    }
+                };
+        final List<LongAggregateTable> groupTables = LongAggregateTable.mergePartitioned(
+                new ArrayList<>(workerTables.values()), ops, combiner, parallelism, pool);
+
+        // Collect the aggregates of every group
+        int numGroups = 0;
+        for (LongAggregateTable table : groupTables) {
+            numGroups += table.size();
+        }
+        double[] groupValues = new double[numGroups * numAggregates];
+        int g = 0;
+        for (LongAggregateTable table : groupTables) {
+            final double[] values = table.getValues();
+            for (int slot = 0; slot < table.getCapacity(); slot++) {
+                if (table.getKey(slot) != 0) {
+                    System.arraycopy(values, slot * numAggregates, groupValues, g * numAggregates, numAggregates);
+                    g++;
+                }
+            }
+        }
+        if (numGroups == 0 && numGroupColumns == 0) {
+            // Aggregates over no rows still have a value
+            numGroups = 1;
+            groupValues = Arrays.copyOf(groupValues, numAggregates);
+        }
+        results = buildResults(input, groupValues, numGroups, numAggregates, outputSlots);
+        log.debug("Aggregated {} rows into {} groups with {} tasks on {} threads in {} ms",
+                numRows, numGroups, aggregateTasks.size(), workerTables.size(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    @Override
+    public DataFrame getResults() {
+        return results;
+    }
+
+    private static void aggregate(LongAggregateTable table, int[][] codes, long[] strides,
+                                  double[][] inputs, AggregationOp[] ops, boolean[] isMoment,
+                                  int[][] moments, int startRow, int endRow) {
+        final int numGroupColumns = codes.length;
+        final int numAggregates = ops.length;
+        final int keyWidth = table.getKeyWidth();
+        final long[] key = new long[Math.max(1, keyWidth)];
+        for (int i = startRow; i < endRow; i++) {
+            final int slot;
+            table.ensureCapacity(1);
+            if (keyWidth == 1) {
+                long packed = 1;
+                for (int c = 0; c < numGroupColumns; c++) {
+                    packed += codes[c][i] * strides[c];
+                }
+                slot = table.findOrInsert(packed);
+            } else {
+                for (int c = 0; c < numGroupColumns; c++) {
+                    key[c] = codes[c][i] + 1L;
+                }
+                slot = table.findOrInsert(key, 0);
+            }
+            final double[] values = table.getValues();
+            final int offset = slot * numAggregates;
+            values[offset] = Math.min(values[offset], i);
+            for (int a = 1; a < numAggregates; a++) {
+                if (isMoment[a]) {
+                    continue;
+                }
+                final double[] input = inputs[a];
+                values[offset + a] = ops[a].combine(values[offset + a], input == null ? 1.0 : input[i]);
+            }
+            for (int[] moment : moments) {
+                final double x = inputs[moment[1]][i];
+                if (Double.isNaN(x)) {
+                    continue;
+                }
+                final double count = ++values[offset + moment[0]];
+                final double delta = x - values[offset + moment[1]];
+                values[offset + moment[1]] += delta / count;
+                values[offset + moment[2]] += delta * (x - values[offset + moment[1]]);
+            }
+        }
+    }
+
+    /**
+     * Combine the count, mean and M2 of a column over two sets of rows.
+     * @param moment Slots of the count, mean and M2 within a row of aggregates
+     */
+    private static void combineMoments(double[] values, int offset, double[] otherValues, int otherOffset,
+                                       int[] moment) {
+        final double count = values[offset + moment[0]];
+        final double otherCount = otherValues[otherOffset + moment[0]];
+        if (otherCount == 0) {
+            return;
+        }
+        final double mean = values[offset + moment[1]];
+        final double otherMean = otherValues[otherOffset + moment[1]];
+        final double total = count + otherCount;
+        final double delta = otherMean - mean;
+        values[offset + moment[0]] = total;
+        values[offset + moment[1]] = mean + delta * otherCount / total;
+        values[offset + moment[2]] += otherValues[otherOffset + moment[2]] + delta * delta * count * otherCount / total;
+    }
+
+    /**
+     * Encode the values of a column as dense int codes.  String values are coded by a
+     * dictionary and double values by their rank among the distinct values of the column.
+     */
+    private static void encodeGroupColumn(DataFrame input, String column, int[][] codes,
+                                          int[] cardinalities, int c) {
+        final int columnIdx = input.getSchema().getColumnIndex(column);
+        final Schema.ColType type = input.getSchema().getColumnType(columnIdx);
+        if (type == Schema.ColType.DOUBLE) {
+            final double[] values = input.getDoubleColumn(columnIdx);
+            // -0.0 and 0.0 are one group, like the keys of a join
+            double[] distinct = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                distinct[i] = HashJoin.normalizeZero(values[i]);
+            }
+            Arrays.sort(distinct);
+            int numDistinct = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (i == 0 || Double.compare(distinct[i], distinct[numDistinct - 1]) != 0) {
+                    distinct[numDistinct++] = distinct[i];
+                }
+            }
+            final int[] columnCodes = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                columnCodes[i] = Arrays.binarySearch(distinct, 0, numDistinct, HashJoin.normalizeZero(values[i]));
+            }
+            codes[c] = columnCodes;
+            cardinalities[c] = numDistinct;
+        } else {
+            final DictionaryColumn encoded = type == Schema.ColType.DICTIONARY
+                    ? input.getDictionaryColumn(columnIdx)
+                    : DictionaryColumn.encode(input.getStringColumn(columnIdx));
+            codes[c] = encoded.getCodes();
+            cardinalities[c] = encoded.getDictionary().size();
+        }
+    }
+
+    /**
+     * @return What each row adds to an aggregate, with NaNs replaced by the identity of the
+     * aggregate, or null if every row adds one
+     */
+    private static double[] getInput(DataFrame input, AggregationOp op, InputKind kind, String column) {
+        if (kind == InputKind.ONE || kind == InputKind.MOMENT_COUNT || kind == InputKind.M2) {
+            return null;
+        }
+        final Schema.ColType type = input.getSchema().getColumnTypeByName(column);
+        if (kind == InputKind.NOT_NULL && type != Schema.ColType.DOUBLE) {
+            final String[] values = input.getStringColumnByName(column);
+            final double[] notNull = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                notNull[i] = values[i] == null ? 0.0 : 1.0;
+            }
+            return notNull;
+        }
+        final double[] values = input.getDoubleColumnByName(column);
+        if (kind == InputKind.MEAN) {
+            // Moments skip NaNs themselves
+            return values;
+        }
+        final double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            final double x = values[i];
+            if (Double.isNaN(x)) {
+                result[i] = kind == InputKind.NOT_NULL ? 0.0 : op.initValue();
+            } else {
+                result[i] = kind == InputKind.NOT_NULL ? 1.0 : x;
+            }
+        }
+        return result;
+    }
+
+    private DataFrame buildResults(DataFrame input, double[] groupValues, int numGroups,
+                                   int numAggregates, int[][] outputSlots) {
+        // Order the groups by their first row, and gather the group-by values from those rows
+        final int[] order = IndexSorter.sort(numGroups, (a, b) -> Double.compare(
+                groupValues[a * numAggregates], groupValues[b * numAggregates]), null);
+        final int[] firstRows = new int[numGroups];
+        for (int i = 0; i < numGroups; i++) {
+            firstRows[i] = (int) groupValues[order[i] * numAggregates];
+        }
+
+        final DataFrame output = new DataFrame();
+        final Schema schema = input.getSchema();
+        for (String column : groupByColumns) {
+            final int columnIdx = schema.getColumnIndex(column);
+            switch (schema.getColumnType(columnIdx)) {
+                case DOUBLE: {
+                    final double[] values = input.getDoubleColumn(columnIdx);
+                    final double[] groupColumn = new double[numGroups];
+                    for (int i = 0; i < numGroups; i++) {
+                        groupColumn[i] = values[firstRows[i]];
+                    }
+                    output.addColumn(column, groupColumn);
+                    break;
+                }
+                case DICTIONARY:
+                    output.addColumn(column, input.getDictionaryColumn(columnIdx).select(firstRows));
+                    break;
+                default: {
+                    final String[] values = input.getStringColumn(columnIdx);
+                    final String[] groupColumn = new String[numGroups];
+                    for (int i = 0; i < numGroups; i++) {
+                        groupColumn[i] = values[firstRows[i]];
+                    }
+                    output.addColumn(column, groupColumn);
+                }
+            }
+        }
+        for (int j = 0; j < functions.size(); j++) {
+            final int[] slots = outputSlots[j];
+            final double[] outputColumn = new double[numGroups];
+            for (int i = 0; i < numGroups; i++) {
+                final int offset = order[i] * numAggregates;
+                final double value = groupValues[offset + slots[0]];
+                switch (functions.get(j)) {
+                    case COUNT:
+                    case SUM:
+                        outputColumn[i] = value;
+                        break;
+                    case MIN:
+                    case MAX:
+                        outputColumn[i] = groupValues[offset + slots[1]] > 0 ? value : Double.NaN;
+                        break;
+                    case AVG:
+                        outputColumn[i] = value / groupValues[offset + slots[1]];
+                        break;
+                    case STDDEV: {
+                        // Sample standard deviation
+                        final double count = groupValues[offset + slots[1]];
+                        outputColumn[i] = count < 2 ? Double.NaN : Math.sqrt(value / (count - 1));
+                        break;
+                    }
+                }
+            }
+            output.addColumn(outputColumns.get(j), outputColumn);
+        }
+        return output;
+    }
+
+}
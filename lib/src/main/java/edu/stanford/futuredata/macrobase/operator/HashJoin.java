@@ -0,0 +1,473 @@
+package edu.stanford.futuredata.macrobase.operator;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.datamodel.StringDictionary;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Equi-joins two DataFrames on one or more pairs of key columns.  The right DataFrame is the
+ * build side and the left DataFrame the probe side.
+ *
+ * The keys of both sides are encoded as codes of the right side's values: dictionary codes
+ * for string keys, and ranks among the distinct right values for double keys.  The codes of
+ * a row are packed into a primitive key.  Right rows are hash partitioned and each partition
+ * gets a table of its own, built in parallel.  Shards of left rows are then probed in parallel.
+ *
+ * Null and NaN keys match nothing.  The output holds the left columns followed by the right
+ * columns; a right key column with the same name as its left key is left out, as in a join
+ * USING.  Rows are in order of their left row, then of their right row.  Rows of a left outer
+ * join with no match have NaN and null values in the right columns.
+ */
+public class HashJoin {
+    private Logger log = LoggerFactory.getLogger(HashJoin.class);
+    // Smallest range of rows worth probing as a separate task
+    private static final int minRowsPerTask = 1 << 14;
+
+    public enum JoinType {
+        INNER, LEFT_OUTER
+    }
+
+    private final JoinType joinType;
+    private final List<String> leftKeys;
+    private final List<String> rightKeys;
+    private ForkJoinPool executor = null;
+
+    /**
+     * @param joinType Inner or left outer join
+     * @param leftKeys Key columns of the left DataFrame
+     * @param rightKeys Key columns of the right DataFrame, matched with leftKeys in order
+     */
+    public HashJoin(JoinType joinType, List<String> leftKeys, List<String> rightKeys) {
+        if (leftKeys.isEmpty() || leftKeys.size() != rightKeys.size()) {
+            throw new IllegalArgumentException("Join needs the same nonzero number of keys on both sides");
+        }
+        this.joinType = joinType;
+        this.leftKeys = leftKeys;
+        this.rightKeys = rightKeys;
+    }
+
+    public HashJoin setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public ForkJoinPool getExecutor() {
+        return executor != null ? executor : ForkJoinUtils.getDefaultPool();
+    }
+
+    public DataFrame join(DataFrame left, DataFrame right) {
+        final long startTime = System.currentTimeMillis();
+        final ForkJoinPool pool = getExecutor();
+        final int numKeys = leftKeys.size();
+        final Schema leftSchema = left.getSchema();
+        final Schema rightSchema = right.getSchema();
+        final int numLeft = left.getNumRows();
+        final int numRight = right.getNumRows();
+
+        // Check the keys and the output columns before doing any work
+        final List<Integer> rightOutputColumns = new ArrayList<>();
+        for (int k = 0; k < numKeys; k++) {
+            final boolean leftDouble = leftSchema.getColumnTypeByName(leftKeys.get(k)) == Schema.ColType.DOUBLE;
+            final boolean rightDouble = rightSchema.getColumnTypeByName(rightKeys.get(k)) == Schema.ColType.DOUBLE;
+            if (leftDouble != rightDouble) {
+                throw new IllegalArgumentException("Cannot join " + leftKeys.get(k) + " with "
+                        + rightKeys.get(k) + ": one is a double column and the other is not");
+            }
+        }
+        for (int c = 0; c < rightSchema.getNumColumns(); c++) {
+            final String name = rightSchema.getColumnName(c);
+            final int keyIdx = rightKeys.indexOf(name);
+            if (keyIdx >= 0 && leftKeys.get(keyIdx).equals(name)) {
+                continue;
+            }
+            if (leftSchema.hasColumn(name)) {
+                throw new IllegalArgumentException("Column " + name + " is in both DataFrames");
+            }
+            rightOutputColumns.add(c);
+        }
+
+        // Encode the keys, one task per key column
+        final int[][] leftCodes = new int[numKeys][];
+        final int[][] rightCodes = new int[numKeys][];
+        final int[] cardinalities = new int[numKeys];
+        final List<ForkJoinTask<?>> encodeTasks = new ArrayList<>(numKeys);
+        for (int k = 0; k < numKeys; k++) {
+            final int curKey = k;
+            encodeTasks.add(ForkJoinTask.adapt(() -> {
+                encodeKeyColumn(left, leftKeys.get(curKey), right, rightKeys.get(curKey),
+                        leftCodes, rightCodes, cardinalities, curKey);
+            }));
+        }
+        ForkJoinUtils.runAll(pool, encodeTasks);
+
+        // Pack the codes of a row into one long when their combinations fit, otherwise
+        // into one long per key.  Codes are offset by one since keys must be nonzero.
+        final long[] strides = new long[numKeys];
+        long numCombinations = 1;
+        for (int k = 0; k < numKeys && numCombinations > 0; k++) {
+            strides[k] = numCombinations;
+            numCombinations = cardinalities[k] > (Long.MAX_VALUE - 1) / numCombinations
+                    ? -1 : numCombinations * Math.max(1, cardinalities[k]);
+        }
+        final int keyWidth = numCombinations > 0 ? 1 : numKeys;
+        final int numPartitions = pool.getParallelism();
+        final long[] leftPacked = new long[numLeft * keyWidth];
+        final int[] leftPartitions = new int[numLeft];
+        final long[] rightPacked = new long[numRight * keyWidth];
+        final int[] rightPartitions = new int[numRight];
+        final List<ForkJoinTask<?>> packTasks = new ArrayList<>();
+        addShardTasks(packTasks, numLeft, parallelism(pool, numLeft), (start, end) ->
+                packKeys(leftCodes, strides, keyWidth, numPartitions, leftPacked, leftPartitions, start, end));
+        addShardTasks(packTasks, numRight, parallelism(pool, numRight), (start, end) ->
+                packKeys(rightCodes, strides, keyWidth, numPartitions, rightPacked, rightPartitions, start, end));
+        ForkJoinUtils.runAll(pool, packTasks);
+
+        // Counting sort the right rows by partition, keeping them in order within each partition
+        final int[] partitionStarts = new int[numPartitions + 1];
+        for (int p : rightPartitions) {
+            partitionStarts[p + 1]++;
+        }
+        for (int p = 0; p < numPartitions; p++) {
+            partitionStarts[p + 1] += partitionStarts[p];
+        }
+        final int[] rightRowsByPartition = new int[numRight];
+        final int[] nextRow = Arrays.copyOf(partitionStarts, numPartitions);
+        for (int i = 0; i < numRight; i++) {
+            rightRowsByPartition[nextRow[rightPartitions[i]]++] = i;
+        }
+
+        // Build a table for each partition of the right rows
+        final Partition[] partitions = new Partition[numPartitions];
+        final List<ForkJoinTask<?>> buildTasks = new ArrayList<>(numPartitions);
+        for (int p = 0; p < numPartitions; p++) {
+            final int curPartition = p;
+            buildTasks.add(ForkJoinTask.adapt(() -> {
+                partitions[curPartition] = new Partition(rightPacked, keyWidth, rightRowsByPartition,
+                        partitionStarts[curPartition], partitionStarts[curPartition + 1]);
+            }));
+        }
+        ForkJoinUtils.runAll(pool, buildTasks);
+
+        // Probe shards of the left rows
+        final int numShards = parallelism(pool, numLeft);
+        final Matches[] shardMatches = new Matches[numShards];
+        final List<ForkJoinTask<?>> probeTasks = new ArrayList<>(numShards);
+        for (int shard = 0; shard < numShards; shard++) {
+            final int curShard = shard;
+            final int startRow = (int) ((long) numLeft * shard / numShards);
+            final int endRow = (int) ((long) numLeft * (shard + 1) / numShards);
+            probeTasks.add(ForkJoinTask.adapt(() -> {
+                shardMatches[curShard] = probe(partitions, leftPacked, leftPartitions, keyWidth, startRow, endRow);
+            }));
+        }
+        ForkJoinUtils.runAll(pool, probeTasks);
+
+        int numMatches = 0;
+        for (Matches matches : shardMatches) {
+            numMatches += matches.size;
+        }
+        final int[] leftRows = new int[numMatches];
+        final int[] rightRows = new int[numMatches];
+        int offset = 0;
+        for (Matches matches : shardMatches) {
+            System.arraycopy(matches.leftRows, 0, leftRows, offset, matches.size);
+            System.arraycopy(matches.rightRows, 0, rightRows, offset, matches.size);
+            offset += matches.size;
+        }
+
+        final DataFrame output = new DataFrame();
+        for (int c = 0; c < leftSchema.getNumColumns(); c++) {
+            addGatheredColumn(output, left, c, leftRows);
+        }
+        for (int c : rightOutputColumns) {
+            addGatheredColumn(output, right, c, rightRows);
+        }
+        log.debug("Joined {} rows with {} rows into {} rows in {} partitions in {} ms",
+                numLeft, numRight, numMatches, numPartitions, System.currentTimeMillis() - startTime);
+        return output;
+    }
+
+    private static int parallelism(ForkJoinPool pool, int numRows) {
+        return Math.max(1, Math.min(4 * pool.getParallelism(), numRows / minRowsPerTask));
+    }
+
+    @FunctionalInterface
+    private interface RangeTask {
+        void run(int start, int end);
+    }
+
+    private static void addShardTasks(List<ForkJoinTask<?>> tasks, int numRows, int numShards, RangeTask task) {
+        for (int shard = 0; shard < numShards; shard++) {
+            final int startRow = (int) ((long) numRows * shard / numShards);
+            final int endRow = (int) ((long) numRows * (shard + 1) / numShards);
+            tasks.add(ForkJoinTask.adapt(() -> task.run(startRow, endRow)));
+        }
+    }
+
+    /**
+     * Encode a pair of key columns as codes of the values of the right column.  Rows whose
+     * value is null, NaN, or absent from the right column get code -1.
+     */
+    private static void encodeKeyColumn(DataFrame left, String leftKey, DataFrame right, String rightKey,
+                                        int[][] leftCodes, int[][] rightCodes, int[] cardinalities, int k) {
+        final int leftIdx = left.getSchema().getColumnIndex(leftKey);
+        final int rightIdx = right.getSchema().getColumnIndex(rightKey);
+        final Schema.ColType leftType = left.getSchema().getColumnType(leftIdx);
+        final Schema.ColType rightType = right.getSchema().getColumnType(rightIdx);
+        if (rightType == Schema.ColType.DOUBLE) {
+            final double[] rightValues = right.getDoubleColumn(rightIdx);
+            final double[] distinct = new double[rightValues.length];
+            for (int i = 0; i < rightValues.length; i++) {
+                distinct[i] = normalizeZero(rightValues[i]);
+            }
+            Arrays.sort(distinct);
+            int numDistinct = 0;
+            for (int i = 0; i < distinct.length && !Double.isNaN(distinct[i]); i++) {
+                if (numDistinct == 0 || distinct[i] != distinct[numDistinct - 1]) {
+                    distinct[numDistinct++] = distinct[i];
+                }
+            }
+            rightCodes[k] = doubleCodes(rightValues, distinct, numDistinct);
+            leftCodes[k] = doubleCodes(left.getDoubleColumn(leftIdx), distinct, numDistinct);
+            cardinalities[k] = numDistinct;
+        } else {
+            final DictionaryColumn rightColumn = rightType == Schema.ColType.DICTIONARY
+                    ? right.getDictionaryColumn(rightIdx)
+                    : DictionaryColumn.encode(right.getStringColumn(rightIdx));
+            final StringDictionary dictionary = rightColumn.getDictionary();
+            final int nullCode = dictionary.get(null);
+            int[] codes = rightColumn.getCodes();
+            if (nullCode >= 0) {
+                codes = codes.clone();
+                for (int i = 0; i < codes.length; i++) {
+                    if (codes[i] == nullCode) {
+                        codes[i] = -1;
+                    }
+                }
+            }
+            rightCodes[k] = codes;
+            cardinalities[k] = dictionary.size();
+
+            final int[] columnCodes = new int[left.getNumRows()];
+            if (leftType == Schema.ColType.DICTIONARY) {
+                // Look up each distinct left value once
+                final DictionaryColumn leftColumn = left.getDictionaryColumn(leftIdx);
+                final StringDictionary leftDictionary = leftColumn.getDictionary();
+                final int[] translation = new int[leftDictionary.size()];
+                for (int code = 0; code < translation.length; code++) {
+                    final String value = leftDictionary.getValue(code);
+                    translation[code] = value == null ? -1 : dictionary.get(value);
+                }
+                final int[] leftColumnCodes = leftColumn.getCodes();
+                for (int i = 0; i < columnCodes.length; i++) {
+                    columnCodes[i] = translation[leftColumnCodes[i]];
+                }
+            } else {
+                final String[] values = left.getStringColumn(leftIdx);
+                for (int i = 0; i < columnCodes.length; i++) {
+                    columnCodes[i] = values[i] == null ? -1 : dictionary.get(values[i]);
+                }
+            }
+            leftCodes[k] = columnCodes;
+        }
+    }
+
+    /**
+     * @return 0.0 for -0.0, which is equal to it but sorted and searched apart by
+     * {@link Arrays#sort(double[])} and {@link Arrays#binarySearch(double[], double)}
+     */
+    static double normalizeZero(double value) {
+        return value == 0.0 ? 0.0 : value;
+    }
+
+    private static int[] doubleCodes(double[] values, double[] distinct, int numDistinct) {
+        final int[] codes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            final int code = Double.isNaN(values[i])
+                    ? -1 : Arrays.binarySearch(distinct, 0, numDistinct, normalizeZero(values[i]));
+            codes[i] = code < 0 ? -1 : code;
+        }
+        return codes;
+    }
+
+    /**
+     * Pack the codes of rows [start, end) into keys, and assign each key a partition.
+     * Rows with a code of -1 get partition -1.
+     */
+    private static void packKeys(int[][] codes, long[] strides, int keyWidth, int numPartitions,
+                                 long[] packed, int[] partitions, int start, int end) {
+        final int numKeys = codes.length;
+        for (int i = start; i < end; i++) {
+            boolean matchable = true;
+            if (keyWidth == 1) {
+                long key = 1;
+                for (int k = 0; k < numKeys; k++) {
+                    final int code = codes[k][i];
+                    matchable &= code >= 0;
+                    key += code * strides[k];
+                }
+                packed[i] = key;
+            } else {
+                for (int k = 0; k < numKeys; k++) {
+                    final int code = codes[k][i];
+                    matchable &= code >= 0;
+                    packed[i * keyWidth + k] = code + 1L;
+                }
+            }
+            partitions[i] = matchable
+                    ? LongAggregateTable.partitionOf(packed, i * keyWidth, keyWidth, numPartitions) : -1;
+        }
+    }
+
+    private Matches probe(Partition[] partitions, long[] packed, int[] rowPartitions, int keyWidth,
+                                 int startRow, int endRow) {
+        final Matches matches = new Matches(endRow - startRow);
+        for (int i = startRow; i < endRow; i++) {
+            final int p = rowPartitions[i];
+            final int group = p < 0 ? -1 : partitions[p].findGroup(packed, i * keyWidth);
+            if (group >= 0) {
+                final Partition partition = partitions[p];
+                for (int j = partition.groupStarts[group]; j < partition.groupStarts[group + 1]; j++) {
+                    matches.add(i, partition.groupRows[j]);
+                }
+            } else {
+                matches.addUnmatched(i);
+            }
+        }
+        return matches;
+    }
+
+    private void addGatheredColumn(DataFrame output, DataFrame input, int columnIdx, int[] rows) {
+        final String name = input.getSchema().getColumnName(columnIdx);
+        boolean hasMissing = false;
+        for (int row : rows) {
+            if (row < 0) {
+                hasMissing = true;
+                break;
+            }
+        }
+        switch (input.getSchema().getColumnType(columnIdx)) {
+            case DOUBLE: {
+                final double[] values = input.getDoubleColumn(columnIdx);
+                final double[] gathered = new double[rows.length];
+                for (int i = 0; i < rows.length; i++) {
+                    gathered[i] = rows[i] < 0 ? Double.NaN : values[rows[i]];
+                }
+                output.addColumn(name, gathered);
+                break;
+            }
+            case DICTIONARY:
+                if (!hasMissing) {
+                    output.addColumn(name, input.getDictionaryColumn(columnIdx).select(rows));
+                    break;
+                }
+                // A column with nulls gets a dictionary of its own, so the input's is not modified
+                output.addColumn(name, DictionaryColumn.encode(gatherStrings(input, columnIdx, rows)));
+                break;
+            default:
+                output.addColumn(name, gatherStrings(input, columnIdx, rows));
+        }
+    }
+
+    private static String[] gatherStrings(DataFrame input, int columnIdx, int[] rows) {
+        final String[] values = input.getStringColumn(columnIdx);
+        final String[] gathered = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            gathered[i] = rows[i] < 0 ? null : values[rows[i]];
+        }
+        return gathered;
+    }
+
+    /**
+     * A table from the keys of one partition of the right rows to groups of the rows with
+     * each key.  The rows of group g are groupRows[groupStarts[g], groupStarts[g + 1]), in order.
+     */
+    private static class Partition {
+        private final LongAggregateTable table;
+        private final int[] groupStarts;
+        private final int[] groupRows;
+
+        /**
+         * @param rows Array holding the indices of the rows of the partition, in order,
+         *             in rows[start, end)
+         */
+        Partition(long[] packed, int keyWidth, int[] rows, int start, int end) {
+            final int numRows = end - start;
+            // The only aggregate of a key is the id of its group
+            table = new LongAggregateTable(numRows, keyWidth, new AggregationOp[]{AggregationOp.SUM});
+            final int[] rowGroups = new int[numRows];
+            int numGroups = 0;
+            for (int r = 0; r < numRows; r++) {
+                // The table is sized for every row of the partition, so it never needs to grow
+                final int size = table.size();
+                final int slot = table.findOrInsert(packed, rows[start + r] * keyWidth);
+                final double[] values = table.getValues();
+                if (table.size() > size) {
+                    values[slot] = numGroups++;
+                }
+                rowGroups[r] = (int) values[slot];
+            }
+
+            // Counting sort the rows by group, keeping them in order within each group
+            groupStarts = new int[numGroups + 1];
+            for (int g : rowGroups) {
+                groupStarts[g + 1]++;
+            }
+            for (int g = 0; g < numGroups; g++) {
+                groupStarts[g + 1] += groupStarts[g];
+            }
+            groupRows = new int[numRows];
+            final int[] next = Arrays.copyOf(groupStarts, numGroups);
+            for (int r = 0; r < numRows; r++) {
+                groupRows[next[rowGroups[r]]++] = rows[start + r];
+            }
+        }
+
+        int findGroup(long[] packed, int offset) {
+            final int slot = table.find(packed, offset);
+            return slot < 0 ? -1 : (int) table.getValues()[slot];
+        }
+    }
+
+    /**
+     * Pairs of matching left and right rows, with a right row of -1 for an unmatched left row.
+     */
+    private class Matches {
+        int[] leftRows;
+        int[] rightRows;
+        int size = 0;
+
+        Matches(int expectedSize) {
+            leftRows = new int[Math.max(16, expectedSize)];
+            rightRows = new int[leftRows.length];
+        }
+
+        void add(int leftRow, int rightRow) {
+            if (size == leftRows.length) {
+                leftRows = Arrays.copyOf(leftRows, 2 * size);
+                rightRows = Arrays.copyOf(rightRows, 2 * size);
+            }
+            leftRows[size] = leftRow;
+            rightRows[size++] = rightRow;
+        }
+
+        void addUnmatched(int leftRow) {
+            if (joinType == JoinType.LEFT_OUTER) {
+                add(leftRow, -1);
+            }
+        }
+    }
+
+}
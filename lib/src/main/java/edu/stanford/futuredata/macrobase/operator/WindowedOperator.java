@@ -1,7 +1,7 @@
 package edu.stanford.futuredata.macrobase.operator;
 
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
-import edu.stanford.futuredata.macrobase.util.ArrayUtils;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrameBuilder;
 
 import java.util.*;
 
@@ -11,6 +11,16 @@ import java.util.*;
  * slideLength is assumed to be a divisor of the window length so that
  * a window divides neatly into panes: if not the window length is
  * effectively rounded up.
+ *
+ * Each minibatch is routed to its panes in a single pass, and the rows of a pane
+ * are appended to growable columns until it is complete, so every row is copied
+ * once however many panes a minibatch spans or minibatches a pane takes.
+ *
+ * Rows need not arrive in time order. Panes are buffered separately and a pane
+ * is only processed once the watermark, the latest event time seen minus the
+ * allowed lateness, has passed its end. Rows that arrive for a pane that has
+ * already been processed are counted in the next pane to be processed, or, if
+ * the late event output is enabled, set aside until {@link #drainLateEvents()}.
  * @param <O> output type of the operator
  */
 public class WindowedOperator<O>
@@ -18,18 +28,27 @@ public class WindowedOperator<O>
     private String timeColumn = "time";
     private double windowLength = 60.0;
     private double slideLength = 10.0;
+    private double allowedLateness = 0.0;
+    private boolean lateEventOutput = false;
 
-    private double maxWindowTime;
+    // Index of the next pane to process, pane i covers [i*slideLength, (i+1)*slideLength)
+    private long nextPane;
+    private double maxEventTime;
     private IncrementalOperator<O> op;
 
-    private ArrayList<DataFrame> batchBuffer;
+    private TreeMap<Long, DataFrameBuilder> paneBuffers;
+    private DataFrameBuilder lateBuffer;
+    private long numLateRows;
 
     public WindowedOperator(IncrementalOperator op) {
         this.op = op;
     }
     public WindowedOperator<O> initialize() {
-        this.maxWindowTime = 0.0;
-        this.batchBuffer = new ArrayList<>();
+        this.nextPane = 0;
+        this.maxEventTime = Double.NEGATIVE_INFINITY;
+        this.paneBuffers = new TreeMap<>();
+        this.lateBuffer = null;
+        this.numLateRows = 0;
 
         int numPanes = (int)Math.ceil(windowLength / slideLength);
         op.setWindowSize(numPanes);
@@ -39,7 +58,7 @@ public class WindowedOperator<O>
 
     /**
      * Process a small batch of data. Data is buffered until a pane (or multiple)
-     * is filled, then the internal operator state is updated with these panes.
+     * is complete, then the internal operator state is updated with these panes.
      * Minibatches are split to fit into panes of fixed time length.
      * @param input minibatch of data to process
      * @throws Exception
@@ -58,17 +77,19 @@ public class WindowedOperator<O>
      * @return new effective window end time
      */
     public double flushBuffer() throws Exception {
-        DataFrame partialPane = DataFrame.unionAll(batchBuffer);
-        maxWindowTime += slideLength;
+        DataFrameBuilder buffer = paneBuffers.remove(nextPane);
+        DataFrame partialPane = buffer == null ? new DataFrame() : buffer.build();
+        nextPane++;
         op.process(partialPane);
-        batchBuffer.clear();
-        return maxWindowTime;
+        return getMaxWindowTime();
     }
 
     /**
-     * Split buffer + input into panes, keeping any leftover rows in the buffer
-     * @param input current minibatch to aprocess
-     * @return completed panes derived from the buffer and current input
+     * Split input into the buffers of its panes, routing rows of panes that were already
+     * processed to the next pane or the late event output, and build every pane the watermark
+     * has passed.
+     * @param input current minibatch to process
+     * @return completed panes derived from the buffer and current input, in time order
      */
     protected List<DataFrame> addToBuffer(DataFrame input) {
         int n = input.getNumRows();
@@ -76,31 +97,111 @@ public class WindowedOperator<O>
             return Collections.emptyList();
         }
         double[] times = input.getDoubleColumnByName(timeColumn);
-        double maxInputTime = ArrayUtils.max(times);
 
-        DataFrame restInput = input;
-        ArrayList<DataFrame> newPanes = new ArrayList<>(1);
+        // Assign each distinct pane a slot in one pass, slot of pane -1 holds rows that are too late
+        HashMap<Long, Integer> slotOfPane = new HashMap<>();
+        long[] paneOfSlot = new long[1];
+        int[] slotCounts = new int[1];
+        int[] slots = new int[n];
+        long prevPane = Long.MIN_VALUE;
+        int prevSlot = -1;
+        for (int i = 0; i < n; i++) {
+            double t = times[i];
+            if (t > maxEventTime) {
+                maxEventTime = t;
+            }
+            long pane = getPane(t);
+            if (pane < nextPane) {
+                numLateRows++;
+                pane = lateEventOutput ? -1 : nextPane;
+            }
+            if (pane != prevPane) {
+                Integer slot = slotOfPane.get(pane);
+                if (slot == null) {
+                    slot = slotOfPane.size();
+                    slotOfPane.put(pane, slot);
+                    if (slot == slotCounts.length) {
+                        paneOfSlot = Arrays.copyOf(paneOfSlot, 2 * slot);
+                        slotCounts = Arrays.copyOf(slotCounts, 2 * slot);
+                    }
+                    paneOfSlot[slot] = pane;
+                }
+                prevPane = pane;
+                prevSlot = slot;
+            }
+            slots[i] = prevSlot;
+            slotCounts[prevSlot]++;
+        }
 
-        // Assuming in order arrival, break up incoming batch into panes
-        while (maxInputTime >= maxWindowTime + slideLength) {
-            // When we fill up a pane, split off the overflow from the current batch
-            double nextWindowEnd = maxWindowTime + slideLength;
-            DataFrame earlyInput = restInput.filter(timeColumn, (double t) -> t < nextWindowEnd);
-            restInput = restInput.filter(timeColumn, (double t) -> t >= nextWindowEnd);
-            batchBuffer.add(earlyInput);
-            DataFrame newPane = DataFrame.unionAll(batchBuffer);
-
-            // Reset the batch buffer and start collecting for the next pane
-            maxWindowTime = nextWindowEnd;
-            batchBuffer.clear();
-            newPanes.add(newPane);
+        // Scatter row indices so that the rows of each slot are contiguous and in arrival order
+        int numSlots = slotOfPane.size();
+        int[] slotStarts = new int[numSlots + 1];
+        for (int slot = 0; slot < numSlots; slot++) {
+            slotStarts[slot + 1] = slotStarts[slot] + slotCounts[slot];
+        }
+        int[] rows = new int[n];
+        int[] nextRow = Arrays.copyOf(slotStarts, numSlots);
+        for (int i = 0; i < n; i++) {
+            rows[nextRow[slots[i]]++] = i;
+        }
+        for (int slot = 0; slot < numSlots; slot++) {
+            long pane = paneOfSlot[slot];
+            DataFrameBuilder buffer;
+            if (pane < 0) {
+                if (lateBuffer == null) {
+                    lateBuffer = new DataFrameBuilder(input.getSchema());
+                }
+                buffer = lateBuffer;
+            } else {
+                buffer = paneBuffers.computeIfAbsent(pane, k -> new DataFrameBuilder(input.getSchema()));
+            }
+            buffer.append(input, rows, slotStarts[slot], slotCounts[slot]);
         }
 
-        // Buffer partially filled pane until it is filled
-        batchBuffer.add(restInput);
+        ArrayList<DataFrame> newPanes = new ArrayList<>(1);
+        double watermark = maxEventTime - allowedLateness;
+        while ((nextPane + 1) * slideLength <= watermark) {
+            DataFrameBuilder buffer = paneBuffers.remove(nextPane);
+            // Panes without any rows are still processed so that the window keeps sliding
+            newPanes.add(buffer == null ? new DataFrameBuilder(input.getSchema()).build() : buffer.build());
+            nextPane++;
+        }
         return newPanes;
     }
 
+    private long getPane(double time) {
+        return (long) Math.floor(time / slideLength);
+    }
+
+    /**
+     * Remove the rows set aside since the last call because they arrived after their pane was
+     * processed. Only collected when the late event output is enabled.
+     * @return late rows, in arrival order
+     */
+    public DataFrame drainLateEvents() {
+        return lateBuffer == null ? new DataFrame() : lateBuffer.build();
+    }
+
+    /**
+     * @return number of rows that arrived after their pane was processed, since initialization
+     */
+    public long getNumLateRows() {
+        return numLateRows;
+    }
+
+    public boolean isLateEventOutput() {
+        return lateEventOutput;
+    }
+
+    /**
+     * @param lateEventOutput whether to set aside rows that arrive after their pane was processed
+     *                        instead of counting them in the next pane. Rows set aside are held
+     *                        until {@link #drainLateEvents()} is called.
+     */
+    public void setLateEventOutput(boolean lateEventOutput) {
+        this.lateEventOutput = lateEventOutput;
+    }
+
     @Override
     public O getResults() {
         return op.getResults();
@@ -130,17 +231,42 @@ public class WindowedOperator<O>
         this.slideLength = slideLength;
     }
 
+    public double getAllowedLateness() {
+        return allowedLateness;
+    }
+
+    /**
+     * @param allowedLateness how far behind the latest event time rows may arrive and still be
+     *                        counted in their pane, delaying each pane by as much.
+     */
+    public void setAllowedLateness(double allowedLateness) {
+        if (allowedLateness < 0) {
+            throw new IllegalArgumentException("Allowed lateness must be non-negative");
+        }
+        this.allowedLateness = allowedLateness;
+    }
+
     public double getMaxWindowTime() {
-        return maxWindowTime;
+        return nextPane * slideLength;
+    }
+
+    /**
+     * @return latest event time seen minus the allowed lateness
+     */
+    public double getWatermark() {
+        return maxEventTime - allowedLateness;
     }
 
+    /**
+     * @return number of incomplete panes with buffered rows
+     */
     public int getBufferSize() {
-        return batchBuffer.size();
+        return paneBuffers.size();
     }
     public int getNumBufferedRows() {
         int numRows = 0;
-        for (DataFrame df : batchBuffer) {
-            numRows += df.getNumRows();
+        for (DataFrameBuilder buffer : paneBuffers.values()) {
+            numRows += buffer.getNumRows();
         }
         return numRows;
     }
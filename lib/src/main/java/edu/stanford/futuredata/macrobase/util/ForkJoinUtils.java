@@ -0,0 +1,53 @@
+package edu.stanford.futuredata.macrobase.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Pools and helpers shared by the operators, loaders and summarizers that fork work, so that
+ * they all run on the same threads unless given a pool of their own.
+ */
+public class ForkJoinUtils {
+    // Pools shared by all operators, by number of threads
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> sharedPools = new ConcurrentHashMap<>();
+
+    /**
+     * @param numThreads Number of threads in the pool.
+     * @return A work-stealing pool shared by every operator using that many threads,
+     * so that short queries do not pay for starting threads.
+     */
+    public static ForkJoinPool getSharedPool(int numThreads) {
+        return sharedPools.computeIfAbsent(numThreads, ForkJoinPool::new);
+    }
+
+    /**
+     * @return The shared pool with one thread per available processor, used when no pool is set.
+     */
+    public static ForkJoinPool getDefaultPool() {
+        return getSharedPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Run tasks on the pool and wait for all of them to finish, rethrowing any failure.  The
+     * threads running the tasks charge their CPU time and allocations to the operator the calling
+     * thread is measured for, if any.
+     */
+    public static void runAll(ForkJoinPool pool, List<ForkJoinTask<?>> tasks) {
+        final OperatorProfile profile = OperatorProfile.current();
+        final List<ForkJoinTask<?>> charged;
+        if (profile == null) {
+            charged = tasks;
+        } else {
+            charged = new ArrayList<>(tasks.size());
+            for (ForkJoinTask<?> task : tasks) {
+                charged.add(ForkJoinTask.adapt(() -> OperatorProfile.runCharged(profile, task::invoke)));
+            }
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            ForkJoinTask.invokeAll(charged);
+        }));
+    }
+}
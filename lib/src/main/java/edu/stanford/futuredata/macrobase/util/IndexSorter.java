@@ -0,0 +1,159 @@
+package edu.stanford.futuredata.macrobase.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Sorts row indices by a comparator over rows, so that columns can be reordered by gathering
+ * through one permutation instead of each being sorted on its own.  Both sorts are stable.
+ */
+public class IndexSorter {
+    // Ranges smaller than this are sorted on one thread
+    private static final int minParallelSortSize = 1 << 14;
+    private static final int insertionSortSize = 16;
+
+    /**
+     * Compares two rows by index.
+     */
+    @FunctionalInterface
+    public interface RowComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * @param n Number of rows
+     * @param comparator Order of the rows
+     * @param executor Pool to sort large inputs on, or null to sort on the calling thread
+     * @return The indices 0 to n-1 in sorted order, ties kept in index order.
+     */
+    public static int[] sort(int n, RowComparator comparator, ForkJoinPool executor) {
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        int[] buffer = rows.clone();
+        if (executor == null || n < minParallelSortSize) {
+            mergeSort(buffer, rows, 0, n, comparator);
+        } else {
+            executor.invoke(ForkJoinTask.adapt(() -> parallelMergeSort(buffer, rows, 0, n, comparator)));
+        }
+        return rows;
+    }
+
+    /**
+     * Select the first k rows in sorted order without sorting the rest, using a heap of size k.
+     * @return The indices of the first min(k, n) rows in sorted order, ties kept in index order.
+     */
+    public static int[] topK(int n, int k, RowComparator comparator) {
+        k = Math.min(k, n);
+        if (k <= 0) {
+            return new int[0];
+        }
+        // Break ties by index so that equal rows order like they would in a stable sort
+        final RowComparator order = (a, b) -> {
+            int c = comparator.compare(a, b);
+            return c != 0 ? c : Integer.compare(a, b);
+        };
+        // Max-heap holding the best k rows seen so far, the worst of them at the root
+        int[] heap = new int[k];
+        int size = 0;
+        for (int row = 0; row < n; row++) {
+            if (size < k) {
+                heap[size] = row;
+                siftUp(heap, size++, order);
+            } else if (order.compare(row, heap[0]) < 0) {
+                heap[0] = row;
+                siftDown(heap, k, order);
+            }
+        }
+        // Pop the worst row into the back of the array until the heap is empty
+        for (int end = k - 1; end > 0; end--) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, end, order);
+        }
+        return heap;
+    }
+
+    private static void siftUp(int[] heap, int i, RowComparator order) {
+        int row = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (order.compare(row, heap[parent]) <= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = row;
+    }
+
+    private static void siftDown(int[] heap, int size, RowComparator order) {
+        int row = heap[0];
+        int i = 0;
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && order.compare(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (order.compare(heap[child], row) <= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = row;
+    }
+
+    private static void parallelMergeSort(int[] src, int[] dst, int lo, int hi, RowComparator comparator) {
+        if (hi - lo < minParallelSortSize) {
+            mergeSort(src, dst, lo, hi, comparator);
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        ForkJoinTask.invokeAll(
+                ForkJoinTask.adapt(() -> parallelMergeSort(dst, src, lo, mid, comparator)),
+                ForkJoinTask.adapt(() -> parallelMergeSort(dst, src, mid, hi, comparator)));
+        merge(src, dst, lo, mid, hi, comparator);
+    }
+
+    /**
+     * Sort dst[lo, hi), using src[lo, hi) as scratch space.  Both must start with the same contents.
+     */
+    private static void mergeSort(int[] src, int[] dst, int lo, int hi, RowComparator comparator) {
+        if (hi - lo <= insertionSortSize) {
+            for (int i = lo + 1; i < hi; i++) {
+                int row = dst[i];
+                int j = i;
+                while (j > lo && comparator.compare(dst[j - 1], row) > 0) {
+                    dst[j] = dst[j - 1];
+                    j--;
+                }
+                dst[j] = row;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(dst, src, lo, mid, comparator);
+        mergeSort(dst, src, mid, hi, comparator);
+        merge(src, dst, lo, mid, hi, comparator);
+    }
+
+    /**
+     * Merge the sorted runs src[lo, mid) and src[mid, hi) into dst[lo, hi).
+     */
+    private static void merge(int[] src, int[] dst, int lo, int mid, int hi, RowComparator comparator) {
+        if (comparator.compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, lo, dst, lo, hi - lo);
+            return;
+        }
+        for (int i = lo, p = lo, q = mid; i < hi; i++) {
+            if (q >= hi || (p < mid && comparator.compare(src[p], src[q]) <= 0)) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package edu.stanford.futuredata.macrobase.util;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements of one operator of a query, e.g. a scan, a filter, or an order of the APriori
+ * search, and of the operators it called, for EXPLAIN ANALYZE.
+ *
+ * Wall time is measured on the calling thread. CPU time and allocated bytes are measured per
+ * thread: between {@link #start()} and {@link #stop()} the calling thread charges its own to the
+ * operator, and so do the threads running the tasks it forks with {@link ForkJoinUtils#runAll},
+ * for as long as they run them, so work that other queries run at the same time is not counted.
+ * Each thread charges the innermost operator it runs for. All measurements include those of
+ * the children.
+ */
+public class OperatorProfile {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    // The operator each thread charges its CPU time and allocations to, and their values when it
+    // last charged them
+    private static final ThreadLocal<Charge> charges = ThreadLocal.withInitial(Charge::new);
+
+    private static class Charge {
+        OperatorProfile profile;
+        long cpuNanos;
+        long allocatedBytes;
+    }
+
+    private final String name;
+    private final OperatorProfile parent;
+    private final List<OperatorProfile> children = new ArrayList<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private long rowsIn = -1;
+    private long rowsOut = -1;
+
+    private long startWallNanos;
+    private long wallNanos = -1;
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    // The operator the calling thread charged before this one started
+    private OperatorProfile callerProfile;
+
+    public OperatorProfile(String name) {
+        this(name, null);
+    }
+
+    private OperatorProfile(String name, OperatorProfile parent) {
+        this.name = name;
+        this.parent = parent;
+    }
+
+    /**
+     * @return A new child operator, not yet started
+     */
+    public OperatorProfile addChild(String name) {
+        final OperatorProfile child = new OperatorProfile(name, this);
+        children.add(child);
+        return child;
+    }
+
+    /**
+     * Start measuring the operator, charging the calling thread's CPU time and allocations to it
+     *
+     * @return this
+     */
+    public OperatorProfile start() {
+        callerProfile = chargeTo(this);
+        startWallNanos = System.nanoTime();
+        return this;
+    }
+
+    /**
+     * Stop measuring the operator, on the thread that started it
+     */
+    public void stop() {
+        wallNanos = System.nanoTime() - startWallNanos;
+        chargeTo(callerProfile);
+    }
+
+    /**
+     * @return The operator the calling thread charges its CPU time and allocations to, or null
+     */
+    static OperatorProfile current() {
+        return charges.get().profile;
+    }
+
+    /**
+     * Run a task on the calling thread, charging its CPU time and allocations to an operator
+     */
+    static void runCharged(OperatorProfile profile, Runnable task) {
+        final OperatorProfile previous = chargeTo(profile);
+        try {
+            task.run();
+        } finally {
+            chargeTo(previous);
+        }
+    }
+
+    /**
+     * Charge what the calling thread used since it last charged an operator, and charge what it
+     * uses from now on to another
+     *
+     * @param profile The operator to charge from now on, or null for none
+     * @return The operator charged until now, or null
+     */
+    private static OperatorProfile chargeTo(OperatorProfile profile) {
+        final Charge charge = charges.get();
+        final long cpuNanos = getCurrentThreadCpuNanos();
+        final long allocatedBytes = getCurrentThreadAllocatedBytes();
+        final OperatorProfile previous = charge.profile;
+        if (previous != null) {
+            for (OperatorProfile p = previous; p != null; p = p.parent) {
+                p.cpuNanos.addAndGet(Math.max(0, cpuNanos - charge.cpuNanos));
+                p.allocatedBytes.addAndGet(Math.max(0, allocatedBytes - charge.allocatedBytes));
+            }
+        }
+        charge.profile = profile;
+        charge.cpuNanos = cpuNanos;
+        charge.allocatedBytes = allocatedBytes;
+        return previous;
+    }
+
+    public OperatorProfile setRowsIn(long rowsIn) {
+        this.rowsIn = rowsIn;
+        return this;
+    }
+
+    public OperatorProfile setRowsOut(long rowsOut) {
+        this.rowsOut = rowsOut;
+        return this;
+    }
+
+    /**
+     * Record an operator-specific count, e.g. the number of candidates generated
+     */
+    public OperatorProfile setCounter(String counter, long value) {
+        counters.put(counter, value);
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<OperatorProfile> getChildren() {
+        return children;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return The number of input rows, or -1 if unknown
+     */
+    public long getRowsIn() {
+        return rowsIn;
+    }
+
+    /**
+     * @return The number of output rows, or -1 if unknown
+     */
+    public long getRowsOut() {
+        return rowsOut;
+    }
+
+    /**
+     * @return The wall time of the operator, or -1 if it hasn't stopped
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return The CPU time of the operator, or -1 if the JVM doesn't measure it
+     */
+    public long getCpuNanos() {
+        return getCurrentThreadCpuNanos() < 0 ? -1 : cpuNanos.get();
+    }
+
+    /**
+     * @return The bytes the operator allocated, or -1 if the JVM doesn't measure them
+     */
+    public long getAllocatedBytes() {
+        return getCurrentThreadAllocatedBytes() < 0 ? -1 : allocatedBytes.get();
+    }
+
+    /**
+     * @return One row per operator, in depth-first order, with the name of the operator indented
+     * by its depth in the tree. Measurements that are unknown are NaN. Counters get a column
+     * each, in the order they were first recorded.
+     */
+    public DataFrame toDataFrame() {
+        final List<OperatorProfile> operators = new ArrayList<>();
+        final List<Integer> depths = new ArrayList<>();
+        collect(0, operators, depths);
+        final Set<String> counterNames = new LinkedHashSet<>();
+        for (OperatorProfile operator : operators) {
+            counterNames.addAll(operator.counters.keySet());
+        }
+
+        final int n = operators.size();
+        final String[] names = new String[n];
+        final double[] wallMs = new double[n];
+        final double[] cpuMs = new double[n];
+        final double[] allocated = new double[n];
+        final double[] in = new double[n];
+        final double[] out = new double[n];
+        final Map<String, double[]> counterCols = new LinkedHashMap<>();
+        for (String counter : counterNames) {
+            counterCols.put(counter, new double[n]);
+        }
+        for (int i = 0; i < n; i++) {
+            final OperatorProfile operator = operators.get(i);
+            final StringBuilder indented = new StringBuilder();
+            for (int d = 0; d < depths.get(i); d++) {
+                indented.append("  ");
+            }
+            names[i] = indented.append(operator.name).toString();
+            wallMs[i] = operator.wallNanos < 0 ? Double.NaN : operator.wallNanos / 1e6;
+            final long cpuNanos = operator.getCpuNanos();
+            cpuMs[i] = cpuNanos < 0 ? Double.NaN : cpuNanos / 1e6;
+            allocated[i] = orNaN(operator.getAllocatedBytes());
+            in[i] = orNaN(operator.rowsIn);
+            out[i] = orNaN(operator.rowsOut);
+            for (String counter : counterNames) {
+                final Long value = operator.counters.get(counter);
+                counterCols.get(counter)[i] = value == null ? Double.NaN : value;
+            }
+        }
+
+        final DataFrame df = new DataFrame();
+        df.addColumn("operator", names);
+        df.addColumn("wall_ms", wallMs);
+        df.addColumn("cpu_ms", cpuMs);
+        df.addColumn("rows_in", in);
+        df.addColumn("rows_out", out);
+        df.addColumn("allocated_bytes", allocated);
+        for (Map.Entry<String, double[]> counter : counterCols.entrySet()) {
+            df.addColumn(counter.getKey(), counter.getValue());
+        }
+        return df;
+    }
+
+    private void collect(int depth, List<OperatorProfile> operators, List<Integer> depths) {
+        operators.add(this);
+        depths.add(depth);
+        for (OperatorProfile child : children) {
+            child.collect(depth + 1, operators, depths);
+        }
+    }
+
+    private static double orNaN(long value) {
+        return value < 0 ? Double.NaN : value;
+    }
+
+    /**
+     * @return The CPU time of the calling thread, or -1 if it isn't measured
+     */
+    private static long getCurrentThreadCpuNanos() {
+        if (!threads.isCurrentThreadCpuTimeSupported() || !threads.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        return threads.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * @return The bytes allocated by the calling thread, or -1 if they aren't measured
+     */
+    private static long getCurrentThreadAllocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        final com.sun.management.ThreadMXBean allocations =
+            (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported()
+            || !allocations.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
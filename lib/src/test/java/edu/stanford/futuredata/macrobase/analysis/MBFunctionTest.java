@@ -0,0 +1,81 @@
+package edu.stanford.futuredata.macrobase.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class MBFunctionTest {
+
+    @Test
+    public void testCachedInstances() throws MacroBaseException {
+        assertSame(MBFunction.getFunction("percentile", "usage"),
+            MBFunction.getFunction("PERCENTILE", "usage"));
+        assertSame(MBFunction.getFunction("divide", Arrays.asList("a", "b")),
+            MBFunction.getFunction("divide", Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void testCacheIsBounded() throws MacroBaseException {
+        final MBFunction first = MBFunction.getFunction("indicator", Arrays.asList("location", "0"));
+        for (int i = 1; i <= 2000; i++) {
+            MBFunction.getFunction("indicator", Arrays.asList("location", String.valueOf(i)));
+        }
+        // Evicted by the functions of every other constant, and created again
+        assertNotSame(first, MBFunction.getFunction("indicator", Arrays.asList("location", "0")));
+        final MBFunction last = MBFunction.getFunction("indicator",
+            Arrays.asList("location", "2000"));
+        assertSame(last, MBFunction.getFunction("indicator", Arrays.asList("location", "2000")));
+    }
+
+    @Test(expected = MacroBaseException.class)
+    public void testUnknownFunction() throws MacroBaseException {
+        MBFunction.getFunction("median", "usage");
+    }
+
+    @Test(expected = MacroBaseException.class)
+    public void testWrongNumberOfArgs() throws MacroBaseException {
+        MBFunction.getFunction("divide", "usage");
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws MacroBaseException {
+        // Enough rows to be split into several ranges, with many ties
+        final int n = 100003;
+        final Random random = new Random(0);
+        final double[] usage = new double[n];
+        for (int i = 0; i < n; i++) {
+            usage[i] = random.nextInt(1000) - 200;
+        }
+        final DataFrame df = new DataFrame();
+        df.addColumn("usage", usage);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        for (String name : Arrays.asList("percentile", "normalize")) {
+            final ColumnFunction func = (ColumnFunction) MBFunction.getFunction(name, "usage");
+            final double[] expected = new double[n];
+            func.applyFunction(usage, expected);
+            assertArrayEquals(expected, func.apply(df), 0.0);
+            assertArrayEquals(expected, func.apply(df, pool), 0.0);
+        }
+    }
+
+    @Test
+    public void testMultiColumnAndStringArgs() throws MacroBaseException {
+        final DataFrame df = new DataFrame();
+        df.addColumn("usage", new double[]{1.0, 3.0, 4.0});
+        df.addColumn("latency", new double[]{2.0, 3.0, 8.0});
+        df.addColumn("location", new String[]{"CAN", "USA", "CAN"});
+
+        assertArrayEquals(new double[]{0.5, 1.0, 0.5},
+            MBFunction.getFunction("divide", Arrays.asList("usage", "latency")).apply(df), 0.0);
+        assertArrayEquals(new double[]{1.0, 0.0, 1.0},
+            MBFunction.getFunction("indicator", Arrays.asList("location", "CAN")).apply(df), 0.0);
+    }
+}
@@ -21,7 +21,7 @@ public class PercentileFucntionTest {
 
     @Test
     public void simpleTest() throws MacroBaseException {
-        MBFunction func = MBFunction.getFunction("percentile", "");
+        ColumnFunction func = (ColumnFunction) MBFunction.getFunction("percentile", "");
         final double[] output = new double[input.length];
         func.applyFunction(input, output);
         assertTrue(Arrays.equals(output, expectedOutput));
@@ -1,13 +1,20 @@
 package edu.stanford.futuredata.macrobase.analysis.summary;
 
 import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.EncodedTable;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class AttributeEncoderTest {
@@ -43,4 +50,88 @@ public class AttributeEncoderTest {
         }
         assertEquals(totalItems.size(), 5 + 3);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encodeColumnsWithSupport() {
+        List<String[]> columns = new ArrayList<>();
+        columns.add(new String[]{"a", "a", "b", "c"});
+        columns.add(new String[]{"x", "y", "x", "x"});
+        double[] outliers = {1.0, 1.0, 1.0, 0.0};
+
+        EncodedTable encoded = e.encodeColumnsWithSupport(columns, 0.5, outliers);
+        assertEquals(2, encoded.getNumColumns());
+        assertEquals(4, encoded.getNumRows());
+        int[] first = encoded.getColumn(0);
+        int[] second = encoded.getColumn(1);
+        assertEquals("a", e.decodeValue(first[0]));
+        assertEquals(first[0], first[1]);
+        assertEquals(AttributeEncoder.noSupport, first[2]);
+        assertEquals(AttributeEncoder.noSupport, first[3]);
+        assertEquals("x", e.decodeValue(second[0]));
+        assertEquals(AttributeEncoder.noSupport, second[1]);
+
+        int[][] rows = encoded.toRows();
+        assertEquals(first[1], rows[1][0]);
+        assertEquals(second[1], rows[1][1]);
+        assertEquals(0, encoded.getShardStart(0, 3));
+        assertEquals(4, encoded.getShardStart(3, 3));
+    }
+
+    @Test
+    public void encodeShardedColumns() {
+        int numRows = 300000;
+        List<String[]> columns = new ArrayList<>();
+        for (int j = 0; j < 3; j++) {
+            String[] curCol = new String[numRows];
+            for (int i = 0; i < numRows; i++) {
+                curCol[i] = String.valueOf((i * (j + 7)) % (j * 10 + 5));
+            }
+            columns.add(curCol);
+        }
+        double[] outliers = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            outliers[i] = i % 3 == 0 ? 1.0 : 0.0;
+        }
+
+        AttributeEncoder serial = new AttributeEncoder();
+        serial.setExecutor(new ForkJoinPool(1));
+        AttributeEncoder parallel = new AttributeEncoder();
+        parallel.setExecutor(new ForkJoinPool(4));
+        EncodedTable expected = serial.encodeColumnsWithSupport(columns, 0.05, outliers);
+        EncodedTable actual = parallel.encodeColumnsWithSupport(columns, 0.05, outliers);
+        assertEquals(serial.getNextKey(), parallel.getNextKey());
+        for (int j = 0; j < 3; j++) {
+            assertArrayEquals(expected.getColumn(j), actual.getColumn(j));
+        }
+
+        int[] plain = new AttributeEncoder().encodeColumns(columns).getColumn(2);
+        // Keys continue after the 5 + 15 values of the first two columns
+        assertEquals(21, plain[0]);
+        for (int i = 0; i < numRows; i++) {
+            assertEquals(plain[i % 25], plain[i]);
+        }
+    }
+
+    @Test
+    public void encodeDictionaryColumns() {
+        String[] location = {"CAN", "USA", "CAN", "CAN", "MEX", "USA"};
+        String[] version = {"v1", "v2", "v1", "v3", "v1", "v2"};
+        double[] outliers = {1.0, 0.0, 1.0, 1.0, 0.0, 1.0};
+        DataFrame df = new DataFrame();
+        df.addColumn("location", DictionaryColumn.encode(location));
+        df.addColumn("version", version);
+
+        AttributeEncoder fromStrings = new AttributeEncoder();
+        EncodedTable expected = fromStrings.encodeColumnsWithSupport(
+            Arrays.asList(location, version), 0.2, outliers);
+        AttributeEncoder fromFrame = new AttributeEncoder();
+        EncodedTable actual = fromFrame.encodeColumnsWithSupport(
+            df, Arrays.asList("location", "version"), 0.2, outliers);
+        assertArrayEquals(expected.getColumn(0), actual.getColumn(0));
+        assertArrayEquals(expected.getColumn(1), actual.getColumn(1));
+        assertEquals("CAN", fromFrame.decodeValue(actual.getColumn(0)[0]));
+
+        assertArrayEquals(new AttributeEncoder().encodeColumns(Collections.singletonList(location)).getColumn(0),
+            new AttributeEncoder().encodeColumns(df, Arrays.asList("location")).getColumn(0));
+    }
+}
@@ -0,0 +1,166 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.FastFixedHashTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSetAsLong;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSetPacker;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare the blocked candidate counting kernel against the original kernel, which probes
+ * a FastFixedHashTable row by row and combines aggregates through AggregationOp.
+ * Both count every candidate of orders one through three over a single shard of rows.
+ * Usage: APLCountingKernelBenchmark [numRows] [numColumns] [cardinalityPerColumn]
+ */
+public class APLCountingKernelBenchmark {
+    private static final int numWarmupRuns = 3;
+    private static final int numMeasuredRuns = 5;
+
+    private final int[][] attributes;
+    private final double[][] aggregateColumns;
+    private final AggregationOp[] aggregationOps = {AggregationOp.SUM, AggregationOp.SUM};
+    private final boolean[] singleNext;
+    private final int cardinality;
+    private final IntSetPacker packer;
+
+    private APLCountingKernelBenchmark(int numRows, int numColumns, int cardinalityPerColumn) {
+        Random rand = new Random(0);
+        cardinality = numColumns * cardinalityPerColumn + 1;
+        attributes = new int[numColumns][numRows];
+        for (int c = 0; c < numColumns; c++) {
+            for (int i = 0; i < numRows; i++) {
+                // Skewed values, with roughly one in fifty lacking support
+                int value = (int) (cardinalityPerColumn * Math.pow(rand.nextDouble(), 2));
+                attributes[c][i] = rand.nextInt(50) == 0 ?
+                        AttributeEncoder.noSupport : c * cardinalityPerColumn + value + 1;
+            }
+        }
+        aggregateColumns = new double[2][numRows];
+        for (int i = 0; i < numRows; i++) {
+            aggregateColumns[0][i] = rand.nextInt(10) == 0 ? 1.0 : 0.0;
+            aggregateColumns[1][i] = 1.0;
+        }
+        packer = new IntSetPacker(cardinality);
+        singleNext = new boolean[cardinality];
+        Arrays.fill(singleNext, true);
+    }
+
+    private LongAggregateTable countBlocked(int order) {
+        LongAggregateTable table = new LongAggregateTable(cardinality, packer.getWidth(order), aggregationOps);
+        APLCountingKernel kernel = new APLCountingKernel(aggregateColumns, aggregationOps, packer);
+        int numRows = aggregateColumns[0].length;
+        int[][] candidateColumns = new int[order][];
+        for (int[] combination : APrioriLinear.getColumnCombinations(attributes.length, order)) {
+            for (int c = 0; c < order; c++) {
+                candidateColumns[c] = attributes[combination[c]];
+            }
+            kernel.count(candidateColumns, order == 1 ? null : singleNext, null,
+                    0, 0, numRows, table);
+        }
+        return table;
+    }
+
+    /**
+     * The original per-row kernel, kept here as the baseline.
+     */
+    private FastFixedHashTable countPerRow(int order) {
+        int numColumns = attributes.length;
+        int numRows = aggregateColumns[0].length;
+        int numAggregates = aggregateColumns.length;
+        double[][] aRows = new double[numRows][numAggregates];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numAggregates; j++) {
+                aRows[i][j] = aggregateColumns[j][i];
+            }
+        }
+        FastFixedHashTable table = new FastFixedHashTable(cardinality, numAggregates, false);
+        IntSetAsLong curCandidate = new IntSetAsLong(0);
+        for (int c1 = 0; c1 < numColumns; c1++) {
+            for (int c2 = order >= 2 ? c1 + 1 : numColumns - 1; c2 < numColumns; c2++) {
+                for (int c3 = order == 3 ? c2 + 1 : numColumns - 1; c3 < numColumns; c3++) {
+                    for (int rowNum = 0; rowNum < numRows; rowNum++) {
+                        int a = attributes[c1][rowNum];
+                        if (a == AttributeEncoder.noSupport)
+                            continue;
+                        if (order == 1) {
+                            curCandidate.value = a;
+                        } else if (order == 2) {
+                            int b = attributes[c2][rowNum];
+                            if (b == AttributeEncoder.noSupport || !singleNext[a] || !singleNext[b])
+                                continue;
+                            curCandidate.value = IntSetAsLong.twoIntToLong(a, b);
+                        } else {
+                            int b = attributes[c2][rowNum];
+                            int c = attributes[c3][rowNum];
+                            if (b == AttributeEncoder.noSupport || c == AttributeEncoder.noSupport
+                                    || !singleNext[a] || !singleNext[b] || !singleNext[c])
+                                continue;
+                            curCandidate.value = IntSetAsLong.threeIntToLong(a, b, c);
+                        }
+                        double[] candidateVal = table.get(curCandidate);
+                        if (candidateVal == null) {
+                            table.put(curCandidate, Arrays.copyOf(aRows[rowNum], numAggregates));
+                        } else {
+                            for (int j = 0; j < numAggregates; j++) {
+                                AggregationOp curOp = aggregationOps[j];
+                                candidateVal[j] = curOp.combine(candidateVal[j], aRows[rowNum][j]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    private void run() {
+        for (int order = 1; order <= 3; order++) {
+            final int curOrder = order;
+            // Sanity check that both kernels agree before timing them
+            LongAggregateTable blocked = countBlocked(curOrder);
+            FastFixedHashTable perRow = countPerRow(curOrder);
+            for (int slot = 0; slot < blocked.getCapacity(); slot++) {
+                if (blocked.getKey(slot) != 0) {
+                    int[] items = packer.unpack(blocked.getKeys(), slot * blocked.getKeyWidth(), curOrder);
+                    long key = curOrder == 1 ? items[0] : curOrder == 2 ?
+                            IntSetAsLong.twoIntToLong(items[0], items[1]) :
+                            IntSetAsLong.threeIntToLong(items[0], items[1], items[2]);
+                    assertEquals(blocked.getAggregates(slot)[0], perRow.get(new IntSetAsLong(key))[0], 1e-6);
+                }
+            }
+            assertEquals(blocked.size(), perRow.keySetLong().size());
+
+            double perRowTime = time(() -> countPerRow(curOrder));
+            double blockedTime = time(() -> countBlocked(curOrder));
+            System.out.println(String.format(
+                    "order %d: %d candidates, per-row kernel: %.1f ms, blocked kernel: %.1f ms, speedup: %.2fx",
+                    order, blocked.size(), perRowTime, blockedTime, perRowTime / blockedTime));
+        }
+    }
+
+    private static double time(Runnable r) {
+        for (int i = 0; i < numWarmupRuns; i++) {
+            r.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < numMeasuredRuns; i++) {
+            r.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / numMeasuredRuns;
+    }
+
+    public static void main(String[] args) {
+        int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int numColumns = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int cardinalityPerColumn = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+        System.out.println(String.format("rows: %d, columns: %d, values per column: %d",
+                numRows, numColumns, cardinalityPerColumn));
+        new APLCountingKernelBenchmark(numRows, numColumns, cardinalityPerColumn).run();
+    }
+}
@@ -0,0 +1,126 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.operator.WindowedOperator;
+import org.junit.Test;
+
+import java.util.*;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class APLIncrementalSummarizerTest {
+    private static final List<String> attributes = Arrays.asList("a0", "a1", "a2");
+
+    /**
+     * Rows with three attributes whose cardinality grows with the pane, so that later panes
+     * bring new values, and integral aggregates, so that sums are exact.  From pane 3 on,
+     * a0=v1 has a much higher mean and more outliers.
+     */
+    private static DataFrame generatePane(int pane, int numRows, Random r) {
+        String[][] attrs = new String[3][numRows];
+        double[] time = new double[numRows];
+        double[] counts = new double[numRows];
+        double[] means = new double[numRows];
+        double[] stds = new double[numRows];
+        double[] outliers = new double[numRows];
+        int cardinality = 3 + 2 * pane;
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < 3; j++) {
+                attrs[j][i] = "v" + r.nextInt(cardinality);
+            }
+            boolean bug = pane >= 3 && attrs[0][i].equals("v1");
+            time[i] = pane * 10.0 + 10.0 * i / numRows;
+            counts[i] = 1 + r.nextInt(5);
+            means[i] = bug ? 100 + r.nextInt(10) : 10 + r.nextInt(10);
+            stds[i] = 1 + r.nextInt(3);
+            outliers[i] = (bug || r.nextInt(50) == 0) ? 1.0 : 0.0;
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("time", time);
+        for (int j = 0; j < 3; j++) {
+            df.addColumn(attributes.get(j), attrs[j]);
+        }
+        df.addColumn("counts", counts);
+        df.addColumn("means", means);
+        df.addColumn("stds", stds);
+        df.addColumn("outlier", outliers);
+        return df;
+    }
+
+    private static APLMeanSummarizer meanSummarizer() {
+        APLMeanSummarizer summ = new APLMeanSummarizer();
+        summ.setCountColumn("counts");
+        summ.setMeanColumn("means");
+        summ.setStdColumn("stds");
+        summ.setMinSupport(.01);
+        summ.setMinStdDev(1.5);
+        summ.setAttributes(attributes);
+        return summ;
+    }
+
+    private static APLOutlierSummarizer outlierSummarizer() {
+        APLOutlierSummarizer summ = new APLOutlierSummarizer();
+        summ.setOutlierColumn("outlier");
+        summ.setMinSupport(.05);
+        summ.setMinRatioMetric(2.0);
+        summ.setAttributes(attributes);
+        return summ;
+    }
+
+    private static Set<Map<String, Map<String, String>>> results(APLExplanation e) {
+        return new HashSet<>(e.results());
+    }
+
+    @Test
+    public void testMatchesBatch() throws Exception {
+        int numPanes = 3;
+        Random r = new Random(0);
+        APLIncrementalSummarizer meanWindow = new APLIncrementalSummarizer(meanSummarizer(), numPanes);
+        APLIncrementalSummarizer outlierWindow = new APLIncrementalSummarizer(outlierSummarizer(), numPanes);
+        List<DataFrame> panes = new ArrayList<>();
+        for (int pane = 0; pane < 10; pane++) {
+            DataFrame df = generatePane(pane, 500, r);
+            panes.add(df);
+            meanWindow.process(df);
+            outlierWindow.process(df);
+
+            DataFrame window = DataFrame.unionAll(
+                    panes.subList(Math.max(0, panes.size() - numPanes), panes.size()));
+            APLMeanSummarizer meanBatch = meanSummarizer();
+            meanBatch.process(window);
+            APLExplanation meanResults = meanWindow.getResults();
+            assertEquals(meanBatch.getResults().numTotal(), meanResults.numTotal());
+            assertEquals(results(meanBatch.getResults()), results(meanResults));
+            if (pane >= 3) {
+                assertTrue(meanResults.getResults().size() > 0);
+            }
+
+            APLOutlierSummarizer outlierBatch = outlierSummarizer();
+            outlierBatch.process(window);
+            APLExplanation outlierResults = outlierWindow.getResults();
+            assertEquals(outlierBatch.getResults().numTotal(), outlierResults.numTotal());
+            assertEquals(outlierBatch.getResults().numOutliers(), outlierResults.numOutliers());
+            assertEquals(results(outlierBatch.getResults()), results(outlierResults));
+        }
+    }
+
+    @Test
+    public void testWindowedMeanShift() throws Exception {
+        WindowedOperator<APLExplanation> windowed =
+                new WindowedOperator<>(new APLIncrementalSummarizer(meanSummarizer()));
+        windowed.setWindowLength(30.0);
+        windowed.setSlideLength(10.0);
+        windowed.initialize();
+
+        Random r = new Random(1);
+        for (int pane = 0; pane < 8; pane++) {
+            windowed.process(generatePane(pane, 400, r));
+            if (windowed.getMaxWindowTime() >= 60.0) {
+                // the window only holds panes after the mean shift
+                APLExplanation e = windowed.getResults();
+                assertTrue(e.prettyPrint().contains("a0=v1"));
+            }
+        }
+    }
+}
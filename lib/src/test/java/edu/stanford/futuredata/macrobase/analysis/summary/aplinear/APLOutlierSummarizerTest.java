@@ -13,9 +13,11 @@ import static junit.framework.TestCase.assertEquals;
 import static org.junit.Assert.*;
 
 public class APLOutlierSummarizerTest {
-
-    @Test
-    public void testSimple() throws Exception {
+    /**
+     * @param percentile Percentile of the highest usage values classified as outliers
+     * @return sample.csv with its outlier column
+     */
+    private static DataFrame classifySample(double percentile) throws Exception {
         Map<String, Schema.ColType> schema = new HashMap<>();
         schema.put("usage", Schema.ColType.DOUBLE);
         schema.put("latency", Schema.ColType.DOUBLE);
@@ -25,12 +27,15 @@ public class APLOutlierSummarizerTest {
                 "src/test/resources/sample.csv",
                 Arrays.asList("usage", "latency", "location", "version")
         ).setColumnTypes(schema);
-        DataFrame df = loader.load();
-
         PercentileClassifier pc = new PercentileClassifier("usage")
-                .setPercentile(1.0);
-        pc.process(df);
-        DataFrame df_classified = pc.getResults();
+                .setPercentile(percentile);
+        pc.process(loader.load());
+        return pc.getResults();
+    }
+
+    @Test
+    public void testSimple() throws Exception {
+        DataFrame df_classified = classifySample(1.0);
 
         List<String> explanationAttributes = Arrays.asList(
                 "location",
@@ -79,4 +84,172 @@ public class APLOutlierSummarizerTest {
         assertTrue(e.prettyPrint().contains("col1=a1"));
         assertEquals(47.0, e.numOutliers(), 1e-10);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testOrder4() throws Exception {
+        // Every combination of four binary attributes, where only the
+        // combination of all four first values is unusually anomalous.
+        int numRows = 16;
+        String[][] cols = new String[4][numRows];
+        double[] counts = new double[numRows];
+        double[] oCounts = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            for (int c = 0; c < 4; c++) {
+                cols[c][i] = "v" + c + ((i >> c) & 1);
+            }
+            counts[i] = 100;
+            oCounts[i] = i == 0 ? 50 : 5;
+        }
+        DataFrame df = new DataFrame();
+        List<String> explanationAttributes = new ArrayList<>();
+        for (int c = 0; c < 4; c++) {
+            df.addColumn("col" + c, cols[c]);
+            explanationAttributes.add("col" + c);
+        }
+        df.addColumn("counts", counts);
+        df.addColumn("oCounts", oCounts);
+
+        APLOutlierSummarizer summ = new APLOutlierSummarizer();
+        summ.setCountColumn("counts");
+        summ.setOutlierColumn("oCounts");
+        summ.setMinSupport(.1);
+        summ.setMinRatioMetric(5.0);
+        summ.setAttributes(explanationAttributes);
+        summ.process(df);
+        assertEquals(0, summ.getResults().getResults().size());
+
+        summ.setMaxOrder(4);
+        summ.process(df);
+        APLExplanation e = summ.getResults();
+        assertEquals(1, e.getResults().size());
+        Map<String, String> match = e.getResults().get(0).prettyPrintMatch(summ.encoder);
+        assertEquals(4, match.size());
+        for (int c = 0; c < 4; c++) {
+            assertEquals("v" + c + "0", match.get("col" + c));
+        }
+    }
+
+    @Test
+    public void testExplainCountedCandidates() throws Exception {
+        DataFrame classified = classifySample(5.0);
+        List<String> explanationAttributes = Arrays.asList("location", "version");
+
+        APLOutlierSummarizer counter = new APLOutlierSummarizer();
+        counter.setMinSupport(.05);
+        counter.setAttributes(explanationAttributes);
+        counter.setMaxOrder(2);
+        APLCandidates candidates = counter.countCandidates(classified);
+        assertEquals(2, candidates.getMaxOrder());
+
+        // Explaining the counted candidates matches explaining the rows for any ratio
+        int numResults = 0;
+        for (String ratioMetric : Arrays.asList("global_ratio", "risk_ratio")) {
+            for (double minRatio : new double[]{1.0, 1.5, 3.0}) {
+                for (int maxOrder = 1; maxOrder <= 2; maxOrder++) {
+                    APLOutlierSummarizer summ = new APLOutlierSummarizer();
+                    summ.setMinSupport(.05);
+                    summ.setMinRatioMetric(minRatio);
+                    summ.setRatioMetric(ratioMetric);
+                    summ.setAttributes(explanationAttributes);
+                    summ.setMaxOrder(maxOrder);
+                    summ.process(classified);
+                    DataFrame expected = summ.getResults().toDataFrame(explanationAttributes);
+
+                    summ.explainCandidates(candidates);
+                    DataFrame actual = summ.getResults().toDataFrame(explanationAttributes);
+                    assertEquals(expected.getNumRows(), actual.getNumRows());
+                    assertTrue(expected.equals(actual));
+                    numResults += actual.getNumRows();
+                }
+            }
+        }
+        assertTrue(numResults > 0);
+    }
+
+    @Test
+    public void testProcessChunks() throws Exception {
+        DataFrame classified = classifySample(5.0);
+        List<String> explanationAttributes = Arrays.asList("location", "version");
+
+        // Chunks of uneven sizes, some without outliers
+        List<DataFrame> chunks = new ArrayList<>();
+        int[] chunkStarts = {0, 1, 300, 301, 700, classified.getNumRows()};
+        for (int i = 0; i + 1 < chunkStarts.length; i++) {
+            BitSet mask = new BitSet();
+            mask.set(chunkStarts[i], chunkStarts[i + 1]);
+            chunks.add(classified.filter(mask));
+        }
+
+        for (int maxOrder = 1; maxOrder <= 3; maxOrder++) {
+            APLOutlierSummarizer summ = new APLOutlierSummarizer();
+            summ.setMinSupport(.05);
+            summ.setMinRatioMetric(1.0);
+            summ.setAttributes(explanationAttributes);
+            summ.setMaxOrder(maxOrder);
+            summ.process(classified);
+            APLExplanation expected = summ.getResults();
+
+            summ.process(chunks);
+            APLExplanation actual = summ.getResults();
+            assertEquals(expected.numTotal(), actual.numTotal(), 0.0);
+            assertEquals(expected.numOutliers(), actual.numOutliers(), 0.0);
+            assertTrue(actual.getResults().size() > 0);
+            assertTrue(expected.toDataFrame(explanationAttributes)
+                    .equals(actual.toDataFrame(explanationAttributes)));
+        }
+    }
+
+    @Test
+    public void testSampleInliers() throws Exception {
+        DataFrame classified = classifySample(5.0);
+        List<String> explanationAttributes = Arrays.asList("location", "version");
+
+        APLOutlierSummarizer summ = new APLOutlierSummarizer();
+        summ.setMinSupport(.05);
+        summ.setMinRatioMetric(1.0);
+        summ.setRatioMetric("risk_ratio");
+        summ.setAttributes(explanationAttributes);
+        summ.process(classified);
+        APLExplanation expected = summ.getResults();
+        DataFrame expectedDf = expected.toDataFrame(explanationAttributes);
+        assertFalse(expectedDf.getSchema().hasColumn("risk_ratio_low"));
+
+        summ.setInlierSampleRate(0.5).setSampleSeed(1);
+        summ.process(classified);
+        APLExplanation actual = summ.getResults();
+        DataFrame actualDf = actual.toDataFrame(explanationAttributes);
+
+        // Every outlier is kept, and the sampled inliers are scaled back to the exact total
+        assertEquals(expected.numOutliers(), actual.numOutliers(), 0.0);
+        assertEquals(expected.numTotal(), actual.numTotal(), 1e-6);
+        assertTrue(actualDf.getNumRows() > 0);
+
+        Map<String, Integer> expectedRows = new HashMap<>();
+        for (int i = 0; i < expectedDf.getNumRows(); i++) {
+            expectedRows.put(expectedDf.getStringColumnByName("location")[i] + ","
+                    + expectedDf.getStringColumnByName("version")[i], i);
+        }
+        double[] riskRatio = actualDf.getDoubleColumnByName("risk_ratio");
+        double[] low = actualDf.getDoubleColumnByName("risk_ratio_low");
+        double[] high = actualDf.getDoubleColumnByName("risk_ratio_high");
+        int matched = 0;
+        for (int i = 0; i < actualDf.getNumRows(); i++) {
+            assertTrue(low[i] <= riskRatio[i] && riskRatio[i] <= high[i]);
+            Integer j = expectedRows.get(actualDf.getStringColumnByName("location")[i] + ","
+                    + actualDf.getStringColumnByName("version")[i]);
+            if (j != null) {
+                assertEquals(expectedDf.getDoubleColumnByName("outliers")[j],
+                        actualDf.getDoubleColumnByName("outliers")[i], 0.0);
+                double exactRiskRatio = expectedDf.getDoubleColumnByName("risk_ratio")[j];
+                assertTrue(low[i] <= exactRiskRatio && exactRiskRatio <= high[i]);
+                matched++;
+            }
+        }
+        assertTrue(matched > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleRate() {
+        new APLOutlierSummarizer().setInlierSampleRate(0.0);
+    }
+}
@@ -0,0 +1,33 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSetPacker;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IntSetPackerTest {
+    @Test
+    public void testSimple() {
+        IntSetPacker packer = new IntSetPacker(100);
+        assertEquals(7, packer.getBitsPerItem());
+        assertEquals(1, packer.getWidth(5));
+        int[] items = {3, 99, 1, 42, 7};
+        long[] key = new long[1];
+        packer.pack(items, 5, key, 0);
+        assertArrayEquals(items, packer.unpack(key, 0, 5));
+    }
+
+    @Test
+    public void testWide() {
+        IntSetPacker packer = new IntSetPacker(1 << 25);
+        assertEquals(2, packer.getItemsPerWord());
+        assertEquals(3, packer.getWidth(5));
+        int[] items = {(1 << 25) - 1, 5, 1 << 24, 1, 12345};
+        long[] key = new long[4];
+        packer.pack(items, 5, key, 1);
+        assertTrue(key[1] != 0);
+        assertArrayEquals(items, packer.unpack(key, 1, 5));
+    }
+}
@@ -0,0 +1,98 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LongAggregateTableTest {
+
+    @Test
+    public void testSimple() {
+        AggregationOp[] ops = {AggregationOp.SUM, AggregationOp.MAX};
+        LongAggregateTable table = new LongAggregateTable(4, ops);
+        table.ensureCapacity(3);
+        int slotOne = table.findOrInsert(1);
+        int slotTwo = table.findOrInsert(2);
+        assertEquals(slotOne, table.findOrInsert(1));
+        assertEquals(2, table.size());
+        assertEquals(0.0, table.getValues()[slotOne * 2], 0.01);
+        assertEquals(-Double.MAX_VALUE, table.getValues()[slotTwo * 2 + 1], 0.01);
+        assertEquals(-1, table.find(18));
+
+        table.getValues()[slotOne * 2] = 3.0;
+        table.getValues()[slotOne * 2 + 1] = 5.0;
+        LongAggregateTable other = new LongAggregateTable(4, ops);
+        other.ensureCapacity(1);
+        int otherSlot = other.findOrInsert(1);
+        other.getValues()[otherSlot * 2] = 2.0;
+        other.getValues()[otherSlot * 2 + 1] = 7.0;
+        table.merge(other, ops);
+        double[] merged = table.getAggregates(table.find(1));
+        assertEquals(5.0, merged[0], 0.01);
+        assertEquals(7.0, merged[1], 0.01);
+    }
+
+    @Test
+    public void testGrow() {
+        AggregationOp[] ops = {AggregationOp.SUM};
+        LongAggregateTable table = new LongAggregateTable(1, ops);
+        for (long key = 1; key <= 1000; key++) {
+            table.ensureCapacity(1);
+            int slot = table.findOrInsert(key << 21);
+            table.getValues()[slot] += key;
+        }
+        assertEquals(1000, table.size());
+        for (long key = 1; key <= 1000; key++) {
+            assertEquals(key, table.getValues()[table.find(key << 21)], 0.01);
+        }
+    }
+
+    @Test
+    public void testMergePartitions() {
+        AggregationOp[] ops = {AggregationOp.SUM};
+        LongAggregateTable first = new LongAggregateTable(100, ops);
+        LongAggregateTable second = new LongAggregateTable(100, ops);
+        for (long key = 1; key <= 100; key++) {
+            first.getValues()[first.findOrInsert(key)] += 1;
+            second.getValues()[second.findOrInsert(key + 50)] += 2;
+        }
+        int numPartitions = 4;
+        List<LongAggregateTable> partitions = LongAggregateTable.mergePartitioned(
+                Arrays.asList(first, second), ops, numPartitions, ForkJoinUtils.getSharedPool(2));
+        assertEquals(numPartitions, partitions.size());
+        int totalSize = 0;
+        for (int partition = 0; partition < numPartitions; partition++) {
+            LongAggregateTable merged = partitions.get(partition);
+            totalSize += merged.size();
+            for (long key = 1; key <= 150; key++) {
+                long[] wrapped = {key};
+                int slot = merged.find(key);
+                if (LongAggregateTable.partitionOf(wrapped, 0, 1, numPartitions) != partition) {
+                    assertEquals(-1, slot);
+                } else {
+                    double expected = (key <= 100 ? 1 : 0) + (key > 50 ? 2 : 0);
+                    assertEquals(expected, merged.getValues()[slot], 0.01);
+                }
+            }
+        }
+        assertEquals(150, totalSize);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooManyKeys() {
+        // Used to double the capacity past 2^30 until it overflowed, then loop forever
+        new LongAggregateTable(1 << 30, new AggregationOp[]{AggregationOp.SUM});
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooWideKeys() {
+        // 2^29 slots fit, but not with keys of eight longs each
+        new LongAggregateTable(1 << 28, 8, new AggregationOp[]{AggregationOp.SUM});
+    }
+}
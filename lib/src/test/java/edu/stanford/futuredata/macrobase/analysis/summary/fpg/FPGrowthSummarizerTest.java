@@ -0,0 +1,42 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.fpg;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.fpg.result.FPGAttributeSet;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class FPGrowthSummarizerTest {
+    @Test
+    public void testDictionaryAttributes() {
+        int n = 1000;
+        double[] outliers = new double[n];
+        String[] locations = new String[n];
+        String[] versions = new String[n];
+        for (int i = 0; i < n; i++) {
+            outliers[i] = i % 10 == 0 ? 1.0 : 0.0;
+            locations[i] = outliers[i] > 0 ? "CAN" : i % 3 == 0 ? "CAN" : "USA";
+            versions[i] = outliers[i] > 0 ? "v3" : "v" + (i % 3);
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("outlier", outliers);
+        df.addColumn("location", DictionaryColumn.encode(locations));
+        df.addColumn("version", versions);
+
+        // Without attributes set, both the STRING and the DICTIONARY columns are explained
+        FPGrowthSummarizer summarizer = new FPGrowthSummarizer();
+        summarizer.setOutlierColumn("outlier");
+        summarizer.process(df);
+        List<FPGAttributeSet> itemsets = summarizer.getResults().prune().getItemsets();
+        assertEquals(1, itemsets.size());
+        Map<String, String> expected = new HashMap<>();
+        expected.put("location", "CAN");
+        expected.put("version", "v3");
+        assertEquals(expected, itemsets.get(0).getItems());
+    }
+}
@@ -0,0 +1,40 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.fpg;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransactionIndexTest {
+    @Test
+    public void testMatchesContainment() {
+        Random r = new Random(0);
+        int[][] transactions = new int[1000][];
+        List<Set<Integer>> sets = new ArrayList<>();
+        for (int i = 0; i < transactions.length; i++) {
+            // one item per column, as encoded by the AttributeEncoder
+            transactions[i] = new int[]{r.nextInt(3), 10 + r.nextInt(4), 20 + r.nextInt(5)};
+            sets.add(new HashSet<>(Arrays.asList(transactions[i][0], transactions[i][1], transactions[i][2])));
+        }
+        TransactionIndex index = new TransactionIndex(transactions);
+        assertEquals(1000, index.getNumTransactions());
+
+        List<Set<Integer>> itemsets = Arrays.asList(
+                new HashSet<>(),
+                new HashSet<>(Collections.singletonList(1)),
+                new HashSet<>(Arrays.asList(1, 12)),
+                new HashSet<>(Arrays.asList(0, 11, 24)),
+                new HashSet<>(Arrays.asList(2, 99)));
+        for (Set<Integer> itemset : itemsets) {
+            int expected = 0;
+            for (Set<Integer> set : sets) {
+                if (set.containsAll(itemset)) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, index.count(itemset));
+        }
+        assertEquals(0, index.count(99));
+    }
+}
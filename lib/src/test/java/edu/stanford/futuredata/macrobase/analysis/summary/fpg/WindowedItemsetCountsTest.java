@@ -0,0 +1,67 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.fpg;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WindowedItemsetCountsTest {
+    private static Set<Integer> itemset(Integer... items) {
+        return new HashSet<>(Arrays.asList(items));
+    }
+
+    @Test
+    public void testExpirePanes() {
+        WindowedItemsetCounts counts = new WindowedItemsetCounts(2);
+        counts.startPane(100, 10);
+        int a = counts.track(itemset(1, 2), 5, 4);
+        counts.startPane(200, 20);
+        counts.addPaneCounts(a, 6, 0);
+        int b = counts.track(itemset(3), 1, 8);
+
+        assertEquals(2, counts.getNumPanes());
+        assertEquals(300, counts.getNumInliers());
+        assertEquals(30, counts.getNumOutliers());
+        assertEquals(11, counts.getInlierCount(a), 0.0);
+        assertEquals(4, counts.getOutlierCount(a), 0.0);
+        assertEquals(30, counts.getOutlierSupport(a));
+        assertEquals(200, counts.getInlierSupport(b));
+        assertEquals(20, counts.getOutlierSupport(b));
+
+        // Expiring the first pane leaves a without outliers, so it is no longer tracked
+        counts.startPane(50, 5);
+        assertEquals(2, counts.getNumPanes());
+        assertEquals(250, counts.getNumInliers());
+        assertEquals(25, counts.getNumOutliers());
+        assertFalse(counts.isTracked(itemset(1, 2)));
+        assertTrue(counts.isTracked(itemset(3)));
+        assertEquals(b, counts.nextTracked(0));
+        assertEquals(-1, counts.nextTracked(b + 1));
+        assertEquals(25, counts.getOutlierSupport(b));
+        assertEquals(8, counts.getOutlierCount(b), 0.0);
+    }
+
+    @Test
+    public void testRecycledIdsStartEmpty() {
+        WindowedItemsetCounts counts = new WindowedItemsetCounts(3);
+        counts.startPane(10, 10);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(counts.track(itemset(i), 1, 1));
+        }
+        assertEquals(100, counts.getNumTracked());
+        counts.untrack(ids.get(7));
+        assertEquals(99, counts.getNumTracked());
+
+        counts.startPane(10, 10);
+        int id = counts.track(itemset(1000), 2, 3);
+        assertEquals((int) ids.get(7), id);
+        assertEquals(2, counts.getInlierCount(id), 0.0);
+        assertEquals(3, counts.getOutlierCount(id), 0.0);
+        assertEquals(10, counts.getOutlierSupport(id));
+        assertEquals(itemset(1000), counts.getItemset(id));
+    }
+}
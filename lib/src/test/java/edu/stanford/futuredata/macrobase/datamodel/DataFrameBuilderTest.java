@@ -0,0 +1,87 @@
+package edu.stanford.futuredata.macrobase.datamodel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class DataFrameBuilderTest {
+    private static DataFrame batch(int start, int n, DictionaryColumn labels) {
+        double[] metric = new double[n];
+        String[] attribute = new String[n];
+        for (int i = 0; i < n; i++) {
+            metric[i] = start + i;
+            attribute[i] = "a" + (start + i);
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("metric", metric);
+        df.addColumn("attribute", attribute);
+        df.addColumn("label", labels);
+        return df;
+    }
+
+    @Test
+    public void testAppendRows() {
+        DictionaryColumn labels = DictionaryColumn.encode(new String[]{"x", "y", "x", "z", "y"});
+        DataFrame first = batch(0, 5, labels);
+        DataFrameBuilder builder = new DataFrameBuilder(first.getSchema());
+        // Enough rows to grow the columns several times
+        for (int i = 0; i < 20; i++) {
+            builder.append(first, new int[]{4, 1, 3}, 1, 2);
+        }
+        BitSet mask = new BitSet();
+        mask.set(2);
+        builder.append(first.filter(mask));
+        assertEquals(41, builder.getNumRows());
+
+        DataFrame built = builder.build();
+        assertEquals(41, built.getNumRows());
+        assertEquals(0, builder.getNumRows());
+        assertEquals(first.getSchema(), built.getSchema());
+        double[] metric = built.getDoubleColumnByName("metric");
+        assertEquals(1.0, metric[0], 0.0);
+        assertEquals(3.0, metric[39], 0.0);
+        assertEquals(2.0, metric[40], 0.0);
+        assertEquals("a3", built.getStringColumnByName("attribute")[1]);
+        // Rows all share one dictionary, so the built column does too
+        DictionaryColumn builtLabels = built.getDictionaryColumnByName("label");
+        assertSame(labels.getDictionary(), builtLabels.getDictionary());
+        assertEquals("y", builtLabels.get(0));
+        assertEquals("x", builtLabels.get(40));
+    }
+
+    @Test
+    public void testMixedDictionaries() {
+        DataFrame first = batch(0, 3, DictionaryColumn.encode(new String[]{"x", "y", "x"}));
+        DataFrame second = batch(3, 2, DictionaryColumn.encode(new String[]{"z", "x"}));
+        DataFrameBuilder builder = new DataFrameBuilder(first.getSchema());
+        builder.append(first).append(second).append(first);
+
+        DataFrame built = builder.build();
+        DataFrame union = DataFrame.unionAll(Arrays.asList(first, second, first));
+        assertEquals(union.getNumRows(), built.getNumRows());
+        assertArrayEquals(union.getDoubleColumnByName("metric"),
+                built.getDoubleColumnByName("metric"), 0.0);
+        assertArrayEquals(union.getStringColumnByName("attribute"),
+                built.getStringColumnByName("attribute"));
+        assertArrayEquals(union.getStringColumnByName("label"), built.getStringColumnByName("label"));
+        DictionaryColumn builtLabels = built.getDictionaryColumnByName("label");
+        assertNotSame(first.getDictionaryColumnByName("label").getDictionary(),
+                builtLabels.getDictionary());
+        assertEquals(3, builtLabels.getDictionary().size());
+    }
+
+    @Test
+    public void testBuildEmpty() {
+        DataFrame first = batch(0, 3, DictionaryColumn.encode(new String[]{"x", "y", "x"}));
+        DataFrame built = new DataFrameBuilder(first.getSchema()).build();
+        assertEquals(0, built.getNumRows());
+        assertEquals(first.getSchema(), built.getSchema());
+        assertEquals(0, built.getDoubleColumnByName("metric").length);
+    }
+}
@@ -5,7 +5,11 @@ import org.junit.Test;
 
 import java.util.Arrays;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class DataFrameTest {
     private DataFrame tinyDF;
@@ -77,4 +81,99 @@ public class DataFrameTest {
         assertEquals(df2.getRow(0), df2.getRow(n));
         assertEquals(2.0 * n, df2.getDoubleColumn(2)[0], 1e-10);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDictionaryColumn() {
+        DataFrame df = new DataFrame();
+        df.addColumn("metric", new double[]{1.0, 2.0, 3.0, 4.0});
+        df.addColumn("attribute", DictionaryColumn.encode(new String[]{"b", "a", "b", null}));
+        assertEquals(Schema.ColType.DICTIONARY, df.getSchema().getColumnTypeByName("attribute"));
+        assertEquals("b", df.getStringColumnByName("attribute")[2]);
+        assertEquals("a", df.getRow(1).getAs("attribute"));
+        // Decoded once per column
+        assertSame(df.getStringColumnByName("attribute"), df.getStringColumnByName("attribute"));
+
+        DataFrame filtered = df.filter("attribute", (Object a) -> "b".equals(a));
+        assertEquals(2, filtered.getNumRows());
+        assertEquals(3.0, filtered.getDoubleColumnByName("metric")[1], 1e-10);
+        DictionaryColumn filteredCol = filtered.getDictionaryColumnByName("attribute");
+        assertSame(df.getDictionaryColumnByName("attribute").getDictionary(), filteredCol.getDictionary());
+        assertArrayEquals(new String[]{"b", "b"}, filtered.getStringColumnByName("attribute"));
+        assertSame(filtered.getStringColumnByName("attribute"), filtered.getStringColumnByName("attribute"));
+
+        DataFrame projected = df.project(Arrays.asList("attribute"));
+        assertEquals(Schema.ColType.DICTIONARY, projected.getSchema().getColumnType(0));
+        assertEquals(Schema.ColType.DICTIONARY, df.limit(2).getSchema().getColumnType(1));
+        assertEquals("a", df.orderBy("attribute", true).getStringColumnByName("attribute")[0]);
+
+        DataFrame other = new DataFrame();
+        other.addColumn("metric", new double[]{5.0});
+        other.addColumn("attribute", DictionaryColumn.encode(new String[]{"c"}));
+        DataFrame combined = DataFrame.unionAll(Arrays.asList(df, df, other));
+        assertEquals(9, combined.getNumRows());
+        assertArrayEquals(new String[]{"b", "a", "b", null, "b", "a", "b", null, "c"},
+            combined.getStringColumnByName("attribute"));
+        assertEquals(DataFrame.unionAll(Arrays.asList(df, df)),
+            DataFrame.unionAll(Arrays.asList(df, df.copy())));
+    }
+
+    @Test
+    public void testFilterView() {
+        DataFrame df = new DataFrame();
+        df.addColumn("metric", new double[]{1.0, 2.0, 3.0, 4.0, 5.0});
+        df.addColumn("name", new String[]{"a", "b", "c", "d", "e"});
+        df.addColumn("attribute", DictionaryColumn.encode(new String[]{"x", "y", "x", "y", "x"}));
+
+        DataFrame filtered = df.filter("metric", (double m) -> m > 1.5);
+        assertTrue(filtered.isView());
+        DataFrame twice = filtered.filter("attribute", (Object a) -> "x".equals(a));
+        assertTrue(twice.isView());
+        assertEquals(2, twice.getNumRows());
+        assertEquals("e", twice.getRow(1).getAs("name"));
+        assertArrayEquals(new double[]{3.0, 5.0}, twice.getDoubleColumnByName("metric"), 1e-10);
+        assertArrayEquals(new String[]{"x", "x"}, twice.getStringColumnByName("attribute"));
+        assertSame(twice.getDoubleColumnByName("metric"), twice.getDoubleColumnByName("metric"));
+
+        assertArrayEquals(new String[]{"b", "c"}, filtered.limit(2).getStringColumnByName("name"));
+        assertArrayEquals(new String[]{"c", "e"},
+            twice.project(Arrays.asList("name")).getStringColumnByName("name"));
+        DataFrame combined = DataFrame.unionAll(Arrays.asList(twice, df));
+        assertEquals(7, combined.getNumRows());
+        assertEquals(5.0, combined.getDoubleColumnByName("metric")[1], 1e-10);
+        assertEquals("a", combined.getStringColumnByName("name")[2]);
+
+        DataFrame copy = twice.copy();
+        assertEquals(twice, copy.materialize());
+        assertFalse(copy.isView());
+        twice.addColumn("extra", new double[]{0.0, 1.0});
+        assertFalse(twice.isView());
+        assertArrayEquals(new String[]{"c", "e"}, twice.getStringColumnByName("name"));
+    }
+
+    @Test
+    public void testOrderBy() {
+        DataFrame df = new DataFrame();
+        df.addColumn("metric", new double[]{3.0, 1.0, 2.0, 1.0, 3.0});
+        df.addColumn("name", new String[]{"a", "b", null, "d", "e"});
+        df.addColumn("attribute", DictionaryColumn.encode(new String[]{"y", "x", "x", "y", "x"}));
+
+        DataFrame sorted = df.orderBy("metric", false);
+        assertArrayEquals(new String[]{"a", "e", null, "b", "d"}, sorted.getStringColumnByName("name"));
+        assertArrayEquals(new String[]{null, "e", "d", "b", "a"},
+            df.orderBy("name", false).getStringColumnByName("name"));
+
+        boolean[] sortAsc = {true, false};
+        DataFrame byTwo = df.orderBy(Arrays.asList("attribute", "metric"), sortAsc);
+        assertArrayEquals(new String[]{"e", null, "b", "a", "d"}, byTwo.getStringColumnByName("name"));
+        assertArrayEquals(new double[]{3.0, 2.0, 1.0, 3.0, 1.0}, byTwo.getDoubleColumnByName("metric"), 1e-10);
+        assertEquals(byTwo.limit(3), df.orderBy(Arrays.asList("attribute", "metric"), sortAsc, 3));
+        assertEquals(byTwo, df.orderBy(Arrays.asList("attribute", "missing", "metric"),
+            new boolean[]{true, true, false}, -1));
+
+        DataFrame filtered = df.filter("metric", (double m) -> m < 3.0);
+        assertArrayEquals(new String[]{null, "b"},
+            filtered.orderBy(Arrays.asList("metric", "name"), new boolean[]{false, true}, 2)
+                .getStringColumnByName("name"));
+        assertSame(df, df.orderBy("missing", true));
+    }
+}
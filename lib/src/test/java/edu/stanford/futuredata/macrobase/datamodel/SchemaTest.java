@@ -2,6 +2,8 @@ package edu.stanford.futuredata.macrobase.datamodel;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static edu.stanford.futuredata.macrobase.datamodel.Schema.ColType;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -16,4 +18,13 @@ public class SchemaTest {
         assertEquals(2, s.getNumColumns());
         assertEquals(ColType.DOUBLE, s.getColumnType(s.getColumnIndex("usage")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStringColumnNames() {
+        Schema s = new Schema();
+        s.addColumn(ColType.DICTIONARY, "location");
+        s.addColumn(ColType.DOUBLE, "usage");
+        s.addColumn(ColType.STRING, "app_ver");
+        assertEquals(Arrays.asList("location", "app_ver"), s.getStringColumnNames());
+    }
+}
@@ -0,0 +1,36 @@
+package edu.stanford.futuredata.macrobase.datamodel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void testSimple() {
+        StringDictionary d = new StringDictionary();
+        assertEquals(0, d.getOrAdd("a"));
+        assertEquals(1, d.getOrAdd(null));
+        assertEquals(2, d.getOrAdd("b"));
+        assertEquals(0, d.getOrAdd("a"));
+        assertEquals(1, d.getOrAdd(null));
+        assertEquals(3, d.size());
+        assertEquals(2, d.get("b"));
+        assertEquals(-1, d.get("c"));
+        assertNull(d.getValue(1));
+    }
+
+    @Test
+    public void testGrow() {
+        StringDictionary d = new StringDictionary();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, d.getOrAdd("v" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, d.get("v" + i));
+            assertEquals("v" + i, d.getValue(i));
+        }
+        assertEquals(1000, d.size());
+    }
+}
@@ -0,0 +1,57 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ChunkedCSVDataFrameParserTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchesSerialLoad() throws Exception {
+        Map<String, Schema.ColType> colTypes = new HashMap<>();
+        colTypes.put("usage", Schema.ColType.DOUBLE);
+        colTypes.put("latency", Schema.ColType.DOUBLE);
+        colTypes.put("location", Schema.ColType.DICTIONARY);
+        List<String> columns = Arrays.asList("usage", "latency", "location", "version");
+
+        DataFrame expected = new CSVDataFrameParser("src/test/resources/sample.csv", columns)
+                .setColumnTypes(colTypes)
+                .load();
+        File spillDirectory = folder.newFolder();
+        for (File directory : Arrays.asList(null, spillDirectory)) {
+            ChunkedDataFrame table = new ChunkedCSVDataFrameParser("src/test/resources/sample.csv", columns)
+                    .setColumnTypes(colTypes)
+                    .setChunkRows(100)
+                    .setSpillDirectory(directory)
+                    .load();
+            assertEquals(11, table.getNumChunks());
+            assertEquals(1020, table.getNumRows());
+            assertEquals(20, table.getChunk(10).getNumRows());
+            assertEquals(expected.getSchema(), table.getSchema());
+
+            DataFrame df = table.toDataFrame();
+            assertEquals(expected.getSchema(), df.getSchema());
+            assertArrayEquals(expected.getDoubleColumnByName("usage"), df.getDoubleColumnByName("usage"), 1e-10);
+            assertArrayEquals(expected.getDoubleColumnByName("latency"), df.getDoubleColumnByName("latency"), 1e-10);
+            assertArrayEquals(expected.getStringColumnByName("location"), df.getStringColumnByName("location"));
+            assertArrayEquals(expected.getStringColumnByName("version"), df.getStringColumnByName("version"));
+
+            table.close();
+        }
+        // Closing the spilled table deleted its chunks
+        assertEquals(0, spillDirectory.listFiles().length);
+    }
+}
@@ -0,0 +1,62 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ColumnarDataFrameLoaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DataFrame df = new DataFrame();
+        df.addColumn("usage", new double[]{2.0, 3.5, 0.0, -1.0});
+        df.addColumn("location", new String[]{"CAN", "USA", null, "\u00e9t\u00e9"});
+        df.addColumn("version", DictionaryColumn.encode(new String[]{"v1", "v2", "v1", "v1"}));
+        String filename = folder.newFile("df.mbc").getPath();
+        new ColumnarDataFrameWriter().writeToFile(df, filename);
+
+        DataFrame loaded = new ColumnarDataFrameLoader(filename, null).load();
+        assertEquals(df.getSchema(), loaded.getSchema());
+        assertEquals(df, loaded);
+
+        DataFrame projected = new ColumnarDataFrameLoader(filename, Arrays.asList("version", "location"))
+                .setColumnTypes(Collections.singletonMap("location", Schema.ColType.DICTIONARY))
+                .load();
+        assertEquals(4, projected.getNumRows());
+        assertEquals(Arrays.asList("location", "version"), projected.getSchema().getColumnNames());
+        assertEquals(Schema.ColType.DICTIONARY, projected.getSchema().getColumnType(0));
+        assertArrayEquals(df.getStringColumnByName("location"), projected.getStringColumnByName("location"));
+        assertArrayEquals(df.getStringColumnByName("version"), projected.getStringColumnByName("version"));
+    }
+
+    @Test
+    public void testLargeColumns() throws Exception {
+        int n = 300000;
+        double[] metric = new double[n];
+        String[] attribute = new String[n];
+        for (int i = 0; i < n; i++) {
+            metric[i] = i * 0.5;
+            attribute[i] = "a" + (i % 1000);
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("metric", metric);
+        df.addColumn("attribute", attribute);
+        String filename = folder.newFile("large.mbc").getPath();
+        new ColumnarDataFrameWriter().writeToFile(df, filename);
+
+        DataFrame loaded = new ColumnarDataFrameLoader(filename, null).load();
+        assertArrayEquals(metric, loaded.getDoubleColumnByName("metric"), 0.0);
+        assertArrayEquals(attribute, loaded.getStringColumnByName("attribute"));
+    }
+}
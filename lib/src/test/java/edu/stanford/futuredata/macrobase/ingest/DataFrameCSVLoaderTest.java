@@ -6,9 +6,11 @@ import edu.stanford.futuredata.macrobase.datamodel.Schema;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class DataFrameCSVLoaderTest {
@@ -30,4 +32,26 @@ public class DataFrameCSVLoaderTest {
         Row row = df.getRow(1);
         assertEquals("CAN", row.getAs("location"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLoadDictionary() throws Exception {
+        Map<String, Schema.ColType> colTypes = new HashMap<>();
+        colTypes.put("usage", Schema.ColType.DOUBLE);
+        colTypes.put("location", Schema.ColType.DICTIONARY);
+
+        DataFrame df = new CSVDataFrameParser("src/test/resources/tiny.csv",
+                Arrays.asList("usage", "location", "version"))
+                .setColumnTypes(colTypes)
+                .load();
+
+        DataFrame expected = new CSVDataFrameParser("src/test/resources/tiny.csv",
+                Arrays.asList("usage", "location", "version"))
+                .setColumnTypes(Collections.singletonMap("usage", Schema.ColType.DOUBLE))
+                .load();
+        assertEquals(3, df.getNumRows());
+        assertEquals(Schema.ColType.DICTIONARY, df.getSchema().getColumnTypeByName("location"));
+        assertArrayEquals(expected.getStringColumnByName("location"), df.getStringColumnByName("location"));
+        assertArrayEquals(expected.getStringColumnByName("version"), df.getStringColumnByName("version"));
+        assertEquals(2.0, df.getDoubleColumnByName("usage")[0], 1e-10);
+    }
+}
@@ -0,0 +1,127 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelCSVDataFrameParserTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchesSerialLoad() throws Exception {
+        Map<String, Schema.ColType> colTypes = new HashMap<>();
+        colTypes.put("usage", Schema.ColType.DOUBLE);
+        colTypes.put("latency", Schema.ColType.DOUBLE);
+        colTypes.put("location", Schema.ColType.DICTIONARY);
+        List<String> columns = Arrays.asList("usage", "latency", "location", "version");
+
+        DataFrame expected = new CSVDataFrameParser("src/test/resources/sample.csv", columns)
+                .setColumnTypes(colTypes)
+                .load();
+        // Split the 17KB file into many ranges that end mid-line before they are aligned
+        DataFrame df = new ParallelCSVDataFrameParser("src/test/resources/sample.csv", columns)
+                .setExecutor(new ForkJoinPool(4))
+                .setMinBytesPerChunk(999)
+                .setColumnTypes(colTypes)
+                .load();
+
+        assertEquals(1020, df.getNumRows());
+        assertEquals(expected.getSchema(), df.getSchema());
+        assertArrayEquals(expected.getDoubleColumnByName("usage"), df.getDoubleColumnByName("usage"), 1e-10);
+        assertArrayEquals(expected.getDoubleColumnByName("latency"), df.getDoubleColumnByName("latency"), 1e-10);
+        assertArrayEquals(expected.getStringColumnByName("location"), df.getStringColumnByName("location"));
+        assertArrayEquals(expected.getStringColumnByName("version"), df.getStringColumnByName("version"));
+    }
+
+    @Test
+    public void testLoadSingleRange() throws Exception {
+        Map<String, Schema.ColType> colTypes = new HashMap<>();
+        colTypes.put("usage", Schema.ColType.DOUBLE);
+
+        DataFrame df = new ParallelCSVDataFrameParser("src/test/resources/tiny.csv",
+                Arrays.asList("usage", "location", "version"))
+                .setColumnTypes(colTypes)
+                .load();
+        assertEquals(3, df.getNumRows());
+        assertEquals(2.0, df.getDoubleColumnByName("usage")[0], 1e-10);
+        assertEquals("CAN", df.getRow(1).getAs("location"));
+    }
+
+    @Test
+    public void testQuotedNewlines() throws Exception {
+        File file = folder.newFile("quoted.csv");
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.print("id,\"multi\nline header\",note\n");
+            for (int i = 0; i < 200; i++) {
+                // Quoted values with newlines, commas and escaped quotes, and a stray quote
+                out.print(i + ",\"first\nsecond, \"\"third\"\"\n" + i + "\", x\"y\n");
+            }
+        }
+        List<String> columns = Arrays.asList("id", "multi\nline header", "note");
+        Map<String, Schema.ColType> colTypes = new HashMap<>();
+        colTypes.put("id", Schema.ColType.DOUBLE);
+
+        DataFrame expected = new CSVDataFrameParser(file.getPath(), columns)
+                .setColumnTypes(colTypes)
+                .load();
+        DataFrame df = new ParallelCSVDataFrameParser(file.getPath(), columns)
+                .setExecutor(new ForkJoinPool(4))
+                .setMinBytesPerChunk(256)
+                .setColumnTypes(colTypes)
+                .load();
+
+        assertEquals(200, expected.getNumRows());
+        assertEquals(200, df.getNumRows());
+        assertEquals(expected.getSchema(), df.getSchema());
+        assertArrayEquals(expected.getDoubleColumnByName("id"), df.getDoubleColumnByName("id"), 0.0);
+        assertArrayEquals(expected.getStringColumnByName("multi\nline header"),
+                df.getStringColumnByName("multi\nline header"));
+        assertArrayEquals(expected.getStringColumnByName("note"), df.getStringColumnByName("note"));
+        assertEquals("first\nsecond, \"third\"\n7", df.getStringColumnByName("multi\nline header")[7]);
+    }
+
+    @Test
+    public void testQuotedValueAcrossRanges() throws Exception {
+        File file = folder.newFile("long.csv");
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longValue.append("line, \"\"").append(i).append("\"\"\n");
+        }
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.print("id,note\n");
+            for (int i = 0; i < 50; i++) {
+                // A value spanning several ranges, whose newlines and quotes must not end it
+                out.print(i + "," + (i == 20 ? "\"" + longValue + "\"" : "short") + "\n");
+            }
+        }
+        List<String> columns = Arrays.asList("id", "note");
+        Map<String, Schema.ColType> colTypes = new HashMap<>();
+        colTypes.put("id", Schema.ColType.DOUBLE);
+
+        DataFrame df = new ParallelCSVDataFrameParser(file.getPath(), columns)
+                .setExecutor(new ForkJoinPool(4))
+                .setMinBytesPerChunk(128)
+                .setColumnTypes(colTypes)
+                .load();
+        assertEquals(50, df.getNumRows());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, df.getDoubleColumnByName("id")[i], 0.0);
+        }
+        assertEquals(longValue.toString().replace("\"\"", "\""), df.getStringColumnByName("note")[20]);
+        assertEquals("short", df.getStringColumnByName("note")[21]);
+    }
+}
@@ -0,0 +1,163 @@
+package edu.stanford.futuredata.macrobase.operator;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.operator.HashAggregator.AggregateFunction;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HashAggregatorTest {
+    @Test
+    public void testMatchesNaiveGroupBy() throws Exception {
+        // Enough rows to be split into several shards
+        int n = 100000;
+        Random random = new Random(0);
+        String[] locations = new String[n];
+        double[] versions = new double[n];
+        double[] usage = new double[n];
+        String[] locationValues = {"AUS", "CAN", "USA", null};
+        for (int i = 0; i < n; i++) {
+            locations[i] = locationValues[random.nextInt(locationValues.length)];
+            versions[i] = random.nextInt(5);
+            usage[i] = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(1000);
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("location", DictionaryColumn.encode(locations));
+        df.addColumn("version", versions);
+        df.addColumn("usage", usage);
+
+        HashAggregator aggregator = new HashAggregator(Arrays.asList("location", "version"))
+                .addAggregate(AggregateFunction.COUNT, null, "count")
+                .addAggregate(AggregateFunction.COUNT, "usage", "usage_count")
+                .addAggregate(AggregateFunction.SUM, "usage", "sum")
+                .addAggregate(AggregateFunction.AVG, "usage", "avg")
+                .addAggregate(AggregateFunction.MIN, "usage", "min")
+                .addAggregate(AggregateFunction.MAX, "usage", "max")
+                .addAggregate(AggregateFunction.STDDEV, "usage", "stddev")
+                .setExecutor(new ForkJoinPool(4));
+        aggregator.process(df);
+        DataFrame result = aggregator.getResults();
+
+        // Groups in order of their first row: count, non-NaN count, sum, sum of squares, min, max
+        Map<List<Object>, double[]> expected = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            double[] group = expected.computeIfAbsent(Arrays.asList(locations[i], versions[i]),
+                    k -> new double[]{0, 0, 0, 0, Double.MAX_VALUE, -Double.MAX_VALUE});
+            group[0]++;
+            if (!Double.isNaN(usage[i])) {
+                group[1]++;
+                group[2] += usage[i];
+                group[3] += usage[i] * usage[i];
+                group[4] = Math.min(group[4], usage[i]);
+                group[5] = Math.max(group[5], usage[i]);
+            }
+        }
+        assertEquals(expected.size(), result.getNumRows());
+        String[] resultLocations = result.getStringColumnByName("location");
+        double[] resultVersions = result.getDoubleColumnByName("version");
+        int g = 0;
+        for (Map.Entry<List<Object>, double[]> entry : expected.entrySet()) {
+            double[] group = entry.getValue();
+            assertEquals(entry.getKey().get(0), resultLocations[g]);
+            assertEquals((double) entry.getKey().get(1), resultVersions[g], 0.0);
+            assertEquals(group[0], result.getDoubleColumnByName("count")[g], 0.0);
+            assertEquals(group[1], result.getDoubleColumnByName("usage_count")[g], 0.0);
+            assertEquals(group[2], result.getDoubleColumnByName("sum")[g], 1e-6);
+            assertEquals(group[2] / group[1], result.getDoubleColumnByName("avg")[g], 1e-6);
+            assertEquals(group[4], result.getDoubleColumnByName("min")[g], 0.0);
+            assertEquals(group[5], result.getDoubleColumnByName("max")[g], 0.0);
+            double variance = (group[3] - group[2] * group[2] / group[1]) / (group[1] - 1);
+            assertEquals(Math.sqrt(variance), result.getDoubleColumnByName("stddev")[g], 1e-6);
+            g++;
+        }
+    }
+
+    @Test
+    public void testStddevOfLargeValues() throws Exception {
+        // Values with a large common offset, whose squares lose every significant digit
+        int n = 100000;
+        int numGroups = 3;
+        Random random = new Random(0);
+        double[] groups = new double[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            groups[i] = i % numGroups;
+            values[i] = 1e9 + random.nextInt(10);
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("group", groups);
+        df.addColumn("value", values);
+
+        HashAggregator aggregator = new HashAggregator(Collections.singletonList("group"))
+                .addAggregate(AggregateFunction.STDDEV, "value", "stddev")
+                .addAggregate(AggregateFunction.AVG, "value", "avg")
+                .setExecutor(new ForkJoinPool(4));
+        aggregator.process(df);
+        DataFrame result = aggregator.getResults();
+        assertEquals(numGroups, result.getNumRows());
+        for (int g = 0; g < numGroups; g++) {
+            double mean = 0;
+            int count = 0;
+            for (int i = g; i < n; i += numGroups) {
+                mean += values[i];
+                count++;
+            }
+            mean /= count;
+            double sumOfSquares = 0;
+            for (int i = g; i < n; i += numGroups) {
+                sumOfSquares += (values[i] - mean) * (values[i] - mean);
+            }
+            assertEquals(mean, result.getDoubleColumnByName("avg")[g], 1e-3);
+            assertEquals(Math.sqrt(sumOfSquares / (count - 1)), result.getDoubleColumnByName("stddev")[g], 1e-6);
+        }
+    }
+
+    @Test
+    public void testSignedZeroGroups() throws Exception {
+        DataFrame df = new DataFrame();
+        df.addColumn("key", new double[]{0.0, -0.0, 1.0, -0.0, Double.NaN, Double.NaN});
+        df.addColumn("value", new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0});
+
+        HashAggregator aggregator = new HashAggregator(Collections.singletonList("key"))
+                .addAggregate(AggregateFunction.SUM, "value", "sum");
+        aggregator.process(df);
+        DataFrame result = aggregator.getResults();
+        assertArrayEquals(new double[]{0.0, 1.0, Double.NaN}, result.getDoubleColumnByName("key"), 0.0);
+        assertArrayEquals(new double[]{7.0, 3.0, 11.0}, result.getDoubleColumnByName("sum"), 0.0);
+    }
+
+    @Test
+    public void testNoGroupByColumns() throws Exception {
+        DataFrame df = new DataFrame();
+        df.addColumn("usage", new double[]{1.0, 4.0, Double.NaN, 7.0});
+
+        HashAggregator aggregator = new HashAggregator(Collections.emptyList())
+                .addAggregate(AggregateFunction.COUNT, null, "count")
+                .addAggregate(AggregateFunction.AVG, "usage", "avg")
+                .addAggregate(AggregateFunction.MAX, "usage", "max");
+        aggregator.process(df);
+        DataFrame result = aggregator.getResults();
+        assertEquals(1, result.getNumRows());
+        assertArrayEquals(new double[]{4.0}, result.getDoubleColumnByName("count"), 0.0);
+        assertArrayEquals(new double[]{4.0}, result.getDoubleColumnByName("avg"), 1e-10);
+        assertArrayEquals(new double[]{7.0}, result.getDoubleColumnByName("max"), 0.0);
+
+        // Aggregates of no rows
+        aggregator.process(df.filter("usage", (double u) -> u > 10.0));
+        result = aggregator.getResults();
+        assertEquals(1, result.getNumRows());
+        assertEquals(0.0, result.getDoubleColumnByName("count")[0], 0.0);
+        assertEquals(Double.NaN, result.getDoubleColumnByName("avg")[0], 0.0);
+        assertEquals(Double.NaN, result.getDoubleColumnByName("max")[0], 0.0);
+    }
+}
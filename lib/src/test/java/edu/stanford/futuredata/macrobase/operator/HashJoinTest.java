@@ -0,0 +1,158 @@
+package edu.stanford.futuredata.macrobase.operator;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.operator.HashJoin.JoinType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HashJoinTest {
+    @Test
+    public void testMatchesNaiveJoin() throws Exception {
+        // Enough left rows to be split into several shards
+        int numLeft = 50000;
+        int numRight = 200;
+        Random random = new Random(0);
+        String[] locationValues = {"AUS", "CAN", "USA", "FRA", null};
+        String[] leftLocations = new String[numLeft];
+        double[] leftVersions = new double[numLeft];
+        double[] usage = new double[numLeft];
+        for (int i = 0; i < numLeft; i++) {
+            leftLocations[i] = locationValues[random.nextInt(locationValues.length)];
+            leftVersions[i] = random.nextInt(60) == 0 ? Double.NaN : random.nextInt(60);
+            usage[i] = i;
+        }
+        // FRA never appears on the right side, and some versions appear more than once
+        String[] rightLocations = new String[numRight];
+        double[] rightVersions = new double[numRight];
+        double[] latency = new double[numRight];
+        for (int i = 0; i < numRight; i++) {
+            rightLocations[i] = locationValues[random.nextInt(3)];
+            rightVersions[i] = random.nextInt(50);
+            latency[i] = i;
+        }
+        DataFrame left = new DataFrame();
+        left.addColumn("location", DictionaryColumn.encode(leftLocations));
+        left.addColumn("version", leftVersions);
+        left.addColumn("usage", usage);
+        DataFrame right = new DataFrame();
+        right.addColumn("location", rightLocations);
+        right.addColumn("right_version", rightVersions);
+        right.addColumn("latency", latency);
+
+        for (JoinType joinType : JoinType.values()) {
+            DataFrame result = new HashJoin(joinType, Arrays.asList("location", "version"),
+                    Arrays.asList("location", "right_version"))
+                    .setExecutor(new ForkJoinPool(4))
+                    .join(left, right);
+            assertEquals(Arrays.asList("location", "version", "usage", "right_version", "latency"),
+                    result.getSchema().getColumnNames());
+
+            List<double[]> expected = new ArrayList<>();
+            for (int l = 0; l < numLeft; l++) {
+                boolean matched = false;
+                for (int r = 0; r < numRight; r++) {
+                    if (leftLocations[l] != null && leftLocations[l].equals(rightLocations[r])
+                            && leftVersions[l] == rightVersions[r]) {
+                        expected.add(new double[]{l, r});
+                        matched = true;
+                    }
+                }
+                if (!matched && joinType == JoinType.LEFT_OUTER) {
+                    expected.add(new double[]{l, Double.NaN});
+                }
+            }
+            assertEquals(expected.size(), result.getNumRows());
+            String[] resultLocations = result.getStringColumnByName("location");
+            double[] resultUsage = result.getDoubleColumnByName("usage");
+            double[] resultLatency = result.getDoubleColumnByName("latency");
+            for (int i = 0; i < expected.size(); i++) {
+                int l = (int) expected.get(i)[0];
+                assertEquals(l, resultUsage[i], 0.0);
+                assertEquals(expected.get(i)[1], resultLatency[i], 0.0);
+                assertEquals(leftLocations[l], resultLocations[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testLeftOuterStringColumns() throws Exception {
+        DataFrame left = new DataFrame();
+        left.addColumn("id", new double[]{1.0, 2.0, 3.0});
+        DataFrame right = new DataFrame();
+        right.addColumn("id", new double[]{3.0, 1.0});
+        right.addColumn("name", new String[]{"c", "a"});
+        right.addColumn("country", DictionaryColumn.encode(new String[]{"USA", "CAN"}));
+
+        DataFrame result = new HashJoin(JoinType.LEFT_OUTER, Collections.singletonList("id"),
+                Collections.singletonList("id")).join(left, right);
+        assertArrayEquals(new double[]{1.0, 2.0, 3.0}, result.getDoubleColumnByName("id"), 0.0);
+        assertArrayEquals(new String[]{"a", null, "c"}, result.getStringColumnByName("name"));
+        assertArrayEquals(new String[]{"CAN", null, "USA"}, result.getStringColumnByName("country"));
+        // The right side's dictionary is not modified by the missing rows
+        assertEquals(2, right.getDictionaryColumn(2).getDictionary().size());
+
+        result = new HashJoin(JoinType.INNER, Collections.singletonList("id"),
+                Collections.singletonList("id")).join(left, right);
+        assertArrayEquals(new double[]{1.0, 3.0}, result.getDoubleColumnByName("id"), 0.0);
+        assertArrayEquals(new String[]{"a", "c"}, result.getStringColumnByName("name"));
+        assertArrayEquals(new String[]{"CAN", "USA"}, result.getStringColumnByName("country"));
+    }
+
+    @Test
+    public void testSignedZeroKeys() throws Exception {
+        DataFrame left = new DataFrame();
+        left.addColumn("id", new double[]{0.0, -0.0, 1.0});
+        DataFrame right = new DataFrame();
+        right.addColumn("id", new double[]{-0.0, 0.0, 1.0});
+        right.addColumn("name", new String[]{"negative", "positive", "one"});
+
+        // -0.0 == 0.0, so both zero rows on each side match each other
+        DataFrame result = new HashJoin(JoinType.INNER, Collections.singletonList("id"),
+                Collections.singletonList("id")).join(left, right);
+        assertEquals(5, result.getNumRows());
+        String[] names = result.getStringColumnByName("name");
+        for (int i = 0; i < 4; i++) {
+            assertTrue(names[i].equals("negative") || names[i].equals("positive"));
+        }
+        assertEquals("one", names[4]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedKeyTypes() throws Exception {
+        DataFrame left = new DataFrame();
+        left.addColumn("id", new double[]{1.0});
+        DataFrame right = new DataFrame();
+        right.addColumn("id", new String[]{"1"});
+        new HashJoin(JoinType.INNER, Collections.singletonList("id"), Collections.singletonList("id"))
+                .join(left, right);
+    }
+
+    @Test
+    public void testEmptyRight() throws Exception {
+        DataFrame left = new DataFrame();
+        left.addColumn("id", new String[]{"a", null});
+        DataFrame right = new DataFrame();
+        right.addColumn("key", new String[0]);
+        right.addColumn("value", new double[0]);
+
+        DataFrame result = new HashJoin(JoinType.LEFT_OUTER, Collections.singletonList("id"),
+                Collections.singletonList("key")).join(left, right);
+        assertEquals(2, result.getNumRows());
+        assertNull(result.getStringColumnByName("key")[0]);
+        assertEquals(Double.NaN, result.getDoubleColumnByName("value")[1], 0.0);
+        assertEquals(0, new HashJoin(JoinType.INNER, Collections.singletonList("id"),
+                Collections.singletonList("key")).join(left, right).getNumRows());
+    }
+}
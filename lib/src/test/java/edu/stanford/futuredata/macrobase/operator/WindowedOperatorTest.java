@@ -46,4 +46,84 @@ public class WindowedOperatorTest {
         windowedAverageOp.flushBuffer();
         assertEquals(windowedAverageOp.getBufferSize(), 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        DataFrame data = MovingAverageTest.getTestDF();
+        WindowedOperator<Double> windowedAverageOp = new WindowedOperator<>(
+                new MovingAverage("val", 0)
+        );
+        windowedAverageOp.setSlideLength(10.0);
+        windowedAverageOp.setWindowLength(30.0);
+        windowedAverageOp.setAllowedLateness(5.0);
+        windowedAverageOp.initialize();
+
+        // Rows of the nonzero block arrive after rows of the next pane, but within the lateness
+        windowedAverageOp.process(data.filter("time", (double t) -> t < 10.0));
+        windowedAverageOp.process(data.filter("time", (double t) -> t >= 20.0 && t < 24.0));
+        assertEquals(10.0, windowedAverageOp.getMaxWindowTime(), 0.0);
+        windowedAverageOp.process(data.filter("time", (double t) -> t >= 10.0 && t < 20.0));
+        assertEquals(10.0, windowedAverageOp.getMaxWindowTime(), 0.0);
+        windowedAverageOp.process(data.filter("time", (double t) -> t >= 24.0 && t < 26.0));
+        assertEquals(20.0, windowedAverageOp.getMaxWindowTime(), 0.0);
+        assertEquals(0.5, windowedAverageOp.getResults(), 1e-10);
+        assertEquals(0, windowedAverageOp.getNumLateRows());
+        assertEquals(6, windowedAverageOp.getNumBufferedRows());
+    }
+
+    @Test
+    public void testLateEvents() throws Exception {
+        DataFrame data = MovingAverageTest.getTestDF();
+        WindowedOperator<Double> windowedAverageOp = new WindowedOperator<>(
+                new MovingAverage("val", 0)
+        );
+        windowedAverageOp.setSlideLength(10.0);
+        windowedAverageOp.setWindowLength(30.0);
+        windowedAverageOp.setLateEventOutput(true);
+        windowedAverageOp.initialize();
+
+        // Skipping ahead processes the empty panes in between
+        windowedAverageOp.process(data.filter("time", (double t) -> t < 5.0));
+        windowedAverageOp.process(data.filter("time", (double t) -> t >= 40.0 && t < 45.0));
+        assertEquals(40.0, windowedAverageOp.getMaxWindowTime(), 0.0);
+        assertTrue(Double.isNaN(windowedAverageOp.getResults()));
+
+        // Rows of processed panes are set aside, the rest are buffered
+        windowedAverageOp.process(data.filter("time", (double t) -> t >= 5.0 && t < 20.0 || t == 45.0));
+        assertEquals(15, windowedAverageOp.getNumLateRows());
+        assertEquals(6, windowedAverageOp.getNumBufferedRows());
+        assertTrue(Double.isNaN(windowedAverageOp.getResults()));
+
+        DataFrame late = windowedAverageOp.drainLateEvents();
+        assertEquals(15, late.getNumRows());
+        assertEquals(5.0, late.getDoubleColumnByName("time")[0], 0.0);
+        assertEquals(0, windowedAverageOp.drainLateEvents().getNumRows());
+        assertEquals(15, windowedAverageOp.getNumLateRows());
+    }
+
+    @Test
+    public void testLateEventsCountedInNextPane() throws Exception {
+        DataFrame data = MovingAverageTest.getTestDF();
+        WindowedOperator<Double> windowedAverageOp = new WindowedOperator<>(
+                new MovingAverage("val", 0)
+        );
+        windowedAverageOp.setSlideLength(10.0);
+        windowedAverageOp.setWindowLength(30.0);
+        windowedAverageOp.initialize();
+
+        windowedAverageOp.process(data.filter("time", (double t) -> t < 5.0));
+        windowedAverageOp.process(data.filter("time", (double t) -> t >= 40.0 && t < 45.0));
+        // Late rows are never set aside, however many arrive without a drain
+        DataFrame late = data.filter("time", (double t) -> t >= 10.0 && t < 20.0);
+        for (int i = 0; i < 100; i++) {
+            windowedAverageOp.process(late);
+        }
+        assertEquals(1000, windowedAverageOp.getNumLateRows());
+        assertEquals(1005, windowedAverageOp.getNumBufferedRows());
+        assertEquals(0, windowedAverageOp.drainLateEvents().getNumRows());
+
+        windowedAverageOp.process(data.filter("time", (double t) -> t == 50.0));
+        assertEquals(50.0, windowedAverageOp.getMaxWindowTime(), 0.0);
+        assertEquals(1000.0 / 1005, windowedAverageOp.getResults(), 1e-10);
+    }
+}
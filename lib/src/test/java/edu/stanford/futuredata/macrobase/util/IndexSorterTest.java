@@ -0,0 +1,45 @@
+package edu.stanford.futuredata.macrobase.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class IndexSorterTest {
+    @Test
+    public void testSortIsStable() {
+        int n = 100000;
+        Random rand = new Random(0);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = rand.nextInt(1000);
+        }
+        int[] expected = IntStream.range(0, n).boxed()
+            .sorted(Comparator.comparingInt(i -> keys[i]))
+            .mapToInt(i -> i).toArray();
+
+        IndexSorter.RowComparator comparator = (a, b) -> Integer.compare(keys[a], keys[b]);
+        assertArrayEquals(expected, IndexSorter.sort(n, comparator, null));
+        assertArrayEquals(expected, IndexSorter.sort(n, comparator, new ForkJoinPool(4)));
+    }
+
+    @Test
+    public void testTopK() {
+        int n = 5000;
+        Random rand = new Random(0);
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = rand.nextInt(100);
+        }
+        IndexSorter.RowComparator descending = (a, b) -> Double.compare(keys[b], keys[a]);
+        int[] sorted = IndexSorter.sort(n, descending, null);
+        for (int k : new int[]{0, 1, 10, 257, n, n + 1}) {
+            assertArrayEquals(Arrays.copyOf(sorted, Math.min(k, n)), IndexSorter.topK(n, k, descending));
+        }
+    }
+}
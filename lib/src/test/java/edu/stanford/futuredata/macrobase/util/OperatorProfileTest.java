@@ -0,0 +1,78 @@
+package edu.stanford.futuredata.macrobase.util;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static org.junit.Assume.assumeTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OperatorProfileTest {
+    @Test
+    public void testToDataFrame() {
+        OperatorProfile root = new OperatorProfile("Query").start();
+        OperatorProfile scan = root.addChild("Scan").start().setRowsOut(10);
+        scan.stop();
+        OperatorProfile filter = root.addChild("Filter").setRowsIn(10).start();
+        filter.addChild("Mask").start().setCounter("matches", 4).stop();
+        filter.setRowsOut(4).stop();
+        root.setRowsOut(4).stop();
+
+        DataFrame df = root.toDataFrame();
+        assertArrayEquals(new String[]{"Query", "  Scan", "  Filter", "    Mask"},
+            df.getStringColumnByName("operator"));
+        assertArrayEquals(new double[]{Double.NaN, Double.NaN, 10, Double.NaN},
+            df.getDoubleColumnByName("rows_in"), 0.0);
+        assertArrayEquals(new double[]{4, 10, 4, Double.NaN},
+            df.getDoubleColumnByName("rows_out"), 0.0);
+        assertArrayEquals(new double[]{Double.NaN, Double.NaN, Double.NaN, 4},
+            df.getDoubleColumnByName("matches"), 0.0);
+
+        // children are measured within their parents
+        double[] wallMs = df.getDoubleColumnByName("wall_ms");
+        assertTrue(wallMs[2] >= wallMs[3]);
+        assertTrue(wallMs[0] >= wallMs[1] + wallMs[2]);
+        assertEquals(-1, new OperatorProfile("Unstarted").getWallNanos());
+    }
+
+    @Test
+    public void testAllocationsOfTasksOnly() throws Exception {
+        assumeTrue(new OperatorProfile("Probe").getAllocatedBytes() >= 0);
+        final int chunk = 10 << 20;
+        // Another thread allocates much more while the operator runs
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            long sum = 0;
+            for (int i = 0; i < 40 || stopped.getCount() > 0; i++) {
+                sum += new byte[chunk].length;
+            }
+            assertTrue(sum > 0);
+        });
+        other.start();
+
+        OperatorProfile root = new OperatorProfile("Query").start();
+        OperatorProfile tasks = root.addChild("Tasks").start();
+        List<ForkJoinTask<?>> allocations = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            allocations.add(ForkJoinTask.adapt(() -> new byte[chunk].length));
+        }
+        ForkJoinUtils.runAll(new ForkJoinPool(2), allocations);
+        tasks.stop();
+        root.stop();
+        stopped.countDown();
+        other.join();
+
+        assertTrue(tasks.getAllocatedBytes() >= 4L * chunk);
+        assertTrue(tasks.getAllocatedBytes() < 8L * chunk);
+        assertTrue(root.getAllocatedBytes() >= tasks.getAllocatedBytes());
+        assertTrue(root.getAllocatedBytes() < 8L * chunk);
+        assertEquals(null, OperatorProfile.current());
+    }
+}
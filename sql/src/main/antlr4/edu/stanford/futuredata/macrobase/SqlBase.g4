@@ -32,6 +32,8 @@ statement
     : query                                                            #statementDefault
     | IMPORT FROM CSV FILE STRING INTO qualifiedName
         ('(' columnDefinition (',' columnDefinition)* ')')?            #importCsv
+    | SET SESSION? qualifiedName EQ expression                         #setSession
+    | EXPLAIN ANALYZE statement                                        #explainAnalyze
     ;
 
 query
@@ -53,6 +55,8 @@ querySpecification
     : SELECT setQuantifier? selectItem (',' selectItem)*
       (FROM relation (',' relation)*)?
       (WHERE where=booleanExpression)?
+      (GROUP BY groupBy)?
+      (HAVING having=booleanExpression)?
       (ORDER BY sortItem (',' sortItem)*)?
       (LIMIT limit=(INTEGER_VALUE | ALL))?
       exportClause?
@@ -60,6 +64,8 @@ querySpecification
       exportClause?
       (FROM relation (',' relation)*)?
       (WHERE where=booleanExpression)?
+      (GROUP BY groupBy)?
+      (HAVING having=booleanExpression)?
       (ORDER BY sortItem (',' sortItem)*)?
       (LIMIT limit=(INTEGER_VALUE | ALL))?
     ;
@@ -71,6 +77,7 @@ diffQuerySpecification
       (WITH (minRatioExpression? minSupportExpression? | minSupportExpression? minRatioExpression?))?
       (COMPARE BY ratioMetricExpression)?
       (MAX COMBO maxCombo=INTEGER_VALUE)?
+      (APPROXIMATE SAMPLE sampleRate=DECIMAL_VALUE)?
       (WHERE where=booleanExpression)?
       (ORDER BY sortItem (',' sortItem)*)?
       (LIMIT limit=(INTEGER_VALUE | ALL))?
@@ -82,6 +89,7 @@ diffQuerySpecification
       (WITH (minRatioExpression? minSupportExpression? | minSupportExpression? minRatioExpression?))?
       (COMPARE BY ratioMetricExpression)?
       (MAX COMBO maxCombo=INTEGER_VALUE)?
+      (APPROXIMATE SAMPLE sampleRate=DECIMAL_VALUE)?
       (WHERE where=booleanExpression)?
       (ORDER BY sortItem (',' sortItem)*)?
       (LIMIT limit=(INTEGER_VALUE | ALL))?
@@ -91,6 +99,7 @@ diffQuerySpecification
       (WITH (minRatioExpression? minSupportExpression? | minSupportExpression? minRatioExpression?))?
       (COMPARE BY ratioMetricExpression)?
       (MAX COMBO maxCombo=INTEGER_VALUE)?
+      (APPROXIMATE SAMPLE sampleRate=DECIMAL_VALUE)?
       (WHERE where=booleanExpression)?
       (ORDER BY sortItem (',' sortItem)*)?
       (LIMIT limit=(INTEGER_VALUE | ALL))?
@@ -102,11 +111,16 @@ diffQuerySpecification
       (WITH (minRatioExpression? minSupportExpression? | minSupportExpression? minRatioExpression?))?
       (COMPARE BY ratioMetricExpression)?
       (MAX COMBO maxCombo=INTEGER_VALUE)?
+      (APPROXIMATE SAMPLE sampleRate=DECIMAL_VALUE)?
       (WHERE where=booleanExpression)?
       (ORDER BY sortItem (',' sortItem)*)?
       (LIMIT limit=(INTEGER_VALUE | ALL))?
     ;
 
+groupBy
+    : expression (',' expression)*
+    ;
+
 splitQuery
     :  SPLIT relation WHERE where=booleanExpression
     |  SPLIT queryTerm WHERE where=booleanExpression
@@ -180,7 +194,12 @@ escapeClause
     ;
 
 relation
-    : aliasedRelation
+    : left=relation
+      ( CROSS JOIN right=aliasedRelation
+      | joinType JOIN rightRelation=relation joinCriteria
+      | NATURAL joinType JOIN right=aliasedRelation
+      )                                                               #joinRelation
+    | aliasedRelation                                                 #relationDefault
     ;
 
 joinType
@@ -326,9 +345,9 @@ number
 
 nonReserved
     // IMPORTANT: this rule must only contain tokens. Nested rules are not supported. See SqlParser.exitNonReserved
-    : ADD | ALL | ANALYZE | ANY | ARRAY | ASC | AT
+    : ADD | ALL | ANALYZE | ANY | APPROXIMATE | ARRAY | ASC | AT
     | BERNOULLI
-    | CALL | CASCADE | CATALOGS | COALESCE | COLUMN | COLUMNS | COMMENT | COMMIT | COMMITTED | CURRENT
+    | CALL | CASCADE | CATALOGS | COALESCE | COLUMN | COLUMNS | COMMENT | COMMIT | COMMITTED | COUNT | CURRENT
     | DATA | DATE | DAY | DESC | DISTRIBUTED
     | EXCLUDING | EXPLAIN
     | FILTER | FIRST | FOLLOWING | FORMAT | FUNCTIONS
@@ -336,13 +355,13 @@ nonReserved
     | HOUR
     | IF | INCLUDING | INPUT | INTEGER | INTERVAL | ISOLATION
     | LAST | LATERAL | LEVEL | LIMIT | LOGICAL
-    | MAP | MINUTE | MONTH
+    | MAP | MAX | MIN | MINUTE | MONTH
     | NFC | NFD | NFKC | NFKD | NO | NULLIF | NULLS
     | ONLY | OPTION | ORDINALITY | OUTPUT | OVER
     | PARTITION | PARTITIONS | POSITION | PRECEDING | PRIVILEGES | PROPERTIES | PUBLIC
     | RANGE | READ | RENAME | REPEATABLE | REPLACE | RESET | RESTRICT | REVOKE | ROLLBACK | ROW | ROWS
-    | SCHEMA | SCHEMAS | SECOND | SESSION | SET | SETS
-    | SHOW | SMALLINT | SOME | START | STATS | SUBSTRING | SYSTEM
+    | SAMPLE | SCHEMA | SCHEMAS | SECOND | SESSION | SET | SETS
+    | SHOW | SMALLINT | SOME | START | STATS | SUBSTRING | SUM | SYSTEM
     | TABLES | TABLESAMPLE | TEXT | TIME | TIMESTAMP | TINYINT | TO | TRY_CAST | TYPE
     | UNBOUNDED | UNCOMMITTED | USE
     | VALIDATE | VERBOSE | VIEW
@@ -357,6 +376,7 @@ ALTER: 'ALTER';
 ANALYZE: 'ANALYZE';
 AND: 'AND';
 ANY: 'ANY';
+APPROXIMATE: 'APPROXIMATE';
 ARRAY: 'ARRAY';
 AS: 'AS';
 ASC: 'ASC';
@@ -496,6 +516,7 @@ ROLLBACK: 'ROLLBACK';
 ROLLUP: 'ROLLUP';
 ROW: 'ROW';
 ROWS: 'ROWS';
+SAMPLE: 'SAMPLE';
 SCHEMA: 'SCHEMA';
 SCHEMAS: 'SCHEMAS';
 SECOND: 'SECOND';
@@ -0,0 +1,680 @@
+package edu.stanford.futuredata.macrobase.sql;
+
+import edu.stanford.futuredata.macrobase.analysis.MBFunction;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema.ColType;
+import edu.stanford.futuredata.macrobase.datamodel.StringDictionary;
+import edu.stanford.futuredata.macrobase.sql.tree.ComparisonExpression;
+import edu.stanford.futuredata.macrobase.sql.tree.ComparisonExpressionType;
+import edu.stanford.futuredata.macrobase.sql.tree.DoubleLiteral;
+import edu.stanford.futuredata.macrobase.sql.tree.Expression;
+import edu.stanford.futuredata.macrobase.sql.tree.FunctionCall;
+import edu.stanford.futuredata.macrobase.sql.tree.Identifier;
+import edu.stanford.futuredata.macrobase.sql.tree.InListExpression;
+import edu.stanford.futuredata.macrobase.sql.tree.InPredicate;
+import edu.stanford.futuredata.macrobase.sql.tree.IntLiteral;
+import edu.stanford.futuredata.macrobase.sql.tree.LikePredicate;
+import edu.stanford.futuredata.macrobase.sql.tree.Literal;
+import edu.stanford.futuredata.macrobase.sql.tree.LogicalBinaryExpression;
+import edu.stanford.futuredata.macrobase.sql.tree.LogicalBinaryExpression.Type;
+import edu.stanford.futuredata.macrobase.sql.tree.NotExpression;
+import edu.stanford.futuredata.macrobase.sql.tree.NullLiteral;
+import edu.stanford.futuredata.macrobase.sql.tree.SingleColumn;
+import edu.stanford.futuredata.macrobase.sql.tree.StringLiteral;
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import edu.stanford.futuredata.macrobase.util.MacroBaseSQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A Where clause compiled against the columns of one DataFrame. Each comparison becomes a loop
+ * over a double[] column or over the codes of a Dictionary column, specialized for its operator,
+ * and predicates narrow a selection vector of row indices: the right side of an AND only sees
+ * the rows that passed the left side, and the right side of an OR only those that failed it.
+ */
+abstract class CompiledPredicate {
+
+    // Smallest range of rows worth evaluating as a separate task
+    private static final int MIN_ROWS_PER_TASK = 1 << 14;
+
+    /**
+     * Select the rows that satisfy the predicate.
+     *
+     * @param rows Row indices, in increasing order
+     * @param numRows Number of rows to test, from the start of <tt>rows</tt>
+     * @param out Array the passing rows are written to, in order. May be <tt>rows</tt> itself
+     * @return The number of passing rows
+     */
+    abstract int select(int[] rows, int numRows, int[] out);
+
+    /**
+     * @param executor Pool to evaluate ranges of rows on in parallel
+     * @return a boolean mask (a BitSet) of the rows of a DataFrame of <tt>numRows</tt> rows that
+     * satisfy the predicate
+     */
+    BitSet getMask(final int numRows, final ForkJoinPool executor) {
+        // Ranges start at multiples of 64 rows, so that each fills its own words of the mask
+        final long[] words = new long[(numRows + 63) >>> 6];
+        final int numRanges = Math.max(1,
+            Math.min(4 * executor.getParallelism(), numRows / MIN_ROWS_PER_TASK));
+        final int wordsPerRange = (words.length + numRanges - 1) / numRanges;
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(numRanges);
+        for (int startWord = 0; startWord < words.length; startWord += wordsPerRange) {
+            final int startRow = startWord << 6;
+            final int endRow = (int) Math.min(numRows, (long) (startWord + wordsPerRange) << 6);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                final int[] rows = new int[endRow - startRow];
+                for (int i = 0; i < rows.length; i++) {
+                    rows[i] = startRow + i;
+                }
+                final int numPassed = select(rows, rows.length, rows);
+                for (int i = 0; i < numPassed; i++) {
+                    words[rows[i] >>> 6] |= 1L << rows[i];
+                }
+            }));
+        }
+        if (tasks.size() == 1) {
+            tasks.get(0).invoke();
+        } else {
+            executor.invoke(ForkJoinTask.adapt(() -> {
+                ForkJoinTask.invokeAll(tasks);
+            }));
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Compile a Where clause against the columns of a DataFrame
+     *
+     * @throws MacroBaseSQLException Only comparison expressions (e.g., WHERE x = 42), IN lists,
+     * LIKE patterns, and logical AND/OR/NOT combinations of such expressions are supported;
+     * exception is thrown otherwise.
+     */
+    static CompiledPredicate compile(final DataFrame df, final Expression whereClause)
+        throws MacroBaseException {
+        if (whereClause instanceof NotExpression) {
+            return new Not(compile(df, ((NotExpression) whereClause).getValue()));
+
+        } else if (whereClause instanceof LogicalBinaryExpression) {
+            final LogicalBinaryExpression binaryExpr = (LogicalBinaryExpression) whereClause;
+            final CompiledPredicate left = compile(df, binaryExpr.getLeft());
+            final CompiledPredicate right = compile(df, binaryExpr.getRight());
+            if (binaryExpr.getType() == Type.AND) {
+                return new And(left, right);
+            } else {
+                // Type.OR
+                return new Or(left, right);
+            }
+
+        } else if (whereClause instanceof ComparisonExpression) {
+            // base case
+            final ComparisonExpression compareExpr = (ComparisonExpression) whereClause;
+            final Expression left = compareExpr.getLeft();
+            final Expression right = compareExpr.getRight();
+            final ComparisonExpressionType type = compareExpr.getType();
+
+            if (left instanceof Literal && right instanceof Literal) {
+                return new Constant(left.equals(right));
+            } else if (left instanceof Literal && right instanceof Identifier) {
+                return compileComparison(df, (Literal) left, (Identifier) right, flip(type));
+            } else if (right instanceof Literal && left instanceof Identifier) {
+                return compileComparison(df, (Literal) right, (Identifier) left, type);
+            } else if (left instanceof FunctionCall && right instanceof Literal) {
+                return compileComparison(df, (FunctionCall) left, (Literal) right, type);
+            } else if (right instanceof FunctionCall && left instanceof Literal) {
+                return compileComparison(df, (FunctionCall) right, (Literal) left, flip(type));
+            }
+
+        } else if (whereClause instanceof InPredicate) {
+            final InPredicate inExpr = (InPredicate) whereClause;
+            if (inExpr.getValue() instanceof Identifier
+                && inExpr.getValueList() instanceof InListExpression) {
+                return compileInList(df, (Identifier) inExpr.getValue(),
+                    ((InListExpression) inExpr.getValueList()).getValues());
+            }
+
+        } else if (whereClause instanceof LikePredicate) {
+            final LikePredicate likeExpr = (LikePredicate) whereClause;
+            final Expression escape = likeExpr.getEscape();
+            if (likeExpr.getValue() instanceof Identifier
+                && likeExpr.getPattern() instanceof StringLiteral
+                && (escape == null || escape instanceof StringLiteral)) {
+                final String escapeStr = escape == null ? null : ((StringLiteral) escape).getValue();
+                if (escapeStr != null && escapeStr.length() != 1) {
+                    throw new MacroBaseSQLException("LIKE escape must be a single character");
+                }
+                final Predicate<String> matcher = likeMatcher(
+                    ((StringLiteral) likeExpr.getPattern()).getValue(),
+                    escapeStr == null ? null : escapeStr.charAt(0));
+                return compileStringPredicate(df, (Identifier) likeExpr.getValue(),
+                    (x) -> x != null && matcher.test(x));
+            }
+        }
+        throw new MacroBaseSQLException("Boolean expression not supported");
+    }
+
+    /**
+     * @return The comparison with its arguments swapped, so that 5 < x becomes x > 5
+     */
+    private static ComparisonExpressionType flip(final ComparisonExpressionType type) {
+        switch (type) {
+            case LESS_THAN:
+                return ComparisonExpressionType.GREATER_THAN;
+            case LESS_THAN_OR_EQUAL:
+                return ComparisonExpressionType.GREATER_THAN_OR_EQUAL;
+            case GREATER_THAN:
+                return ComparisonExpressionType.LESS_THAN;
+            case GREATER_THAN_OR_EQUAL:
+                return ComparisonExpressionType.LESS_THAN_OR_EQUAL;
+            default:
+                return type;
+        }
+    }
+
+    private static int getColumnIndex(final DataFrame df, final String colName)
+        throws MacroBaseSQLException {
+        try {
+            return df.getSchema().getColumnIndex(colName);
+        } catch (UnsupportedOperationException e) {
+            throw new MacroBaseSQLException(e.getMessage());
+        }
+    }
+
+    private static boolean isNumeric(final Literal literal) {
+        return literal instanceof DoubleLiteral || literal instanceof IntLiteral;
+    }
+
+    private static double getNumericValue(final Literal literal) {
+        return literal instanceof DoubleLiteral ? ((DoubleLiteral) literal).getValue()
+            : ((IntLiteral) literal).getValue();
+    }
+
+    private static CompiledPredicate compileComparison(final DataFrame df,
+        final FunctionCall func, final Literal literal, final ComparisonExpressionType type)
+        throws MacroBaseException {
+        if (!isNumeric(literal)) {
+            throw new MacroBaseSQLException(literal + " is not a DoubleLiteral");
+        }
+        // A function that has already been evaluated, such as an aggregate in a HAVING clause,
+        // is read from the column named after it
+        final String colName = new SingleColumn(func).toString();
+        if (df.getSchema().hasColumn(colName)) {
+            return DoubleComparison.create(df.getDoubleColumnByName(colName),
+                getNumericValue(literal), type);
+        }
+        return DoubleComparison.create(getUDF(func).apply(df), getNumericValue(literal), type);
+    }
+
+    /**
+     * @return The UDF a function call refers to. Column arguments are passed to the UDF by name,
+     * string literals by their value and numeric literals as written.
+     * @throws MacroBaseException If the function is unknown or an argument is not a column or a
+     * literal
+     */
+    static MBFunction getUDF(final FunctionCall func) throws MacroBaseException {
+        // for now, if UDF is a.b.c.d(), ignore "a.b.c."
+        final String funcName = func.getName().getSuffix();
+        final List<String> args = new ArrayList<>(func.getArguments().size());
+        for (Expression arg : func.getArguments()) {
+            if (arg instanceof Identifier) {
+                args.add(((Identifier) arg).getValue());
+            } else if (arg instanceof StringLiteral) {
+                args.add(((StringLiteral) arg).getValue());
+            } else if (arg instanceof Literal) {
+                args.add(arg.toString());
+            } else {
+                throw new MacroBaseSQLException(
+                    "Argument " + arg + " of " + funcName + " is not a column or a literal");
+            }
+        }
+        return MBFunction.getFunction(funcName, args);
+    }
+
+    /**
+     * The base case for {@link CompiledPredicate#compile(DataFrame, Expression)}: a single
+     * comparison expression (e.g., WHERE x = 42)
+     *
+     * @param literal The constant argument in the expression (e.g., 42)
+     * @param identifier The column variable argument in the expression (e.g., x)
+     * @param compExprType One of =, !=, >, >=, <, <=, or IS DISTINCT FROM, with the column on the
+     * left
+     * @throws MacroBaseSQLException if the literal's type doesn't match the type of the column
+     * variable, an exception is thrown
+     */
+    private static CompiledPredicate compileComparison(final DataFrame df, final Literal literal,
+        final Identifier identifier, final ComparisonExpressionType compExprType)
+        throws MacroBaseSQLException {
+        final String colName = identifier.getValue();
+        final ColType colType = df.getSchema().getColumnType(getColumnIndex(df, colName));
+
+        if (colType == ColType.DOUBLE) {
+            if (!isNumeric(literal)) {
+                throw new MacroBaseSQLException(
+                    "Column " + colName + " has type " + colType + ", but " + literal
+                        + " is not a DoubleLiteral");
+            }
+            return DoubleComparison.create(df.getDoubleColumnByName(colName),
+                getNumericValue(literal), compExprType);
+        }
+        // colType == ColType.STRING or ColType.DICTIONARY
+        final String y;
+        if (literal instanceof StringLiteral) {
+            y = ((StringLiteral) literal).getValue();
+        } else if (literal instanceof NullLiteral) {
+            y = null;
+        } else {
+            throw new MacroBaseSQLException(
+                "Column " + colName + " has type " + colType + ", but " + literal
+                    + " is not StringLiteral");
+        }
+        switch (compExprType) {
+            case EQUAL:
+                return compileStringPredicate(df, identifier, (x) -> Objects.equals(x, y));
+            case NOT_EQUAL:
+            case IS_DISTINCT_FROM:
+                // IS DISTINCT FROM is true when x and y have different values or
+                // if one of them is NULL and the other isn't
+                return compileStringPredicate(df, identifier, (x) -> !Objects.equals(x, y));
+            default:
+                throw new MacroBaseSQLException(compExprType + " is not supported");
+        }
+    }
+
+    private static CompiledPredicate compileInList(final DataFrame df,
+        final Identifier identifier, final List<Expression> values) throws MacroBaseSQLException {
+        final String colName = identifier.getValue();
+        final ColType colType = df.getSchema().getColumnType(getColumnIndex(df, colName));
+
+        if (colType == ColType.DOUBLE) {
+            final double[] set = new double[values.size()];
+            for (int i = 0; i < set.length; i++) {
+                final Expression value = values.get(i);
+                if (!(value instanceof Literal) || !isNumeric((Literal) value)) {
+                    throw new MacroBaseSQLException(
+                        "Column " + colName + " has type " + colType + ", but " + value
+                            + " is not a DoubleLiteral");
+                }
+                set[i] = getNumericValue((Literal) value);
+            }
+            return new DoubleInList(df.getDoubleColumnByName(colName), set);
+        }
+        final Set<String> set = new HashSet<>();
+        for (Expression value : values) {
+            if (value instanceof StringLiteral) {
+                set.add(((StringLiteral) value).getValue());
+            } else if (value instanceof NullLiteral) {
+                set.add(null);
+            } else {
+                throw new MacroBaseSQLException(
+                    "Column " + colName + " has type " + colType + ", but " + value
+                        + " is not StringLiteral");
+            }
+        }
+        return compileStringPredicate(df, identifier, set::contains);
+    }
+
+    /**
+     * A predicate on the values of a String or Dictionary column. For a Dictionary column, the
+     * predicate is tested once per distinct value rather than once per row.
+     */
+    private static CompiledPredicate compileStringPredicate(final DataFrame df,
+        final Identifier identifier, final Predicate<String> predicate)
+        throws MacroBaseSQLException {
+        final int colIndex = getColumnIndex(df, identifier.getValue());
+        if (df.getSchema().getColumnType(colIndex) == ColType.DICTIONARY) {
+            final DictionaryColumn column = df.getDictionaryColumn(colIndex);
+            final StringDictionary dictionary = column.getDictionary();
+            final boolean[] passes = new boolean[dictionary.size()];
+            for (int code = 0; code < passes.length; code++) {
+                passes[code] = predicate.test(dictionary.getValue(code));
+            }
+            return new CodeLookup(column.getCodes(), passes);
+        }
+        return new StringTest(df.getStringColumn(colIndex), predicate);
+    }
+
+    /**
+     * @return A matcher for a SQL LIKE pattern, where % matches any sequence of characters and _
+     * matches any single character. Patterns with % only at their ends are matched without a
+     * regular expression.
+     */
+    static Predicate<String> likeMatcher(final String pattern, final Character escape) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        boolean hasInnerWildcard = false;
+        boolean escaped = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (escaped) {
+                regex.append(Pattern.quote(String.valueOf(c)));
+                literal.append(c);
+                escaped = false;
+            } else if (escape != null && c == escape) {
+                escaped = true;
+            } else if (c == '%') {
+                regex.append(".*");
+                hasInnerWildcard |= i > 0 && i < pattern.length() - 1;
+            } else if (c == '_') {
+                regex.append('.');
+                hasInnerWildcard = true;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+                literal.append(c);
+            }
+        }
+        if (!hasInnerWildcard && escape == null) {
+            final String s = literal.toString();
+            final boolean anyPrefix = pattern.startsWith("%");
+            final boolean anySuffix = pattern.length() > 1 && pattern.endsWith("%");
+            if (anyPrefix && anySuffix) {
+                return (x) -> x.contains(s);
+            } else if (anyPrefix) {
+                return pattern.length() == 1 ? (x) -> true : (x) -> x.endsWith(s);
+            } else if (anySuffix) {
+                return (x) -> x.startsWith(s);
+            } else {
+                return s::equals;
+            }
+        }
+        final Pattern compiled = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        return (x) -> compiled.matcher(x).matches();
+    }
+
+    // ********************* Predicates **********************
+
+    private static class Constant extends CompiledPredicate {
+
+        private final boolean value;
+
+        Constant(final boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        int select(int[] rows, int numRows, int[] out) {
+            if (!value) {
+                return 0;
+            }
+            if (out != rows) {
+                System.arraycopy(rows, 0, out, 0, numRows);
+            }
+            return numRows;
+        }
+    }
+
+    private static class And extends CompiledPredicate {
+
+        private final CompiledPredicate left;
+        private final CompiledPredicate right;
+
+        And(final CompiledPredicate left, final CompiledPredicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int select(int[] rows, int numRows, int[] out) {
+            final int numLeft = left.select(rows, numRows, out);
+            return numLeft == 0 ? 0 : right.select(out, numLeft, out);
+        }
+    }
+
+    private static class Or extends CompiledPredicate {
+
+        private final CompiledPredicate left;
+        private final CompiledPredicate right;
+
+        Or(final CompiledPredicate left, final CompiledPredicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int select(int[] rows, int numRows, int[] out) {
+            final int[] passedLeft = new int[numRows];
+            final int numLeft = left.select(rows, numRows, passedLeft);
+            if (numLeft == numRows) {
+                System.arraycopy(passedLeft, 0, out, 0, numRows);
+                return numRows;
+            }
+            final int[] failedLeft = new int[numRows - numLeft];
+            final int numFailed = difference(rows, numRows, passedLeft, numLeft, failedLeft);
+            final int numRight = right.select(failedLeft, numFailed, failedLeft);
+            // Merge the two sorted selections
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < numLeft || j < numRight) {
+                if (j >= numRight || (i < numLeft && passedLeft[i] < failedLeft[j])) {
+                    out[k++] = passedLeft[i++];
+                } else {
+                    out[k++] = failedLeft[j++];
+                }
+            }
+            return k;
+        }
+    }
+
+    private static class Not extends CompiledPredicate {
+
+        private final CompiledPredicate child;
+
+        Not(final CompiledPredicate child) {
+            this.child = child;
+        }
+
+        @Override
+        int select(int[] rows, int numRows, int[] out) {
+            final int[] passed = new int[numRows];
+            final int numPassed = child.select(rows, numRows, passed);
+            return difference(rows, numRows, passed, numPassed, out);
+        }
+    }
+
+    /**
+     * Write the rows of rows[0, numRows) that are not in the sorted subset[0, numSubset) to out,
+     * which may be rows itself.
+     *
+     * @return The number of rows written
+     */
+    private static int difference(int[] rows, int numRows, int[] subset, int numSubset,
+        int[] out) {
+        int k = 0;
+        for (int i = 0, j = 0; i < numRows; i++) {
+            final int row = rows[i];
+            if (j < numSubset && subset[j] == row) {
+                j++;
+            } else {
+                out[k++] = row;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Compares a double column to a constant, with one loop per comparison type
+     */
+    private static abstract class DoubleComparison extends CompiledPredicate {
+
+        static DoubleComparison create(final double[] values, final double y,
+            final ComparisonExpressionType compareExprType) throws MacroBaseSQLException {
+            switch (compareExprType) {
+                case EQUAL:
+                    return new DoubleComparison() {
+                        @Override
+                        int select(int[] rows, int numRows, int[] out) {
+                            int k = 0;
+                            for (int i = 0; i < numRows; i++) {
+                                final int row = rows[i];
+                                if (values[row] == y) {
+                                    out[k++] = row;
+                                }
+                            }
+                            return k;
+                        }
+                    };
+                case NOT_EQUAL:
+                case IS_DISTINCT_FROM:
+                    // IS DISTINCT FROM is true when x and y have different values or
+                    // if one of them is NULL and the other isn't.
+                    // x and y can never be NULL here, so it's the same as NOT_EQUAL
+                    return new DoubleComparison() {
+                        @Override
+                        int select(int[] rows, int numRows, int[] out) {
+                            int k = 0;
+                            for (int i = 0; i < numRows; i++) {
+                                final int row = rows[i];
+                                if (values[row] != y) {
+                                    out[k++] = row;
+                                }
+                            }
+                            return k;
+                        }
+                    };
+                case LESS_THAN:
+                    return new DoubleComparison() {
+                        @Override
+                        int select(int[] rows, int numRows, int[] out) {
+                            int k = 0;
+                            for (int i = 0; i < numRows; i++) {
+                                final int row = rows[i];
+                                if (values[row] < y) {
+                                    out[k++] = row;
+                                }
+                            }
+                            return k;
+                        }
+                    };
+                case LESS_THAN_OR_EQUAL:
+                    return new DoubleComparison() {
+                        @Override
+                        int select(int[] rows, int numRows, int[] out) {
+                            int k = 0;
+                            for (int i = 0; i < numRows; i++) {
+                                final int row = rows[i];
+                                if (values[row] <= y) {
+                                    out[k++] = row;
+                                }
+                            }
+                            return k;
+                        }
+                    };
+                case GREATER_THAN:
+                    return new DoubleComparison() {
+                        @Override
+                        int select(int[] rows, int numRows, int[] out) {
+                            int k = 0;
+                            for (int i = 0; i < numRows; i++) {
+                                final int row = rows[i];
+                                if (values[row] > y) {
+                                    out[k++] = row;
+                                }
+                            }
+                            return k;
+                        }
+                    };
+                case GREATER_THAN_OR_EQUAL:
+                    return new DoubleComparison() {
+                        @Override
+                        int select(int[] rows, int numRows, int[] out) {
+                            int k = 0;
+                            for (int i = 0; i < numRows; i++) {
+                                final int row = rows[i];
+                                if (values[row] >= y) {
+                                    out[k++] = row;
+                                }
+                            }
+                            return k;
+                        }
+                    };
+                default:
+                    throw new MacroBaseSQLException(compareExprType + " is not supported");
+            }
+        }
+    }
+
+    private static class DoubleInList extends CompiledPredicate {
+
+        private final double[] values;
+        private final double[] set;
+
+        DoubleInList(final double[] values, final double[] set) {
+            this.values = values;
+            this.set = set;
+        }
+
+        @Override
+        int select(int[] rows, int numRows, int[] out) {
+            int k = 0;
+            for (int i = 0; i < numRows; i++) {
+                final int row = rows[i];
+                final double x = values[row];
+                for (double y : set) {
+                    if (x == y) {
+                        out[k++] = row;
+                        break;
+                    }
+                }
+            }
+            return k;
+        }
+    }
+
+    /**
+     * Tests the codes of a Dictionary column against the precomputed result for each code
+     */
+    private static class CodeLookup extends CompiledPredicate {
+
+        private final int[] codes;
+        private final boolean[] passes;
+
+        CodeLookup(final int[] codes, final boolean[] passes) {
+            this.codes = codes;
+            this.passes = passes;
+        }
+
+        @Override
+        int select(int[] rows, int numRows, int[] out) {
+            int k = 0;
+            for (int i = 0; i < numRows; i++) {
+                final int row = rows[i];
+                if (passes[codes[row]]) {
+                    out[k++] = row;
+                }
+            }
+            return k;
+        }
+    }
+
+    private static class StringTest extends CompiledPredicate {
+
+        private final String[] values;
+        private final Predicate<String> predicate;
+
+        StringTest(final String[] values, final Predicate<String> predicate) {
+            this.values = values;
+            this.predicate = predicate;
+        }
+
+        @Override
+        int select(int[] rows, int numRows, int[] out) {
+            int k = 0;
+            for (int i = 0; i < numRows; i++) {
+                final int row = rows[i];
+                if (predicate.test(values[row])) {
+                    out[k++] = row;
+                }
+            }
+            return k;
+        }
+    }
+}
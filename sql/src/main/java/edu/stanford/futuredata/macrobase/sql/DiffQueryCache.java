@@ -0,0 +1,126 @@
+package edu.stanford.futuredata.macrobase.sql;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.aplinear.APLCandidates;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of the intermediate results of DIFF queries in one session, so that re-issuing a DIFF
+ * with only the ratio metric, the minimum ratio, or a lower MAX COMBO changed re-explains the
+ * cached candidates instead of re-running the split, the encoding and the counting.
+ *
+ * Entries are keyed by the canonical form of the fragments that determine the candidates: the
+ * input relation and split predicate (or the two subqueries), the explanation columns, and the
+ * minimum support. The least recently used entries are evicted once the entries hold more than
+ * the memory budget, and the entries that read a table are dropped when it is re-imported.
+ */
+class DiffQueryCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DiffQueryCache.class.getSimpleName());
+
+    static class Entry {
+
+        private final APLCandidates candidates;
+        private final List<String> explainCols;
+        private final Set<String> tableNames;
+        private final long bytes;
+
+        Entry(APLCandidates candidates, List<String> explainCols, Set<String> tableNames) {
+            this.candidates = candidates;
+            this.explainCols = explainCols;
+            this.tableNames = tableNames;
+            this.bytes = candidates.getMemoryBytes();
+        }
+
+        APLCandidates getCandidates() {
+            return candidates;
+        }
+
+        /**
+         * @return The explanation columns the candidates were counted with, after expanding ON *
+         */
+        List<String> getExplainCols() {
+            return explainCols;
+        }
+    }
+
+    private final long maxBytes;
+    // In access order, so that the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * @param maxBytes Memory budget for the cached candidates, in bytes. A budget of 0 disables
+     * caching.
+     */
+    DiffQueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The entry for the key, or null if there is none
+     */
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Cache the candidates of a DIFF query, replacing any entry for the same key and evicting
+     * least recently used entries until the cache fits its budget. Candidates larger than the
+     * whole budget are not cached.
+     *
+     * @param tableNames The tables the candidates were computed from
+     */
+    void put(String key, APLCandidates candidates, List<String> explainCols,
+        Set<String> tableNames) {
+        remove(key);
+        final Entry entry = new Entry(candidates, explainCols, tableNames);
+        if (entry.bytes > maxBytes) {
+            log.debug("Not caching {} bytes of candidates, over the budget of {} bytes",
+                entry.bytes, maxBytes);
+            return;
+        }
+        entries.put(key, entry);
+        totalBytes += entry.bytes;
+        final Iterator<Entry> lru = entries.values().iterator();
+        while (totalBytes > maxBytes) {
+            final Entry evicted = lru.next();
+            lru.remove();
+            totalBytes -= evicted.bytes;
+        }
+    }
+
+    /**
+     * Drop every entry computed from the table, e.g. because it was re-imported
+     */
+    void invalidateTable(String tableName) {
+        final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next().getValue();
+            if (entry.tableNames.contains(tableName)) {
+                it.remove();
+                totalBytes -= entry.bytes;
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void remove(String key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.bytes;
+        }
+    }
+}
@@ -35,6 +35,7 @@ import edu.stanford.futuredata.macrobase.sql.tree.FunctionCall;
 import edu.stanford.futuredata.macrobase.sql.tree.GenericLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.Identifier;
 import edu.stanford.futuredata.macrobase.sql.tree.InListExpression;
+import edu.stanford.futuredata.macrobase.sql.tree.InPredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.IntLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.IsNotNullPredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.IsNullPredicate;
@@ -273,6 +274,12 @@ public final class ExpressionFormatter {
                 context);
         }
 
+        @Override
+        protected String visitInPredicate(InPredicate node, Void context) {
+            return "(" + process(node.getValue(), context) + " IN " + process(node.getValueList(),
+                context) + ")";
+        }
+
         @Override
         protected String visitInListExpression(InListExpression node, Void context) {
             return "(" + joinExpressions(node.getValues()) + ")";
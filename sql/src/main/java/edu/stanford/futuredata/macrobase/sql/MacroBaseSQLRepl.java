@@ -10,9 +10,11 @@ import edu.stanford.futuredata.macrobase.ingest.CSVDataFrameWriter;
 import edu.stanford.futuredata.macrobase.sql.parser.ParsingException;
 import edu.stanford.futuredata.macrobase.sql.parser.SqlParser;
 import edu.stanford.futuredata.macrobase.sql.parser.StatementSplitter;
+import edu.stanford.futuredata.macrobase.sql.tree.ExplainAnalyze;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
 import edu.stanford.futuredata.macrobase.sql.tree.Query;
 import edu.stanford.futuredata.macrobase.sql.tree.QueryBody;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
 import edu.stanford.futuredata.macrobase.sql.tree.Statement;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 import java.io.File;
@@ -47,9 +49,11 @@ public class MacroBaseSQLRepl {
      * Main entry point to the SQL CLI interface in MacroBase
      *
      * @param userWantsPaging try to enable paging of results in SQL shell
+     * @param numThreads number of threads that queries run on
      * @throws IOException if unable to instantiate ConsoleReader
      */
-    private MacroBaseSQLRepl(final boolean userWantsPaging) throws IOException {
+    private MacroBaseSQLRepl(final boolean userWantsPaging, final int numThreads)
+        throws IOException {
         // First try to turn paging on
         this.paging = enablePaging(userWantsPaging);
         // Initialize console reader and writer
@@ -60,7 +64,7 @@ public class MacroBaseSQLRepl {
         reader.addCompleter(new FileNameCompleter());
 
         parser = new SqlParser();
-        queryEngine = new QueryEngine();
+        queryEngine = new QueryEngine(numThreads);
     }
 
     /**
@@ -110,6 +114,10 @@ public class MacroBaseSQLRepl {
                 if (stmt instanceof ImportCsv) {
                     final ImportCsv importStatement = (ImportCsv) stmt;
                     result = queryEngine.importTableFromCsv(importStatement);
+                } else if (stmt instanceof SetSession) {
+                    result = queryEngine.setSessionProperty((SetSession) stmt);
+                } else if (stmt instanceof ExplainAnalyze) {
+                    result = queryEngine.explainAnalyze((ExplainAnalyze) stmt);
                 } else {
                     final QueryBody q = ((Query) stmt).getQueryBody();
                     result = queryEngine.executeQuery(q);
@@ -215,9 +223,13 @@ public class MacroBaseSQLRepl {
         parser.addArgument("-f", "--file").help("Load file with SQL queries to execute");
         parser.addArgument("-p", "--paging").type(Arguments.booleanType()).setDefault(false)
             .help("Turn on paging of results for SQL queries");
+        parser.addArgument("-t", "--threads").type(Integer.class)
+            .setDefault(Runtime.getRuntime().availableProcessors())
+            .help("Number of threads that queries run on; change with SET threads = N");
         final Namespace parsedArgs = parser.parseArgsOrFail(args);
 
-        final MacroBaseSQLRepl repl = new MacroBaseSQLRepl(parsedArgs.get("paging"));
+        final MacroBaseSQLRepl repl = new MacroBaseSQLRepl(parsedArgs.get("paging"),
+            parsedArgs.getInt("threads"));
         final String asciiArt = Resources
             .toString(Resources.getResource(ASCII_ART_FILE), Charsets.UTF_8);
 
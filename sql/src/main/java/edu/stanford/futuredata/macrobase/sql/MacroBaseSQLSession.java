@@ -2,9 +2,11 @@ package edu.stanford.futuredata.macrobase.sql;
 
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.sql.parser.SqlParser;
+import edu.stanford.futuredata.macrobase.sql.tree.ExplainAnalyze;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
 import edu.stanford.futuredata.macrobase.sql.tree.Query;
 import edu.stanford.futuredata.macrobase.sql.tree.QueryBody;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
 import edu.stanford.futuredata.macrobase.sql.tree.Statement;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 import org.slf4j.Logger;
@@ -21,12 +23,24 @@ public class MacroBaseSQLSession {
         queryEngine = new QueryEngine();
     }
 
+    /**
+     * @param numThreads Number of threads that queries run on, until changed by "SET threads = N"
+     */
+    public MacroBaseSQLSession(final int numThreads) {
+        parser = new SqlParser();
+        queryEngine = new QueryEngine(numThreads);
+    }
+
     public DataFrame executeQuery(final String queryStr) throws MacroBaseException {
         Statement stmt = parser.createStatement(queryStr);
         log.debug(stmt.toString());
         if (stmt instanceof ImportCsv) {
             final ImportCsv importStatement = (ImportCsv) stmt;
             return queryEngine.importTableFromCsv(importStatement);
+        } else if (stmt instanceof SetSession) {
+            return queryEngine.setSessionProperty((SetSession) stmt);
+        } else if (stmt instanceof ExplainAnalyze) {
+            return queryEngine.explainAnalyze((ExplainAnalyze) stmt);
         } else {
             final QueryBody q = ((Query) stmt).getQueryBody();
             return queryEngine.executeQuery(q);
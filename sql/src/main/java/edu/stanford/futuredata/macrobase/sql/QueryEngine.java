@@ -1,45 +1,69 @@
 package edu.stanford.futuredata.macrobase.sql;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static edu.stanford.futuredata.macrobase.sql.ExpressionFormatter.formatExpression;
+import static edu.stanford.futuredata.macrobase.sql.SqlFormatter.formatSql;
+import static java.util.stream.Collectors.joining;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import edu.stanford.futuredata.macrobase.analysis.MBFunction;
+import edu.stanford.futuredata.macrobase.analysis.summary.aplinear.APLCandidates;
 import edu.stanford.futuredata.macrobase.analysis.summary.aplinear.APLOutlierSummarizer;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
 import edu.stanford.futuredata.macrobase.datamodel.Schema.ColType;
 import edu.stanford.futuredata.macrobase.ingest.CSVDataFrameParser;
+import edu.stanford.futuredata.macrobase.ingest.ChunkedCSVDataFrameParser;
+import edu.stanford.futuredata.macrobase.ingest.ChunkedDataFrame;
+import edu.stanford.futuredata.macrobase.ingest.ColumnarDataFrameLoader;
+import edu.stanford.futuredata.macrobase.operator.HashAggregator;
+import edu.stanford.futuredata.macrobase.operator.HashAggregator.AggregateFunction;
+import edu.stanford.futuredata.macrobase.operator.HashJoin;
+import edu.stanford.futuredata.macrobase.sql.tree.AliasedRelation;
 import edu.stanford.futuredata.macrobase.sql.tree.AllColumns;
+import edu.stanford.futuredata.macrobase.sql.tree.BooleanLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.ComparisonExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.ComparisonExpressionType;
 import edu.stanford.futuredata.macrobase.sql.tree.DiffQuerySpecification;
-import edu.stanford.futuredata.macrobase.sql.tree.DoubleLiteral;
+import edu.stanford.futuredata.macrobase.sql.tree.ExplainAnalyze;
 import edu.stanford.futuredata.macrobase.sql.tree.Expression;
 import edu.stanford.futuredata.macrobase.sql.tree.FunctionCall;
 import edu.stanford.futuredata.macrobase.sql.tree.Identifier;
+import edu.stanford.futuredata.macrobase.sql.tree.IntLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
-import edu.stanford.futuredata.macrobase.sql.tree.Literal;
+import edu.stanford.futuredata.macrobase.sql.tree.Join;
+import edu.stanford.futuredata.macrobase.sql.tree.JoinCriteria;
+import edu.stanford.futuredata.macrobase.sql.tree.JoinOn;
+import edu.stanford.futuredata.macrobase.sql.tree.JoinUsing;
 import edu.stanford.futuredata.macrobase.sql.tree.LogicalBinaryExpression;
-import edu.stanford.futuredata.macrobase.sql.tree.LogicalBinaryExpression.Type;
-import edu.stanford.futuredata.macrobase.sql.tree.NotExpression;
-import edu.stanford.futuredata.macrobase.sql.tree.NullLiteral;
+import edu.stanford.futuredata.macrobase.sql.tree.NaturalJoin;
+import edu.stanford.futuredata.macrobase.sql.tree.Node;
 import edu.stanford.futuredata.macrobase.sql.tree.OrderBy;
+import edu.stanford.futuredata.macrobase.sql.tree.Query;
 import edu.stanford.futuredata.macrobase.sql.tree.QueryBody;
 import edu.stanford.futuredata.macrobase.sql.tree.QuerySpecification;
 import edu.stanford.futuredata.macrobase.sql.tree.Relation;
 import edu.stanford.futuredata.macrobase.sql.tree.Select;
 import edu.stanford.futuredata.macrobase.sql.tree.SelectItem;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
 import edu.stanford.futuredata.macrobase.sql.tree.SingleColumn;
 import edu.stanford.futuredata.macrobase.sql.tree.SortItem;
 import edu.stanford.futuredata.macrobase.sql.tree.SortItem.Ordering;
 import edu.stanford.futuredata.macrobase.sql.tree.SplitQuery;
+import edu.stanford.futuredata.macrobase.sql.tree.Statement;
 import edu.stanford.futuredata.macrobase.sql.tree.StringLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.Table;
 import edu.stanford.futuredata.macrobase.sql.tree.TableSubquery;
+import edu.stanford.futuredata.macrobase.util.ForkJoinUtils;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 import edu.stanford.futuredata.macrobase.util.MacroBaseSQLException;
+import edu.stanford.futuredata.macrobase.util.OperatorProfile;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -47,12 +71,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
-import java.util.function.DoublePredicate;
-import java.util.function.Predicate;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.DoubleStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,34 +83,243 @@ import org.slf4j.LoggerFactory;
 class QueryEngine {
 
     private static final Logger log = LoggerFactory.getLogger(QueryEngine.class.getSimpleName());
+    // Prefix of imported filenames in the columnar format rather than CSV
+    private static final String COLUMNAR_PREFIX = "columnar://";
 
     private final Map<String, DataFrame> tablesInMemory;
-    private final int numThreads;
+    // Tables imported a chunk at a time, possibly spilled to disk
+    private final Map<String, ChunkedDataFrame> chunkedTables;
+    private final DiffQueryCache diffCache;
+    private int numThreads;
+    // Rows per chunk of imported tables, or 0 to import tables in one DataFrame
+    private int importChunkRows = 0;
+    // Directory that chunks of imported tables are spilled to, or null to keep them in memory
+    private File spillDirectory = null;
+    // Whether string columns of imported tables are dictionary-encoded
+    private boolean dictionaryStrings = true;
+    // Operator being measured by EXPLAIN ANALYZE, or null when not profiling
+    private OperatorProfile profile = null;
 
     QueryEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param numThreads Number of threads that queries run on
+     */
+    QueryEngine(final int numThreads) {
         tablesInMemory = new HashMap<>();
-        numThreads = 1; // TODO: add configuration parameter for numThreads
+        chunkedTables = new HashMap<>();
+        // Let cached DIFF candidates take up to a quarter of the heap
+        diffCache = new DiffQueryCache(Runtime.getRuntime().maxMemory() / 4);
+        this.numThreads = Math.max(1, numThreads);
     }
 
     /**
-     * Top-level method for importing tables from CSV files into MacroBase SQL
+     * Set a property of the session: the number of threads queries run on ("SET threads = 8"),
+     * the number of rows per chunk of tables imported from then on, 0 to import them in one
+     * piece ("SET chunk_rows = 1000000"), or the directory those chunks are spilled to, '' to
+     * keep them in memory ("SET spill_directory = '/tmp'"), or whether string columns of tables
+     * imported and of DIFF results from then on are dictionary-encoded
+     * ("SET dictionary_strings = false")
      *
-     * @return A DataFrame that contains the data loaded from the CSV file
+     * @return A DataFrame with the name and new value of the property
+     * @throws MacroBaseSQLException if the property doesn't exist or the value is invalid
+     */
+    DataFrame setSessionProperty(final SetSession setStatement) throws MacroBaseSQLException {
+        final String name = setStatement.getName().toString().toLowerCase();
+        final Expression value = setStatement.getValue();
+        final String newValue;
+        switch (name) {
+            case "threads":
+            case "num_threads":
+                if (!(value instanceof IntLiteral) || ((IntLiteral) value).getValue() < 1) {
+                    throw new MacroBaseSQLException("SET " + name + " must be a positive integer");
+                }
+                numThreads = ((IntLiteral) value).getValue();
+                newValue = String.valueOf(numThreads);
+                break;
+            case "chunk_rows":
+                if (!(value instanceof IntLiteral) || ((IntLiteral) value).getValue() < 0) {
+                    throw new MacroBaseSQLException("SET " + name + " must be a non-negative integer");
+                }
+                importChunkRows = ((IntLiteral) value).getValue();
+                newValue = String.valueOf(importChunkRows);
+                break;
+            case "spill_directory":
+                if (!(value instanceof StringLiteral)) {
+                    throw new MacroBaseSQLException("SET " + name + " must be a string");
+                }
+                final String path = ((StringLiteral) value).getValue();
+                if (path.isEmpty()) {
+                    spillDirectory = null;
+                } else if (new File(path).isDirectory()) {
+                    spillDirectory = new File(path);
+                } else {
+                    throw new MacroBaseSQLException("Directory " + path + " does not exist");
+                }
+                newValue = path;
+                break;
+            case "dictionary_strings":
+                if (!(value instanceof BooleanLiteral)) {
+                    throw new MacroBaseSQLException("SET " + name + " must be true or false");
+                }
+                dictionaryStrings = ((BooleanLiteral) value).getValue();
+                newValue = String.valueOf(dictionaryStrings);
+                break;
+            default:
+                throw new MacroBaseSQLException("Unknown session property " + name);
+        }
+        final DataFrame df = new DataFrame();
+        df.addColumn("property", new String[]{name});
+        df.addColumn("value", new String[]{newValue});
+        return df;
+    }
+
+    int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @return The pool that queries run on, shared with other sessions that use as many threads
+     */
+    private ForkJoinPool getExecutor() {
+        return ForkJoinUtils.getSharedPool(numThreads);
+    }
+
+    /**
+     * Top-level method for importing tables from CSV files into MacroBase SQL. If "SET
+     * chunk_rows" is set, the table is imported as a {@link ChunkedDataFrame}, which is spilled
+     * to disk if "SET spill_directory" is set too.
+     *
+     * A filename starting with "columnar://" names a file written by
+     * {@link edu.stanford.futuredata.macrobase.ingest.ColumnarDataFrameWriter} instead, as in the
+     * pipeline configs. It is memory-mapped and always imported whole; without a schema, every
+     * column is imported with the type it was written with.
+     *
+     * @return A DataFrame that contains the data loaded from the CSV file, or the first chunk of
+     * it if it was imported in chunks
      * @throws MacroBaseSQLException if there's an error parsing the CSV file
      */
     DataFrame importTableFromCsv(ImportCsv importStatement) throws MacroBaseSQLException {
         final String filename = importStatement.getFilename();
         final String tableName = importStatement.getTableName().toString();
-        final Map<String, ColType> schema = importStatement.getSchema();
+        final Map<String, ColType> schema = new HashMap<>(importStatement.getSchema());
+        if (dictionaryStrings) {
+            // Each distinct string is stored and hashed once, however many rows and queries use it
+            schema.replaceAll((col, type) -> type == ColType.STRING ? ColType.DICTIONARY : type);
+        }
         try {
-            DataFrame df = new CSVDataFrameParser(filename, schema).load();
-            tablesInMemory.put(tableName, df);
+            final DataFrame df;
+            if (filename.startsWith(COLUMNAR_PREFIX)) {
+                df = new ColumnarDataFrameLoader(filename.substring(COLUMNAR_PREFIX.length()),
+                    schema.isEmpty() ? null : new ArrayList<>(schema.keySet()))
+                    .setColumnTypes(schema)
+                    .load();
+                dropTable(tableName);
+                tablesInMemory.put(tableName, df);
+            } else if (importChunkRows > 0) {
+                final ChunkedDataFrame table = new ChunkedCSVDataFrameParser(filename, schema)
+                    .setChunkRows(importChunkRows)
+                    .setSpillDirectory(spillDirectory)
+                    .load();
+                dropTable(tableName);
+                chunkedTables.put(tableName, table);
+                log.info("Imported {} rows into {} chunks", table.getNumRows(),
+                    table.getNumChunks());
+                df = table.getNumChunks() > 0 ? table.getChunk(0) : new DataFrame();
+            } else {
+                df = new CSVDataFrameParser(filename, schema).load();
+                dropTable(tableName);
+                tablesInMemory.put(tableName, df);
+            }
+            diffCache.invalidateTable(tableName);
             return df;
         } catch (Exception e) {
             throw new MacroBaseSQLException(e);
         }
     }
 
+    /**
+     * Drop a table, deleting its spilled chunks if it was imported in chunks
+     */
+    private void dropTable(final String tableName) {
+        tablesInMemory.remove(tableName);
+        final ChunkedDataFrame chunked = chunkedTables.remove(tableName);
+        if (chunked != null) {
+            chunked.close();
+        }
+    }
+
+    /**
+     * Top-level method for EXPLAIN ANALYZE: execute a query or an import, measuring the wall
+     * time, CPU time, rows and allocated bytes of each operator that evaluates it, such as scans,
+     * joins, filters, UDFs, sorts, and the encoding and each order of the search of a DIFF.
+     *
+     * @return One row per operator instead of the result of the statement, see {@link
+     * OperatorProfile#toDataFrame()}
+     * @throws MacroBaseException If the statement can't be executed
+     */
+    DataFrame explainAnalyze(final ExplainAnalyze explain) throws MacroBaseException {
+        final Statement stmt = explain.getStatement();
+        final OperatorProfile root;
+        if (stmt instanceof Query) {
+            root = new OperatorProfile("Query");
+        } else if (stmt instanceof ImportCsv) {
+            root = new OperatorProfile("Import " + ((ImportCsv) stmt).getTableName());
+        } else {
+            throw new MacroBaseSQLException(
+                "EXPLAIN ANALYZE of " + stmt.getClass().getSimpleName() + " not supported");
+        }
+        profile = root.start();
+        try {
+            final DataFrame result = stmt instanceof Query
+                ? executeQuery(((Query) stmt).getQueryBody())
+                : importTableFromCsv((ImportCsv) stmt);
+            root.setRowsOut(result.getNumRows());
+        } finally {
+            root.stop();
+            profile = null;
+        }
+        return root.toDataFrame();
+    }
+
+    @FunctionalInterface
+    private interface Operator<T> {
+
+        T evaluate() throws MacroBaseException;
+    }
+
+    /**
+     * Evaluate an operator, measuring it as a child of the current operator under EXPLAIN
+     * ANALYZE. While it runs, it is the current operator.
+     *
+     * @param rowsIn Number of input rows, or -1 if unknown
+     * @return The result of the operator, whose rows are recorded if it's a DataFrame
+     */
+    private <T> T profiled(final String name, final long rowsIn, final Operator<T> operator)
+        throws MacroBaseException {
+        if (profile == null) {
+            return operator.evaluate();
+        }
+        final OperatorProfile parent = profile;
+        profile = parent.addChild(name).setRowsIn(rowsIn).start();
+        try {
+            final T result = operator.evaluate();
+            if (result instanceof DataFrame) {
+                profile.setRowsOut(((DataFrame) result).getNumRows());
+            }
+            return result;
+        } finally {
+            profile.stop();
+            profile = parent;
+        }
+    }
+
+    DiffQueryCache getDiffCache() {
+        return diffCache;
+    }
+
     /**
      * Top-level method for executing a SQL query in MacroBase SQL
      *
@@ -99,12 +331,12 @@ class QueryEngine {
         if (query instanceof QuerySpecification) {
             QuerySpecification querySpec = (QuerySpecification) query;
             log.debug(querySpec.toString());
-            return executeQuerySpec(querySpec);
+            return profiled("Select", -1, () -> executeQuerySpec(querySpec));
 
         } else if (query instanceof DiffQuerySpecification) {
             DiffQuerySpecification diffQuery = (DiffQuerySpecification) query;
             log.debug(diffQuery.toString());
-            return executeDiffQuerySpec(diffQuery);
+            return profiled("Diff", -1, () -> executeDiffQuerySpec(diffQuery));
         }
         throw new MacroBaseSQLException(
             "query of type " + query.getClass().getSimpleName() + " not yet supported");
@@ -121,8 +353,142 @@ class QueryEngine {
     private DataFrame executeDiffQuerySpec(final DiffQuerySpecification diffQuery)
         throws MacroBaseException {
         final String outlierColName = "outlier_col";
-        DataFrame dfToExplain;
+        final double minRatioMetric = diffQuery.getMinRatioExpression().getMinRatio();
+        final double minSupport = diffQuery.getMinSupportExpression().getMinSupport();
+        final String ratioMetric = diffQuery.getRatioMetricExpr().getFuncName().toString();
+        final int order = diffQuery.getMaxCombo().getValue();
+
+        final APLOutlierSummarizer summarizer = new APLOutlierSummarizer();
+        summarizer.setRatioMetric(ratioMetric)
+            .setMaxOrder(order)
+            .setMinSupport(minSupport)
+            .setMinRatioMetric(minRatioMetric)
+            .setOutlierColumn(outlierColName)
+            .setNumThreads(numThreads);
+        // the encoding and each order of the search are measured as children of the DIFF
+        summarizer.setProfile(profile);
+        final boolean approximate = diffQuery.getSampleRate().isPresent();
+        if (approximate) {
+            final double sampleRate = diffQuery.getSampleRate().get().getValue();
+            if (!(sampleRate > 0.0 && sampleRate <= 1.0)) {
+                throw new MacroBaseSQLException(
+                    "APPROXIMATE SAMPLE must be greater than 0 and at most 1");
+            }
+            summarizer.setInlierSampleRate(sampleRate);
+        }
+
+        // A SPLIT of a table imported in chunks is explained a chunk at a time, without caching
+        // its candidates, which would keep all its encoded rows in memory. UDFs in the SPLIT
+        // need the whole table, and so does sampling its inliers.
+        final ChunkedDataFrame chunkedInput = diffQuery.getSplitQuery()
+            .filter((split) -> !approximate && !hasFunctionCall(split.getWhereClause()))
+            .map((split) -> getChunkedTable(split.getInputRelation()))
+            .orElse(null);
+        if (chunkedInput != null) {
+            final List<String> explainCols = getExplainCols(diffQuery,
+                chunkedInput.getNumChunks() > 0 ? chunkedInput.getChunk(0) : new DataFrame());
+            summarizer.setAttributes(explainCols);
+            final Expression whereClause = diffQuery.getSplitQuery().get().getWhereClause();
+            try {
+                summarizer.process(Iterables.transform(chunkedInput, (chunk) -> {
+                    try {
+                        return addOutlierColumn(chunk.copy(), whereClause, outlierColName);
+                    } catch (MacroBaseException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }));
+            } catch (RuntimeException e) {
+                throw unwrapMacroBaseException(e);
+            }
+            return getDiffResults(diffQuery, summarizer, explainCols);
+        }
+
+        // Queries that differ only in their ratio metric, minimum ratio, or a lower MAX COMBO
+        // re-explain the candidates counted by an earlier query. Candidates counted over a
+        // sample of the inliers aren't cached.
+        final String cacheKey = approximate ? null : getDiffCacheKey(diffQuery, minSupport);
+        final DiffQueryCache.Entry cached = cacheKey == null ? null : diffCache.get(cacheKey);
+        final List<String> explainCols;
+        APLCandidates candidates = null;
+        if (cached != null) {
+            explainCols = cached.getExplainCols();
+            summarizer.setAttributes(explainCols);
+            candidates = cached.getCandidates();
+            if (order > candidates.getMaxOrder()) {
+                candidates = summarizer.countCandidates(candidates);
+                diffCache.put(cacheKey, candidates, explainCols, getTableNames(diffQuery));
+            }
+            log.debug("Explaining cached candidates of " + cacheKey);
+        } else {
+            final DataFrame dfToExplain = getDataFrameToExplain(diffQuery, outlierColName);
+            explainCols = getExplainCols(diffQuery, dfToExplain);
+            summarizer.setAttributes(explainCols);
+            if (cacheKey != null) {
+                candidates = summarizer.countCandidates(dfToExplain);
+                diffCache.put(cacheKey, candidates, explainCols, getTableNames(diffQuery));
+            } else {
+                try {
+                    summarizer.process(dfToExplain);
+                } catch (Exception e) {
+                    // TODO: get rid of this Exception
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (candidates != null) {
+            summarizer.explainCandidates(candidates);
+        }
+        return getDiffResults(diffQuery, summarizer, explainCols);
+    }
+
+    /**
+     * @return The explanations found by the summarizer of a DIFF query, after evaluating the
+     * rest of the query's clauses over them
+     */
+    private DataFrame getDiffResults(final DiffQuerySpecification diffQuery,
+        final APLOutlierSummarizer summarizer, final List<String> explainCols)
+        throws MacroBaseException {
+        // TODO: if an explainCol isn't in the SELECT clause, don't include it
+        DataFrame resultDf = summarizer.getResults().toDataFrame(explainCols);
+        resultDf.renameColumn("outliers", "outlier_count");
+        resultDf.renameColumn("count", "total_count");
+        if (dictionaryStrings) {
+            resultDf = encodeStringColumns(resultDf);
+        }
+
+        return evaluateSQLClauses(diffQuery, resultDf);
+    }
+
+    /**
+     * @return A DataFrame with the same columns as df, with its STRING columns dictionary-encoded
+     */
+    private static DataFrame encodeStringColumns(final DataFrame df) {
+        final Schema schema = df.getSchema();
+        final DataFrame encoded = new DataFrame();
+        for (int c = 0; c < schema.getNumColumns(); c++) {
+            final String name = schema.getColumnName(c);
+            switch (schema.getColumnType(c)) {
+                case DOUBLE:
+                    encoded.addColumn(name, df.getDoubleColumn(c));
+                    break;
+                case STRING:
+                    encoded.addColumn(name, DictionaryColumn.encode(df.getStringColumn(c)));
+                    break;
+                default:
+                    encoded.addColumn(name, df.getDictionaryColumn(c));
+            }
+        }
+        return encoded;
+    }
 
+    /**
+     * Evaluate the input of a DIFF query: either the two subqueries, concatenated, or the
+     * relation of the SPLIT query. Either way, a binary column marks the outlier rows.
+     *
+     * @return The DataFrame of both outliers and inliers
+     */
+    private DataFrame getDataFrameToExplain(final DiffQuerySpecification diffQuery,
+        final String outlierColName) throws MacroBaseException {
         if (diffQuery.hasTwoArgs()) {
             // case 1: two separate subqueries
             final TableSubquery first = diffQuery.getFirst().get();
@@ -132,28 +498,41 @@ class QueryEngine {
             final DataFrame outliersDf = executeQuery(first.getQuery().getQueryBody());
             final DataFrame inliersDf = executeQuery(second.getQuery().getQueryBody());
 
-            dfToExplain = concatOutliersAndInliers(outlierColName, outliersDf, inliersDf);
-        } else {
-            // case 2: single SPLIT (...) WHERE ... query
-            final SplitQuery splitQuery = diffQuery.getSplitQuery().get();
-            final Relation inputRelation = splitQuery.getInputRelation();
-
-            if (inputRelation instanceof TableSubquery) {
-                final QueryBody subquery = ((TableSubquery) inputRelation).getQuery()
-                    .getQueryBody();
-                dfToExplain = executeQuery(subquery);
-            } else {
-                // instance of Table
-                dfToExplain = getTable(((Table) inputRelation).getName().toString());
-            }
+            return concatOutliersAndInliers(outlierColName, outliersDf, inliersDf);
+        }
+        // case 2: single SPLIT (...) WHERE ... query
+        final SplitQuery splitQuery = diffQuery.getSplitQuery().get();
+        final Relation inputRelation = splitQuery.getInputRelation();
 
-            // add outlier (binary) column by evaluating the WHERE clause
-            final BitSet mask = getMask(dfToExplain, splitQuery.getWhereClause());
-            final double[] outlierVals = new double[dfToExplain.getNumRows()];
+        final DataFrame dfToExplain = evaluateRelation(inputRelation);
+        return addOutlierColumn(dfToExplain, splitQuery.getWhereClause(), outlierColName);
+    }
+
+    /**
+     * Add an outlier (binary) column to a DataFrame by evaluating the WHERE clause of a SPLIT
+     *
+     * @return The DataFrame, with the new column
+     */
+    private DataFrame addOutlierColumn(final DataFrame df, final Expression whereClause,
+        final String outlierColName) throws MacroBaseException {
+        return profiled("Split", df.getNumRows(), () -> {
+            final BitSet mask = getMask(df, whereClause);
+            final double[] outlierVals = new double[df.getNumRows()];
             mask.stream().forEach((i) -> outlierVals[i] = 1.0);
-            dfToExplain.addColumn(outlierColName, outlierVals);
-        }
+            df.addColumn(outlierColName, outlierVals);
+            if (profile != null) {
+                profile.setCounter("outliers", mask.cardinality());
+            }
+            return df;
+        });
+    }
 
+    /**
+     * @return The columns of the ON clause of a DIFF query, with ON * expanded
+     * @throws MacroBaseSQLException if a column is not present in the DataFrame to explain
+     */
+    private List<String> getExplainCols(final DiffQuerySpecification diffQuery,
+        final DataFrame dfToExplain) throws MacroBaseSQLException {
         List<String> explainCols = diffQuery.getAttributeCols().stream()
             .map(Identifier::getValue)
             .collect(toImmutableList());
@@ -169,34 +548,60 @@ class QueryEngine {
             throw new MacroBaseSQLException(
                 "ON " + Joiner.on(", ").join(explainCols) + " not present in table");
         }
+        return explainCols;
+    }
 
-        // TODO: if an explainCol isn't in the SELECT clause, don't include it
-        final double minRatioMetric = diffQuery.getMinRatioExpression().getMinRatio();
-        final double minSupport = diffQuery.getMinSupportExpression().getMinSupport();
-        final String ratioMetric = diffQuery.getRatioMetricExpr().getFuncName().toString();
-        final int order = diffQuery.getMaxCombo().getValue();
-
-        // execute diff
-        final APLOutlierSummarizer summarizer = new APLOutlierSummarizer();
-        summarizer.setRatioMetric(ratioMetric)
-            .setMaxOrder(order)
-            .setMinSupport(minSupport)
-            .setMinRatioMetric(minRatioMetric)
-            .setOutlierColumn(outlierColName)
-            .setAttributes(explainCols)
-            .setNumThreads(numThreads);
-
+    /**
+     * Canonical form of the parts of a DIFF query that determine its candidates: its input,
+     * its explanation columns and its minimum support.
+     *
+     * @return The key of the query in the DIFF cache, or null if the query can't be cached
+     */
+    private String getDiffCacheKey(final DiffQuerySpecification diffQuery,
+        final double minSupport) {
+        final StringBuilder key = new StringBuilder();
         try {
-            summarizer.process(dfToExplain);
-        } catch (Exception e) {
-            // TODO: get rid of this Exception
-            e.printStackTrace();
+            if (diffQuery.hasTwoArgs()) {
+                key.append(formatSql(diffQuery.getFirst().get(), Optional.empty()))
+                    .append("\nVERSUS\n")
+                    .append(formatSql(diffQuery.getSecond().get(), Optional.empty()));
+            } else {
+                final SplitQuery splitQuery = diffQuery.getSplitQuery().get();
+                key.append(formatSql(splitQuery.getInputRelation(), Optional.empty()))
+                    .append("\nSPLIT WHERE ")
+                    .append(formatExpression(splitQuery.getWhereClause(), Optional.empty()));
+            }
+        } catch (UnsupportedOperationException e) {
+            // Not every relation can be formatted, e.g. nested DIFF queries
+            return null;
         }
-        final DataFrame resultDf = summarizer.getResults().toDataFrame(explainCols);
-        resultDf.renameColumn("outliers", "outlier_count");
-        resultDf.renameColumn("count", "total_count");
+        key.append("\nON ")
+            .append(diffQuery.getAttributeCols().stream()
+                .map(Identifier::getValue)
+                .collect(joining(", ")))
+            .append("\nWITH MIN SUPPORT ")
+            .append(minSupport);
+        return key.toString();
+    }
 
-        return evaluateSQLClauses(diffQuery, resultDf);
+    /**
+     * @return The names of the tables read by a DIFF query
+     */
+    private Set<String> getTableNames(final DiffQuerySpecification diffQuery) {
+        final Set<String> tableNames = new HashSet<>();
+        diffQuery.getFirst().ifPresent((first) -> addTableNames(first, tableNames));
+        diffQuery.getSecond().ifPresent((second) -> addTableNames(second, tableNames));
+        diffQuery.getSplitQuery().ifPresent((split) -> addTableNames(split, tableNames));
+        return tableNames;
+    }
+
+    private static void addTableNames(final Node node, final Set<String> tableNames) {
+        if (node instanceof Table) {
+            tableNames.add(((Table) node).getName().toString());
+        }
+        for (Node child : node.getChildren()) {
+            addTableNames(child, tableNames);
+        }
     }
 
     /**
@@ -208,7 +613,7 @@ class QueryEngine {
         Builder<String> builder = ImmutableList.builder();
         final boolean sample = df.getNumRows() > 1000;
         final int numRowsToSample = sample ? 1000 : df.getNumRows();
-        final List<String> stringCols = df.getSchema().getColumnNamesByType(ColType.STRING);
+        final List<String> stringCols = df.getSchema().getStringColumnNames();
         for (String colName : stringCols) {
             final String[] colValues = df.getStringColumnByName(colName);
             final Set<String> set = new HashSet<>();
@@ -231,7 +636,7 @@ class QueryEngine {
 
     /**
      * Returns all values in the SELECT clause of a given query that are {@link FunctionCall}
-     * objects, which are UDFs (e.g., "percentile(column_name)").
+     * objects, which are UDFs (e.g., "percentile(column_name)"), other than aggregates.
      *
      * @param select The Select clause
      * @return The items in the Select clause that correspond to UDFs returned as a List of {@link
@@ -242,7 +647,7 @@ class QueryEngine {
         for (SelectItem item : select.getSelectItems()) {
             if (item instanceof SingleColumn) {
                 final SingleColumn col = (SingleColumn) item;
-                if (col.getExpression() instanceof FunctionCall) {
+                if (col.getExpression() instanceof FunctionCall && !isAggregate(col.getExpression())) {
                     udfs.add(col);
                 }
             }
@@ -273,8 +678,7 @@ class QueryEngine {
     }
 
     /**
-     * Evaluate standard SQL clauses: SELECT, WHERE, ORDER BY, and LIMIT. TODO: support GROUP BY and
-     * HAVING clauses
+     * Evaluate standard SQL clauses: SELECT, WHERE, GROUP BY, HAVING, ORDER BY, and LIMIT
      *
      * @param query the query that contains the clauses
      * @param df the DataFrame to apply these clauses to
@@ -282,42 +686,221 @@ class QueryEngine {
      */
     private DataFrame evaluateSQLClauses(final QueryBody query, final DataFrame df)
         throws MacroBaseException {
-        DataFrame resultDf = evaluateUDFs(df, getUDFsInSelect(query.getSelect()));
-        resultDf = evaluateWhereClause(resultDf, query.getWhere());
+        return evaluateSQLClauses(query, df, false);
+    }
+
+    /**
+     * @param whereEvaluated Whether the WHERE clause has already been applied to df
+     */
+    private DataFrame evaluateSQLClauses(final QueryBody query, final DataFrame df,
+        final boolean whereEvaluated) throws MacroBaseException {
+        final List<SingleColumn> udfCols = getUDFsInSelect(query.getSelect());
+        DataFrame resultDf = udfCols.isEmpty() ? df
+            : profiled("UDFs", df.getNumRows(), () -> evaluateUDFs(df, udfCols));
+        if (!whereEvaluated) {
+            resultDf = evaluateWhereClause(resultDf, query.getWhere());
+        }
+        if (query instanceof QuerySpecification && isAggregateQuery((QuerySpecification) query)) {
+            final QuerySpecification querySpec = (QuerySpecification) query;
+            final DataFrame ungrouped = resultDf;
+            resultDf = profiled("Aggregate", ungrouped.getNumRows(),
+                () -> evaluateGroupByClause(ungrouped, querySpec));
+            resultDf = evaluateWhereClause(resultDf, querySpec.getHaving());
+        }
         resultDf = evaluateSelectClause(resultDf, query.getSelect());
         // TODO: what if you order by something that's not in the SELECT clause?
-        resultDf = evaluateOrderByClause(resultDf, query.getOrderBy());
-        return evaluateLimitClause(resultDf, query.getLimit());
+        return evaluateOrderByClause(resultDf, query.getOrderBy(), query.getLimit());
     }
 
     /**
-     * Evaluate ORDER BY clause. For now, we only support sorting by a single column.
+     * Evaluate ORDER BY clause, followed by the LIMIT clause. When both are present, only the
+     * rows that make the LIMIT are sorted.
      */
-    private DataFrame evaluateOrderByClause(DataFrame df, Optional<OrderBy> orderByOpt) {
+    private DataFrame evaluateOrderByClause(DataFrame df, Optional<OrderBy> orderByOpt,
+        final Optional<String> limitStr) throws MacroBaseException {
         if (!orderByOpt.isPresent()) {
-            return df;
+            return evaluateLimitClause(df, limitStr);
+        }
+        final List<SortItem> sortItems = orderByOpt.get().getSortItems();
+        final List<String> sortCols = new ArrayList<>(sortItems.size());
+        final boolean[] sortAsc = new boolean[sortItems.size()];
+        for (int i = 0; i < sortItems.size(); i++) {
+            final SortItem sortItem = sortItems.get(i);
+            sortCols.add(((Identifier) sortItem.getSortKey()).getValue());
+            sortAsc[i] = sortItem.getOrdering() == Ordering.ASCENDING;
         }
-        final OrderBy orderBy = orderByOpt.get();
-        // For now, we only support sorting by a single column
-        // TODO: support multi-column sort
-        final SortItem sortItem = orderBy.getSortItems().get(0);
-        final String sortCol = ((Identifier) sortItem.getSortKey()).getValue();
-        return df.orderBy(sortCol, sortItem.getOrdering() == Ordering.ASCENDING);
+        return profiled("Sort", df.getNumRows(),
+            () -> df.orderBy(sortCols, sortAsc, getLimit(limitStr), getExecutor()));
     }
 
     /**
      * Execute a standard SQL query (i.e., a query that only contains ANSI SQL terms, and does not
-     * contain any DIFF or SPLIT operators). For now, we ignore GROUP BY, HAVING, and JOIN clauses
+     * contain any DIFF or SPLIT operators).
      *
      * @return A DataFrame containing the results of the SQL query
      */
     private DataFrame executeQuerySpec(final QuerySpecification query)
         throws MacroBaseException {
-        final Table table = (Table) query.getFrom().get();
-        final DataFrame df = getTable(table.getName().toString());
+        final ChunkedDataFrame chunked = getChunkedTable(query.getFrom().get());
+        if (chunked != null && getUDFsInSelect(query.getSelect()).isEmpty()
+            && !(query.getWhere().isPresent() && hasFunctionCall(query.getWhere().get()))) {
+            // Filter a table imported in chunks one chunk at a time, so that only the rows
+            // that pass the WHERE clause are held in memory together. UDFs such as percentile
+            // need the whole table, so they are evaluated over all of it.
+            final List<DataFrame> filtered = new ArrayList<>(chunked.getNumChunks());
+            for (DataFrame chunk : chunked) {
+                filtered.add(evaluateWhereClause(chunk.copy(), query.getWhere()));
+            }
+            return evaluateSQLClauses(query, DataFrame.unionAll(filtered), true);
+        }
+        final DataFrame df = evaluateRelation(query.getFrom().get());
         return evaluateSQLClauses(query, df);
     }
 
+    /**
+     * @return true if the expression calls a function, e.g. a UDF
+     */
+    private static boolean hasFunctionCall(final Node node) {
+        if (node instanceof FunctionCall) {
+            return true;
+        }
+        for (Node child : node.getChildren()) {
+            if (hasFunctionCall(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The table read by a relation if it was imported in chunks, otherwise null
+     */
+    private ChunkedDataFrame getChunkedTable(final Relation relation) {
+        if (relation instanceof AliasedRelation) {
+            return getChunkedTable(((AliasedRelation) relation).getRelation());
+        } else if (relation instanceof Table) {
+            return chunkedTables.get(((Table) relation).getName().toString());
+        }
+        return null;
+    }
+
+    /**
+     * Evaluate a relation in a FROM clause: a table, a subquery, or a join of two relations
+     *
+     * @return A DataFrame containing the rows of the relation
+     * @throws MacroBaseException If the relation can't be evaluated
+     */
+    private DataFrame evaluateRelation(final Relation relation) throws MacroBaseException {
+        if (relation instanceof Table) {
+            final String tableName = ((Table) relation).getName().toString();
+            return profiled("Scan " + tableName, -1, () -> getTable(tableName));
+        } else if (relation instanceof TableSubquery) {
+            return executeQuery(((TableSubquery) relation).getQuery().getQueryBody());
+        } else if (relation instanceof AliasedRelation) {
+            // Columns are not qualified by table, so an alias has no effect
+            return evaluateRelation(((AliasedRelation) relation).getRelation());
+        } else if (relation instanceof Join) {
+            return evaluateJoin((Join) relation);
+        }
+        throw new MacroBaseSQLException(
+            "relation of type " + relation.getClass().getSimpleName() + " not yet supported");
+    }
+
+    /**
+     * Evaluate an equi-join of two relations with a {@link HashJoin}. The keys are given by a USING
+     * clause, by the columns the relations have in common (NATURAL JOIN), or by an ON clause that
+     * is a conjunction of equalities between columns of the two relations.
+     *
+     * @return A DataFrame containing the joined rows
+     * @throws MacroBaseException If the join is not an inner or left outer equi-join
+     */
+    private DataFrame evaluateJoin(final Join join) throws MacroBaseException {
+        final HashJoin.JoinType joinType;
+        switch (join.getType()) {
+            case INNER:
+                joinType = HashJoin.JoinType.INNER;
+                break;
+            case LEFT:
+                joinType = HashJoin.JoinType.LEFT_OUTER;
+                break;
+            default:
+                throw new MacroBaseSQLException(join.getType() + " JOIN not supported");
+        }
+        final DataFrame left = evaluateRelation(join.getLeft());
+        final DataFrame right = evaluateRelation(join.getRight());
+
+        final List<String> leftKeys = new ArrayList<>();
+        final List<String> rightKeys = new ArrayList<>();
+        final JoinCriteria criteria = join.getCriteria().get();
+        if (criteria instanceof JoinUsing) {
+            for (Identifier col : ((JoinUsing) criteria).getColumns()) {
+                leftKeys.add(col.getValue());
+                rightKeys.add(col.getValue());
+            }
+        } else if (criteria instanceof NaturalJoin) {
+            for (String colName : left.getSchema().getColumnNames()) {
+                if (right.getSchema().hasColumn(colName)) {
+                    leftKeys.add(colName);
+                    rightKeys.add(colName);
+                }
+            }
+            if (leftKeys.isEmpty()) {
+                throw new MacroBaseSQLException("NATURAL JOIN of relations with no common columns");
+            }
+        } else {
+            addJoinKeys(((JoinOn) criteria).getExpression(), left, right, leftKeys, rightKeys);
+        }
+        for (int i = 0; i < leftKeys.size(); i++) {
+            if (!left.getSchema().hasColumn(leftKeys.get(i))
+                || !right.getSchema().hasColumn(rightKeys.get(i))) {
+                throw new MacroBaseSQLException(
+                    "JOIN column " + leftKeys.get(i) + " not present in both relations");
+            }
+        }
+
+        try {
+            return profiled(join.getType() + " join", left.getNumRows() + right.getNumRows(),
+                () -> new HashJoin(joinType, leftKeys, rightKeys)
+                    .setExecutor(getExecutor())
+                    .join(left, right));
+        } catch (IllegalArgumentException e) {
+            throw new MacroBaseSQLException(e.getMessage());
+        }
+    }
+
+    /**
+     * Add the key columns of a JOIN ... ON clause, which must be equalities between a column of
+     * each relation, joined by AND. Columns are matched to relations by name.
+     */
+    private void addJoinKeys(final Expression expr, final DataFrame left, final DataFrame right,
+        final List<String> leftKeys, final List<String> rightKeys) throws MacroBaseSQLException {
+        if (expr instanceof LogicalBinaryExpression
+            && ((LogicalBinaryExpression) expr).getType() == LogicalBinaryExpression.Type.AND) {
+            final LogicalBinaryExpression and = (LogicalBinaryExpression) expr;
+            addJoinKeys(and.getLeft(), left, right, leftKeys, rightKeys);
+            addJoinKeys(and.getRight(), left, right, leftKeys, rightKeys);
+            return;
+        }
+        if (!(expr instanceof ComparisonExpression)
+            || ((ComparisonExpression) expr).getType() != ComparisonExpressionType.EQUAL
+            || !(((ComparisonExpression) expr).getLeft() instanceof Identifier)
+            || !(((ComparisonExpression) expr).getRight() instanceof Identifier)) {
+            throw new MacroBaseSQLException("JOIN ON " + expr + " not supported: only equalities "
+                + "between columns are");
+        }
+        final String first = ((Identifier) ((ComparisonExpression) expr).getLeft()).getValue();
+        final String second = ((Identifier) ((ComparisonExpression) expr).getRight()).getValue();
+        if (left.getSchema().hasColumn(first) && right.getSchema().hasColumn(second)) {
+            leftKeys.add(first);
+            rightKeys.add(second);
+        } else if (left.getSchema().hasColumn(second) && right.getSchema().hasColumn(first)) {
+            leftKeys.add(second);
+            rightKeys.add(first);
+        } else {
+            throw new MacroBaseSQLException("JOIN ON " + expr + ": columns not present in relations");
+        }
+    }
+
     /**
      * Get table as DataFrame that has previously been loaded into memory
      *
@@ -328,6 +911,12 @@ class QueryEngine {
      * exist
      */
     private DataFrame getTable(String tableName) throws MacroBaseSQLException {
+        if (chunkedTables.containsKey(tableName)) {
+            // e.g. the input of a join, which needs all the rows of the table at once
+            log.warn("Reading all {} rows of table {} into memory",
+                chunkedTables.get(tableName).getNumRows(), tableName);
+            return chunkedTables.get(tableName).toDataFrame();
+        }
         if (!tablesInMemory.containsKey(tableName)) {
             throw new MacroBaseSQLException("Table " + tableName + " does not exist");
         }
@@ -347,20 +936,190 @@ class QueryEngine {
 
         // create shallow copy, so modifications don't persist on the original DataFrame
         final DataFrame resultDf = inputDf.copy();
+        // evaluate the UDFs in parallel, each on the input DataFrame
+        final List<ForkJoinTask<double[]>> tasks = new ArrayList<>(udfCols.size());
         for (SingleColumn udfCol : udfCols) {
-            final FunctionCall func = (FunctionCall) udfCol.getExpression();
-            // for now, if UDF is a.b.c.d(), ignore "a.b.c."
-            final String funcName = func.getName().getSuffix();
-            // for now, assume func.getArguments returns at least 1 argument, always grab the first
-            final MBFunction mbFunction = MBFunction.getFunction(funcName,
-                func.getArguments().stream().map(Expression::toString).findFirst().get());
-
-            // modify resultDf in place, add column; mbFunction is evaluated on input DataFrame
-            resultDf.addColumn(udfCol.toString(), mbFunction.apply(inputDf));
+            final MBFunction mbFunction = CompiledPredicate
+                .getUDF((FunctionCall) udfCol.getExpression());
+            // each UDF also evaluates ranges of rows in parallel
+            tasks.add(ForkJoinTask.adapt(() -> mbFunction.apply(inputDf, getExecutor())));
+        }
+        try {
+            getExecutor().invoke(ForkJoinTask.adapt(() -> {
+                ForkJoinTask.invokeAll(tasks);
+            }));
+        } catch (RuntimeException e) {
+            // rethrow the MacroBaseException of a UDF, wrapped by the task that evaluated it
+            throw unwrapMacroBaseException(e);
+        }
+        for (int i = 0; i < udfCols.size(); i++) {
+            // modify resultDf in place, add column
+            resultDf.addColumn(udfCols.get(i).toString(), tasks.get(i).join());
         }
         return resultDf;
     }
 
+    /**
+     * @return The MacroBaseException that caused an unchecked exception, e.g. one thrown by a
+     * task or a callback. The unchecked exception is rethrown if there is none.
+     */
+    private static MacroBaseException unwrapMacroBaseException(final RuntimeException e) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof MacroBaseException) {
+                return (MacroBaseException) cause;
+            }
+        }
+        throw e;
+    }
+
+    /**
+     * @return true if the query has a GROUP BY clause or aggregates (e.g., "count(*)") in its
+     * Select clause
+     */
+    private boolean isAggregateQuery(final QuerySpecification query) {
+        if (query.getGroupBy().isPresent()) {
+            return true;
+        }
+        for (SelectItem item : query.getSelect().getSelectItems()) {
+            if (item instanceof SingleColumn && isAggregate(((SingleColumn) item).getExpression())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the expression is a call to one of the aggregates in {@link
+     * AggregateFunction}
+     */
+    private static boolean isAggregate(final Expression expr) {
+        if (!(expr instanceof FunctionCall)) {
+            return false;
+        }
+        final String funcName = ((FunctionCall) expr).getName().getSuffix();
+        for (AggregateFunction function : AggregateFunction.values()) {
+            if (function.name().equalsIgnoreCase(funcName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluate the GROUP BY clause of a SQL query, along with the aggregates in its Select and
+     * Having clauses. Aggregates in the Having clause that aren't in the Select clause are added
+     * as columns named after the aggregate (e.g., "count(*)"), so that the Having clause can be
+     * evaluated on the result.
+     *
+     * @param df The DataFrame to aggregate
+     * @param query The query that contains the clauses
+     * @return A new DataFrame with one row per group, containing the GROUP BY columns followed by
+     * the aggregates
+     * @throws MacroBaseSQLException if the Select clause contains a column that isn't in the GROUP
+     * BY clause, or an aggregate can't be computed
+     */
+    private DataFrame evaluateGroupByClause(final DataFrame df, final QuerySpecification query)
+        throws MacroBaseSQLException {
+        final List<String> groupByCols = new ArrayList<>();
+        if (query.getGroupBy().isPresent()) {
+            for (Expression expr : query.getGroupBy().get().getGroupingColumns()) {
+                if (!(expr instanceof Identifier)) {
+                    throw new MacroBaseSQLException("GROUP BY " + expr + " not supported");
+                }
+                final String colName = ((Identifier) expr).getValue();
+                if (!df.getSchema().hasColumn(colName)) {
+                    throw new MacroBaseSQLException("GROUP BY " + colName + " not present in table");
+                }
+                groupByCols.add(colName);
+            }
+        }
+
+        final HashAggregator aggregator = new HashAggregator(groupByCols);
+        final Set<String> aggregateCols = new HashSet<>();
+        for (SelectItem item : query.getSelect().getSelectItems()) {
+            if (item instanceof AllColumns) {
+                continue;
+            }
+            final SingleColumn col = (SingleColumn) item;
+            final Expression expr = col.getExpression();
+            if (isAggregate(expr)) {
+                if (aggregateCols.add(col.toString())) {
+                    addAggregate(aggregator, df, (FunctionCall) expr, col.toString());
+                }
+            } else if (!(expr instanceof Identifier && groupByCols
+                .contains(((Identifier) expr).getValue()))) {
+                throw new MacroBaseSQLException("Column " + col
+                    + " must appear in the GROUP BY clause or be used in an aggregate function");
+            }
+        }
+        if (query.getHaving().isPresent()) {
+            for (FunctionCall func : getAggregates(query.getHaving().get())) {
+                final String colName = new SingleColumn(func).toString();
+                if (aggregateCols.add(colName)) {
+                    addAggregate(aggregator, df, func, colName);
+                }
+            }
+        }
+
+        aggregator.setExecutor(getExecutor());
+        try {
+            aggregator.process(df);
+        } catch (Exception e) {
+            throw new MacroBaseSQLException(e);
+        }
+        return aggregator.getResults();
+    }
+
+    /**
+     * Add an aggregate (e.g., "avg(usage)") to a {@link HashAggregator}
+     *
+     * @param outputName The name of the column for the aggregate
+     * @throws MacroBaseSQLException if the argument of the aggregate is not a single column, or is
+     * not a DOUBLE column for aggregates other than count
+     */
+    private void addAggregate(final HashAggregator aggregator, final DataFrame df,
+        final FunctionCall func, final String outputName) throws MacroBaseSQLException {
+        final AggregateFunction function = AggregateFunction
+            .valueOf(func.getName().getSuffix().toUpperCase());
+        if (func.isDistinct()) {
+            throw new MacroBaseSQLException("DISTINCT aggregates are not supported");
+        }
+        final List<Expression> args = func.getArguments();
+        if (args.isEmpty() && function == AggregateFunction.COUNT) {
+            aggregator.addAggregate(function, null, outputName);
+            return;
+        }
+        if (args.size() != 1 || !(args.get(0) instanceof Identifier)) {
+            throw new MacroBaseSQLException(func + ": aggregate argument must be a single column");
+        }
+        final String colName = ((Identifier) args.get(0)).getValue();
+        if (!df.getSchema().hasColumn(colName)) {
+            throw new MacroBaseSQLException("Column " + colName + " not present in table");
+        }
+        final ColType colType = df.getSchema().getColumnTypeByName(colName);
+        if (function != AggregateFunction.COUNT && colType != ColType.DOUBLE) {
+            throw new MacroBaseSQLException(
+                "Column " + colName + " has type " + colType + ", but " + function
+                    + " requires a DOUBLE column");
+        }
+        aggregator.addAggregate(function, colName, outputName);
+    }
+
+    /**
+     * @return All aggregates (e.g., "count(*)") in an expression
+     */
+    private List<FunctionCall> getAggregates(final Node node) {
+        final List<FunctionCall> aggregates = new ArrayList<>();
+        if (node instanceof Expression && isAggregate((Expression) node)) {
+            aggregates.add((FunctionCall) node);
+        } else {
+            for (Node child : node.getChildren()) {
+                aggregates.addAll(getAggregates(child));
+            }
+        }
+        return aggregates;
+    }
+
     /**
      * Evaluate Select clause of SQL query, but only once all UDFs from the clause have been
      * removed. If the clause is 'SELECT *' the same DataFrame is returned unchanged. TODO: add
@@ -394,15 +1153,23 @@ class QueryEngine {
      */
 
     private DataFrame evaluateLimitClause(final DataFrame df, final Optional<String> limitStr) {
+        return df.limit(getLimit(limitStr));
+    }
+
+    /**
+     * @return The number of rows in the LIMIT clause, or -1 if there is no LIMIT clause or it is
+     * "LIMIT ALL"
+     */
+    private int getLimit(final Optional<String> limitStr) {
         if (limitStr.isPresent()) {
             try {
-                return df.limit(Integer.parseInt(limitStr.get()));
+                return Integer.parseInt(limitStr.get());
             } catch (NumberFormatException e) {
                 // LIMIT ALL, catch NumberFormatException and do nothing
-                return df;
+                return -1;
             }
         }
-        return df;
+        return -1;
     }
 
     /**
@@ -420,191 +1187,22 @@ class QueryEngine {
             return df;
         }
         final Expression whereClause = whereClauseOpt.get();
-        final BitSet mask = getMask(df, whereClause);
-        return df.filter(mask);
+        return profiled("Filter", df.getNumRows(), () -> df.filter(getMask(df, whereClause)));
     }
 
     // ********************* Helper methods for evaluating Where clauses **********************
 
     /**
-     * Recursive method that, given a Where clause, generates a boolean mask (a BitSet) applying the
-     * clause to a DataFrame
+     * Given a Where clause, generates a boolean mask (a BitSet) applying the clause to a
+     * DataFrame. The clause is first compiled into loops over the columns it references; see
+     * {@link CompiledPredicate}.
      *
-     * @throws MacroBaseSQLException Only comparison expressions (e.g., WHERE x = 42) and logical
-     * AND/OR/NOT combinations of such expressions are supported; exception is thrown otherwise.
+     * @throws MacroBaseSQLException Only comparison expressions (e.g., WHERE x = 42), IN lists,
+     * LIKE patterns, and logical AND/OR/NOT combinations of such expressions are supported;
+     * exception is thrown otherwise.
      */
     private BitSet getMask(DataFrame df, Expression whereClause) throws MacroBaseException {
-        if (whereClause instanceof NotExpression) {
-            final NotExpression notExpr = (NotExpression) whereClause;
-            final BitSet mask = getMask(df, notExpr.getValue());
-            mask.flip(0, df.getNumRows());
-            return mask;
-
-        } else if (whereClause instanceof LogicalBinaryExpression) {
-            final LogicalBinaryExpression binaryExpr = (LogicalBinaryExpression) whereClause;
-            final BitSet leftMask = getMask(df, binaryExpr.getLeft());
-            final BitSet rightMask = getMask(df, binaryExpr.getRight());
-            if (binaryExpr.getType() == Type.AND) {
-                leftMask.and(rightMask);
-                return leftMask;
-            } else {
-                // Type.OR
-                leftMask.or(rightMask);
-                return leftMask;
-            }
-
-        } else if (whereClause instanceof ComparisonExpression) {
-            // base case
-            final ComparisonExpression compareExpr = (ComparisonExpression) whereClause;
-            final Expression left = compareExpr.getLeft();
-            final Expression right = compareExpr.getRight();
-            final ComparisonExpressionType type = compareExpr.getType();
-
-            if (left instanceof Literal && right instanceof Literal) {
-                final boolean val = left.equals(right);
-                final BitSet mask = new BitSet(df.getNumRows());
-                mask.set(0, df.getNumRows(), val);
-                return mask;
-            } else if (left instanceof Literal && right instanceof Identifier) {
-                return maskForPredicate(df, (Literal) left, (Identifier) right, type);
-            } else if (right instanceof Literal && left instanceof Identifier) {
-                return maskForPredicate(df, (Literal) right, (Identifier) left, type);
-            } else if (left instanceof FunctionCall && right instanceof Literal) {
-                return maskForPredicate(df, (FunctionCall) left, (Literal) right, type);
-            } else if (right instanceof FunctionCall && left instanceof Literal) {
-                return maskForPredicate(df, (FunctionCall) right, (Literal) left, type);
-            }
-        }
-        throw new MacroBaseSQLException("Boolean expression not supported");
-    }
-
-    private BitSet maskForPredicate(DataFrame df, FunctionCall func, Literal val,
-        final ComparisonExpressionType type)
-        throws MacroBaseException {
-        final String funcName = func.getName().getSuffix();
-        final MBFunction mbFunction = MBFunction.getFunction(funcName,
-            func.getArguments().stream().map(Expression::toString).findFirst().get());
-        final double[] col = mbFunction.apply(df);
-        final DoublePredicate predicate = generateLambdaForPredicate(
-            ((DoubleLiteral) val).getValue(), type);
-        final BitSet mask = new BitSet(col.length);
-        for (int i = 0; i < col.length; ++i) {
-            if (predicate.test(col[i])) {
-                mask.set(i);
-            }
-        }
-        return mask;
-    }
-
-
-    /**
-     * The base case for {@link QueryEngine#getMask(DataFrame, Expression)}; returns a boolean mask
-     * (as a BitSet) for a single comparision expression (e.g., WHERE x = 42)
-     *
-     * @param df The DataFrame on which to evaluate the comparison expression
-     * @param literal The constant argument in the expression (e.g., 42)
-     * @param identifier The column variable argument in the expression (e.g., x)
-     * @param compExprType One of =, !=, >, >=, <, <=, or IS DISTINCT FROM
-     * @throws MacroBaseSQLException if the literal's type doesn't match the type of the column
-     * variable, an exception is thrown
-     */
-    private BitSet maskForPredicate(final DataFrame df, final Literal literal,
-        final Identifier identifier, final ComparisonExpressionType compExprType)
-        throws MacroBaseSQLException {
-        final String colName = identifier.getValue();
-        final int colIndex;
-        try {
-            colIndex = df.getSchema().getColumnIndex(colName);
-        } catch (UnsupportedOperationException e) {
-            throw new MacroBaseSQLException(e.getMessage());
-        }
-        final ColType colType = df.getSchema().getColumnType(colIndex);
-
-        if (colType == ColType.DOUBLE) {
-            if (!(literal instanceof DoubleLiteral)) {
-                throw new MacroBaseSQLException(
-                    "Column " + colName + " has type " + colType + ", but " + literal
-                        + " is not a DoubleLiteral");
-            }
-
-            return df.getMaskForFilter(colIndex,
-                generateLambdaForPredicate(((DoubleLiteral) literal).getValue(), compExprType));
-        } else {
-            // colType == ColType.STRING
-            if (literal instanceof StringLiteral) {
-                return df.getMaskForFilter(colIndex,
-                    generateLambdaForPredicate(((StringLiteral) literal).getValue(), compExprType));
-            } else if (literal instanceof NullLiteral) {
-                return df.getMaskForFilter(colIndex,
-                    generateLambdaForPredicate(null, compExprType));
-            } else {
-                throw new MacroBaseSQLException(
-                    "Column " + colName + " has type " + colType + ", but " + literal
-                        + " is not StringLiteral");
-            }
-        }
-    }
-
-    /**
-     * Return a Java Predicate expression for a given comparison type and constant value of type
-     * double. (See {@link QueryEngine#generateLambdaForPredicate(String, ComparisonExpressionType)}
-     * for handling a String argument.)
-     *
-     * @param y The constant value
-     * @param compareExprType One of =, !=, >, >=, <, <=, or IS DISTINCT FROM
-     * @return A {@link DoublePredicate}, that wraps the constant y in a closure
-     * @throws MacroBaseSQLException If a comparsion type is passed in that is not supported, an
-     * exception is thrown
-     */
-    private DoublePredicate generateLambdaForPredicate(double y,
-        ComparisonExpressionType compareExprType) throws MacroBaseSQLException {
-        switch (compareExprType) {
-            case EQUAL:
-                return (x) -> x == y;
-            case NOT_EQUAL:
-            case IS_DISTINCT_FROM:
-                // IS DISTINCT FROM is true when x and y have different values or
-                // if one of them is NULL and the other isn't.
-                // x and y can never be NULL here, so it's the same as NOT_EQUAL
-                return (x) -> x != y;
-            case LESS_THAN:
-                return (x) -> x < y;
-            case LESS_THAN_OR_EQUAL:
-                return (x) -> x <= y;
-            case GREATER_THAN:
-                return (x) -> x > y;
-            case GREATER_THAN_OR_EQUAL:
-                return (x) -> x >= y;
-            default:
-                throw new MacroBaseSQLException(compareExprType + " is not supported");
-        }
-    }
-
-    /**
-     * Return a Java Predicate expression for a given comparison type and constant value of type
-     * String. (See {@link QueryEngine#generateLambdaForPredicate(double, ComparisonExpressionType)}
-     * for handling a double argument.)
-     *
-     * @param y The constant value
-     * @param compareExprType One of =, !=, >, >=, <, <=, or IS DISTINCT FROM
-     * @return A {@link Predicate<Object>}, that wraps the constant y in a closure. A
-     * Predicate<String> is not returned for compatibility with {@link DataFrame#filter(int,
-     * Predicate)}.
-     * @throws MacroBaseSQLException If a comparsion type is passed in that is not supported, an
-     * exception is thrown
-     */
-    private Predicate<Object> generateLambdaForPredicate(final String y,
-        final ComparisonExpressionType compareExprType) throws MacroBaseSQLException {
-        switch (compareExprType) {
-            case EQUAL:
-                return (x) -> Objects.equals(x, y);
-            case NOT_EQUAL:
-            case IS_DISTINCT_FROM:
-                // IS DISTINCT FROM is true when x and y have different values or
-                // if one of them is NULL and the other isn't
-                return (x) -> !Objects.equals(x, y);
-            default:
-                throw new MacroBaseSQLException(compareExprType + " is not supported");
-        }
+        return CompiledPredicate.compile(df, whereClause)
+            .getMask(df.getNumRows(), getExecutor());
     }
 }
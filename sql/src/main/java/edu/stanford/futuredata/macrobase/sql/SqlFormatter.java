@@ -109,6 +109,18 @@ final class SqlFormatter {
                     .append('\n');
             }
 
+            if (node.getGroupBy().isPresent()) {
+                append(indent, "GROUP BY " + node.getGroupBy().get().getGroupingColumns().stream()
+                    .map(e -> formatExpression(e, parameters))
+                    .collect(joining(", ")))
+                    .append('\n');
+            }
+
+            if (node.getHaving().isPresent()) {
+                append(indent, "HAVING " + formatExpression(node.getHaving().get(), parameters))
+                    .append('\n');
+            }
+
             if (node.getOrderBy().isPresent()) {
                 process(node.getOrderBy().get(), indent);
             }
@@ -40,19 +40,27 @@ import edu.stanford.futuredata.macrobase.sql.tree.DiffQuerySpecification;
 import edu.stanford.futuredata.macrobase.sql.tree.DoubleLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.ExistsPredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.ExportClause;
+import edu.stanford.futuredata.macrobase.sql.tree.ExplainAnalyze;
 import edu.stanford.futuredata.macrobase.sql.tree.Expression;
 import edu.stanford.futuredata.macrobase.sql.tree.FunctionCall;
 import edu.stanford.futuredata.macrobase.sql.tree.GenericLiteral;
+import edu.stanford.futuredata.macrobase.sql.tree.GroupBy;
 import edu.stanford.futuredata.macrobase.sql.tree.Identifier;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
+import edu.stanford.futuredata.macrobase.sql.tree.InListExpression;
+import edu.stanford.futuredata.macrobase.sql.tree.InPredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.IntLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.IsNotNullPredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.IsNullPredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.Join;
+import edu.stanford.futuredata.macrobase.sql.tree.JoinCriteria;
+import edu.stanford.futuredata.macrobase.sql.tree.JoinOn;
+import edu.stanford.futuredata.macrobase.sql.tree.JoinUsing;
 import edu.stanford.futuredata.macrobase.sql.tree.LikePredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.LogicalBinaryExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.MinRatioExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.MinSupportExpression;
+import edu.stanford.futuredata.macrobase.sql.tree.NaturalJoin;
 import edu.stanford.futuredata.macrobase.sql.tree.Node;
 import edu.stanford.futuredata.macrobase.sql.tree.NodeLocation;
 import edu.stanford.futuredata.macrobase.sql.tree.NotExpression;
@@ -67,8 +75,10 @@ import edu.stanford.futuredata.macrobase.sql.tree.RatioMetricExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.Relation;
 import edu.stanford.futuredata.macrobase.sql.tree.Select;
 import edu.stanford.futuredata.macrobase.sql.tree.SelectItem;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
 import edu.stanford.futuredata.macrobase.sql.tree.SingleColumn;
 import edu.stanford.futuredata.macrobase.sql.tree.SortItem;
+import edu.stanford.futuredata.macrobase.sql.tree.Statement;
 import edu.stanford.futuredata.macrobase.sql.tree.SplitQuery;
 import edu.stanford.futuredata.macrobase.sql.tree.StringLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.SubqueryExpression;
@@ -130,6 +140,8 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
                     query.getSelect(),
                     query.getFrom(),
                     query.getWhere(),
+                    query.getGroupBy(),
+                    query.getHaving(),
                     query.getOrderBy(),
                     query.getLimit(),
                     query.getExportExpr()));
@@ -149,6 +161,7 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
                     Optional.of(diffQuery.getMinSupportExpression()),
                     Optional.of(diffQuery.getRatioMetricExpr()),
                     Optional.of(diffQuery.getMaxCombo()),
+                    diffQuery.getSampleRate(),
                     diffQuery.getWhere(),
                     diffQuery.getOrderBy(),
                     diffQuery.getLimit(),
@@ -177,6 +190,21 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
         );
     }
 
+    @Override
+    public Node visitSetSession(SqlBaseParser.SetSessionContext context) {
+        return new SetSession(getLocation(context), getQualifiedName(context.qualifiedName()),
+            (Expression) visit(context.expression()));
+    }
+
+    // New
+    // Profiling a statement
+    @Override
+    public Node visitExplainAnalyze(SqlBaseParser.ExplainAnalyzeContext context) {
+        final Statement statement = (Statement) visit(context.statement());
+        check(!(statement instanceof ExplainAnalyze), "EXPLAIN ANALYZE cannot be nested", context);
+        return new ExplainAnalyze(getLocation(context), statement);
+    }
+
     // New
     // Exporting queries to CSVs
     @Override
@@ -284,6 +312,8 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
         check(attributeCols.size() > 0, "At least one attribute must be specified", context);
 
         Optional<IntLiteral> maxCombo = getTextIfPresent(context.maxCombo).map(IntLiteral::new);
+        Optional<DecimalLiteral> sampleRate = getTextIfPresent(context.sampleRate)
+            .map(DecimalLiteral::new);
 
         Optional<OrderBy> orderBy = Optional.empty();
         if (context.ORDER() != null) {
@@ -307,6 +337,7 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
             minSupportExpr,
             ratioMetricExpr,
             maxCombo,
+            sampleRate,
             visitIfPresent(context.where, Expression.class),
             orderBy,
             getTextIfPresent(context.limit),
@@ -347,10 +378,17 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
 
         return new QuerySpecification(getLocation(context),
             new Select(getLocation(context.SELECT()), isDistinct(context.setQuantifier()),
-                selectItems), from, visitIfPresent(context.where, Expression.class), orderBy,
+                selectItems), from, visitIfPresent(context.where, Expression.class),
+            visitIfPresent(context.groupBy(), GroupBy.class),
+            visitIfPresent(context.having, Expression.class), orderBy,
             getTextIfPresent(context.limit), exportExpr);
     }
 
+    @Override
+    public Node visitGroupBy(SqlBaseParser.GroupByContext context) {
+        return new GroupBy(getLocation(context), visit(context.expression(), Expression.class));
+    }
+
     @Override
     public Node visitSelectAll(SqlBaseParser.SelectAllContext context) {
         if (context.qualifiedName() != null) {
@@ -397,6 +435,45 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
 
     // *************** from clause *****************
 
+    @Override
+    public Node visitJoinRelation(SqlBaseParser.JoinRelationContext context) {
+        Relation left = (Relation) visit(context.left);
+        Relation right;
+
+        if (context.CROSS() != null) {
+            right = (Relation) visit(context.right);
+            return new Join(getLocation(context), Join.Type.CROSS, left, right, Optional.empty());
+        }
+
+        JoinCriteria criteria;
+        if (context.NATURAL() != null) {
+            right = (Relation) visit(context.right);
+            criteria = new NaturalJoin();
+        } else {
+            right = (Relation) visit(context.rightRelation);
+            if (context.joinCriteria().ON() != null) {
+                criteria = new JoinOn((Expression) visit(context.joinCriteria().booleanExpression()));
+            } else if (context.joinCriteria().USING() != null) {
+                criteria = new JoinUsing(visit(context.joinCriteria().identifier(), Identifier.class));
+            } else {
+                throw new IllegalArgumentException("Unsupported join criteria");
+            }
+        }
+
+        Join.Type joinType;
+        if (context.joinType().LEFT() != null) {
+            joinType = Join.Type.LEFT;
+        } else if (context.joinType().RIGHT() != null) {
+            joinType = Join.Type.RIGHT;
+        } else if (context.joinType().FULL() != null) {
+            joinType = Join.Type.FULL;
+        } else {
+            joinType = Join.Type.INNER;
+        }
+
+        return new Join(getLocation(context), joinType, left, right, Optional.of(criteria));
+    }
+
     @Override
     public Node visitAliasedRelation(SqlBaseParser.AliasedRelationContext context) {
         Relation child = (Relation) visit(context.relationPrimary());
@@ -476,6 +553,20 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
         return new IsNotNullPredicate(getLocation(context), child);
     }
 
+    @Override
+    public Node visitInList(SqlBaseParser.InListContext context) {
+        Expression result = new InPredicate(
+            getLocation(context),
+            (Expression) visit(context.value),
+            new InListExpression(getLocation(context), visit(context.expression(), Expression.class)));
+
+        if (context.NOT() != null) {
+            result = new NotExpression(getLocation(context), result);
+        }
+
+        return result;
+    }
+
     @Override
     public Node visitLike(SqlBaseParser.LikeContext context) {
         Expression escape = null;
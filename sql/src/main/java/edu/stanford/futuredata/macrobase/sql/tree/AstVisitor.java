@@ -90,6 +90,10 @@ public abstract class AstVisitor<R, C> {
         return visitNode(node, context);
     }
 
+    protected R visitGroupBy(GroupBy node, C context) {
+        return visitNode(node, context);
+    }
+
     protected R visitQuerySpecification(QuerySpecification node, C context) {
         return visitQueryBody(node, context);
     }
@@ -122,6 +126,10 @@ public abstract class AstVisitor<R, C> {
         return visitLiteral(node, context);
     }
 
+    protected R visitInPredicate(InPredicate node, C context) {
+        return visitExpression(node, context);
+    }
+
     protected R visitInListExpression(InListExpression node, C context) {
         return visitExpression(node, context);
     }
@@ -222,4 +230,12 @@ public abstract class AstVisitor<R, C> {
     public R visitImportCsv(ImportCsv node, C context) {
         return visitStatement(node, context);
     }
+
+    public R visitSetSession(SetSession node, C context) {
+        return visitStatement(node, context);
+    }
+
+    public R visitExplainAnalyze(ExplainAnalyze node, C context) {
+        return visitStatement(node, context);
+    }
 }
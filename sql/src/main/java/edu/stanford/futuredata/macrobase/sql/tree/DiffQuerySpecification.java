@@ -23,6 +23,7 @@ public class DiffQuerySpecification extends QueryBody {
     private final RatioMetricExpression ratioMetricExpr;
     private final IntLiteral maxCombo;
     // Optional
+    private final Optional<DecimalLiteral> sampleRate;
     private final Optional<Expression> where;
     private final Optional<OrderBy> orderBy;
     private final Optional<String> limit;
@@ -47,12 +48,13 @@ public class DiffQuerySpecification extends QueryBody {
         Optional<MinSupportExpression> minSupportExpr,
         Optional<RatioMetricExpression> ratioMetricExpr,
         Optional<IntLiteral> maxCombo,
+        Optional<DecimalLiteral> sampleRate,
         Optional<Expression> where,
         Optional<OrderBy> orderBy,
         Optional<String> limit,
         Optional<ExportClause> exportExpr) {
         this(Optional.empty(), select, first, second, splitQuery, attributeCols, minRatioExpr,
-            minSupportExpr, ratioMetricExpr, maxCombo, where, orderBy, limit, exportExpr);
+            minSupportExpr, ratioMetricExpr, maxCombo, sampleRate, where, orderBy, limit, exportExpr);
     }
 
     public DiffQuerySpecification(
@@ -66,12 +68,13 @@ public class DiffQuerySpecification extends QueryBody {
         Optional<MinSupportExpression> minSupportExpr,
         Optional<RatioMetricExpression> ratioMetricExpr,
         Optional<IntLiteral> maxCombo,
+        Optional<DecimalLiteral> sampleRate,
         Optional<Expression> where,
         Optional<OrderBy> orderBy,
         Optional<String> limit,
         Optional<ExportClause> exportExpr) {
         this(Optional.of(location), select, first, second, splitQuery, attributeCols, minRatioExpr,
-            minSupportExpr, ratioMetricExpr, maxCombo, where, orderBy, limit, exportExpr);
+            minSupportExpr, ratioMetricExpr, maxCombo, sampleRate, where, orderBy, limit, exportExpr);
     }
 
     private DiffQuerySpecification(
@@ -85,6 +88,7 @@ public class DiffQuerySpecification extends QueryBody {
         Optional<MinSupportExpression> minSupportExpr,
         Optional<RatioMetricExpression> ratioMetricExpr,
         Optional<IntLiteral> maxCombo,
+        Optional<DecimalLiteral> sampleRate,
         Optional<Expression> where,
         Optional<OrderBy> orderBy,
         Optional<String> limit,
@@ -99,6 +103,7 @@ public class DiffQuerySpecification extends QueryBody {
         requireNonNull(minSupportExpr, "minSupportExpr is null");
         requireNonNull(ratioMetricExpr, "ratioMetricExpr is null");
         requireNonNull(maxCombo, "maxCombo is null");
+        requireNonNull(sampleRate, "sampleRate is null");
         requireNonNull(where, "where is null");
         requireNonNull(orderBy, "orderBy is null");
         requireNonNull(limit, "limit is null");
@@ -113,6 +118,7 @@ public class DiffQuerySpecification extends QueryBody {
         this.minSupportExpr = minSupportExpr.orElse(DEFAULT_MIN_SUPPORT_EXPRESSION);
         this.ratioMetricExpr = ratioMetricExpr.orElse(DEFAULT_RATIO_METRIC_EXPRESSION);
         this.maxCombo = maxCombo.orElse(DEFAULT_MAX_COMBO);
+        this.sampleRate = sampleRate;
         this.where = where;
         this.orderBy = orderBy;
         this.limit = limit;
@@ -159,6 +165,14 @@ public class DiffQuerySpecification extends QueryBody {
         return maxCombo;
     }
 
+    /**
+     * @return The fraction of the inliers to sample for an approximate DIFF, if the query has
+     * an APPROXIMATE SAMPLE clause
+     */
+    public Optional<DecimalLiteral> getSampleRate() {
+        return sampleRate;
+    }
+
     public Optional<Expression> getWhere() {
         return where;
     }
@@ -191,6 +205,7 @@ public class DiffQuerySpecification extends QueryBody {
         nodes.add(minSupportExpr);
         nodes.add(ratioMetricExpr);
         nodes.add(new IntLiteral("" + maxCombo));
+        sampleRate.ifPresent(nodes::add);
         where.ifPresent(nodes::add);
         orderBy.ifPresent(nodes::add);
         limit.ifPresent((str) -> nodes.add(new StringLiteral(str)));
@@ -209,6 +224,7 @@ public class DiffQuerySpecification extends QueryBody {
             .add("minSupportExpr", minSupportExpr)
             .add("ratioMetricExpr", ratioMetricExpr)
             .add("maxCombo", maxCombo)
+            .add("sampleRate", sampleRate.orElse(null))
             .add("where", where.orElse(null))
             .add("orderBy", orderBy)
             .add("limit", limit.orElse(null))
@@ -233,6 +249,7 @@ public class DiffQuerySpecification extends QueryBody {
             Objects.equals(minSupportExpr, o.minSupportExpr) &&
             Objects.equals(ratioMetricExpr, o.ratioMetricExpr) &&
             Objects.equals(maxCombo, o.maxCombo) &&
+            Objects.equals(sampleRate, o.sampleRate) &&
             Objects.equals(where, o.where) &&
             Objects.equals(orderBy, o.orderBy) &&
             Objects.equals(limit, o.limit) &&
@@ -244,7 +261,7 @@ public class DiffQuerySpecification extends QueryBody {
         return Objects
             .hash(select, first, second, attributeCols, minRatioExpr, minSupportExpr,
                 ratioMetricExpr,
-                maxCombo, where, orderBy,
+                maxCombo, sampleRate, where, orderBy,
                 limit, exportExpr);
     }
 }
@@ -0,0 +1,65 @@
+package edu.stanford.futuredata.macrobase.sql.tree;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+public class ExplainAnalyze extends Statement {
+
+    private final Statement statement;
+
+    public ExplainAnalyze(Statement statement) {
+        this(Optional.empty(), statement);
+    }
+
+    public ExplainAnalyze(NodeLocation location, Statement statement) {
+        this(Optional.of(location), statement);
+    }
+
+    private ExplainAnalyze(Optional<NodeLocation> location, Statement statement) {
+        super(location);
+        this.statement = requireNonNull(statement, "statement is null");
+    }
+
+    public Statement getStatement() {
+        return statement;
+    }
+
+    @Override
+    public <R, C> R accept(AstVisitor<R, C> visitor, C context) {
+        return visitor.visitExplainAnalyze(this, context);
+    }
+
+    @Override
+    public List<Node> getChildren() {
+        return ImmutableList.of(statement);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(statement);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+        ExplainAnalyze o = (ExplainAnalyze) obj;
+        return Objects.equals(statement, o.statement);
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+            .add("statement", statement)
+            .toString();
+    }
+}
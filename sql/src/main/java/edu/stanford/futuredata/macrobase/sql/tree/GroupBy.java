@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.stanford.futuredata.macrobase.sql.tree;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+public class GroupBy extends Node {
+
+    private final List<Expression> groupingColumns;
+
+    public GroupBy(List<Expression> groupingColumns) {
+        this(Optional.empty(), groupingColumns);
+    }
+
+    public GroupBy(NodeLocation location, List<Expression> groupingColumns) {
+        this(Optional.of(location), groupingColumns);
+    }
+
+    private GroupBy(Optional<NodeLocation> location, List<Expression> groupingColumns) {
+        super(location);
+        requireNonNull(groupingColumns, "groupingColumns is null");
+        checkArgument(!groupingColumns.isEmpty(), "groupingColumns should not be empty");
+        this.groupingColumns = ImmutableList.copyOf(groupingColumns);
+    }
+
+    public List<Expression> getGroupingColumns() {
+        return groupingColumns;
+    }
+
+    @Override
+    public <R, C> R accept(AstVisitor<R, C> visitor, C context) {
+        return visitor.visitGroupBy(this, context);
+    }
+
+    @Override
+    public List<? extends Node> getChildren() {
+        return groupingColumns;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+            .add("groupingColumns", groupingColumns)
+            .toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+        GroupBy o = (GroupBy) obj;
+        return Objects.equals(groupingColumns, o.groupingColumns);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(groupingColumns);
+    }
+}
@@ -0,0 +1,42 @@
+package edu.stanford.futuredata.macrobase.sql;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.DictionaryColumn;
+import edu.stanford.futuredata.macrobase.sql.parser.SqlParser;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class CompiledPredicateTest {
+
+    @Test
+    public void testParallelMask() throws Exception {
+        // Enough rows to be split into several ranges, not a multiple of 64
+        final int n = 100003;
+        final Random random = new Random(0);
+        final double[] usage = new double[n];
+        final String[] locations = new String[n];
+        final String[] locationValues = {"CAN", "USA", "UK"};
+        for (int i = 0; i < n; i++) {
+            usage[i] = random.nextInt(1000);
+            locations[i] = locationValues[random.nextInt(locationValues.length)];
+        }
+        final DataFrame df = new DataFrame();
+        df.addColumn("usage", usage);
+        df.addColumn("location", DictionaryColumn.encode(locations));
+
+        final CompiledPredicate predicate = CompiledPredicate.compile(df, new SqlParser()
+            .createExpression("usage < 100.0 OR (location = 'USA' AND NOT usage >= 500.0)"));
+        final BitSet expected = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            if (usage[i] < 100.0 || (locations[i].equals("USA") && usage[i] < 500.0)) {
+                expected.set(i);
+            }
+        }
+        assertEquals(expected, predicate.getMask(n, new ForkJoinPool(4)));
+        assertEquals(expected, predicate.getMask(n, new ForkJoinPool(1)));
+    }
+}
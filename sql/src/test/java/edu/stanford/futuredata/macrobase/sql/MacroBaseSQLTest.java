@@ -1,36 +1,50 @@
 package edu.stanford.futuredata.macrobase.sql;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Resources;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
 import edu.stanford.futuredata.macrobase.datamodel.Schema.ColType;
 import edu.stanford.futuredata.macrobase.ingest.CSVDataFrameParser;
+import edu.stanford.futuredata.macrobase.ingest.ColumnarDataFrameWriter;
 import edu.stanford.futuredata.macrobase.sql.parser.ParsingException;
 import edu.stanford.futuredata.macrobase.sql.parser.SqlParser;
+import edu.stanford.futuredata.macrobase.sql.tree.ExplainAnalyze;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
 import edu.stanford.futuredata.macrobase.sql.tree.Query;
 import edu.stanford.futuredata.macrobase.sql.tree.QueryBody;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
 import edu.stanford.futuredata.macrobase.sql.tree.Statement;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 import edu.stanford.futuredata.macrobase.util.MacroBaseSQLException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class MacroBaseSQLTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private SqlParser parser;
     private QueryEngine queryEngine;
     private DataFrame input;
 
     private final Map<String, ColType> GLOBAL_RATIO_SCHEMA = ImmutableMap.<String, ColType>builder()
-        .put("location", ColType.STRING)
-        .put("version", ColType.STRING)
+        .put("location", ColType.DICTIONARY)
+        .put("version", ColType.DICTIONARY)
         .put("support", ColType.DOUBLE)
         .put("global_ratio", ColType.DOUBLE)
         .put("outlier_count", ColType.DOUBLE)
@@ -38,8 +52,8 @@ public class MacroBaseSQLTest {
         .build();
 
     private final Map<String, ColType> RISK_RATIO_SCHEMA = ImmutableMap.<String, ColType>builder()
-        .put("location", ColType.STRING)
-        .put("version", ColType.STRING)
+        .put("location", ColType.DICTIONARY)
+        .put("version", ColType.DICTIONARY)
         .put("support", ColType.DOUBLE)
         .put("risk_ratio", ColType.DOUBLE)
         .put("outlier_count", ColType.DOUBLE)
@@ -48,10 +62,7 @@ public class MacroBaseSQLTest {
 
     @Before
     public void setUp() throws Exception {
-        input = new CSVDataFrameParser("../core/demo/sample.csv",
-            Arrays.asList("usage", "latency", "location", "version"))
-            .setColumnTypes(ImmutableMap.of("usage", ColType.DOUBLE, "latency", ColType.DOUBLE))
-            .load();
+        input = loadInput(ColType.DICTIONARY);
         queryEngine = new QueryEngine();
         parser = new SqlParser();
 
@@ -71,7 +82,7 @@ public class MacroBaseSQLTest {
         final ImportCsv importStatement = (ImportCsv) stmt;
         try {
             final DataFrame df = queryEngine.importTableFromCsv(importStatement);
-            assertTrue(df.equals(input));
+            assertSameValues(input, df);
         } catch (MacroBaseSQLException e) {
             e.printStackTrace();
             throw new Error("import.sql should not throw an exception");
@@ -159,8 +170,8 @@ public class MacroBaseSQLTest {
     @Test
     public void query16() throws Exception {
         runQueryFromFile("16.sql", loadDataFrameFromCSV("16.csv", ImmutableMap
-            .of("usage", ColType.DOUBLE, "latency", ColType.DOUBLE, "location", ColType.STRING,
-                "version", ColType.STRING, "pct", ColType.DOUBLE)));
+            .of("usage", ColType.DOUBLE, "latency", ColType.DOUBLE, "location", ColType.DICTIONARY,
+                "version", ColType.DICTIONARY, "pct", ColType.DOUBLE)));
     }
 
     @Test
@@ -172,8 +183,8 @@ public class MacroBaseSQLTest {
     @Test
     public void query18() throws Exception {
         runQueryFromFile("18.sql", loadDataFrameFromCSV("18.csv", ImmutableMap
-            .of("usage", ColType.DOUBLE, "latency", ColType.DOUBLE, "location", ColType.STRING,
-                "version", ColType.STRING, "pct", ColType.DOUBLE)));
+            .of("usage", ColType.DOUBLE, "latency", ColType.DOUBLE, "location", ColType.DICTIONARY,
+                "version", ColType.DICTIONARY, "pct", ColType.DOUBLE)));
     }
 
     @Test
@@ -188,6 +199,197 @@ public class MacroBaseSQLTest {
             loadDataFrameFromCSV("20.csv", ImmutableMap.of("usage", ColType.DOUBLE)));
     }
 
+    @Test
+    public void query21() throws Exception {
+        runQueryFromFile("21.sql", loadDataFrameFromCSV("21.csv", ImmutableMap
+            .of("usage", ColType.DOUBLE, "latency", ColType.DOUBLE, "location", ColType.DICTIONARY,
+                "version", ColType.DICTIONARY)));
+    }
+
+    @Test
+    public void query22() throws Exception {
+        runQueryFromFile("22.sql", loadDataFrameFromCSV("22.csv", ImmutableMap
+            .of("location", ColType.DICTIONARY, "version", ColType.DICTIONARY, "cnt", ColType.DOUBLE,
+                "avg(usage)", ColType.DOUBLE, "max(latency)", ColType.DOUBLE)));
+    }
+
+    @Test
+    public void query23() throws Exception {
+        runQueryFromFile("23.sql", loadDataFrameFromCSV("23.csv", ImmutableMap
+            .of("usage", ColType.DOUBLE, "latency", ColType.DOUBLE, "location", ColType.DICTIONARY,
+                "version", ColType.DICTIONARY, "avg_latency", ColType.DOUBLE)));
+    }
+
+    @Test
+    public void testDiffCache() throws Exception {
+        // Queries 2, 4, 5 and 6 only differ in their ratios and MAX COMBO, query 4 also in its
+        // minimum support
+        query2();
+        assertEquals(1, queryEngine.getDiffCache().size());
+        query5();
+        query6();
+        assertEquals(1, queryEngine.getDiffCache().size());
+        query4();
+        assertEquals(2, queryEngine.getDiffCache().size());
+
+        // Re-importing the table drops everything computed from it
+        queryEngine.importTableFromCsv((ImportCsv) parser.createStatement(Resources
+            .toString(Resources.getResource("import.sql"), Charsets.UTF_8).replace(";", "")));
+        assertEquals(0, queryEngine.getDiffCache().size());
+        assertEquals(0, queryEngine.getDiffCache().getTotalBytes());
+        query6();
+        assertEquals(1, queryEngine.getDiffCache().size());
+    }
+
+    @Test
+    public void testSetThreads() throws Exception {
+        queryEngine.setSessionProperty((SetSession) parser.createStatement("SET threads = 3"));
+        assertEquals(3, queryEngine.getNumThreads());
+        queryEngine.setSessionProperty((SetSession) parser.createStatement("SET SESSION threads = 1"));
+        assertEquals(1, queryEngine.getNumThreads());
+        query6();
+        query15();
+        query22();
+    }
+
+    @Test(expected = MacroBaseSQLException.class)
+    public void testSetThreadsInvalid() throws Exception {
+        queryEngine.setSessionProperty((SetSession) parser.createStatement("SET threads = 0"));
+    }
+
+    @Test
+    public void testChunkedImport() throws Exception {
+        queryEngine.setSessionProperty((SetSession) parser.createStatement("SET chunk_rows = 100"));
+        queryEngine.setSessionProperty((SetSession) parser.createStatement(
+            "SET spill_directory = '" + folder.getRoot().getPath() + "'"));
+        final DataFrame firstChunk = queryEngine.importTableFromCsv((ImportCsv) parser
+            .createStatement(Resources.toString(Resources.getResource("import.sql"),
+                Charsets.UTF_8).replace(";", "")));
+        assertEquals(100, firstChunk.getNumRows());
+        assertTrue(folder.getRoot().listFiles().length > 1);
+
+        // Queries over the spilled chunks return the same results as over the whole table
+        testAllQueries();
+    }
+
+    @Test
+    public void testColumnarImport() throws Exception {
+        final String filename = folder.getRoot().getPath() + "/sample.mbc";
+        new ColumnarDataFrameWriter().writeToFile(loadInput(ColType.STRING), filename);
+        final DataFrame df = queryEngine.importTableFromCsv((ImportCsv) parser.createStatement(
+            "IMPORT FROM CSV FILE 'columnar://" + filename + "' INTO sample(usage double, "
+                + "latency double, location string, version string)"));
+        assertEquals(ColType.DICTIONARY, df.getSchema().getColumnTypeByName("location"));
+        assertSameValues(input, df);
+        testAllQueries();
+
+        // Without a schema, every column is imported as written
+        final DataFrame all = queryEngine.importTableFromCsv((ImportCsv) parser.createStatement(
+            "IMPORT FROM CSV FILE 'columnar://" + filename + "' INTO sample"));
+        assertEquals(ColType.STRING, all.getSchema().getColumnTypeByName("location"));
+        assertSameValues(loadInput(ColType.STRING), all);
+    }
+
+    @Test(expected = MacroBaseSQLException.class)
+    public void testSpillDirectoryInvalid() throws Exception {
+        queryEngine.setSessionProperty((SetSession) parser.createStatement(
+            "SET spill_directory = '" + folder.getRoot().getPath() + "/missing'"));
+    }
+
+    @Test
+    public void testDictionaryStrings() throws Exception {
+        final ImportCsv importStatement = (ImportCsv) parser.createStatement(Resources.toString(
+            Resources.getResource("import.sql"), Charsets.UTF_8).replace(";", ""));
+        final DataFrame encoded = queryEngine.importTableFromCsv(importStatement);
+        assertEquals(ColType.DICTIONARY, encoded.getSchema().getColumnTypeByName("location"));
+        assertEquals(ColType.DICTIONARY, encoded.getSchema().getColumnTypeByName("version"));
+        assertEquals(ColType.DOUBLE, encoded.getSchema().getColumnTypeByName("usage"));
+
+        queryEngine.setSessionProperty(
+            (SetSession) parser.createStatement("SET dictionary_strings = false"));
+        final DataFrame plain = queryEngine.importTableFromCsv(importStatement);
+        assertSameValues(loadInput(ColType.STRING), plain);
+        final Map<String, ColType> plainSchema = new HashMap<>(GLOBAL_RATIO_SCHEMA);
+        plainSchema.put("location", ColType.STRING);
+        plainSchema.put("version", ColType.STRING);
+        runQueryFromFile("2.sql", loadDataFrameFromCSV("2.csv", plainSchema));
+    }
+
+    @Test(expected = MacroBaseSQLException.class)
+    public void testDictionaryStringsInvalid() throws Exception {
+        queryEngine.setSessionProperty(
+            (SetSession) parser.createStatement("SET dictionary_strings = 1"));
+    }
+
+    @Test
+    public void testApproximateDiff() throws Exception {
+        final String query = "SELECT * FROM DIFF (SPLIT sample WHERE usage > 1000.0) "
+            + "ON location, version APPROXIMATE SAMPLE ";
+        // Sampling every inlier gives the exact results
+        final DataFrame exact = queryEngine.executeQuery(((Query) parser.createStatement(
+            query + "1.0")).getQueryBody());
+        assertSameValues(loadDataFrameFromCSV("2.csv", GLOBAL_RATIO_SCHEMA), exact);
+
+        final DataFrame approximate = queryEngine.executeQuery(((Query) parser.createStatement(
+            query + "0.5")).getQueryBody());
+        assertTrue(approximate.getNumRows() > 0);
+        final double[] riskRatioLow = approximate.getDoubleColumnByName("risk_ratio_low");
+        final double[] riskRatioHigh = approximate.getDoubleColumnByName("risk_ratio_high");
+        for (int i = 0; i < approximate.getNumRows(); i++) {
+            assertTrue(riskRatioLow[i] <= riskRatioHigh[i]);
+        }
+        assertEquals(0, queryEngine.getDiffCache().size());
+    }
+
+    @Test(expected = MacroBaseSQLException.class)
+    public void testApproximateDiffInvalid() throws Exception {
+        queryEngine.executeQuery(((Query) parser.createStatement(
+            "SELECT * FROM DIFF (SPLIT sample WHERE usage > 1000.0) "
+                + "ON location, version APPROXIMATE SAMPLE 1.5")).getQueryBody());
+    }
+
+    @Test
+    public void testMultiArgUDFs() throws Exception {
+        final DataFrame result = queryEngine.executeQuery(((Query) parser.createStatement(
+            "SELECT divide(usage, latency) AS r, indicator(location, 'CAN') AS can FROM sample"))
+            .getQueryBody());
+        final double[] usage = input.getDoubleColumnByName("usage");
+        final double[] latency = input.getDoubleColumnByName("latency");
+        final String[] location = input.getStringColumnByName("location");
+        assertEquals(input.getNumRows(), result.getNumRows());
+        for (int i = 0; i < input.getNumRows(); i++) {
+            assertEquals(usage[i] / latency[i], result.getDoubleColumnByName("r")[i], 0.0);
+            assertEquals(location[i].equals("CAN") ? 1.0 : 0.0,
+                result.getDoubleColumnByName("can")[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testExplainAnalyze() throws Exception {
+        final DataFrame profile = queryEngine.explainAnalyze((ExplainAnalyze) parser.createStatement(
+            "EXPLAIN ANALYZE SELECT * FROM DIFF (SPLIT sample WHERE usage > 1000.0) "
+                + "ON location, version"));
+        final List<String> operators = new ArrayList<>();
+        for (String operator : profile.getStringColumnByName("operator")) {
+            operators.add(operator.trim());
+        }
+        assertEquals("Query", operators.get(0));
+        assertTrue(operators.containsAll(
+            Arrays.asList("Diff", "Scan sample", "Split", "Encode", "Order 1")));
+        final int scan = operators.indexOf("Scan sample");
+        assertEquals(input.getNumRows(), profile.getDoubleColumnByName("rows_out")[scan], 0.0);
+        assertTrue(profile.getDoubleColumnByName("wall_ms")[0] >= 0.0);
+        final int order1 = operators.indexOf("Order 1");
+        assertTrue(profile.getDoubleColumnByName("candidates")[order1] > 0);
+        assertTrue(profile.getDoubleColumnByName("pruned")[order1] >= 0);
+    }
+
+    @Test(expected = MacroBaseSQLException.class)
+    public void testExplainAnalyzeUnsupported() throws Exception {
+        queryEngine.explainAnalyze(
+            (ExplainAnalyze) parser.createStatement("EXPLAIN ANALYZE SET threads = 2"));
+    }
+
     @Test
     public void testAllQueries() throws Exception {
         query1();
@@ -210,6 +412,39 @@ public class MacroBaseSQLTest {
         query18();
         query19();
         query20();
+        query21();
+        query22();
+        query23();
+    }
+
+    /**
+     * Assert that two DataFrames have the same columns, of the same types, and values
+     */
+    private static void assertSameValues(final DataFrame expected, final DataFrame actual) {
+        final Schema schema = expected.getSchema();
+        assertEquals(schema.getColumnNames(), actual.getSchema().getColumnNames());
+        assertEquals(expected.getNumRows(), actual.getNumRows());
+        for (int c = 0; c < schema.getNumColumns(); c++) {
+            final String name = schema.getColumnName(c);
+            final ColType type = schema.getColumnType(c);
+            assertEquals(name, type, actual.getSchema().getColumnType(c));
+            if (type == ColType.DOUBLE) {
+                assertArrayEquals(name, expected.getDoubleColumn(c), actual.getDoubleColumn(c), 0.0);
+            } else {
+                assertArrayEquals(name, expected.getStringColumn(c), actual.getStringColumn(c));
+            }
+        }
+    }
+
+    /**
+     * @param stringType Type to load the string columns of the sample as
+     */
+    private static DataFrame loadInput(final ColType stringType) throws Exception {
+        return new CSVDataFrameParser("../core/demo/sample.csv",
+            Arrays.asList("usage", "latency", "location", "version"))
+            .setColumnTypes(ImmutableMap.of("usage", ColType.DOUBLE, "latency", ColType.DOUBLE,
+                "location", stringType, "version", stringType))
+            .load();
     }
 
     private DataFrame loadDataFrameFromCSV(final String csvFilename,
@@ -233,7 +468,7 @@ public class MacroBaseSQLTest {
         final QueryBody q = ((Query) stmt).getQueryBody();
         try {
             final DataFrame result = queryEngine.executeQuery(q);
-            assertTrue(expected.equals(result));
+            assertSameValues(expected, result);
         } catch (MacroBaseException e) {
             e.printStackTrace();
             throw new Error(queryFilename + " should not throw an exception");
@@ -0,0 +1 @@
+SELECT * FROM sample WHERE location IN ('CAN', 'USA') AND version LIKE 'v_' AND NOT (usage < 30.0 OR 500 >= latency) INTO OUTFILE '21.csv';
@@ -0,0 +1,3 @@
+SELECT location, version, count(*) AS cnt, avg(usage), max(latency) FROM sample
+    WHERE usage > 30.0 GROUP BY location, version HAVING count(*) > 40
+    ORDER BY location, version INTO OUTFILE '22.csv';
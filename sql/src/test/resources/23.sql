@@ -0,0 +1,4 @@
+SELECT usage, latency, location, version, avg_latency FROM sample
+    JOIN (SELECT location, version, avg(latency) AS avg_latency FROM sample
+        GROUP BY location, version HAVING count(*) > 60) AS stats USING (location, version)
+    WHERE usage > 40.0 INTO OUTFILE '23.csv';